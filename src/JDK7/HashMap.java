@@ -83,9 +83,31 @@ public class HashMap<K, V>
         }
     }
 
-    //初始化为0,表示禁用替代Hash
+    /*
+    每个实例一个随机种子,hash()用它扰动所有key的hashCode
+    攻击者不知道种子,就无法构造出hashCode不同但落在同一个桶中的key
+    0表示还没有初始化,在inflateTable()中第一次分配table时生成
+     */
     transient int hashSeed = 0;
 
+    //为true时String类型的key按内容和种子重新计算hash,而不是使用String.hashCode()
+    //hashCode相同的String很容易构造("Aa"和"BB"),只扰动hashCode无法把它们分开
+    transient boolean altHashing;
+
+    //put时发现某条链表的长度达到了MAX_CHAIN_LENGTH,下次扩容时更换种子
+    transient boolean longChains;
+
+    //链表长度的上限,超过后在下次扩容时更换种子并重新计算所有hash
+    static final int MAX_CHAIN_LENGTH = 8;
+
+    //为true时扩容使用split(),像JDK8一样保持链表顺序,不会形成环;默认false,仍使用transfer()
+    //需要序列化,反序列化后的副本扩容方式不变
+    boolean splitResize;
+
+    //所有实例共享的种子生成器,每次加上黄金分割数,再与nanoTime混合
+    private static final java.util.concurrent.atomic.AtomicLong seeder =
+            new java.util.concurrent.atomic.AtomicLong(System.nanoTime());
+
     //有参构造函数
     public HashMap(int initialCapacity, float loadFactor)
     {
@@ -188,50 +210,114 @@ public class HashMap<K, V>
     {
     }
 
-    //一般不进行配置,所以默认返回false
+    //开启或关闭保持顺序的扩容,只影响之后的扩容
+    public void setSplitResize(boolean splitResize)
+    {
+        this.splitResize = splitResize;
+    }
+
+    public boolean isSplitResize()
+    {
+        return splitResize;
+    }
+
+    //返回一个非0的随机种子
+    static int randomHashSeed()
+    {
+        int seed;
+        do
+        {
+            long z = seeder.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime();
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            seed = (int) (z ^ (z >>> 33));
+        } while (seed == 0);
+        return seed;
+    }
+
+    /*
+    返回true表示种子变了,扩容时需要重新计算所有Entry的hash
+    第一次分配table时生成种子,此时还没有Entry,所以返回false
+    之后只有在put发现了过长的链表时才更换种子,同时对String开启按内容hash
+    容量达到jdk.map.althashing.threshold时也会开启,与原来的配置兼容
+     */
     final boolean initHashSeedAsNeeded(int capacity)
     {
-        //一般情况下hashSeed一直为0
-        //所以currentAltHashing一般为false
-        boolean currentAltHashing = hashSeed != 0;
-
-        boolean useAltHashing = sun.misc.VM.isBooted() &&
-                (capacity >= Holder.ALTERNATIVE_HASHING_THRESHOLD);
-        //异或,若switching要是true,则currentAltHashing,useAltHashing不能相同
-        //而currentAltHashing一般为false,所以需要useAltHashing为true
-        //要想useAltHashing为true,则capacity >= Holder.ALTERNATIVE_HASHING_THRESHOLD
-        //而默认情况Holder.ALTERNATIVE_HASHING_THRESHOLD为Int最大值,所以一般不满足
-        //所以useAltHashing一般为false
-        //所以switching一般也为false
-        boolean switching = currentAltHashing ^ useAltHashing;
+        if (hashSeed == 0)
+        {
+            hashSeed = randomHashSeed();
+            //clone()得到的副本保留原来的altHashing
+            altHashing |= capacity >= Holder.ALTERNATIVE_HASHING_THRESHOLD;
+            longChains = false;
+            return false;
+        }
+        boolean useAltHashing = altHashing || longChains ||
+                capacity >= Holder.ALTERNATIVE_HASHING_THRESHOLD;
+        boolean switching = longChains || useAltHashing != altHashing;
         if (switching)
         {
-            hashSeed = useAltHashing
-                    ? sun.misc.Hashing.randomHashSeed(this)
-                    : 0;
+            //hashCode完全相同的非String key换种子也分不开,但最多每次扩容重新hash一次,均摊下来还是O(1)
+            hashSeed = randomHashSeed();
+            altHashing = useAltHashing;
+            longChains = false;
         }
         return switching;
     }
 
     /*
     重新对对象进行hash操作,防止劣质散列函数
-    重新hash,让高位的变化也参与数组下标的运算,使得分散更加均匀
-    加大hash随机性，使得分布更均匀，从而提高对应数组存储下标位置的随机性
-    对原本hashcode扰动,更加均匀
+    先与种子异或,再用MurmurHash3的fmix32扰动,每一位都影响结果的每一位
+    种子不同,同一个hashCode落到的桶也不同,只要种子不泄露就无法构造碰撞
+    开启altHashing后String按内容重新计算,连hashCode相同的String也能分开
     Null值始终映射到hash 0,index 0
      */
     final int hash(Object k)
     {
         int h = hashSeed;
-        if (0 != h && k instanceof String)
+        if (altHashing && k instanceof String)
         {
-            return sun.misc.Hashing.stringHash32((String) k);
+            return stringHash32((String) k, h);
         }
 
         h ^= k.hashCode();
 
-        h ^= (h >>> 20) ^ (h >>> 12);
-        return h ^ (h >>> 7) ^ (h >>> 4);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    //带种子的MurmurHash3(32位),每次处理两个char,代替sun.misc.Hashing.stringHash32
+    static int stringHash32(String s, int seed)
+    {
+        int h = seed;
+        int len = s.length();
+        int i = 0;
+        for (; i + 1 < len; i += 2)
+        {
+            int k = s.charAt(i) | (s.charAt(i + 1) << 16);
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        if (i < len)
+        {
+            int k = s.charAt(i);
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+        }
+        h ^= len * 2;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
     }
 
     /* 真正的将hashcode转为数组index的方法
@@ -327,8 +413,9 @@ public class HashMap<K, V>
             return putForNullKey(value);
         int hash = hash(key);
         int i = indexFor(hash, table.length);
+        int binCount = 0;
         //与get操作类似,都是查看对应索引的链表是否有key值,有则更新
-        for (Entry<K, V> e = table[i]; e != null; e = e.next)
+        for (Entry<K, V> e = table[i]; e != null; e = e.next, ++binCount)
         {
             Object k;
             if (e.hash == hash && ((k = e.key) == key || key.equals(k)))
@@ -340,6 +427,9 @@ public class HashMap<K, V>
             }
         }
 
+        //链表过长,说明hashCode碰撞严重(可能是被攻击),下次扩容时换种子
+        if (binCount >= MAX_CHAIN_LENGTH)
+            longChains = true;
         modCount++;
         addEntry(hash, key, value, i);
         return null;
@@ -405,13 +495,17 @@ public class HashMap<K, V>
         }
 
         Entry[] newTable = new Entry[newCapacity];
-        //initHashSeedAsNeeded(newCapacity)一般为false
-        transfer(newTable, initHashSeedAsNeeded(newCapacity));
+        //只有种子变了才需要重新计算hash
+        boolean rehash = initHashSeedAsNeeded(newCapacity);
+        if (splitResize)
+            split(newTable, rehash);
+        else
+            transfer(newTable, rehash);
         table = newTable;
         threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
     }
     /*
-    rehash可看作false
+    rehash只有在更换种子后才为true
     将旧数组内容放到新数组中来
     会导致bug:两个线程同时对他们操作,他们各种会产生新的table,其中线程一执行完了,新链表变成了C->B->A->null
     线程二在执行e=A,next=B时暂停,等A执行完才继续
@@ -460,6 +554,84 @@ public class HashMap<K, V>
         }
     }
 
+    /*
+    JDK8的扩容方式,代替transfer()
+    容量翻倍且不用重新hash时,旧桶j中的Entry只可能去新桶j或j + oldCap,由hash & oldCap这一位决定
+    所以不用indexFor(),按这一位把链表拆成lo和hi两条,尾插保持原来的顺序,最后各自整条放入新桶
+    putAll()一次扩大好几倍或者更换了种子时,Entry可能去任意新桶,复制每个Entry,用tails记录每个新桶的尾部,同样尾插
+
+    不会形成环:每个Entry的next只会指向在旧链表中排在它后面的Entry
+    两个线程同时扩容时,线程二沿着线程一改过的next走,遇到的Entry也只会越来越靠后,不会像transfer()那样出现A->B->A
+    tails跨旧桶使用时,同一个新桶中的Entry可能来自不同的旧链表:更换种子时一定如此,并发时Entry被放进了错误的桶,
+    或者addEntry()读到过时的table.length使新容量不是旧容量的两倍时也会这样
+    此时直接修改旧Entry的next,新链表中的先后顺序和旧链表无关,另一个线程还在拆分同样的Entry时就可能出现A->B->A
+    复制出来的Entry只有当前线程能看到,旧Entry的next和hash都不变;这条路径很少走到,复制的开销可以忽略
+    并发使用仍然是错误的,可能丢失Entry,只是get不会再死循环
+     */
+    void split(Entry[] newTable, boolean rehash)
+    {
+        Entry<K, V>[] oldTable = table;
+        int oldCapacity = oldTable.length;
+        int newCapacity = newTable.length;
+        if (rehash || newCapacity != oldCapacity << 1)
+        {
+            Entry<K, V>[] tails = new Entry[newCapacity];
+            for (Entry<K, V> e : oldTable)
+            {
+                while (null != e)
+                {
+                    Entry<K, V> next = e.next;
+                    int hash = e.hash;
+                    if (rehash)
+                    {
+                        hash = null == e.key ? 0 : hash(e.key);
+                    }
+                    int i = indexFor(hash, newCapacity);
+                    e = new Entry<>(hash, e.key, e.value, null);
+                    if (tails[i] == null)
+                        newTable[i] = e;
+                    else
+                        tails[i].next = e;
+                    tails[i] = e;
+                    e = next;
+                }
+            }
+            return;
+        }
+        //lo和hi两条链表各有一个哑头节点,tails[0]和tails[1]分别是它们的尾部
+        //下标直接取hash的oldCap位,每个Entry都执行同样的两次写,避免lo/hi分支预测失败
+        Entry<K, V> lo = new Entry<>(0, null, null, null);
+        Entry<K, V> hi = new Entry<>(0, null, null, null);
+        Entry<K, V>[] tails = new Entry[2];
+        int shift = Integer.numberOfTrailingZeros(oldCapacity);
+        for (int j = 0; j < oldCapacity; ++j)
+        {
+            Entry<K, V> e = oldTable[j];
+            if (e == null)
+                continue;
+            //负载因子0.75时大部分非空桶只有一个Entry,hash & oldCap就是新下标相对j的偏移
+            if (e.next == null)
+            {
+                newTable[j + (e.hash & oldCapacity)] = e;
+                continue;
+            }
+            tails[0] = lo;
+            tails[1] = hi;
+            do
+            {
+                int b = (e.hash >>> shift) & 1;
+                tails[b].next = e;
+                tails[b] = e;
+            } while ((e = e.next) != null);
+            tails[0].next = null;
+            tails[1].next = null;
+            newTable[j] = lo.next;
+            newTable[j + oldCapacity] = hi.next;
+            lo.next = null;
+            hi.next = null;
+        }
+    }
+
     public void putAll(Map<? extends K, ? extends V> m)
     {
         int numKeysToBeAdded = m.size();
@@ -943,6 +1115,8 @@ public class HashMap<K, V>
         {
             // assert false;
         }
+        //副本使用自己的种子,在inflateTable()中生成
+        result.hashSeed = 0;
         if (result.table != EMPTY_TABLE)
         {
             result.inflateTable(Math.min(
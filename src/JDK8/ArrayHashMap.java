@@ -0,0 +1,750 @@
+package JDK8;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/*
+数组实现的拉链法 HashMap
+
+与 JDK8.HashMap 一样是拉链法(separate chaining),Map 语义也相同:允许 null 键和 null 值,非线程安全,迭代器 fail-fast
+区别在于没有 Node 对象:
+    第 i 个映射保存在 hashes[i],keys[i],values[i] 中,next[i] 是链表中下一个映射的下标(-1 表示结尾)
+    buckets[b] 是第 b 个桶链表头的下标(-1 表示空桶)
+    一个 Node 对象头加上对齐要 32~48 字节,这里每个映射只占 4 个数组槽位,也不会给 GC 留下大量小对象
+
+映射在数组中始终是紧凑的,下标 0 ~ size-1:
+    删除时把最后一个映射搬到被删除的位置,只需修改指向最后一个映射的那一个链接
+    所以遍历就是线性扫描数组,不需要跳过空桶
+扩容时 hashes,keys,values 只需 Arrays.copyOf 加长,真正重建的只有 buckets 和 next
+
+链表不会树化,hashCode 严重冲突时退化为线性查找
+ */
+
+/**
+ * Hash table based implementation of the <tt>Map</tt> interface using
+ * separate chaining, like {@link HashMap}, but without per-entry node
+ * objects: mappings are stored densely in parallel arrays and chained by
+ * <tt>int</tt> indices. Permits <tt>null</tt> values and the <tt>null</tt>
+ * key, is unsynchronized, and its collection views have fail-fast
+ * iterators.
+ *
+ * <p>Iteration is a linear walk over the mapping arrays, and resizing
+ * rebuilds only the bucket heads and chain links. Unlike {@link HashMap},
+ * bins are never converted to trees.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap
+ */
+public class ArrayHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = 2208463170733104826L;
+
+    /**
+     * The default initial capacity - MUST be a power of two.
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    /**
+     * The maximum capacity, MUST be a power of two <= 1<<30.
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The load factor used when none specified in constructor.
+     */
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * The largest number of mappings the arrays can hold.
+     */
+    static final int MAX_MAPPINGS = Integer.MAX_VALUE - 8;
+
+    /**
+     * Index of the first mapping of each bin, or -1 for an empty bin.
+     * Allocated on first use; length is always a power of two.
+     */
+    transient int[] buckets;
+
+    /**
+     * Index of the next mapping in the same bin, or -1.
+     */
+    transient int[] next;
+
+    /**
+     * The cached hash of each mapping.
+     */
+    transient int[] hashes;
+
+    transient Object[] keys;
+
+    transient Object[] values;
+
+    transient int size;
+
+    transient int modCount;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     * Before the table is allocated this holds the initial capacity.
+     *
+     * @serial
+     */
+    int threshold;
+
+    /**
+     * The load factor for the hash table.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is nonpositive
+     */
+    public ArrayHashMap(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = HashMap.tableSizeFor(initialCapacity);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * the default load factor (0.75).
+     *
+     * @param initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public ArrayHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the default initial capacity (16) and
+     * the default load factor (0.75).
+     */
+    public ArrayHashMap()
+    {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /**
+     * Constructs a new map with the same mappings as the specified map.
+     *
+     * @param m the map whose mappings are to be placed in this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public ArrayHashMap(Map<? extends K, ? extends V> m)
+    {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+        putMapEntries(m);
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    final void putMapEntries(Map<? extends K, ? extends V> m)
+    {
+        int s = m.size();
+        if (s > 0)
+        {
+            float ft = ((float) s / loadFactor) + 1.0F;
+            int t = ((ft < (float) MAXIMUM_CAPACITY) ?
+                    (int) ft : MAXIMUM_CAPACITY);
+            if (buckets == null)
+            {
+                if (t > threshold)
+                    threshold = HashMap.tableSizeFor(t);
+            }
+            else
+            {
+                while (s + size > threshold && buckets.length < MAXIMUM_CAPACITY)
+                    resize();
+            }
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            {
+                K key = e.getKey();
+                putVal(HashMap.hash(key), key, e.getValue(), false);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the mapping for the given key, or -1 if none.
+     */
+    final int findIndex(int hash, Object key)
+    {
+        int[] bs;
+        if ((bs = buckets) == null)
+            return -1;
+        int[] hs = hashes, nx = next;
+        Object[] ks = keys;
+        for (int i = bs[hash & (bs.length - 1)]; i >= 0; i = nx[i])
+        {
+            Object k;
+            if (hs[i] == hash &&
+                    ((k = ks[i]) == key || (key != null && key.equals(k))))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Implements Map.put and related methods.
+     *
+     * @param hash         hash for key
+     * @param key          the key
+     * @param value        the value to put
+     * @param onlyIfAbsent if true, don't change existing value
+     * @return previous value, or null if none
+     */
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent)
+    {
+        int i;
+        if ((i = findIndex(hash, key)) >= 0)
+        {
+            @SuppressWarnings("unchecked") V oldValue = (V) values[i];
+            if (!onlyIfAbsent || oldValue == null)
+                values[i] = value;
+            return oldValue;
+        }
+        addMapping(hash, key, value);
+        return null;
+    }
+
+    /**
+     * Appends a mapping for a key known to be absent.
+     */
+    final void addMapping(int hash, Object key, Object value)
+    {
+        //数组的长度就是threshold,先扩容再追加
+        if (buckets == null || size >= threshold)
+            resize();
+        int[] bs = buckets;
+        int b = hash & (bs.length - 1), i = size;
+        hashes[i] = hash;
+        keys[i] = key;
+        values[i] = value;
+        //已经遍历过整条链表了,头插即可,链内顺序无关紧要
+        next[i] = bs[b];
+        bs[b] = i;
+        ++modCount;
+        ++size;
+    }
+
+    /**
+     * Initializes or doubles table size. The mapping arrays are only
+     * lengthened; the bucket heads and chain links are rebuilt.
+     */
+    final void resize()
+    {
+        int[] oldBuckets = buckets;
+        int oldCap = (oldBuckets == null) ? 0 : oldBuckets.length;
+        int oldThr = threshold;
+        int newCap, newThr = 0;
+        if (oldCap > 0)
+        {
+            if (oldCap >= MAXIMUM_CAPACITY)
+            {
+                //桶不能再多了,只加长映射数组
+                if (oldThr >= MAX_MAPPINGS)
+                    throw new IllegalStateException("Capacity exhausted.");
+                threshold = (int) Math.min((long) oldThr + (oldThr >> 1), MAX_MAPPINGS);
+                growMappings(threshold);
+                return;
+            }
+            newCap = oldCap << 1;
+            if (oldCap >= DEFAULT_INITIAL_CAPACITY)
+                newThr = oldThr << 1; // double threshold
+        }
+        else if (oldThr > 0) // initial capacity was placed in threshold
+            newCap = oldThr;
+        else
+        {               // zero initial threshold signifies using defaults
+            newCap = DEFAULT_INITIAL_CAPACITY;
+            newThr = (int) (DEFAULT_LOAD_FACTOR * DEFAULT_INITIAL_CAPACITY);
+        }
+        if (newThr == 0)
+        {
+            float ft = (float) newCap * loadFactor;
+            newThr = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                    (int) ft : MAX_MAPPINGS);
+        }
+        //loadFactor很小时threshold可能为0
+        threshold = newThr = Math.max(newThr, size + 1);
+        growMappings(newThr);
+        int[] bs = new int[newCap], nx = new int[newThr], hs = hashes;
+        Arrays.fill(bs, -1);
+        int mask = newCap - 1;
+        //倒序头插,每条链内保持原来的相对顺序
+        for (int i = size - 1; i >= 0; --i)
+        {
+            int b = hs[i] & mask;
+            nx[i] = bs[b];
+            bs[b] = i;
+        }
+        buckets = bs;
+        next = nx;
+    }
+
+    private void growMappings(int length)
+    {
+        if (keys == null)
+        {
+            hashes = new int[length];
+            keys = new Object[length];
+            values = new Object[length];
+            next = new int[length];
+        }
+        else
+        {
+            hashes = Arrays.copyOf(hashes, length);
+            keys = Arrays.copyOf(keys, length);
+            values = Arrays.copyOf(values, length);
+            next = Arrays.copyOf(next, length);
+        }
+    }
+
+    /**
+     * Removes the mapping at index i: unlinks it from its bin, then moves
+     * the last mapping into the hole so the arrays stay dense.
+     */
+    final void removeAt(int i)
+    {
+        int[] bs = buckets, nx = next, hs = hashes;
+        Object[] ks = keys, vs = values;
+        int mask = bs.length - 1;
+        unlink(bs, nx, hs[i] & mask, i);
+        int last = --size;
+        if (i != last)
+        {
+            //把指向last的链接改为指向i
+            int b = hs[last] & mask;
+            if (bs[b] == last)
+                bs[b] = i;
+            else
+            {
+                int p = bs[b];
+                while (nx[p] != last)
+                    p = nx[p];
+                nx[p] = i;
+            }
+            hs[i] = hs[last];
+            ks[i] = ks[last];
+            vs[i] = vs[last];
+            nx[i] = nx[last];
+        }
+        ks[last] = null;
+        vs[last] = null;
+        ++modCount;
+    }
+
+    private static void unlink(int[] bs, int[] nx, int b, int i)
+    {
+        if (bs[b] == i)
+            bs[b] = nx[i];
+        else
+        {
+            int p = bs[b];
+            while (nx[p] != i)
+                p = nx[p];
+            nx[p] = nx[i];
+        }
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        int i;
+        return (i = findIndex(HashMap.hash(key), key)) < 0 ? null : (V) values[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        int i;
+        return (i = findIndex(HashMap.hash(key), key)) < 0 ? defaultValue : (V) values[i];
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return findIndex(HashMap.hash(key), key) >= 0;
+    }
+
+    public V put(K key, V value)
+    {
+        return putVal(HashMap.hash(key), key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        return putVal(HashMap.hash(key), key, value, true);
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        putMapEntries(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        int i;
+        if ((i = findIndex(HashMap.hash(key), key)) < 0)
+            return null;
+        V oldValue = (V) values[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        int i;
+        if ((i = findIndex(HashMap.hash(key), key)) >= 0 &&
+                Objects.equals(values[i], value))
+        {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear()
+    {
+        int[] bs;
+        modCount++;
+        if ((bs = buckets) != null && size > 0)
+        {
+            Arrays.fill(bs, -1);
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+    }
+
+    public boolean containsValue(Object value)
+    {
+        Object[] vs = values;
+        for (int i = 0; i < size; ++i)
+        {
+            Object v = vs[i];
+            if (v == value || (value != null && value.equals(v)))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        if (action == null)
+            throw new NullPointerException();
+        Object[] ks = keys, vs = values;
+        int mc = modCount;
+        for (int i = 0; i < size && modCount == mc; ++i)
+            action.accept((K) ks[i], (V) vs[i]);
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function)
+    {
+        if (function == null)
+            throw new NullPointerException();
+        Object[] ks = keys, vs = values;
+        int mc = modCount;
+        for (int i = 0; i < size && modCount == mc; ++i)
+            vs[i] = function.apply((K) ks[i], (V) vs[i]);
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final void clear()
+        {
+            ArrayHashMap.this.clear();
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            int i = findIndex(HashMap.hash(key), key);
+            return i >= 0 && Objects.equals(values[i], e.getValue());
+        }
+
+        public final boolean remove(Object o)
+        {
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return ArrayHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+
+        public final void forEach(Consumer<? super Map.Entry<K, V>> action)
+        {
+            if (action == null)
+                throw new NullPointerException();
+            Iterator<Map.Entry<K, V>> it = iterator();
+            while (it.hasNext())
+                action.accept(it.next());
+        }
+    }
+
+    /**
+     * Entry returned by the iterator. Writes through to the map while the
+     * mapping is still at the same index, otherwise falls back to put.
+     */
+    final class Entry implements Map.Entry<K, V>
+    {
+        final K key;
+        V value;
+        final int index;
+
+        Entry(K key, V value, int index)
+        {
+            this.key = key;
+            this.value = value;
+            this.index = index;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V newValue)
+        {
+            V oldValue = value;
+            value = newValue;
+            //删除会移动映射,下标对不上就退化为put
+            if (index < size && keys[index] == key)
+                values[index] = newValue;
+            else
+                put(key, newValue);
+            return oldValue;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /*
+    按下标顺序遍历
+    remove 时最后一个映射会被搬到当前位置,它还没有被访问过,所以下一次从当前位置继续
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        int cursor;            // index of next entry to return
+        int current = -1;      // index of last returned entry
+        int expectedModCount;  // for fast-fail
+
+        EntryIterator()
+        {
+            expectedModCount = modCount;
+        }
+
+        public boolean hasNext()
+        {
+            return cursor < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next()
+        {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            int i = cursor;
+            if (i >= size)
+                throw new NoSuchElementException();
+            cursor = i + 1;
+            current = i;
+            return new Entry((K) keys[i], (V) values[i], i);
+        }
+
+        public void remove()
+        {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeAt(i);
+            cursor = i;
+            expectedModCount = modCount;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone()
+    {
+        ArrayHashMap<K, V> result;
+        try
+        {
+            result = (ArrayHashMap<K, V>) super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        //没有节点对象,拷贝数组即可
+        if (buckets != null)
+        {
+            result.buckets = buckets.clone();
+            result.next = next.clone();
+            result.hashes = hashes.clone();
+            result.keys = keys.clone();
+            result.values = values.clone();
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    final int capacity()
+    {
+        return (buckets != null) ? buckets.length :
+                (threshold > 0) ? threshold :
+                        DEFAULT_INITIAL_CAPACITY;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(capacity());
+        s.writeInt(size);
+        Object[] ks = keys, vs = values;
+        for (int i = 0; i < size; ++i)
+        {
+            s.writeObject(ks[i]);
+            s.writeObject(vs[i]);
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        buckets = next = hashes = null;
+        keys = values = null;
+        size = modCount = 0;
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        float fc = (float) mappings / loadFactor + 1.0f;
+        threshold = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                DEFAULT_INITIAL_CAPACITY :
+                (fc >= MAXIMUM_CAPACITY) ?
+                        MAXIMUM_CAPACITY :
+                        HashMap.tableSizeFor((int) fc));
+        for (int i = 0; i < mappings; i++)
+        {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(HashMap.hash(key), key, value, false);
+        }
+    }
+}
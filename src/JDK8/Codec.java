@@ -0,0 +1,124 @@
+package JDK8;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts objects to and from bytes for maps that store their keys and
+ * values outside the Java heap or in a compact serialized form, such as
+ * {@link MappedHashMap} and {@link HashMap#writeCompact}.
+ *
+ * <p>Maps that compare keys by their encoded bytes require the key codec
+ * to be deterministic: equal keys must encode to equal bytes.
+ *
+ * @param <T> the type of objects converted by this codec
+ */
+public interface Codec<T>
+{
+    /**
+     * Returns the bytes representing the given object.
+     *
+     * @param value the object to encode
+     * @return the encoded bytes
+     */
+    byte[] encode(T value);
+
+    /**
+     * Reads an object from the given buffer, whose remaining bytes are
+     * exactly those returned by {@link #encode} for it.
+     *
+     * @param buf the encoded bytes
+     * @return the decoded object
+     */
+    T decode(ByteBuffer buf);
+
+    /**
+     * Returns a codec that encodes strings as UTF-8.
+     *
+     * @return the UTF-8 string codec
+     */
+    static Codec<String> utf8()
+    {
+        return new Codec<String>()
+        {
+            public byte[] encode(String value)
+            {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public String decode(ByteBuffer buf)
+            {
+                if (buf.hasArray())
+                    return new String(buf.array(), buf.arrayOffset() + buf.position(),
+                            buf.remaining(), StandardCharsets.UTF_8);
+                byte[] b = new byte[buf.remaining()];
+                buf.get(b);
+                return new String(b, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Returns a codec that uses Java serialization. Its encoding of an
+     * object is not guaranteed to be deterministic, so it is intended
+     * for values rather than for keys compared by their bytes.
+     *
+     * @param <T> the type of objects
+     * @return the Java serialization codec
+     */
+    static <T> Codec<T> serialized()
+    {
+        return new Codec<T>()
+        {
+            public byte[] encode(T value)
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+                {
+                    out.writeObject(value);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                return bytes.toByteArray();
+            }
+
+            @SuppressWarnings("unchecked")
+            public T decode(final ByteBuffer buf)
+            {
+                InputStream in = new InputStream()
+                {
+                    public int read()
+                    {
+                        return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+                    }
+
+                    public int read(byte[] b, int off, int len)
+                    {
+                        if (len == 0)
+                            return 0;
+                        if (!buf.hasRemaining())
+                            return -1;
+                        len = Math.min(len, buf.remaining());
+                        buf.get(b, off, len);
+                        return len;
+                    }
+                };
+                try (ObjectInputStream ois = new ObjectInputStream(in))
+                {
+                    return (T) ois.readObject();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,902 @@
+package JDK8;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+分桶的布谷鸟哈希(bucketized cuckoo hashing)
+
+与 JDK8.HashMap 相同的 Map 语义:允许 null 键和 null 值,非线程安全,迭代器 fail-fast
+
+布局:
+    hashes,keys,vals 三个平行数组,每 4 个槽位为一个桶(bucket)
+    hashes 中保存每个元素完整的 32 位 hash,4 个 int 正好 16 字节,一个 64 字节的缓存行装得下 4 个桶的 hash
+    数组末尾额外的 stashCap 个槽位是 stash,放置踢出失败的元素
+    keys[i] == null 表示槽位为空,null 键用 NULL_KEY 代替
+
+查找:
+    每个 key 只可能在两个桶中:index1(h) 和 index2(h),两个桶的位置都由 hash 和 seed 算出
+    先比较 hashes 中的 hash,相等时才去比较 key,所以不命中时只读两个桶的 hash,最多两个缓存行
+    stash 中有元素(stashSize > 0)时才扫描 stash,正常负载下 stash 几乎总是空的
+    不存在链表或红黑树,最坏情况下也只比较 8 个 hash(加上 stash)
+
+插入:
+    两个桶中有空位直接放入
+    否则从两个桶中随机选一个槽位,把原来的元素踢出(kick),被踢出的元素去它的另一个桶,如此反复
+    踢出 MAX_KICKS 次仍然失败,就把手里的元素放入 stash
+    stash 也满了才重建:换一个 seed 重新放置所有元素,反复失败时负载较高就扩容,否则扩大 stash
+    只有大量 key 的 hashCode 完全相同时(它们必然落在相同的两个桶),stash 才会变大,这时查找退化为扫描 stash
+
+删除:
+    直接清空槽位,不需要墓碑
+    删除表中的元素后,顺便把 stash 中能放回这个桶的元素移回去(迭代器删除时不移动,避免遍历漏掉元素)
+ */
+
+/**
+ * Hash table based implementation of the <tt>Map</tt> interface using
+ * bucketized cuckoo hashing: every key lives in one of two buckets of
+ * four slots chosen by two hash functions, or in a small stash. A lookup
+ * compares the full hash codes stored for at most eight slots, two runs
+ * of 16 bytes that normally fall in two cache lines, and compares keys
+ * only where the hash codes match, so its worst-case cost does not
+ * depend on how the keys cluster. Long chains and tree bins cannot
+ * form. Permits <tt>null</tt> values and the <tt>null</tt> key, is
+ * unsynchronized, and its collection views have fail-fast iterators,
+ * just like {@link HashMap}.
+ *
+ * <p>Insertions that find both buckets full move resident entries to
+ * their alternate buckets, and occasionally rebuild the table with new
+ * hash functions. Keys that share one <tt>hashCode</tt> always share both
+ * buckets; more than eight of them spill into the stash, which is
+ * searched linearly.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap
+ */
+public class CuckooHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = -3172480917295543012L;
+
+    /**
+     * The number of slots per bucket.
+     */
+    static final int BUCKET_SIZE = 4;
+
+    /**
+     * The default initial capacity - MUST be a power of two.
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    /**
+     * The maximum capacity, MUST be a power of two <= 1<<30.
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The load factor used when none specified in constructor. Two
+     * choices of four-slot buckets stay insertable up to about 95% load.
+     */
+    static final float DEFAULT_LOAD_FACTOR = 0.9f;
+
+    /**
+     * The initial number of stash slots of a table.
+     */
+    static final int STASH_SIZE = 4;
+
+    /**
+     * The number of entries an insertion moves before giving up and
+     * using the stash.
+     */
+    static final int MAX_KICKS = 256;
+
+    /**
+     * Value representing the null key inside the table.
+     */
+    static final Object NULL_KEY = new Object();
+
+    /**
+     * The full hash of the key in each slot, BUCKET_SIZE per bucket,
+     * followed by the stash. Allocated on first use; the number of
+     * buckets is always a power of two.
+     */
+    transient int[] hashes;
+
+    transient Object[] keys;
+
+    transient Object[] vals;
+
+    /**
+     * The number of table slots, excluding the stash.
+     */
+    transient int capacity;
+
+    /**
+     * The number of occupied stash slots.
+     */
+    transient int stashSize;
+
+    /**
+     * Selects the two hash functions of the current table; changed by
+     * every rebuild.
+     */
+    transient int seed;
+
+    /**
+     * State of the generator choosing which entry to kick out.
+     */
+    transient int random;
+
+    /**
+     * The entry left without a slot by a failed place, to be placed by
+     * the following rebuild.
+     */
+    transient int pendingHash;
+
+    transient Object pendingKey;
+
+    transient Object pendingValue;
+
+    transient int size;
+
+    transient int modCount;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     */
+    transient int threshold;
+
+    /**
+     * The initial capacity, used when the table is first allocated.
+     *
+     * @serial
+     */
+    int initialCapacity;
+
+    /**
+     * The load factor for the hash table.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor, which must be less than one
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is not in (0, 1)
+     */
+    public CuckooHashMap(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * the default load factor (0.9).
+     *
+     * @param initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public CuckooHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the default initial capacity (16) and
+     * the default load factor (0.9).
+     */
+    public CuckooHashMap()
+    {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs a new map with the same mappings as the specified map.
+     *
+     * @param m the map whose mappings are to be placed in this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public CuckooHashMap(Map<? extends K, ? extends V> m)
+    {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+        putAll(m);
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    static int hash(Object key)
+    {
+        return HashMap.hash(key);
+    }
+
+    // murmur3 的 fmix32,两个桶用不同的输入,相互独立
+    static int mix(int h)
+    {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    static Object maskNull(Object key)
+    {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key)
+    {
+        return (key == NULL_KEY) ? null : (K) key;
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    /**
+     * Returns the first slot of the primary bucket of h.
+     */
+    final int index1(int h)
+    {
+        return (mix(h ^ seed) & (capacity - 1)) & -BUCKET_SIZE;
+    }
+
+    /**
+     * Returns the first slot of the alternate bucket of h, which always
+     * differs from the primary one.
+     */
+    final int index2(int h)
+    {
+        int mask = capacity - 1;
+        int b = (mix(h + 0x9E3779B9 * (seed | 1)) & mask) & -BUCKET_SIZE;
+        //表只有一个桶时两者必然相同,其余情况下相同就取相邻的桶
+        return (b != index1(h) || capacity == BUCKET_SIZE) ? b : b ^ BUCKET_SIZE;
+    }
+
+    final int nextRandom()
+    {
+        int r = random;
+        r ^= r << 13;
+        r ^= r >>> 17;
+        r ^= r << 5;
+        return random = r;
+    }
+
+    /**
+     * Returns the slot holding the given key, or -1 if none.
+     */
+    final int findIndex(int h, Object key)
+    {
+        int[] hs;
+        if ((hs = hashes) == null)
+            return -1;
+        Object k = maskNull(key);
+        Object[] ks = keys;
+        Object p;
+        for (int i = index1(h), end = i + BUCKET_SIZE; i < end; ++i)
+        {
+            if (hs[i] == h && ((p = ks[i]) == k || (p != null && k.equals(p))))
+                return i;
+        }
+        for (int i = index2(h), end = i + BUCKET_SIZE; i < end; ++i)
+        {
+            if (hs[i] == h && ((p = ks[i]) == k || (p != null && k.equals(p))))
+                return i;
+        }
+        if (stashSize != 0)
+        {
+            for (int i = capacity; i < ks.length; ++i)
+            {
+                if (hs[i] == h && ((p = ks[i]) == k || (p != null && k.equals(p))))
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a free slot in the bucket starting at b, or -1 if full.
+     */
+    final int freeSlot(int b)
+    {
+        Object[] ks = keys;
+        for (int i = b, end = b + BUCKET_SIZE; i < end; ++i)
+        {
+            if (ks[i] == null)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Places a key that is not in the table, moving other entries to
+     * their alternate buckets as needed, and falling back to the stash.
+     * Returns false, changing nothing, if the stash is full as well.
+     */
+    final boolean place(int h, Object k, Object v)
+    {
+        int[] hs = hashes;
+        Object[] ks = keys, vs = vals;
+        int i, b1 = index1(h), b2 = index2(h);
+        if ((i = freeSlot(b1)) >= 0 || (i = freeSlot(b2)) >= 0)
+        {
+            hs[i] = h;
+            ks[i] = k;
+            vs[i] = v;
+            return true;
+        }
+        //随机游走:每次踢出一个随机槽位的元素,让它去另一个桶
+        int b = (nextRandom() & 1) == 0 ? b1 : b2;
+        for (int kicks = 0; kicks < MAX_KICKS; ++kicks)
+        {
+            i = b + (nextRandom() >>> 30);
+            int th = hs[i];
+            Object tk = ks[i], tv = vs[i];
+            hs[i] = h;
+            ks[i] = k;
+            vs[i] = v;
+            h = th;
+            k = tk;
+            v = tv;
+            b = (b == (b1 = index1(h))) ? index2(h) : b1;
+            if ((i = freeSlot(b)) >= 0)
+            {
+                hs[i] = h;
+                ks[i] = k;
+                vs[i] = v;
+                return true;
+            }
+        }
+        //手里的元素(不一定是最初插入的那个)放入 stash
+        for (i = capacity; i < ks.length; ++i)
+        {
+            if (ks[i] == null)
+            {
+                hs[i] = h;
+                ks[i] = k;
+                vs[i] = v;
+                ++stashSize;
+                return true;
+            }
+        }
+        //stash 已满,撤销不了踢出过程,但所有元素仍在表中,只是手里这个需要随重建一起放置
+        pendingHash = h;
+        pendingKey = k;
+        pendingValue = v;
+        return false;
+    }
+
+    /**
+     * Rebuilds the table with new hash functions, starting at the given
+     * capacity, and places the pending entry left by a failed place, if
+     * any. Retries with a larger table when loaded, or a larger stash
+     * when many keys share their buckets, until everything fits.
+     */
+    final void rebuild(int newCap)
+    {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys, oldVals = vals;
+        Object pk = pendingKey;
+        int ph = pendingHash;
+        Object pv = pendingValue;
+        pendingKey = pendingValue = null;
+        int stashCap = STASH_SIZE;
+        if (random == 0)
+            random = System.identityHashCode(this) | 1;
+        for (int attempt = 0; ; ++attempt)
+        {
+            if (attempt >= 2)
+            {
+                //换了 seed 仍然失败:负载高就扩容,否则是 hashCode 相同的 key 太多,扩大 stash
+                if (size > (newCap >>> 1) && newCap < MAXIMUM_CAPACITY)
+                    newCap <<= 1;
+                else
+                    stashCap <<= 1;
+            }
+            hashes = new int[newCap + stashCap];
+            keys = new Object[newCap + stashCap];
+            vals = new Object[newCap + stashCap];
+            capacity = newCap;
+            stashSize = 0;
+            seed = nextRandom();
+            boolean ok = pk == null || place(ph, pk, pv);
+            if (ok && oldKeys != null)
+            {
+                for (int j = 0; j < oldKeys.length; ++j)
+                {
+                    Object k = oldKeys[j];
+                    if (k != null && !place(oldHashes[j], k, oldVals[j]))
+                    {
+                        ok = false;
+                        break;
+                    }
+                }
+            }
+            pendingKey = pendingValue = null;
+            if (ok)
+                break;
+        }
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                (int) ft : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the initial table capacity for the requested one.
+     */
+    static int tableCapacity(int requested)
+    {
+        return Math.max(DEFAULT_INITIAL_CAPACITY, HashMap.tableSizeFor(requested));
+    }
+
+    /**
+     * Implements Map.put and related methods.
+     */
+    final V putVal(int h, K key, V value, boolean onlyIfAbsent)
+    {
+        int i;
+        if ((i = findIndex(h, key)) >= 0)
+        {
+            @SuppressWarnings("unchecked") V oldValue = (V) vals[i];
+            if (!onlyIfAbsent || oldValue == null)
+                vals[i] = value;
+            return oldValue;
+        }
+        if (hashes == null)
+            rebuild(tableCapacity(initialCapacity));
+        else if (size >= threshold && capacity < MAXIMUM_CAPACITY)
+            rebuild(capacity << 1);
+        if (!place(h, maskNull(key), value))
+            rebuild(capacity);
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * Removes the mapping at slot i. If movable, an entry of the stash
+     * that belongs to the emptied bucket is moved back into it.
+     */
+    final void removeAt(int i, boolean movable)
+    {
+        int[] hs = hashes;
+        Object[] ks = keys, vs = vals;
+        ks[i] = null;
+        vs[i] = null;
+        hs[i] = 0;
+        ++modCount;
+        --size;
+        int cap = capacity;
+        if (i >= cap)
+            --stashSize;
+        else if (movable && stashSize != 0)
+        {
+            int b = i & -BUCKET_SIZE;
+            for (int j = cap; j < ks.length; ++j)
+            {
+                int h;
+                if (ks[j] != null && (index1(h = hs[j]) == b || index2(h) == b))
+                {
+                    hs[i] = h;
+                    ks[i] = ks[j];
+                    vs[i] = vs[j];
+                    ks[j] = null;
+                    vs[j] = null;
+                    hs[j] = 0;
+                    --stashSize;
+                    break;
+                }
+            }
+        }
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        int i;
+        return (i = findIndex(hash(key), key)) < 0 ? null : (V) vals[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        int i;
+        return (i = findIndex(hash(key), key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return findIndex(hash(key), key) >= 0;
+    }
+
+    public V put(K key, V value)
+    {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        return putVal(hash(key), key, value, true);
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        int s = m.size();
+        if (s == 0)
+            return;
+        //预先分配足够的容量,避免循环中多次重建
+        float fc = (float) (size + s) / loadFactor + 1.0f;
+        int t = (fc >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : tableCapacity((int) fc);
+        if (hashes == null)
+            initialCapacity = Math.max(initialCapacity, t);
+        else if (t > capacity)
+            rebuild(t);
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+        {
+            K key = e.getKey();
+            putVal(hash(key), key, e.getValue(), false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        int i;
+        if ((i = findIndex(hash(key), key)) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i, true);
+        return oldValue;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        int i;
+        if ((i = findIndex(hash(key), key)) >= 0 &&
+                Objects.equals(vals[i], value))
+        {
+            removeAt(i, true);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear()
+    {
+        int[] hs;
+        modCount++;
+        if ((hs = hashes) != null && size > 0)
+        {
+            size = 0;
+            stashSize = 0;
+            Arrays.fill(hs, 0);
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+        }
+    }
+
+    public boolean containsValue(Object value)
+    {
+        Object[] ks;
+        if ((ks = keys) != null && size > 0)
+        {
+            Object[] vs = vals;
+            for (int i = 0; i < ks.length; ++i)
+            {
+                Object v;
+                if (ks[i] != null && ((v = vs[i]) == value || (value != null && value.equals(v))))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        Object[] ks;
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0 && (ks = keys) != null)
+        {
+            Object[] vs = vals;
+            int mc = modCount;
+            for (int i = 0; i < ks.length; ++i)
+            {
+                Object k;
+                if ((k = ks[i]) != null)
+                    action.accept(unmaskNull(k), (V) vs[i]);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final void clear()
+        {
+            CuckooHashMap.this.clear();
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            int i = findIndex(hash(key), key);
+            return i >= 0 && Objects.equals(vals[i], e.getValue());
+        }
+
+        public final boolean remove(Object o)
+        {
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return CuckooHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+
+        public final void forEach(Consumer<? super Map.Entry<K, V>> action)
+        {
+            if (action == null)
+                throw new NullPointerException();
+            Iterator<Map.Entry<K, V>> it = iterator();
+            while (it.hasNext())
+                action.accept(it.next());
+        }
+    }
+
+    /**
+     * Entry returned by the iterator; writes through to its slot while
+     * the key is still there. Insertions may move entries between slots.
+     */
+    final class Entry implements Map.Entry<K, V>
+    {
+        final K key;
+        V value;
+        final int index;
+        final Object[] valTab;
+
+        Entry(K key, V value, int index)
+        {
+            this.key = key;
+            this.value = value;
+            this.index = index;
+            this.valTab = vals;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V newValue)
+        {
+            V oldValue = value;
+            value = newValue;
+            //元素被踢到别的槽位或表被重建过就退化为put
+            if (valTab == vals && keys[index] == maskNull(key))
+                valTab[index] = newValue;
+            else
+                put(key, newValue);
+            return oldValue;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    //迭代器删除不会移动元素,按槽位顺序遍历即可
+    final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        int next;              // next slot to return, or keys.length
+        int current = -1;      // slot of last returned entry
+        int expectedModCount;  // for fast-fail
+
+        EntryIterator()
+        {
+            expectedModCount = modCount;
+            if (keys != null && size > 0)
+                advance(0);
+            else
+                next = Integer.MAX_VALUE;
+        }
+
+        private void advance(int i)
+        {
+            Object[] ks = keys;
+            while (i < ks.length && ks[i] == null)
+                ++i;
+            next = i;
+        }
+
+        public boolean hasNext()
+        {
+            return keys != null && next < keys.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next()
+        {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int i = next;
+            advance(i + 1);
+            current = i;
+            return new Entry(unmaskNull(keys[i]), (V) vals[i], i);
+        }
+
+        public void remove()
+        {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeAt(i, false);
+            expectedModCount = modCount;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone()
+    {
+        CuckooHashMap<K, V> result;
+        try
+        {
+            result = (CuckooHashMap<K, V>) super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        if (hashes != null)
+        {
+            result.hashes = hashes.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        Object[] ks;
+        if (size > 0 && (ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                Object k;
+                if ((k = ks[i]) != null)
+                {
+                    s.writeObject(unmaskNull(k));
+                    s.writeObject(vals[i]);
+                }
+            }
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        hashes = null;
+        keys = vals = null;
+        pendingKey = pendingValue = null;
+        size = modCount = capacity = stashSize = threshold = 0;
+        int mappings = s.readInt();
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        float fc = (float) mappings / loadFactor + 1.0f;
+        initialCapacity = Math.max(initialCapacity, (fc >= MAXIMUM_CAPACITY) ?
+                MAXIMUM_CAPACITY : (int) fc);
+        for (int i = 0; i < mappings; i++)
+        {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(hash(key), key, value, false);
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package JDK8;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/*
+不可变的 map:由 HashMap.freeze() 生成,用最小完美哈希(minimal perfect hash)定位键值对
+
+目的:启动时构造一次、之后只读的 map 不需要链表、红黑树和负载因子留出的空槽
+    n 个不同的 hash 恰好映射到 [0, n) 中 n 个不同的位置,键和值放在两个长度为 n 的数组里
+    查找:计算一次 hash,算出位置,比较一次 equals
+
+构造(CHD / hash-and-displace):
+    hash 与源 map 的 keyHash 一致(hashingStrategy、hashSeed 也一起保存),所以可以直接复用 Node 中缓存的 hash
+    先用 hash 把键分到 r = n / BUCKET_SIZE 个桶里,按桶从大到小依次处理
+    对每个桶尝试 seed = 0, 1, 2, ...,直到桶中所有键的位置 position(hash, seed) 都还没有被占用并且互不相同,记下这个 seed
+    查找时先算出桶,再用桶的 seed 算出位置,每个键只多占用 32 / BUCKET_SIZE 位
+    桶大小为 k、已占用比例为 L 时平均要试 1 / (1 - L)^k 个 seed,L 接近 1 时最后几个桶要试非常多次
+    所以实际在 n + n / 64 个位置上放置,落在 [n, n + n / 64) 的键再通过 remap 挪到 [0, n) 中剩下的空位(PTHash 的做法)
+    键和值数组仍然是 n 个元素,只多了一个很小的 remap 数组,查找时多一次几乎不会成立的比较
+
+hash 完全相同的不同键(例如 "Aa" 和 "BB")无论怎么选 seed 都分不开,它们放在同一个位置的 Collision 中线性查找
+ */
+
+/**
+ * An immutable map backed by a minimal perfect hash function, created by
+ * {@link HashMap#freeze}. Keys and values are stored in two dense arrays
+ * with no empty slots; a lookup computes the key's hash once, reads one
+ * array element and makes one <tt>equals</tt> call. Keys are hashed and
+ * compared exactly as in the map they were frozen from, including its
+ * {@link HashingStrategy}. Permits <tt>null</tt> keys and values.
+ *
+ * <p>Distinct keys with identical hashes cannot be told apart by any
+ * function of the hash; they share one slot and are searched linearly.
+ *
+ * <p>The mutating methods of the <tt>Map</tt> interface throw
+ * <tt>UnsupportedOperationException</tt>. The iteration order is
+ * unspecified and is not the order of the source map. Instances are
+ * safe to share between threads without synchronization.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap#freeze
+ */
+public final class FrozenHashMap<K, V> extends AbstractMap<K, V>
+        implements Serializable {
+
+    private static final long serialVersionUID = -5262791409812263404L;
+
+    /**
+     * Average number of distinct hashes per bucket of the first-level
+     * hash. Larger buckets need fewer seeds but take longer to place.
+     */
+    static final int BUCKET_SIZE = 5;
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Estimated sizes in bytes, assuming compressed references.
+     */
+    static final int OBJECT_HEADER = 12, ARRAY_HEADER = 16, REFERENCE = 4;
+
+    /**
+     * Keys indexed by slot; a Collision where several keys share a hash.
+     */
+    final transient Object[] keys;
+
+    final transient Object[] values;
+
+    /**
+     * Seed for each first-level bucket.
+     */
+    final transient int[] seeds;
+
+    /**
+     * Slot for each position at or beyond keys.length.
+     */
+    final transient int[] remap;
+
+    final transient int size;
+
+    final transient HashingStrategy<Object> strategy;
+
+    final transient int hashSeed;
+
+    /**
+     * Estimated footprint of the map this one was frozen from, or -1.
+     */
+    final transient long sourceFootprint;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    private FrozenHashMap(Object[] keys, Object[] values, int[] seeds, int[] remap, int size,
+                          HashingStrategy<Object> strategy, int hashSeed,
+                          long sourceFootprint)
+    {
+        this.keys = keys;
+        this.values = values;
+        this.seeds = seeds;
+        this.remap = remap;
+        this.size = size;
+        this.strategy = strategy;
+        this.hashSeed = hashSeed;
+        this.sourceFootprint = sourceFootprint;
+    }
+
+    /**
+     * Builds a map from parallel arrays of mappings whose keys are
+     * distinct and whose hashes were computed as by {@link #hash}.
+     */
+    /*
+    1. 按 hash 排序,hash 相同的键合成一组,得到 m 个不同的 hash
+    2. 计数排序把 m 个 hash 分到 r 个桶里,再按桶的大小从大到小排好处理顺序
+    3. 依次为每个桶找 seed,taken 记录已经被占用的位置
+     */
+    static <K, V> FrozenHashMap<K, V> build(int[] hashes, Object[] ks, Object[] vs, int n,
+                                            HashingStrategy<Object> strategy, int hashSeed,
+                                            long sourceFootprint)
+    {
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++)
+            order[i] = ((long) hashes[i] << 32) | i;
+        Arrays.sort(order, 0, n);
+        int m = 0;
+        int[] distinct = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            int h = (int) (order[i] >> 32);
+            if (m == 0 || distinct[m - 1] != h)
+                distinct[m++] = h;
+        }
+        int r = Math.max(1, (m + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        int[] seeds = new int[r];
+        int[] slots = new int[m];
+        int[] remap = new int[m >>> 6];
+        if (m > 0)
+            placeBuckets(distinct, m, seeds, remap, slots);
+
+        Object[] keys = new Object[m];
+        Object[] values = new Object[m];
+        for (int i = 0, d = 0; i < n; d++)
+        {
+            int h = (int) (order[i] >> 32), j = i;
+            while (j < n && (int) (order[j] >> 32) == h)
+                ++j;
+            int slot = slots[d];
+            if (j - i == 1)
+            {
+                keys[slot] = ks[(int) order[i]];
+                values[slot] = vs[(int) order[i]];
+            }
+            else
+            {
+                Object[] cks = new Object[j - i], cvs = new Object[j - i];
+                for (int k = i; k < j; k++)
+                {
+                    cks[k - i] = ks[(int) order[k]];
+                    cvs[k - i] = vs[(int) order[k]];
+                }
+                keys[slot] = new Collision(cks, cvs);
+            }
+            i = j;
+        }
+        return new FrozenHashMap<K, V>(keys, values, seeds, remap, n, strategy, hashSeed,
+                sourceFootprint);
+    }
+
+    /**
+     * Finds a seed for every bucket so that the m distinct hashes are
+     * mapped to distinct positions among m + remap.length, then fills
+     * remap so that every hash ends up in a distinct slot below m,
+     * recording the slot of each hash.
+     */
+    private static void placeBuckets(int[] distinct, int m, int[] seeds, int[] remap,
+                                     int[] slots)
+    {
+        int r = seeds.length, positions = m + remap.length;
+        //members 中按桶存放 hash 的下标,start[b] 到 start[b + 1] 是桶 b 的成员
+        int[] start = new int[r + 1];
+        int[] bucket = new int[m];
+        for (int i = 0; i < m; i++)
+            ++start[(bucket[i] = bucketOf(distinct[i], r)) + 1];
+        int maxBucket = 0;
+        for (int b = 0; b < r; b++)
+        {
+            maxBucket = Math.max(maxBucket, start[b + 1]);
+            start[b + 1] += start[b];
+        }
+        int[] members = new int[m];
+        int[] fill = Arrays.copyOf(start, r);
+        for (int i = 0; i < m; i++)
+            members[fill[bucket[i]]++] = i;
+
+        //按桶的大小计数排序,大桶先放,这时空位最多
+        int[] bySize = new int[maxBucket + 2];
+        for (int b = 0; b < r; b++)
+            ++bySize[maxBucket - (start[b + 1] - start[b]) + 1];
+        for (int s = 0; s <= maxBucket; s++)
+            bySize[s + 1] += bySize[s];
+        int[] buckets = new int[r];
+        for (int b = 0; b < r; b++)
+            buckets[bySize[maxBucket - (start[b + 1] - start[b])]++] = b;
+
+        long[] taken = new long[(positions + 63) >>> 6];
+        int[] pos = new int[maxBucket];
+        for (int b : buckets)
+        {
+            int from = start[b], len = start[b + 1] - from;
+            if (len == 0)
+                break;
+            int seed = 0;
+            search:
+            for (; ; seed++)
+            {
+                if (seed < 0)
+                    throw new IllegalStateException("No perfect hash found");
+                for (int j = 0; j < len; j++)
+                {
+                    int p = position(distinct[members[from + j]], seed, positions);
+                    if ((taken[p >>> 6] & (1L << p)) != 0)
+                    {
+                        //回滚这个 seed 已经占用的位置
+                        while (--j >= 0)
+                            taken[pos[j] >>> 6] &= ~(1L << pos[j]);
+                        continue search;
+                    }
+                    taken[p >>> 6] |= 1L << p;
+                    pos[j] = p;
+                }
+                break;
+            }
+            seeds[b] = seed;
+            for (int j = 0; j < len; j++)
+                slots[members[from + j]] = pos[j];
+        }
+        //[m, positions) 中被占用的位置数正好等于 [0, m) 中的空位数,按顺序一一对应
+        for (int p = m, free = 0; p < positions; p++)
+        {
+            if ((taken[p >>> 6] & (1L << p)) == 0)
+                continue;
+            while ((taken[free >>> 6] & (1L << free)) != 0)
+                ++free;
+            remap[p - m] = free++;
+        }
+        for (int i = 0; i < m; i++)
+            if (slots[i] >= m)
+                slots[i] = remap[slots[i] - m];
+    }
+
+    /**
+     * Murmur3's 64-bit finalizer.
+     */
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Maps x uniformly onto [0, n) without division.
+     */
+    static int reduce(int x, int n)
+    {
+        return (int) (((x & 0xffffffffL) * n) >>> 32);
+    }
+
+    /*
+    桶的大小不均匀:60% 的 hash 分到前 30% 的桶里,这些大桶在空位还多的时候先放,后面只剩下小桶
+    和均匀分桶相比,总共要试的 seed 少一半以上
+     */
+    static int bucketOf(int h, int r)
+    {
+        long z = mix(h & 0xffffffffL);
+        int dense = (int) (r * 3L / 10);
+        return ((z >>> 32) < 0x99999999L) ? reduce((int) z, dense) :
+                dense + reduce((int) z, r - dense);
+    }
+
+    /*
+    mix 是 64 位上的双射,不同的 hash 在每个 seed 下得到不同的 64 位值,只在取高 32 位并缩到 [0, m) 时才可能冲突
+    所以同一个桶里的 hash 总能找到一个把它们分开的 seed
+     */
+    static int position(int h, int seed, int positions)
+    {
+        return reduce((int) (mix((h & 0xffffffffL) ^ (seed + 1) * GOLDEN) >>> 32), positions);
+    }
+
+    /**
+     * Returns the slot of a hash: the position chosen by its bucket's
+     * seed, remapped if it lies beyond the dense arrays.
+     */
+    final int slotOf(int h, int m)
+    {
+        int[] rm = remap;
+        int p = position(h, seeds[bucketOf(h, seeds.length)], m + rm.length);
+        return (p < m) ? p : rm[p - m];
+    }
+
+    /**
+     * Computes the hash of a key exactly as the source map's keyHash.
+     */
+    final int hash(Object key)
+    {
+        HashingStrategy<Object> s;
+        int h;
+        if ((s = strategy) == null)
+            return ((h = hashSeed) == 0) ? HashMap.hash(key) : HashMap.seededHash(key, h);
+        return (key == null) ? 0 : (h = s.hashCode(key)) ^ (h >>> 16);
+    }
+
+    final boolean keyEquals(Object key, Object k)
+    {
+        HashingStrategy<Object> s;
+        if (key == k)
+            return true;
+        if (key == null || k == null)
+            return false;
+        return ((s = strategy) == null) ? key.equals(k) : s.equals(key, k);
+    }
+
+    /**
+     * Returns the slot holding the key, or -1, or -2 - i if it is the
+     * i-th key of the collision at its slot's position.
+     */
+    /*
+    返回值同时编码是否在 Collision 中,这样 get 和 containsKey 都只需要查一次
+     */
+    final int find(Object key)
+    {
+        Object[] ks = keys;
+        int m = ks.length;
+        if (m == 0)
+            return -1;
+        int h = hash(key);
+        int slot = slotOf(h, m);
+        Object k = ks[slot];
+        if (k instanceof Collision)
+        {
+            Object[] cks = ((Collision) k).keys;
+            for (int i = 0; i < cks.length; i++)
+                if (keyEquals(key, cks[i]))
+                    return -2 - i;
+            return -1;
+        }
+        return keyEquals(key, k) ? slot : -1;
+    }
+
+    /**
+     * Returns the estimated number of bytes used by this map's own
+     * structure, excluding the key and value objects themselves.
+     *
+     * @return the estimated footprint in bytes
+     */
+    public long footprint()
+    {
+        long bytes = align(OBJECT_HEADER + 7 * REFERENCE + 2 * 4 + 8) +
+                arrayBytes(keys.length, REFERENCE) * 2 + arrayBytes(seeds.length, 4) +
+                arrayBytes(remap.length, 4);
+        for (Object k : keys)
+            if (k instanceof Collision)
+                bytes += ((Collision) k).footprint();
+        return bytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the structure of the
+     * map this one was frozen from, at the time it was frozen, or -1 if
+     * this map was not created by freezing. The memory saved by freezing
+     * is the difference between this and {@link #footprint()}.
+     *
+     * @return the estimated footprint of the source map in bytes, or -1
+     */
+    public long sourceFootprint()
+    {
+        return sourceFootprint;
+    }
+
+    static long align(long bytes)
+    {
+        return (bytes + 7) & ~7L;
+    }
+
+    static long arrayBytes(int length, int elementSize)
+    {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        int i = find(key);
+        if (i >= 0)
+            return (V) values[i];
+        if (i == -1)
+            return null;
+        return (V) collisionAt(key).values[-2 - i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        int i = find(key);
+        if (i >= 0)
+            return (V) values[i];
+        if (i == -1)
+            return defaultValue;
+        return (V) collisionAt(key).values[-2 - i];
+    }
+
+    private Collision collisionAt(Object key)
+    {
+        int h = hash(key);
+        return (Collision) keys[slotOf(h, keys.length)];
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return find(key) != -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        if (action == null)
+            throw new NullPointerException();
+        Object[] ks = keys, vs = values;
+        for (int i = 0; i < ks.length; i++)
+        {
+            Object k = ks[i];
+            if (k instanceof Collision)
+            {
+                Collision c = (Collision) k;
+                for (int j = 0; j < c.keys.length; j++)
+                    action.accept((K) c.keys[j], (V) c.values[j]);
+            }
+            else
+                action.accept((K) k, (V) vs[i]);
+        }
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            return containsKey(key) && Objects.equals(get(key), e.getValue());
+        }
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        int index;
+        Collision collision;
+        int collisionIndex;
+
+        public final boolean hasNext()
+        {
+            return collision != null || index < keys.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public final Map.Entry<K, V> next()
+        {
+            Collision c;
+            if ((c = collision) != null)
+            {
+                int j = collisionIndex++;
+                if (collisionIndex == c.keys.length)
+                    collision = null;
+                return new SimpleImmutableEntry<K, V>((K) c.keys[j], (V) c.values[j]);
+            }
+            if (index >= keys.length)
+                throw new NoSuchElementException();
+            int i = index++;
+            Object k = keys[i];
+            if (k instanceof Collision)
+            {
+                collision = (Collision) k;
+                collisionIndex = 0;
+                return next();
+            }
+            return new SimpleImmutableEntry<K, V>((K) k, (V) values[i]);
+        }
+    }
+
+    /**
+     * Keys with identical hashes, and their values.
+     */
+    static final class Collision
+    {
+        final Object[] keys;
+        final Object[] values;
+
+        Collision(Object[] keys, Object[] values)
+        {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        long footprint()
+        {
+            return align(OBJECT_HEADER + 2 * REFERENCE) + arrayBytes(keys.length, REFERENCE) * 2;
+        }
+    }
+
+    /* ---------------- Serialization -------------- */
+
+    private Object writeReplace()
+    {
+        return new SerializationProxy(this);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException
+    {
+        throw new InvalidObjectException("Proxy required");
+    }
+
+    /**
+     * Serialized form of a FrozenHashMap: its hashing and the mappings as
+     * two arrays. The perfect hash is rebuilt on deserialization.
+     */
+    private static final class SerializationProxy implements Serializable
+    {
+        private static final long serialVersionUID = 6530462383618395851L;
+
+        private final HashingStrategy<Object> strategy;
+        private final int hashSeed;
+        private final Object[] keys;
+        private final Object[] values;
+
+        SerializationProxy(FrozenHashMap<?, ?> m)
+        {
+            strategy = m.strategy;
+            hashSeed = m.hashSeed;
+            keys = new Object[m.size];
+            values = new Object[m.size];
+            int[] i = {0};
+            m.forEach((k, v) ->
+            {
+                keys[i[0]] = k;
+                values[i[0]++] = v;
+            });
+        }
+
+        private Object readResolve() throws InvalidObjectException
+        {
+            if (keys == null || values == null || keys.length != values.length)
+                throw new InvalidObjectException("Mismatched keys and values");
+            FrozenHashMap<Object, Object> m = new FrozenHashMap<Object, Object>(
+                    new Object[0], new Object[0], new int[1], new int[0], 0, strategy, hashSeed, -1);
+            int[] hashes = new int[keys.length];
+            for (int i = 0; i < keys.length; i++)
+                hashes[i] = m.hash(keys[i]);
+            return build(hashes, keys, values, keys.length, strategy, hashSeed, -1);
+        }
+    }
+}
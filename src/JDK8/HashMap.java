@@ -1,15 +1,20 @@
 package JDK8;
 
-import java.io.IOException;
-import java.io.InvalidObjectException;
-import java.io.Serializable;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToLongBiFunction;
 
 import sun.misc.SharedSecrets;
 
@@ -138,6 +143,47 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     // 桶中结构转化为红黑树对应的table的最小大小
     static final int MIN_TREEIFY_CAPACITY = 64;
 
+    /**
+     * The number of old bins migrated per mutating operation while an
+     * incremental resize is in progress, in addition to the bin of the
+     * key being operated on. After a doubling the table can take about
+     * 0.75 * oldCap more insertions before the next resize, so any
+     * stride of at least 2 finishes migration in time.
+     */
+    // 渐进式扩容时,每次写操作额外迁移的桶数
+    static final int INCREMENTAL_RESIZE_STRIDE = 16;
+
+    /**
+     * The smallest old table capacity for which an incremental resize is
+     * used; smaller tables are always rehashed in one go.
+     */
+    static final int MIN_INCREMENTAL_RESIZE_CAPACITY = 1 << 10;
+
+    /**
+     * The number of longs in one block of the Bloom filter: 512 bits,
+     * one 64-byte cache line. All bits of a key are set in one block.
+     */
+    static final int BLOOM_BLOCK_LONGS = 8;
+
+    /**
+     * The largest number of Bloom filter bits per key.
+     */
+    static final int MAX_BLOOM_BITS_PER_KEY = 32;
+
+    /**
+     * The smallest source map size for which putAll and the copy
+     * constructor insert in bucket order rather than in the source's
+     * iteration order. Below this the table fits in cache anyway and the
+     * extra arrays are not worth allocating.
+     */
+    static final int BULK_PUT_THRESHOLD = 1 << 16;
+
+    /**
+     * log2 of the number of partitions used by the bulk insertion path.
+     * Each partition covers a contiguous range of 1/4096th of the table.
+     */
+    static final int BULK_PUT_PARTITION_BITS = 12;
+
     /**
      * Basic hash bin node, used for most entries.  (See below for
      * TreeNode subclass, and in LinkedHashMap for its Entry subclass.)
@@ -146,7 +192,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     Map.Entry是Map的一个内部接口。表示Map中的一个实体（一个key-value对）。接口中有getKey(),getValue方法。
      */
     static class Node<K, V> implements Map.Entry<K, V> {
-        final int hash;
+        int hash;//不是final:检测到hash冲突攻击后要用新的种子重新计算
         final K key;
         V value;
         HashMap.Node<K, V> next;
@@ -207,6 +253,93 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return (key == null) ? 0 : (h = key.hashCode()) ^ (h >>> 16);
     }
 
+    /**
+     * Computes key hashes once a hash flood has been detected. Strings
+     * are hashed from their characters with seeded MurmurHash3, so keys
+     * crafted to share a String hashCode no longer collide; other keys
+     * have their hashCode mixed with the seed.
+     */
+    /*
+    类似 JDK7 的 alternative hashing(sun.misc.Hashing.murmur3_32 + hashSeed)
+    String 的 hashCode 算法是公开的,很容易构造出大量 hashCode 相同的字符串,只打散 hashCode 没有用,必须对字符重新计算
+    代价是每次查找都要遍历字符串(String 缓存了 hashCode,但缓存不了这个值),所以只在检测到攻击后才启用
+    其他类型的键只能打散 hashCode,hashCode 完全相同的键仍然会冲突,这时照常树化
+     */
+    static int seededHash(Object key, int seed)
+    {
+        int h;
+        if (key == null)
+            return 0;
+        if (key instanceof String)
+        {
+            String str = (String) key;
+            int len = str.length(), i = 0;
+            h = seed;
+            for (; i + 1 < len; i += 2)
+            {
+                int k = str.charAt(i) | (str.charAt(i + 1) << 16);
+                k *= 0xcc9e2d51;
+                k = Integer.rotateLeft(k, 15);
+                k *= 0x1b873593;
+                h ^= k;
+                h = Integer.rotateLeft(h, 13);
+                h = h * 5 + 0xe6546b64;
+            }
+            if (i < len)
+            {
+                int k = str.charAt(i);
+                k *= 0xcc9e2d51;
+                k = Integer.rotateLeft(k, 15);
+                k *= 0x1b873593;
+                h ^= k;
+            }
+            h ^= len * 2;
+        }
+        else
+            h = key.hashCode() ^ seed;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the hash of a key: hash(key) without a strategy, otherwise
+     * the strategy's hash code with the same high-bit spreading.
+     */
+    //有 HashingStrategy 时由它提供 hashCode,null 键仍然为0;检测到hash冲突攻击后使用带种子的hash
+    final int keyHash(Object key)
+    {
+        HashingStrategy<Object> s;
+        int h;
+        if ((s = strategy) == null)
+            return ((h = hashSeed) == 0) ? hash(key) : seededHash(key, h);
+        return (key == null) ? 0 : (h = s.hashCode(key)) ^ (h >>> 16);
+    }
+
+    /**
+     * Compares a non-null key with the key of a node, using the strategy
+     * if there is one.
+     */
+    final boolean keyEquals(Object key, Object k)
+    {
+        HashingStrategy<Object> s;
+        return ((s = strategy) == null) ? key.equals(k) :
+                (k != null && s.equals(key, k));
+    }
+
+    /**
+     * Returns the strategy used to hash and compare keys, or null if the
+     * keys' own hashCode and equals are used.
+     *
+     * @return the hashing strategy, or null
+     */
+    public HashingStrategy<? super K> hashingStrategy()
+    {
+        return strategy;
+    }
+
     /**
      * Returns x's Class if it is of the form "class C implements
      * Comparable<C>", else null.
@@ -351,6 +484,122 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     final float loadFactor;
 
+    /**
+     * The strategy used to hash and compare keys, or null to use the
+     * keys' own hashCode and equals.
+     *
+     * @serial
+     */
+    final HashingStrategy<Object> strategy;
+
+    /**
+     * Whether resize() migrates bins lazily, a few per operation, rather
+     * than rehashing the whole table in one call.
+     *
+     * @serial
+     */
+    boolean incrementalResize;
+
+    /**
+     * The table being migrated by an incremental resize, or null. Bins
+     * still holding nodes have not been moved to table yet; migrated bins
+     * are nulled out.
+     */
+    /*
+    渐进式扩容:
+        resize() 只分配新表,旧表暂存在 oldTable 中
+        之后每次写操作(putVal,removeNode,compute...)先把自己那个桶迁移过去,再顺序迁移 INCREMENTAL_RESIZE_STRIDE 个桶
+        迁移单个桶复用原来的 lo/hi 拆分逻辑,因为新表的 j 和 j + oldCap 两个位置只会由旧表的 j 桶填充
+        读操作(getNode)不迁移:旧表对应的桶不为空就在旧表中找,否则在新表中找,所以只会访问一个桶
+        需要遍历整张表的操作(迭代器,forEach,containsValue...)先调用 finishResize() 把剩下的桶一次迁完
+     */
+    transient Node<K, V>[] oldTable;
+
+    /**
+     * The next bin of oldTable to migrate in index order.
+     */
+    transient int transferIndex;
+
+    /**
+     * Whether hash flood detection is turned off. When false (the
+     * default), the first bin to reach TREEIFY_THRESHOLD in a table of
+     * at least MIN_TREEIFY_CAPACITY bins switches the map to a random
+     * hash seed instead of being treeified.
+     *
+     * @serial
+     */
+    boolean fixedHashing;
+
+    /**
+     * Whether overflowing bins are indexed by sorted arrays (ArrayBin)
+     * rather than converted to red-black trees.
+     *
+     * @serial
+     */
+    boolean arrayBins;
+
+    /**
+     * The load below which a removal shrinks the table, or 0 if the table
+     * never shrinks (the default).
+     *
+     * @serial
+     */
+    /*
+    扩容在 size 超过 capacity * loadFactor 时发生,收缩在 size 低于 capacity * shrinkLoad 时发生
+    收缩后的容量是能让 size 不超过 newCap * loadFactor / 2 的最小的 2 的幂(不小于默认容量),也就是收缩后表是半满的
+    因为 shrinkLoad 不超过 loadFactor / 4,收缩后离下一次扩容和下一次收缩都还很远,在边界附近反复增删不会来回换表(滞后)
+     */
+    float shrinkLoad;
+
+    /**
+     * The number of Bloom filter bits per expected mapping, or 0 if
+     * lookups are not guarded by a Bloom filter (the default).
+     *
+     * @serial
+     */
+    int bloomBitsPerKey;
+
+    /**
+     * The blocked Bloom filter over the hashes of the keys, or null.
+     * Sized for threshold mappings and rebuilt by every resize.
+     */
+    /*
+    分块(blocked)布隆过滤器:每 512 位(8 个 long,一条缓存行)为一块,一个键的所有位都在同一块中
+    不命中的查找通常在这一条缓存行里就能得出结论,不再计算 equals,也不读桶和链表
+    过滤器记录的是 hash 而不是 key,扩容不改变 hash,只是键数变多需要更大的过滤器,所以在 resize 时重建
+    布隆过滤器不能删除:删除时只计数(bloomStale),残留的位只会增加误判,超过阈值的一半时重建一次,均摊 O(1)
+     */
+    transient long[] bloom;
+
+    /**
+     * The number of bits set per key, derived from bloomBitsPerKey.
+     */
+    transient int bloomProbes;
+
+    /**
+     * The number of removed keys whose bits are still set in the filter.
+     */
+    transient int bloomStale;
+
+    /**
+     * The random seed mixed into key hashes after a hash flood was
+     * detected, or 0 while the standard hash is in use.
+     */
+    /*
+    负载因子0.75时,正常的hash下一个桶的链表长度达到8的概率不到千万分之一(见上面的泊松分布)
+    所以表已经不小了还出现这么长的链表,基本上说明键是被刻意构造成冲突的(比如HTTP参数名)
+    第一次发生时不树化,而是换一个随机种子,用新的hash重新散列整张表
+    换过种子之后仍然出现的长链表说明hashCode本身就完全相同,照常树化
+     */
+    transient int hashSeed;
+
+    /**
+     * Counters for the statistics API, or null when statistics are
+     * disabled (the default). Every instrumented path tests this field
+     * once and otherwise runs the uninstrumented code.
+     */
+    transient Stats stats;
+
     /* ---------------- Public operations -------------- */
 
     /**
@@ -377,6 +626,55 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         //此处不是真正的阈值,该阈值后面会重新计算
         this.loadFactor = loadFactor;
         this.threshold = tableSizeFor(initialCapacity);//得到大于他的最小二次幂
+        this.strategy = null;
+    }
+
+    /**
+     * Constructs an empty <tt>HashMap</tt> with the specified initial
+     * capacity and load factor that hashes and compares keys with the
+     * given strategy instead of their own <tt>hashCode</tt> and
+     * <tt>equals</tt>. Bins of a map with a strategy are never converted
+     * to trees, since tree bins order keys by <tt>Comparable</tt>, which
+     * need not be consistent with the strategy.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor
+     * @param strategy        the hashing strategy
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is nonpositive
+     * @throws NullPointerException     if the strategy is null
+     */
+    @SuppressWarnings("unchecked")
+    public HashMap(int initialCapacity, float loadFactor,
+                   HashingStrategy<? super K> strategy)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        if (strategy == null)
+            throw new NullPointerException();
+        this.loadFactor = loadFactor;
+        this.threshold = tableSizeFor(initialCapacity);
+        this.strategy = (HashingStrategy<Object>) strategy;
+    }
+
+    /**
+     * Constructs an empty <tt>HashMap</tt> with the default initial
+     * capacity (16) and load factor (0.75) that hashes and compares keys
+     * with the given strategy.
+     *
+     * @param strategy the hashing strategy
+     * @throws NullPointerException if the strategy is null
+     * @see #HashMap(int, float, HashingStrategy)
+     */
+    public HashMap(HashingStrategy<? super K> strategy)
+    {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, strategy);
     }
 
     /**
@@ -399,6 +697,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public HashMap()
     {
         this.loadFactor = DEFAULT_LOAD_FACTOR; // all other fields defaulted
+        this.strategy = null;
     }
 
     /**
@@ -413,6 +712,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public HashMap(Map<? extends K, ? extends V> m)
     {
         this.loadFactor = DEFAULT_LOAD_FACTOR;
+        this.strategy = null;
         putMapEntries(m, false);
     }
 
@@ -442,13 +742,83 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
             else if (s > threshold)
                 resize();//说明原本有,但是原本的位置不够了
+            //LinkedHashMap的迭代顺序就是插入顺序,不能打乱
+            if (s >= BULK_PUT_THRESHOLD && !(this instanceof LinkedHashMap))
+            {
+                putMapEntriesBulk(m, s, evict);
+                return;
+            }
             //循环里的putVal可能也会触发resize
             for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
             {
                 K key = e.getKey();
                 V value = e.getValue();
-                putVal(hash(key), key, value, false, evict);
+                putVal(keyHash(key), key, value, false, evict);
+            }
+        }
+    }
+
+    /**
+     * Bulk path of putMapEntries for large maps. Computes all hashes
+     * first, sizes the table once, then inserts the mappings grouped by
+     * the high bits of their bucket index, so that consecutive putVal
+     * calls touch a small, cache-resident slice of the table instead of
+     * a random bucket each.
+     */
+    /*
+    按源 map 的迭代顺序逐个 putVal,每次访问的桶都是随机的,表很大时几乎每次都 cache miss
+    这里先把所有的 hash 算出来,按桶下标的高 BULK_PUT_PARTITION_BITS 位做一趟计数排序(radix partition)
+    同一个分区的桶在 table 中是连续的一段,再按分区顺序 putVal
+    计数排序是稳定的,hash 相同的键仍然保持源 map 中的相对顺序,结果与逐个 putVal 完全一致
+    putVal 树化时可能检测到 hash 冲突攻击而更换 hashSeed,之后 hs 中剩下的 hash 都作废了,要用 keyHash 重新计算
+    (剩下的键仍按原来的分区顺序插入,只是不再是连续的桶,结果照样正确)
+     */
+    private void putMapEntriesBulk(Map<? extends K, ? extends V> m, int s, boolean evict)
+    {
+        int[] hs = new int[s];
+        Object[] ks = new Object[s], vs = new Object[s];
+        int n = 0;
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+        {
+            //源 map 可能是并发容器,size()只是估计值
+            if (n == hs.length)
+            {
+                int len = n + (n >> 1) + 1;
+                hs = Arrays.copyOf(hs, len);
+                ks = Arrays.copyOf(ks, len);
+                vs = Arrays.copyOf(vs, len);
             }
+            K key = e.getKey();
+            hs[n] = keyHash(key);
+            ks[n] = key;
+            vs[n] = e.getValue();
+            ++n;
+        }
+        //一次扩到位,分区是按最终的表长计算的
+        if (table == null)
+            resize();
+        while (size + n > threshold && table.length < MAXIMUM_CAPACITY)
+            resize();
+        if (oldTable != null)
+            finishResize();
+        int bits = Integer.numberOfTrailingZeros(table.length);
+        int shift = Math.max(0, bits - BULK_PUT_PARTITION_BITS);
+        int mask = table.length - 1;
+        int[] start = new int[(1 << (bits - shift)) + 1];
+        for (int i = 0; i < n; ++i)
+            ++start[((hs[i] & mask) >>> shift) + 1];
+        for (int p = 1; p < start.length; ++p)
+            start[p] += start[p - 1];
+        int[] order = new int[n];
+        for (int i = 0; i < n; ++i)
+            order[start[(hs[i] & mask) >>> shift]++] = i;
+        int seed = hashSeed;
+        for (int i = 0; i < n; ++i)
+        {
+            int j = order[i];
+            @SuppressWarnings("unchecked") K key = (K) ks[j];
+            @SuppressWarnings("unchecked") V value = (V) vs[j];
+            putVal((hashSeed == seed) ? hs[j] : keyHash(key), key, value, false, evict);
         }
     }
 
@@ -477,7 +847,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public V get(Object key)
     {
         Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? null : e.value;
+        return (e = getNode(keyHash(key), key)) == null ? null : e.value;
     }
 
     /**
@@ -493,25 +863,34 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         Node<K, V> first, e;
         int n;
         K k;
-        //table不为空,table长度不为0,table相应的索引位置不为空
-        if ((tab = table) != null && (n = tab.length) > 0 &&
-                (first = tab[(n - 1) & hash]) != null)
+        if (stats != null)
+            return getNodeCounting(hash, key);
+        if (bloom != null && !bloomMayContain(hash))
+            return null;
+        //渐进式扩容中,旧表对应的桶还没迁移,键只可能在旧表中
+        if (((tab = oldTable) != null &&
+                (first = tab[(tab.length - 1) & hash]) != null) ||
+                //table不为空,table长度不为0,table相应的索引位置不为空
+                ((tab = table) != null && (n = tab.length) > 0 &&
+                        (first = tab[(n - 1) & hash]) != null))
         {
             //因为索引相同hash却不一定相同(多个hash映射到同一个槽)
             //hash相同并不一定是键相同,还要检查键是否相同或相等
             if (first.hash == hash && // always check first node
-                    ((k = first.key) == key || (key != null && key.equals(k))))
+                    ((k = first.key) == key || (key != null && keyEquals(key, k))))
                 return first;
             if ((e = first.next) != null)
             {
                 //如果是红黑树节点，则调用红黑树的查找目标节点方法getTreeNode
                 if (first instanceof TreeNode)
                     return ((TreeNode<K, V>) first).getTreeNode(hash, key);
+                if (first instanceof ArrayBin)
+                    return ((ArrayBin<K, V>) first).find(this, hash, key);
                 do
                 {
                     //执行链表节点的查找，向下遍历链表, 直至找到节点的key和入参的key相等时,返回该节点
                     if (e.hash == hash &&
-                            ((k = e.key) == key || (key != null && key.equals(k))))
+                            ((k = e.key) == key || (key != null && keyEquals(key, k))))
                         return e;
                 } while ((e = e.next) != null);
             }
@@ -519,6 +898,81 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return null;
     }
 
+    /**
+     * Version of getNode used while statistics are enabled: same lookup,
+     * but counts the nodes compared. In tree bins the descent by hash is
+     * counted node by node; a tie on hash is handed to find and counted
+     * as one further probe.
+     */
+    final Node<K, V> getNodeCounting(int hash, Object key)
+    {
+        Node<K, V>[] tab;
+        Node<K, V> first, e = null;
+        int n, probes = 0;
+        K k;
+        if ((bloom == null || bloomMayContain(hash)) &&
+                (((tab = oldTable) != null &&
+                        (first = tab[(tab.length - 1) & hash]) != null) ||
+                        ((tab = table) != null && (n = tab.length) > 0 &&
+                                (first = tab[(n - 1) & hash]) != null)))
+        {
+            if (first instanceof TreeNode)
+            {
+                TreeNode<K, V> p = ((TreeNode<K, V>) first).root();
+                while (p != null)
+                {
+                    ++probes;
+                    int ph = p.hash;
+                    if (ph > hash)
+                        p = p.left;
+                    else if (ph < hash)
+                        p = p.right;
+                    else if ((k = p.key) == key || (key != null && keyEquals(key, k)))
+                    {
+                        e = p;
+                        break;
+                    }
+                    else
+                    {
+                        ++probes;
+                        e = p.find(hash, key, null);
+                        break;
+                    }
+                }
+            }
+            else if (first instanceof ArrayBin)
+            {
+                //二分查找比较的次数,加上 hash 相等的节点逐个比较的次数
+                ArrayBin<K, V> b = (ArrayBin<K, V>) first;
+                int i = b.lowerBound(hash);
+                probes = 32 - Integer.numberOfLeadingZeros(b.count);
+                for (int c = b.count; i < c && b.hashes[i] == hash; ++i)
+                {
+                    ++probes;
+                    if ((k = b.nodes[i].key) == key || (key != null && keyEquals(key, k)))
+                    {
+                        e = b.nodes[i];
+                        break;
+                    }
+                }
+            }
+            else
+            {
+                for (e = first; e != null; e = e.next)
+                {
+                    ++probes;
+                    if (e.hash == hash &&
+                            ((k = e.key) == key || (key != null && keyEquals(key, k))))
+                        break;
+                }
+            }
+        }
+        Stats st = stats;
+        ++st.lookups;
+        st.probes += probes;
+        return e;
+    }
+
     /**
      * Returns <tt>true</tt> if this map contains a mapping for the
      * specified key.
@@ -529,7 +983,151 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     public boolean containsKey(Object key)
     {
-        return getNode(hash(key), key) != null;
+        return getNode(keyHash(key), key) != null;
+    }
+
+    /**
+     * The number of keys resolved together by the batch lookups.
+     */
+    static final int BATCH_LOOKUP_SIZE = 64;
+
+    /**
+     * Looks up each of the given keys, storing in out[i] the value to
+     * which keys[i] is mapped, or null if there is no mapping for it.
+     * Equivalent to calling {@link #get} for each key, but the keys are
+     * resolved in batches whose memory accesses are interleaved, so the
+     * cache misses of different keys overlap instead of following one
+     * another.
+     *
+     * @param keys the keys to look up
+     * @param out  the array receiving the values
+     * @return the number of keys for which a mapping was found
+     * @throws IllegalArgumentException if out is shorter than keys
+     */
+    public int getAll(K[] keys, V[] out)
+    {
+        int n = keys.length, found = 0;
+        if (out.length < n)
+            throw new IllegalArgumentException("Output array too short");
+        int b = Math.min(n, BATCH_LOOKUP_SIZE);
+        int[] hashes = new int[b];
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Node<K, V>[] nodes = (Node<K, V>[]) new Node[b], cursors = (Node<K, V>[]) new Node[b];
+        for (int from = 0; from < n; from += b)
+        {
+            int len = Math.min(b, n - from);
+            getNodes(keys, from, len, hashes, nodes, cursors);
+            for (int i = 0; i < len; i++)
+            {
+                Node<K, V> e = nodes[i];
+                if (e == null)
+                    out[from + i] = null;
+                else
+                {
+                    afterNodeAccess(e);
+                    out[from + i] = e.value;
+                    ++found;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns true if this map contains a mapping for every one of the
+     * given keys, resolving them in interleaved batches as
+     * {@link #getAll} does.
+     *
+     * @param keys the keys to look up
+     * @return true if every key has a mapping in this map
+     */
+    public boolean containsAllKeys(Object... keys)
+    {
+        int n = keys.length;
+        int b = Math.min(n, BATCH_LOOKUP_SIZE);
+        int[] hashes = new int[b];
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Node<K, V>[] nodes = (Node<K, V>[]) new Node[b], cursors = (Node<K, V>[]) new Node[b];
+        for (int from = 0; from < n; from += b)
+        {
+            int len = Math.min(b, n - from);
+            getNodes(keys, from, len, hashes, nodes, cursors);
+            for (int i = 0; i < len; i++)
+                if (nodes[i] == null)
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolves keys[from, from + len) to their nodes, or null, in nodes.
+     */
+    /*
+    逐个 get 时,下一个键的查找要等上一个键的桶头、链表节点都从内存里读回来才开始,每次 cache miss 都是串行的
+    这里分几轮处理一批键,每一轮内各个键的访存互不依赖,CPU 可以同时发出这些读请求:
+        1. 先算出所有键的 hash
+        2. 一次读出所有桶头,比较第一个节点;树化的桶直接交给 getTreeNode
+        3. 之后每一轮把还没有结果的键沿链表前进一步,直到全部找到或者走到链表末尾
+    Java 没有预取指令,交错的访存顺序就是这里能做到的"软件预取"
+    开启统计或者正在渐进式扩容时直接逐个调用 getNode
+     */
+    final void getNodes(Object[] keys, int from, int len, int[] hashes,
+                        Node<K, V>[] nodes, Node<K, V>[] cursors)
+    {
+        Node<K, V>[] tab;
+        for (int i = 0; i < len; i++)
+            hashes[i] = keyHash(keys[from + i]);
+        if (stats != null || oldTable != null || (tab = table) == null)
+        {
+            for (int i = 0; i < len; i++)
+                nodes[i] = getNode(hashes[i], keys[from + i]);
+            return;
+        }
+        int mask = tab.length - 1;
+        boolean filtered = bloom != null;
+        for (int i = 0; i < len; i++)
+            cursors[i] = (filtered && !bloomMayContain(hashes[i])) ? null : tab[hashes[i] & mask];
+        int active = 0;
+        for (int i = 0; i < len; i++)
+        {
+            Node<K, V> e = cursors[i];
+            Object key = keys[from + i];
+            K k;
+            nodes[i] = null;
+            if (e == null)
+                continue;
+            if (e.hash == hashes[i] && ((k = e.key) == key || (key != null && keyEquals(key, k))))
+                nodes[i] = e;
+            else if (e instanceof TreeNode)
+                nodes[i] = ((TreeNode<K, V>) e).getTreeNode(hashes[i], key);
+            else if (e instanceof ArrayBin)
+                nodes[i] = ((ArrayBin<K, V>) e).find(this, hashes[i], key);
+            else if ((cursors[i] = e.next) != null)
+            {
+                ++active;
+                continue;
+            }
+            cursors[i] = null;
+        }
+        while (active > 0)
+        {
+            active = 0;
+            for (int i = 0; i < len; i++)
+            {
+                Node<K, V> e = cursors[i];
+                if (e == null)
+                    continue;
+                Object key = keys[from + i];
+                K k;
+                if (e.hash == hashes[i] && ((k = e.key) == key || (key != null && keyEquals(key, k))))
+                {
+                    nodes[i] = e;
+                    cursors[i] = null;
+                }
+                else if ((cursors[i] = e.next) != null)
+                    ++active;
+            }
+        }
     }
 
     /*
@@ -538,7 +1136,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     public V put(K key, V value)
     {
-        return putVal(hash(key), key, value, false, true);
+        return putVal(keyHash(key), key, value, false, true);
     }
 
 
@@ -556,6 +1154,9 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 //        校验table是否为空或者length等于0，如果是则调用resize方法进行初始化
         if ((tab = table) == null || (n = tab.length) == 0)
             n = (tab = resize()).length;
+        //先把这个键所在的桶迁移到新表,之后只需要操作新表
+        if (oldTable != null)
+            advanceResize(hash);
         //直接新建节点,多好
         if ((p = tab[i = (n - 1) & hash]) == null)
             tab[i] = newNode(hash, key, value, null);
@@ -565,11 +1166,17 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             K k;
             //直接覆盖相同的值p
             if (p.hash == hash &&
-                    ((k = p.key) == key || (key != null && key.equals(k))))
+                    ((k = p.key) == key || (key != null && keyEquals(key, k))))
                 e = p;
                 //调用红黑树的put方法
             else if (p instanceof TreeNode)
                 e = ((TreeNode<K, V>) p).putTreeVal(this, tab, hash, key, value);
+            else if (p instanceof ArrayBin)
+            {
+                ArrayBin<K, V> b = (ArrayBin<K, V>) p;
+                if ((e = b.find(this, hash, key)) == null)
+                    b.putNew(this, hash, key, value);
+            }
             else
             {
                 //binCount记录是否需要树化
@@ -587,7 +1194,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                     }
                     //说明存在相同的key,要修改
                     if (e.hash == hash &&
-                            ((k = e.key) == key || (key != null && key.equals(k))))
+                            ((k = e.key) == key || (key != null && keyEquals(key, k))))
                         break;
                     p = e;
                     //继续遍历下一个Node
@@ -605,6 +1212,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
         }
         ++modCount;
+        if (bloom != null)
+            bloomAdd(hash);
         //插入则size+1,而且大于threshold则需要扩容了
         if (++size > threshold)
             resize();
@@ -627,6 +1236,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     final Node<K, V>[] resize()
     {
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        //上一次渐进式扩容还没迁移完,先迁移完再扩容
+        if (oldTable != null)
+            finishResize();
         Node<K, V>[] oldTab = table;
         int oldCap = (oldTab == null) ? 0 : oldTab.length;
         int oldThr = threshold;
@@ -675,69 +1288,649 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         //如果老表不为空，则需遍历所有节点，将节点赋值给新表
         if (oldTab != null)
         {
-            for (int j = 0; j < oldCap; ++j)
+            //渐进式扩容:只记下旧表,桶留给之后的写操作来迁移
+            if (incrementalResize && oldCap >= MIN_INCREMENTAL_RESIZE_CAPACITY)
             {
-                Node<K, V> e;
-                    if ((e = oldTab[j]) != null)// 将索引值为j的老表头节点赋值给e
-                {
-                    oldTab[j] = null;// 将老表的节点设置为空, 以便垃圾收集器回收空间
-                    if (e.next == null)//只有一个节点,直接散列
-                        newTab[e.hash & (newCap - 1)] = e;
-                    else if (e instanceof TreeNode)//调用红黑树的重新散列
-                        ((TreeNode<K, V>) e).split(this, newTab, j, oldCap);
-                    else
-                    { // preserve order
-                        Node<K, V> loHead = null, loTail = null;
-                        Node<K, V> hiHead = null, hiTail = null;
-                        Node<K, V> next;
-                        do
-                        {
-                            next = e.next;
-                            /*
-                            例如 3和19,00011,10011
-                            如果oldCap=10000(16)
-                            00011 & 10000 = 0
-                            10011 & 10000 = 10000 != 0
-                            将原本在一个索引的分成两条链表
-                             */
-                            //因为扩容为原来两倍,所以根据oldCap的最高位,来把链表区分成两块链表
-                            //如果 e 的 hash 值与老表的容量进行位与运算为 0，则说明 e 节点扩容后的索引位置跟老表的索引位置一样
-                            if ((e.hash & oldCap) == 0)
-                            {
-                                //好强的代码,巧妙的构造了链表
-                                //还是尾插法,尾插法就要维护一个头部(loHead),以及当前指针(loTail)
-                                if (loTail == null)
-                                    loHead = e;
-                                else
-                                    loTail.next = e;
-                                loTail = e;
-                            }
-                            else
-                            {
-                                if (hiTail == null)
-                                    hiHead = e;
-                                else
-                                    hiTail.next = e;
-                                hiTail = e;
-                            }
-                        } while ((e = next) != null);//散列开来
-                        if (loTail != null)
-                        {
-                            loTail.next = null;
-                            newTab[j] = loHead;
-                        }
-                        if (hiTail != null)
-                        {
-                            hiTail.next = null;
-                            newTab[j + oldCap] = hiHead;//放在新的位置
-                        }
-                    }
-                }
+                oldTable = oldTab;
+                transferIndex = 0;
             }
+            else
+            {
+                for (int j = 0; j < oldCap; ++j)
+                    transferBin(oldTab, newTab, j);
+            }
+        }
+        if (bloomBitsPerKey != 0)
+            rebuildBloom();
+        if (stats != null)
+        {
+            ++stats.resizes;
+            stats.resizeNanos += System.nanoTime() - start;
         }
         return newTab;
     }
 
+    /**
+     * Moves bin j of oldTab into newTab, which must be twice as long.
+     * Nodes either stay at index j or move to j + oldCap, preserving
+     * their relative order.
+     */
+    final void transferBin(Node<K, V>[] oldTab, Node<K, V>[] newTab, int j)
+    {
+        int oldCap = oldTab.length, newCap = newTab.length;
+        Node<K, V> e;
+        if ((e = oldTab[j]) != null)// 将索引值为j的老表头节点赋值给e
+        {
+            oldTab[j] = null;// 将老表的节点设置为空, 以便垃圾收集器回收空间
+            if (e.next == null)//只有一个节点,直接散列
+                newTab[e.hash & (newCap - 1)] = e;
+            else if (e instanceof TreeNode)//调用红黑树的重新散列
+                ((TreeNode<K, V>) e).split(this, newTab, j, oldCap);
+            else
+            { // preserve order
+                Node<K, V> loHead = null, loTail = null;
+                Node<K, V> hiHead = null, hiTail = null;
+                Node<K, V> next, first = e;
+                int lc = 0, hc = 0;
+                do
+                {
+                    next = e.next;
+                    /*
+                    例如 3和19,00011,10011
+                    如果oldCap=10000(16)
+                    00011 & 10000 = 0
+                    10011 & 10000 = 10000 != 0
+                    将原本在一个索引的分成两条链表
+                     */
+                    //因为扩容为原来两倍,所以根据oldCap的最高位,来把链表区分成两块链表
+                    //如果 e 的 hash 值与老表的容量进行位与运算为 0，则说明 e 节点扩容后的索引位置跟老表的索引位置一样
+                    if ((e.hash & oldCap) == 0)
+                    {
+                        //好强的代码,巧妙的构造了链表
+                        //还是尾插法,尾插法就要维护一个头部(loHead),以及当前指针(loTail)
+                        if (loTail == null)
+                            loHead = e;
+                        else
+                            loTail.next = e;
+                        loTail = e;
+                        ++lc;
+                    }
+                    else
+                    {
+                        if (hiTail == null)
+                            hiHead = e;
+                        else
+                            hiTail.next = e;
+                        hiTail = e;
+                        ++hc;
+                    }
+                } while ((e = next) != null);//散列开来
+                if (loTail != null)
+                {
+                    loTail.next = null;
+                    newTab[j] = loHead;
+                }
+                if (hiTail != null)
+                {
+                    hiTail.next = null;
+                    newTab[j + oldCap] = hiHead;//放在新的位置
+                }
+                //ArrayBin 的链表和普通链表一样拆分,再分别重建两个桶的索引
+                if (first instanceof ArrayBin)
+                {
+                    splitArrayBin(newTab, j, lc);
+                    splitArrayBin(newTab, j + oldCap, hc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs one step of an incremental resize: migrates the bin that
+     * the given hash maps to in oldTable, so that callers may then work
+     * on table alone, plus up to INCREMENTAL_RESIZE_STRIDE further bins
+     * in index order. Must only be called while oldTable is non-null.
+     */
+    final void advanceResize(int hash)
+    {
+        Node<K, V>[] oldTab = oldTable, newTab = table;
+        int oldCap = oldTab.length;
+        int j = (oldCap - 1) & hash;
+        //已经迁移过的桶为null,不需要区分是按顺序迁移的还是单独迁移的
+        if (oldTab[j] != null)
+            transferBin(oldTab, newTab, j);
+        int i = transferIndex, end = Math.min(oldCap, i + INCREMENTAL_RESIZE_STRIDE);
+        for (; i < end; ++i)
+        {
+            if (oldTab[i] != null)
+                transferBin(oldTab, newTab, i);
+        }
+        if ((transferIndex = i) >= oldCap)
+            oldTable = null;
+    }
+
+    /**
+     * Migrates all remaining bins of an incremental resize, if any. Used
+     * before operations that traverse the whole table.
+     */
+    final void finishResize()
+    {
+        Node<K, V>[] oldTab, newTab = table;
+        if ((oldTab = oldTable) != null)
+        {
+            for (int j = transferIndex; j < oldTab.length; ++j)
+            {
+                if (oldTab[j] != null)
+                    transferBin(oldTab, newTab, j);
+            }
+            oldTable = null;
+            transferIndex = oldTab.length;
+        }
+    }
+
+    /**
+     * Sets whether this map resizes incrementally. When enabled, a resize
+     * of a large table only allocates the doubled table; bins are then
+     * moved a few at a time by subsequent insertions and removals, and
+     * lookups consult whichever table currently holds the key's bin. This
+     * bounds the latency of the insertion that crosses the threshold at
+     * the cost of slightly slower updates while a migration is pending.
+     * Disabling completes any pending migration.
+     *
+     * @param incremental true to resize incrementally
+     */
+    public void setIncrementalResize(boolean incremental)
+    {
+        if (!(incrementalResize = incremental))
+            finishResize();
+    }
+
+    /**
+     * Returns whether this map resizes incrementally.
+     *
+     * @return true if resizes are incremental
+     * @see #setIncrementalResize(boolean)
+     */
+    public boolean isIncrementalResize()
+    {
+        return incrementalResize;
+    }
+
+    /**
+     * Sets whether this map defends itself against hash flooding. When
+     * enabled (the default), the first bin of a table with at least
+     * MIN_TREEIFY_CAPACITY bins that grows to TREEIFY_THRESHOLD nodes is
+     * taken as a sign of deliberately colliding keys: the map picks a
+     * random hash seed and rehashes all keys with it, rather than turning
+     * the bin into a tree. Strings are then hashed from their characters,
+     * so crafted String collisions are broken up. Disabling restores the
+     * standard hash, rehashing if a seed was in use. Has no effect on a
+     * map with a {@link HashingStrategy}.
+     *
+     * @param enabled true to enable hash flood detection
+     */
+    public void setFloodProtection(boolean enabled)
+    {
+        fixedHashing = !enabled;
+        if (!enabled && hashSeed != 0)
+        {
+            hashSeed = 0;
+            if (table != null)
+            {
+                ++modCount;
+                rehash(table.length, true);
+            }
+        }
+    }
+
+    /**
+     * Sets whether overflowing bins are stored as sorted arrays instead
+     * of red-black trees. An array bin keeps the bin's nodes in a linked
+     * list, as a plain bin does, and indexes them with an array sorted by
+     * hash: a lookup binary-searches the hashes and calls <tt>equals</tt>
+     * only on keys with an equal hash, so keys need not be
+     * <tt>Comparable</tt>. Array bins take about 8 bytes per mapping on
+     * top of a plain node, against about 24 for a tree node, and are
+     * faster to build, but insertions and removals in a bin take time
+     * linear in its size. Unlike tree bins, they are also used by maps
+     * with a {@link HashingStrategy}. Existing bins are converted.
+     *
+     * @param enabled true to use array bins
+     */
+    public void setArrayBins(boolean enabled)
+    {
+        if (arrayBins != enabled)
+        {
+            arrayBins = enabled;
+            if (table != null)
+            {
+                ++modCount;
+                rehash(table.length, false);
+            }
+        }
+    }
+
+    /**
+     * Sets the low-water mark below which removals shrink the table.
+     * When the number of mappings falls below capacity * lowWaterLoad
+     * after a removal, the table is replaced by the smallest one (of at
+     * least the default capacity) that is no more than half full under
+     * the load factor, and {@link #clear} releases the table altogether.
+     * The mark must be at most a quarter of the load factor, so that a
+     * shrunken table is far from both growing and shrinking again. Zero,
+     * the default, disables shrinking. Removals through an iterator never
+     * shrink the table; the next removal does.
+     *
+     * @param lowWaterLoad the shrink load, or 0 to never shrink
+     * @throws IllegalArgumentException if lowWaterLoad is negative or
+     *                                  greater than a quarter of the load factor
+     */
+    public void setShrinkLoad(float lowWaterLoad)
+    {
+        if (!(lowWaterLoad >= 0f && lowWaterLoad <= loadFactor / 4))
+            throw new IllegalArgumentException("Illegal shrink load: " + lowWaterLoad);
+        shrinkLoad = lowWaterLoad;
+        shrinkIfSparse();
+    }
+
+    /**
+     * Returns the low-water mark below which removals shrink the table,
+     * or 0 if the table never shrinks.
+     *
+     * @return the shrink load
+     * @see #setShrinkLoad(float)
+     */
+    public float getShrinkLoad()
+    {
+        return shrinkLoad;
+    }
+
+    /**
+     * Sets the number of bits per mapping of a blocked Bloom filter
+     * consulted before every lookup, or 0 to remove the filter. A lookup
+     * of an absent key is then usually answered from one cache line of
+     * the filter, without computing key equality or reading the table.
+     * Ten bits per key give about one false positive in a hundred. The
+     * filter takes bitsPerKey / 8 bytes per mapping the table can hold
+     * before its next resize, is rebuilt by every resize, and is rebuilt
+     * after many removals, whose bits it cannot clear.
+     *
+     * @param bitsPerKey the filter bits per mapping, or 0 for no filter
+     * @throws IllegalArgumentException if bitsPerKey is negative or greater
+     *                                  than 32
+     */
+    public void setBloomFilter(int bitsPerKey)
+    {
+        if (bitsPerKey < 0 || bitsPerKey > MAX_BLOOM_BITS_PER_KEY)
+            throw new IllegalArgumentException("Illegal bits per key: " + bitsPerKey);
+        bloomBitsPerKey = bitsPerKey;
+        rebuildBloom();
+    }
+
+    /**
+     * Returns the number of Bloom filter bits per mapping, or 0 if
+     * lookups are not guarded by a Bloom filter.
+     *
+     * @return the filter bits per mapping
+     * @see #setBloomFilter(int)
+     */
+    public int getBloomFilterBitsPerKey()
+    {
+        return bloomBitsPerKey;
+    }
+
+    /**
+     * Allocates a Bloom filter sized for the current threshold and adds
+     * the hash of every key, or drops the filter if it is disabled or
+     * the table is not allocated.
+     */
+    final void rebuildBloom()
+    {
+        int bpk = bloomBitsPerKey;
+        bloomStale = 0;
+        if (bpk == 0 || table == null)
+        {
+            bloom = null;
+            return;
+        }
+        long expected = Math.max(size, Math.min(threshold, MAXIMUM_CAPACITY));
+        long blocks = Math.max(1L, (expected * bpk + 511) >>> 9);
+        long[] bf = new long[tableSizeFor((int) Math.min(blocks, 1 << 22)) * BLOOM_BLOCK_LONGS];
+        bloom = bf;
+        //k = 位数 * ln2 时误判率最低
+        bloomProbes = Math.max(1, Math.round(bpk * 0.69f));
+        Node<K, V>[] tab;
+        if ((tab = oldTable) != null)
+            for (Node<K, V> e : tab)
+                for (; e != null; e = e.next)
+                    bloomAdd(e.hash);
+        for (Node<K, V> e : table)
+            for (; e != null; e = e.next)
+                bloomAdd(e.hash);
+    }
+
+    /*
+    hash 乘以 64 位的黄金分割常数,高 32 位选块
+    低位再和中间的位异或得到 y,块内的第 i 个位置是 (y + i * d) 的低 9 位,d 是奇数,所以各个位置互不相同
+     */
+    final void bloomAdd(int h)
+    {
+        long[] bf = bloom;
+        long x = h * 0x9E3779B97F4A7C15L;
+        int base = ((int) (x >>> 32) & ((bf.length >>> 3) - 1)) << 3;
+        int y = (int) x ^ (int) (x >>> 29), d = (y >>> 16) | 1;
+        for (int i = bloomProbes; i > 0; --i, y += d)
+            bf[base + ((y >>> 6) & 7)] |= 1L << y;
+    }
+
+    /**
+     * Returns false if no key with the given hash is in the map.
+     */
+    final boolean bloomMayContain(int h)
+    {
+        long[] bf = bloom;
+        long x = h * 0x9E3779B97F4A7C15L;
+        int base = ((int) (x >>> 32) & ((bf.length >>> 3) - 1)) << 3;
+        int y = (int) x ^ (int) (x >>> 29), d = (y >>> 16) | 1;
+        for (int i = bloomProbes; i > 0; --i, y += d)
+            if ((bf[base + ((y >>> 6) & 7)] & (1L << y)) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Records the removal of a key from a map with a Bloom filter,
+     * rebuilding the filter once removals reach half the threshold.
+     */
+    final void bloomRemoved()
+    {
+        if (++bloomStale > (threshold >>> 1))
+            rebuildBloom();
+    }
+
+    /**
+     * Shrinks the table if a shrink load is set and the map has fallen
+     * below it. Returns true if the table was replaced.
+     */
+    final boolean shrinkIfSparse()
+    {
+        Node<K, V>[] tab;
+        float sl;
+        int n, s = size;
+        if ((sl = shrinkLoad) == 0f || (tab = table) == null ||
+                (n = tab.length) <= DEFAULT_INITIAL_CAPACITY || s >= (int) (n * sl))
+            return false;
+        int newCap = DEFAULT_INITIAL_CAPACITY;
+        while (newCap < n && s > newCap * loadFactor / 2)
+            newCap <<= 1;
+        if (newCap >= n)
+            return false;
+        ++modCount;
+        rehash(newCap, false);
+        if (stats != null)
+            ++stats.resizes;
+        return true;
+    }
+
+    /**
+     * Returns whether overflowing bins are stored as sorted arrays.
+     *
+     * @return true if array bins are used
+     * @see #setArrayBins(boolean)
+     */
+    public boolean isArrayBins()
+    {
+        return arrayBins;
+    }
+
+    /**
+     * Returns whether hash flood detection is enabled.
+     *
+     * @return true if hash flood detection is enabled
+     * @see #setFloodProtection(boolean)
+     */
+    public boolean isFloodProtection()
+    {
+        return !fixedHashing;
+    }
+
+    /**
+     * Starts collecting statistics for {@link #statistics()}: treeify and
+     * untreeify counts, resize count and time, and lookup probe lengths.
+     * Counters start from zero. Has no effect if already enabled.
+     */
+    public void enableStatistics()
+    {
+        if (stats == null)
+            stats = new Stats();
+    }
+
+    /**
+     * Stops collecting statistics and discards the counters. This is the
+     * default state; while disabled, lookups, resizes and treeification
+     * only pay for one null check of a field.
+     */
+    public void disableStatistics()
+    {
+        stats = null;
+    }
+
+    /**
+     * Returns whether statistics are being collected.
+     *
+     * @return true if statistics are enabled
+     */
+    public boolean isStatisticsEnabled()
+    {
+        return stats != null;
+    }
+
+    /**
+     * Returns a snapshot of this map's internal state. The bin occupancy
+     * histogram, maximum chain length and number of tree bins are
+     * computed by scanning the table, so this takes time proportional to
+     * the capacity. The operation counters are zero unless statistics are
+     * enabled.
+     *
+     * @return a snapshot of the map's statistics
+     */
+    /*
+    桶的分布在这里扫描整张表得到,平时不需要维护
+    计数器(树化/反树化次数,扩容次数和耗时,getNode 的探测长度)只在 enableStatistics() 之后才累加
+    关闭时 stats 为 null,getNode 只多一次判空,不会走计数的版本
+     */
+    public Statistics statistics()
+    {
+        finishResize();
+        Node<K, V>[] tab = table;
+        long[] histogram = new long[Statistics.HISTOGRAM_LENGTH];
+        int maxChain = 0, treeBins = 0;
+        if (tab != null)
+        {
+            for (Node<K, V> e : tab)
+            {
+                int len = 0;
+                boolean tree = e instanceof TreeNode || e instanceof ArrayBin;
+                if (tree)
+                    ++treeBins;
+                for (Node<K, V> p = e; p != null; p = p.next)
+                    ++len;
+                if (!tree && len > maxChain)
+                    maxChain = len;
+                ++histogram[Math.min(len, Statistics.HISTOGRAM_LENGTH - 1)];
+            }
+        }
+        Stats st = stats;
+        return (st == null) ?
+                new Statistics(capacity(), size, histogram, maxChain, treeBins,
+                        0L, 0L, 0L, 0L, 0L, 0L) :
+                new Statistics(capacity(), size, histogram, maxChain, treeBins,
+                        st.treeifications, st.untreeifications, st.resizes,
+                        st.resizeNanos, st.lookups, st.probes);
+    }
+
+    /**
+     * Mutable counters behind the statistics API.
+     */
+    static final class Stats
+    {
+        long treeifications;
+        long untreeifications;
+        long resizes;
+        long resizeNanos;
+        long lookups;
+        long probes;
+    }
+
+    /**
+     * An immutable snapshot of a map's internal state, returned by
+     * {@link HashMap#statistics()}.
+     */
+    public static final class Statistics
+    {
+        /**
+         * The length of the occupancy histogram; the last element counts
+         * all bins holding at least HISTOGRAM_LENGTH - 1 nodes.
+         */
+        public static final int HISTOGRAM_LENGTH = 17;
+
+        private final int capacity;
+        private final int size;
+        private final long[] histogram;
+        private final int maxChainLength;
+        private final int treeBins;
+        private final long treeifications;
+        private final long untreeifications;
+        private final long resizes;
+        private final long resizeNanos;
+        private final long lookups;
+        private final long probes;
+
+        Statistics(int capacity, int size, long[] histogram, int maxChainLength,
+                   int treeBins, long treeifications, long untreeifications,
+                   long resizes, long resizeNanos, long lookups, long probes)
+        {
+            this.capacity = capacity;
+            this.size = size;
+            this.histogram = histogram;
+            this.maxChainLength = maxChainLength;
+            this.treeBins = treeBins;
+            this.treeifications = treeifications;
+            this.untreeifications = untreeifications;
+            this.resizes = resizes;
+            this.resizeNanos = resizeNanos;
+            this.lookups = lookups;
+            this.probes = probes;
+        }
+
+        /**
+         * Returns the number of bins in the table.
+         */
+        public int capacity()
+        {
+            return capacity;
+        }
+
+        /**
+         * Returns the number of mappings.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Returns the bin occupancy histogram: element i is the number of
+         * bins holding exactly i nodes, except the last element, which
+         * counts bins holding HISTOGRAM_LENGTH - 1 or more.
+         */
+        public long[] occupancyHistogram()
+        {
+            return histogram.clone();
+        }
+
+        /**
+         * Returns the length of the longest linked (non-tree, non-array)
+         * bin.
+         */
+        public int maxChainLength()
+        {
+            return maxChainLength;
+        }
+
+        /**
+         * Returns the number of bins currently stored as trees or, with
+         * array bins enabled, as sorted arrays.
+         */
+        public int treeBinCount()
+        {
+            return treeBins;
+        }
+
+        /**
+         * Returns how many linked bins were converted to trees.
+         */
+        public long treeifyCount()
+        {
+            return treeifications;
+        }
+
+        /**
+         * Returns how many tree bins were converted back to linked bins.
+         */
+        public long untreeifyCount()
+        {
+            return untreeifications;
+        }
+
+        /**
+         * Returns the number of resize() calls that allocated a table.
+         */
+        public long resizeCount()
+        {
+            return resizes;
+        }
+
+        /**
+         * Returns the cumulative time spent in resize(), in nanoseconds.
+         */
+        public long resizeNanos()
+        {
+            return resizeNanos;
+        }
+
+        /**
+         * Returns the number of lookups counted.
+         */
+        public long lookupCount()
+        {
+            return lookups;
+        }
+
+        /**
+         * Returns the average number of nodes compared per lookup, or 0
+         * if no lookups were counted.
+         */
+        public double averageProbeLength()
+        {
+            return (lookups == 0) ? 0.0 : (double) probes / lookups;
+        }
+
+        public String toString()
+        {
+            return "capacity=" + capacity + ", size=" + size +
+                    ", occupancy=" + Arrays.toString(histogram) +
+                    ", maxChainLength=" + maxChainLength +
+                    ", treeBins=" + treeBins +
+                    ", treeifyCount=" + treeifications +
+                    ", untreeifyCount=" + untreeifications +
+                    ", resizeCount=" + resizes +
+                    ", resizeNanos=" + resizeNanos +
+                    ", lookups=" + lookups +
+                    ", averageProbeLength=" + averageProbeLength();
+        }
+    }
+
     /**
      * Replaces all linked nodes in bin at index for given hash unless
      * table is too small, in which case resizes instead.
@@ -747,11 +1940,46 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     final void treeifyBin(Node<K, V>[] tab, int hash)
     {
         int n, index;
-        Node<K, V> e;
         //如果table为空或者table的长度小于64, 调用resize方法进行扩容
         if (tab == null || (n = tab.length) < MIN_TREEIFY_CAPACITY)
             resize();
-        else if ((e = tab[index = (n - 1) & hash]) != null)
+        else if (tab[index = (n - 1) & hash] != null)
+        {
+            //第一次出现超长链表,怀疑是hash冲突攻击,换随机种子重新散列
+            if (strategy == null && hashSeed == 0 && !fixedHashing)
+            {
+                int seed;
+                do
+                {
+                    seed = ThreadLocalRandom.current().nextInt();
+                } while (seed == 0);
+                hashSeed = seed;
+                rehash(n, true);
+            }
+            //红黑树按Comparable排序,和HashingStrategy的相等关系不一定一致,所以有strategy时不树化
+            //ArrayBin 只按 hash 排序,用 keyEquals 比较,有strategy时也可以使用
+            else if (strategy == null || arrayBins)
+                treeifyAt(tab, index);
+        }
+    }
+
+    /**
+     * Replaces the linked nodes in bin index of tab with tree nodes, or
+     * indexes them with an array bin if array bins are enabled.
+     */
+    final void treeifyAt(Node<K, V>[] tab, int index)
+    {
+        Node<K, V> e;
+        if (arrayBins && (e = tab[index]) != null)
+        {
+            ArrayBin<K, V> b = (e instanceof ArrayBin) ? (ArrayBin<K, V>) e :
+                    replacementArrayBin(e, e.next);
+            tab[index] = b;
+            b.index();
+            if (stats != null)
+                ++stats.treeifications;
+        }
+        else if ((e = tab[index]) != null)
         {
             TreeNode<K, V> hd = null, tl = null;
             //这一步只是构造了一个双向链表
@@ -773,9 +2001,96 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             //将table该索引位置赋值为新转的TreeNode的头节点，如果该节点不为空，则以以头节点(hd)为根节点, 构建红黑树
             if ((tab[index] = hd) != null)
                 hd.treeify(tab);
+            if (stats != null)
+                ++stats.treeifications;
         }
     }
 
+    /**
+     * Returns a plain node replacing the head of an array bin, dropping
+     * its index.
+     */
+    final Node<K, V> untreeifyArrayBin(ArrayBin<K, V> b)
+    {
+        if (stats != null)
+            ++stats.untreeifications;
+        return replacementNode(b, b.next);
+    }
+
+    /**
+     * Restores the array bin invariant for bin index of tab, which holds
+     * count nodes split off an array bin by a resize: indexes it if it
+     * has more than UNTREEIFY_THRESHOLD nodes, else leaves a plain chain.
+     */
+    final void splitArrayBin(Node<K, V>[] tab, int index, int count)
+    {
+        Node<K, V> hd;
+        if ((hd = tab[index]) == null)
+            return;
+        if (count > UNTREEIFY_THRESHOLD)
+        {
+            ArrayBin<K, V> b = (hd instanceof ArrayBin) ? (ArrayBin<K, V>) hd :
+                    replacementArrayBin(hd, hd.next);
+            tab[index] = b;
+            b.index();
+        }
+        else if (hd instanceof ArrayBin)
+            tab[index] = untreeifyArrayBin((ArrayBin<K, V>) hd);
+    }
+
+    /**
+     * Redistributes the nodes into a new table of the given capacity,
+     * which must be a power of two, first recomputing the hash of every
+     * key with keyHash if rehashKeys is true. Tree bins are untreeified
+     * first, and bins that end up with at least TREEIFY_THRESHOLD nodes
+     * are treeified again. Node objects are kept, so LinkedHashMap
+     * ordering is preserved.
+     */
+    final void rehash(int newCap, boolean rehashKeys)
+    {
+        finishResize();
+        Node<K, V>[] oldTab = table;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Node<K, V>[] newTab = (Node<K, V>[]) new Node[newCap];
+        int mask = newCap - 1;
+        if (oldTab != null)
+        {
+            for (Node<K, V> e : oldTab)
+            {
+                if (e instanceof TreeNode)
+                    e = ((TreeNode<K, V>) e).untreeify(this);
+                else if (e instanceof ArrayBin)
+                    e = untreeifyArrayBin((ArrayBin<K, V>) e);
+                for (Node<K, V> next; e != null; e = next)
+                {
+                    next = e.next;
+                    if (rehashKeys)
+                        e.hash = keyHash(e.key);
+                    int i = e.hash & mask;
+                    e.next = newTab[i];
+                    newTab[i] = e;
+                }
+            }
+        }
+        table = newTab;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                (int) ft : Integer.MAX_VALUE);
+        if ((strategy == null || arrayBins) && newCap >= MIN_TREEIFY_CAPACITY)
+        {
+            for (int i = 0; i < newCap; ++i)
+            {
+                int binCount = 0;
+                for (Node<K, V> e = newTab[i]; e != null && binCount < TREEIFY_THRESHOLD; e = e.next)
+                    ++binCount;
+                if (binCount >= TREEIFY_THRESHOLD)
+                    treeifyAt(newTab, i);
+            }
+        }
+        if (bloomBitsPerKey != 0)
+            rebuildBloom();
+    }
+
     /**
      * Copies all of the mappings from the specified map to this map.
      * These mappings will replace any mappings that this map had for
@@ -794,7 +2109,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public V remove(Object key)
     {
         Node<K, V> e;
-        return (e = removeNode(hash(key), key, null, false, true)) == null ?
+        return (e = removeNode(keyHash(key), key, null, false, true)) == null ?
                 null : e.value;
     }
 
@@ -814,6 +2129,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         Node<K, V>[] tab;
         Node<K, V> p;
         int n, index;
+        if (oldTable != null)
+            advanceResize(hash);
         if ((tab = table) != null && (n = tab.length) > 0 &&
                 (p = tab[index = (n - 1) & hash]) != null)
         {
@@ -822,19 +2139,21 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             V v;
             //找到要删除的那个节点
             if (p.hash == hash &&
-                    ((k = p.key) == key || (key != null && key.equals(k))))
+                    ((k = p.key) == key || (key != null && keyEquals(key, k))))
                 node = p;
             else if ((e = p.next) != null)
             {
                 if (p instanceof TreeNode)
                     node = ((TreeNode<K, V>) p).getTreeNode(hash, key);
+                else if (p instanceof ArrayBin)
+                    node = ((ArrayBin<K, V>) p).find(this, hash, key);
                 else
                 {
                     do
                     {
                         if (e.hash == hash &&
                                 ((k = e.key) == key ||
-                                        (key != null && key.equals(k))))
+                                        (key != null && keyEquals(key, k))))
                         {
                             node = e;
                             break;
@@ -849,13 +2168,20 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             {
                 if (node instanceof TreeNode)
                     ((TreeNode<K, V>) node).removeTreeNode(this, tab, movable);
+                else if (p instanceof ArrayBin)
+                    ((ArrayBin<K, V>) p).removeNode(this, tab, index, node, movable);
                 else if (node == p)//说明删除的是头元素
                     tab[index] = node.next;
                 else //p是要删除元素的前一个元素(对应上面的else if)
                     p.next = node.next;
                 ++modCount;
                 --size;
+                if (bloom != null)
+                    bloomRemoved();
                 afterNodeRemoval(node);//删除后的钩子方法
+                //迭代器删除时(movable 为 false)不能换表,留给之后的删除
+                if (movable)
+                    shrinkIfSparse();
                 return node;
             }
         }
@@ -870,11 +2196,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     {
         Node<K, V>[] tab;
         modCount++;
-        if ((tab = table) != null && size > 0)
+        oldTable = null;
+        //设置了收缩策略时直接释放整张表,下次插入时按默认容量重新分配
+        if ((tab = table) != null && shrinkLoad > 0f && tab.length > DEFAULT_INITIAL_CAPACITY)
+        {
+            size = 0;
+            table = null;
+            threshold = DEFAULT_INITIAL_CAPACITY;
+            bloom = null;
+        }
+        else if (tab != null && size > 0)
         {
             size = 0;
             for (int i = 0; i < tab.length; ++i)
                 tab[i] = null;
+            if (bloom != null)
+            {
+                Arrays.fill(bloom, 0L);
+                bloomStale = 0;
+            }
         }
     }
 
@@ -883,6 +2223,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     {
         Node<K, V>[] tab;
         V v;
+        finishResize();
         if ((tab = table) != null && size > 0)
         {
             for (int i = 0; i < tab.length; ++i)
@@ -934,7 +2275,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         public final boolean remove(Object key)
         {
-            return removeNode(hash(key), key, null, false, true) != null;
+            return removeNode(keyHash(key), key, null, false, true) != null;
         }
 
         public final Spliterator<K> spliterator()
@@ -947,6 +2288,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             Node<K, V>[] tab;
             if (action == null)
                 throw new NullPointerException();
+            finishResize();
             if (size > 0 && (tab = table) != null)
             {
                 int mc = modCount;
@@ -1005,6 +2347,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             Node<K, V>[] tab;
             if (action == null)
                 throw new NullPointerException();
+            finishResize();
             if (size > 0 && (tab = table) != null)
             {
                 int mc = modCount;
@@ -1049,7 +2392,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 return false;
             Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
             Object key = e.getKey();
-            Node<K, V> candidate = getNode(hash(key), key);
+            Node<K, V> candidate = getNode(keyHash(key), key);
             return candidate != null && candidate.equals(e);
         }
 
@@ -1060,7 +2403,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
                 Object key = e.getKey();
                 Object value = e.getValue();
-                return removeNode(hash(key), key, value, true, true) != null;
+                return removeNode(keyHash(key), key, value, true, true) != null;
             }
             return false;
         }
@@ -1075,6 +2418,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             Node<K, V>[] tab;
             if (action == null)
                 throw new NullPointerException();
+            finishResize();
             if (size > 0 && (tab = table) != null)
             {
                 int mc = modCount;
@@ -1096,19 +2440,19 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public V getOrDefault(Object key, V defaultValue)
     {
         Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? defaultValue : e.value;
+        return (e = getNode(keyHash(key), key)) == null ? defaultValue : e.value;
     }
 
     @Override
     public V putIfAbsent(K key, V value)
     {
-        return putVal(hash(key), key, value, true, true);
+        return putVal(keyHash(key), key, value, true, true);
     }
 
     @Override
     public boolean remove(Object key, Object value)
     {
-        return removeNode(hash(key), key, value, true, true) != null;
+        return removeNode(keyHash(key), key, value, true, true) != null;
     }
 
     //key,value都相同,才放入
@@ -1117,7 +2461,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     {
         Node<K, V> e;
         V v;
-        if ((e = getNode(hash(key), key)) != null &&
+        if ((e = getNode(keyHash(key), key)) != null &&
                 ((v = e.value) == oldValue || (v != null && v.equals(oldValue))))
         {
             e.value = newValue;
@@ -1131,7 +2475,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public V replace(K key, V value)
     {
         Node<K, V> e;
-        if ((e = getNode(hash(key), key)) != null)
+        if ((e = getNode(keyHash(key), key)) != null)
         {
             V oldValue = e.value;
             e.value = value;
@@ -1148,20 +2492,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     {
         if (mappingFunction == null)
             throw new NullPointerException();
-        int hash = hash(key);
+        int hash = keyHash(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
         int binCount = 0;
         TreeNode<K, V> t = null;
+        ArrayBin<K, V> b = null;
         Node<K, V> old = null;
         if (size > threshold || (tab = table) == null ||
                 (n = tab.length) == 0)
             n = (tab = resize()).length;
+        if (oldTable != null)
+            advanceResize(hash);
         if ((first = tab[i = (n - 1) & hash]) != null)
         {
             if (first instanceof TreeNode)
                 old = (t = (TreeNode<K, V>) first).getTreeNode(hash, key);
+            else if (first instanceof ArrayBin)
+                old = (b = (ArrayBin<K, V>) first).find(this, hash, key);
             else
             {
                 Node<K, V> e = first;
@@ -1169,7 +2518,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 do
                 {
                     if (e.hash == hash &&
-                            ((k = e.key) == key || (key != null && key.equals(k))))
+                            ((k = e.key) == key || (key != null && keyEquals(key, k))))
                     {
                         old = e;
                         break;
@@ -1197,6 +2546,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
         else if (t != null)
             t.putTreeVal(this, tab, hash, key, v);
+        else if (b != null)
+            b.putNew(this, hash, key, v);
         else
         {
             tab[i] = newNode(hash, key, v, first);
@@ -1204,6 +2555,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 treeifyBin(tab, hash);
         }
         ++modCount;
+        if (bloom != null)
+            bloomAdd(hash);
         ++size;
         afterNodeInsertion(true);
         return v;
@@ -1216,7 +2569,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             throw new NullPointerException();
         Node<K, V> e;
         V oldValue;
-        int hash = hash(key);
+        int hash = keyHash(key);
         if ((e = getNode(hash, key)) != null &&
                 (oldValue = e.value) != null)
         {
@@ -1239,20 +2592,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     {
         if (remappingFunction == null)
             throw new NullPointerException();
-        int hash = hash(key);
+        int hash = keyHash(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
         int binCount = 0;
         TreeNode<K, V> t = null;
+        ArrayBin<K, V> b = null;
         Node<K, V> old = null;
         if (size > threshold || (tab = table) == null ||
                 (n = tab.length) == 0)
             n = (tab = resize()).length;
+        if (oldTable != null)
+            advanceResize(hash);
         if ((first = tab[i = (n - 1) & hash]) != null)
         {
             if (first instanceof TreeNode)
                 old = (t = (TreeNode<K, V>) first).getTreeNode(hash, key);
+            else if (first instanceof ArrayBin)
+                old = (b = (ArrayBin<K, V>) first).find(this, hash, key);
             else
             {
                 Node<K, V> e = first;
@@ -1260,7 +2618,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 do
                 {
                     if (e.hash == hash &&
-                            ((k = e.key) == key || (key != null && key.equals(k))))
+                            ((k = e.key) == key || (key != null && keyEquals(key, k))))
                     {
                         old = e;
                         break;
@@ -1285,6 +2643,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         {
             if (t != null)
                 t.putTreeVal(this, tab, hash, key, v);
+            else if (b != null)
+                b.putNew(this, hash, key, v);
             else
             {
                 tab[i] = newNode(hash, key, v, first);
@@ -1292,6 +2652,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                     treeifyBin(tab, hash);
             }
             ++modCount;
+            if (bloom != null)
+                bloomAdd(hash);
             ++size;
             afterNodeInsertion(true);
         }
@@ -1306,20 +2668,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             throw new NullPointerException();
         if (remappingFunction == null)
             throw new NullPointerException();
-        int hash = hash(key);
+        int hash = keyHash(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
         int binCount = 0;
         TreeNode<K, V> t = null;
+        ArrayBin<K, V> b = null;
         Node<K, V> old = null;
         if (size > threshold || (tab = table) == null ||
                 (n = tab.length) == 0)
             n = (tab = resize()).length;
+        if (oldTable != null)
+            advanceResize(hash);
         if ((first = tab[i = (n - 1) & hash]) != null)
         {
             if (first instanceof TreeNode)
                 old = (t = (TreeNode<K, V>) first).getTreeNode(hash, key);
+            else if (first instanceof ArrayBin)
+                old = (b = (ArrayBin<K, V>) first).find(this, hash, key);
             else
             {
                 Node<K, V> e = first;
@@ -1327,7 +2694,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 do
                 {
                     if (e.hash == hash &&
-                            ((k = e.key) == key || (key != null && key.equals(k))))
+                            ((k = e.key) == key || (key != null && keyEquals(key, k))))
                     {
                         old = e;
                         break;
@@ -1354,58 +2721,691 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
         if (value != null)
         {
-            if (t != null)
-                t.putTreeVal(this, tab, hash, key, value);
-            else
+            if (t != null)
+                t.putTreeVal(this, tab, hash, key, value);
+            else if (b != null)
+                b.putNew(this, hash, key, value);
+            else
+            {
+                tab[i] = newNode(hash, key, value, first);
+                if (binCount >= TREEIFY_THRESHOLD - 1)
+                    treeifyBin(tab, hash);
+            }
+            ++modCount;
+            if (bloom != null)
+                bloomAdd(hash);
+            ++size;
+            afterNodeInsertion(true);
+        }
+        return value;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        Node<K, V>[] tab;
+        if (action == null)
+            throw new NullPointerException();
+        finishResize();
+        if (size > 0 && (tab = table) != null)
+        {
+            int mc = modCount;
+            for (int i = 0; i < tab.length; ++i)
+            {
+                for (Node<K, V> e = tab[i]; e != null; e = e.next)
+                    action.accept(e.key, e.value);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function)
+    {
+        Node<K, V>[] tab;
+        if (function == null)
+            throw new NullPointerException();
+        finishResize();
+        if (size > 0 && (tab = table) != null)
+        {
+            int mc = modCount;
+            for (int i = 0; i < tab.length; ++i)
+            {
+                for (Node<K, V> e = tab[i]; e != null; e = e.next)
+                {
+                    e.value = function.apply(e.key, e.value);
+                }
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Entry handles
+
+    /**
+     * Returns a handle on the mapping for the given key, which may or may
+     * not be present. The key is looked up once, when the handle is
+     * created; the handle's operations then read, replace, insert or
+     * remove the mapping at the located position without searching the
+     * bin again, so a read-modify-write such as
+     * <pre> {@code
+     * HashMap.EntryHandle<String, Integer> h = counts.entry(word);
+     * h.set(h.orInsert(0) + 1);}</pre>
+     * costs a single lookup and allocates no lambda.
+     *
+     * <p>A handle stays valid across its own operations. Any structural
+     * modification of the map made other than through the handle
+     * invalidates it, and its operations then throw
+     * <tt>ConcurrentModificationException</tt>.
+     *
+     * @param key the key
+     * @return a handle on the mapping for the key
+     */
+    public EntryHandle<K, V> entry(K key)
+    {
+        return new EntryHandle<K, V>(this, key);
+    }
+
+    /**
+     * A located position for one key in a {@link HashMap}, returned by
+     * {@link HashMap#entry}.
+     *
+     * @param <K> the type of the key
+     * @param <V> the type of the value
+     */
+    /*
+    构造时做一次和 computeIfAbsent 一样的查找(必要时先扩容/迁移这个桶),记下:
+        桶的下标 index,找到的节点 node,普通链表中 node 的前驱 prev(没找到时是链表尾),链表长度 binCount
+    之后 get/set/remove/orInsert 直接使用这些位置信息,不再遍历桶
+        插入:普通链表直接接在 prev 后面;ArrayBin 接在头节点后面并插入索引;红黑树交给 putTreeVal
+        删除:普通链表用 prev 摘除;ArrayBin/红黑树交给各自的删除方法
+    插入后触发了树化(节点被替换,表可能扩容)、插入树中、或者 LinkedHashMap 淘汰了节点时,重新查找一次
+    树化时可能检测到 hash 冲突攻击而更换 hashSeed,所有 Node 的 hash 都变了,所以 hash 不能只在构造时算一次:
+        locate() 发现 hashSeed 与上次计算 hash 时不同,就用 keyHash 重新计算
+    用 modCount 检测 handle 之外的结构修改
+     */
+    public static final class EntryHandle<K, V>
+    {
+        private final HashMap<K, V> map;
+        private final K key;
+        private int hash;
+        private int seed;            // the map's hashSeed when hash was computed
+        private Node<K, V>[] tab;
+        private int index;
+        private Node<K, V> node;     // the mapping, or null if absent
+        private Node<K, V> prev;     // predecessor of node in a plain chain, or its tail
+        private int binCount;        // length of a plain chain
+        private int expectedModCount;
+
+        EntryHandle(HashMap<K, V> map, K key)
+        {
+            this.map = map;
+            this.key = key;
+            this.seed = map.hashSeed;
+            this.hash = map.keyHash(key);
+            locate();
+        }
+
+        private void locate()
+        {
+            HashMap<K, V> m = map;
+            Node<K, V>[] tab;
+            Node<K, V> first, e, p = null;
+            int n, i, count = 0;
+            K k;
+            if (seed != m.hashSeed)
+            {
+                seed = m.hashSeed;
+                hash = m.keyHash(key);
+            }
+            if (m.size > m.threshold || (tab = m.table) == null ||
+                    (n = tab.length) == 0)
+                n = (tab = m.resize()).length;
+            if (m.oldTable != null)
+                m.advanceResize(hash);
+            this.tab = tab;
+            this.index = i = (n - 1) & hash;
+            node = null;
+            if ((first = tab[i]) instanceof TreeNode)
+                node = ((TreeNode<K, V>) first).getTreeNode(hash, key);
+            else if (first instanceof ArrayBin)
+                node = ((ArrayBin<K, V>) first).find(m, hash, key);
+            else
+            {
+                for (e = first; e != null; p = e, e = e.next)
+                {
+                    if (e.hash == hash &&
+                            ((k = e.key) == key || (key != null && m.keyEquals(key, k))))
+                    {
+                        node = e;
+                        break;
+                    }
+                    ++count;
+                }
+            }
+            prev = p;
+            binCount = count;
+            expectedModCount = m.modCount;
+        }
+
+        private void checkForComodification()
+        {
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        /**
+         * Returns the key of this handle.
+         *
+         * @return the key
+         */
+        public K key()
+        {
+            return key;
+        }
+
+        /**
+         * Returns whether the map contains a mapping for the key.
+         *
+         * @return true if the mapping is present
+         * @throws ConcurrentModificationException if the map was
+         *                                         structurally modified other than through this handle
+         */
+        public boolean isPresent()
+        {
+            checkForComodification();
+            return node != null;
+        }
+
+        /**
+         * Returns the value mapped to the key, or null if there is none.
+         *
+         * @return the value, or null
+         * @throws ConcurrentModificationException if the map was
+         *                                         structurally modified other than through this handle
+         */
+        public V get()
+        {
+            checkForComodification();
+            Node<K, V> e;
+            if ((e = node) == null)
+                return null;
+            map.afterNodeAccess(e);
+            expectedModCount = map.modCount;
+            return e.value;
+        }
+
+        /**
+         * Maps the key to the given value, inserting a mapping if there
+         * is none.
+         *
+         * @param value the value
+         * @return the previous value, or null if there was no mapping
+         * @throws ConcurrentModificationException if the map was
+         *                                         structurally modified other than through this handle
+         */
+        public V set(V value)
+        {
+            checkForComodification();
+            Node<K, V> e;
+            if ((e = node) == null)
+            {
+                insert(value);
+                return null;
+            }
+            V oldValue = e.value;
+            e.value = value;
+            map.afterNodeAccess(e);
+            expectedModCount = map.modCount;
+            return oldValue;
+        }
+
+        /**
+         * Returns the value mapped to the key if there is a mapping, which
+         * may be null; otherwise maps the key to the given value and
+         * returns it.
+         *
+         * @param value the value to insert if the mapping is absent
+         * @return the current value
+         * @throws ConcurrentModificationException if the map was
+         *                                         structurally modified other than through this handle
+         */
+        public V orInsert(V value)
+        {
+            checkForComodification();
+            Node<K, V> e;
+            if ((e = node) == null)
+            {
+                insert(value);
+                return value;
+            }
+            map.afterNodeAccess(e);
+            expectedModCount = map.modCount;
+            return e.value;
+        }
+
+        /**
+         * Removes the mapping for the key, if present.
+         *
+         * @return the removed value, or null if there was no mapping
+         * @throws ConcurrentModificationException if the map was
+         *                                         structurally modified other than through this handle
+         */
+        public V remove()
+        {
+            checkForComodification();
+            HashMap<K, V> m = map;
+            Node<K, V> p, first;
+            if ((p = node) == null)
+                return null;
+            Node<K, V>[] tab = this.tab;
+            if (p instanceof TreeNode)
+                ((TreeNode<K, V>) p).removeTreeNode(m, tab, true);
+            else if ((first = tab[index]) instanceof ArrayBin)
+                ((ArrayBin<K, V>) first).removeNode(m, tab, index, p, true);
+            else
+            {
+                if (prev == null)
+                    tab[index] = p.next;
+                else
+                    prev.next = p.next;
+                --binCount;
+            }
+            node = null;
+            ++m.modCount;
+            --m.size;
+            if (m.bloom != null)
+                m.bloomRemoved();
+            m.afterNodeRemoval(p);
+            if (m.shrinkIfSparse())
+                locate();
+            else
+                expectedModCount = m.modCount;
+            return p.value;
+        }
+
+        private void insert(V value)
+        {
+            HashMap<K, V> m = map;
+            Node<K, V>[] tab = this.tab;
+            Node<K, V> first = tab[index];
+            boolean relocate = false;
+            if (first instanceof TreeNode)
+            {
+                ((TreeNode<K, V>) first).putTreeVal(m, tab, hash, key, value);
+                relocate = true;
+            }
+            else if (first instanceof ArrayBin)
+            {
+                ((ArrayBin<K, V>) first).putNew(m, hash, key, value);
+                node = first.next;
+            }
+            else
+            {
+                //删除过节点之后 prev 不一定是链表尾,往后找到尾部
+                Node<K, V> x = m.newNode(hash, key, value, null), t;
+                if ((t = prev) == null)
+                    t = first;
+                if (t == null)
+                    tab[index] = x;
+                else
+                {
+                    while (t.next != null)
+                        t = t.next;
+                    t.next = x;
+                }
+                prev = t;
+                node = x;
+                if (binCount++ >= TREEIFY_THRESHOLD - 1)
+                {
+                    m.treeifyBin(tab, hash);
+                    relocate = true;
+                }
+            }
+            int mc = ++m.modCount;
+            if (m.bloom != null)
+                m.bloomAdd(hash);
+            ++m.size;
+            m.afterNodeInsertion(true);
+            if (relocate || m.modCount != mc)
+                locate();
+            else
+                expectedModCount = mc;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Parallel bulk operations
+
+    /*
+    与 ConcurrentHashMap 的 forEach/search/reduce 相同的接口,但 HashMap 不是线程安全的:
+        操作期间不能有其他线程修改 map,结束时如果发现 modCount 变了会抛出 ConcurrentModificationException
+    任务直接用 EntrySpliterator 拆分(按非空桶数而不是下标拆分),Node 本身就是 Map.Entry,遍历时不创建对象
+    batch 的含义与 ConcurrentHashMap 一样:还可以再对半拆分多少次,0 表示在当前线程顺序执行
+     */
+
+    /**
+     * Computes initial batch value for bulk tasks: approximately the
+     * number of leaf tasks to split into, or 0 to run sequentially.
+     */
+    final int batchFor(long b)
+    {
+        long n;
+        if (b == Long.MAX_VALUE || (n = size) <= 1L || n < b)
+            return 0;
+        int sp = ForkJoinPool.getCommonPoolParallelism() << 2; // slack of 4
+        return (b <= 0L || (n /= b) >= sp) ? sp : (int) n;
+    }
+
+    /**
+     * Returns a spliterator over the nodes of this map for a bulk task.
+     */
+    final EntrySpliterator<K, V> bulkSpliterator()
+    {
+        finishResize();
+        return new EntrySpliterator<>(this, 0, -1, 0, 0);
+    }
+
+    /**
+     * Performs the given action for each (key, value), in parallel if
+     * this map holds at least parallelismThreshold mappings. The map must
+     * not be modified while the operation is in progress.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param action               the action
+     * @throws ConcurrentModificationException if the map is modified
+     *                                         during the operation
+     */
+    public void forEach(long parallelismThreshold,
+                        BiConsumer<? super K, ? super V> action)
+    {
+        if (action == null)
+            throw new NullPointerException();
+        new ForEachTask<K, V>(null, batchFor(parallelismThreshold),
+                bulkSpliterator(), action).invoke();
+    }
+
+    /**
+     * Returns a non-null result from applying the given search function
+     * on each (key, value), or null if none, in parallel if this map
+     * holds at least parallelismThreshold mappings. Upon success, further
+     * element processing is suppressed and the results of any other
+     * parallel invocations of the search function are ignored.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param searchFunction       a function returning a non-null
+     *                             result on success, else null
+     * @param <U>                  the return type of the search function
+     * @return a non-null result from applying the given search
+     * function on each (key, value), or null if none
+     * @throws ConcurrentModificationException if the map is modified
+     *                                         during the operation
+     */
+    public <U> U search(long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> searchFunction)
+    {
+        if (searchFunction == null)
+            throw new NullPointerException();
+        AtomicReference<U> result = new AtomicReference<U>();
+        new SearchTask<K, V, U>(null, batchFor(parallelismThreshold),
+                bulkSpliterator(), searchFunction, result).invoke();
+        return result.get();
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation of all
+     * (key, value) pairs using the given reducer to combine values, or
+     * null if none, in parallel if this map holds at least
+     * parallelismThreshold mappings.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param transformer          a function returning the transformation
+     *                             for an element, or null if there is no transformation (in
+     *                             which case it is not combined)
+     * @param reducer              a commutative associative combining function
+     * @param <U>                  the return type of the transformer
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     * @throws ConcurrentModificationException if the map is modified
+     *                                         during the operation
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer)
+    {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new ReduceTask<K, V, U>(null, batchFor(parallelismThreshold),
+                bulkSpliterator(), transformer, reducer).invoke();
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation of all
+     * (key, value) pairs using the given reducer to combine values, and
+     * the given basis as an identity value, in parallel if this map holds
+     * at least parallelismThreshold mappings.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param transformer          a function returning the transformation
+     *                             for an element
+     * @param basis                the identity (initial default value) for the reduction
+     * @param reducer              a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     * @throws ConcurrentModificationException if the map is modified
+     *                                         during the operation
+     */
+    public long reduceToLong(long parallelismThreshold,
+                             ToLongBiFunction<? super K, ? super V> transformer,
+                             long basis,
+                             LongBinaryOperator reducer)
+    {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new ReduceToLongTask<K, V>(null, batchFor(parallelismThreshold),
+                bulkSpliterator(), transformer, basis, reducer).invoke();
+    }
+
+    /**
+     * Base class for bulk tasks. Each task forks off split-off parts of
+     * its spliterator while batch allows, chaining them through
+     * nextRight, processes the rest itself, then joins the forked tasks.
+     */
+    @SuppressWarnings("serial")
+    abstract static class BulkTask<K, V, R> extends RecursiveTask<R>
+    {
+        final EntrySpliterator<K, V> spliterator;
+        int batch;
+        BulkTask<K, V, R> rights;      // forked subtasks, linked by nextRight
+        final BulkTask<K, V, R> nextRight;
+
+        BulkTask(BulkTask<K, V, R> nextRight, int batch, EntrySpliterator<K, V> spliterator)
+        {
+            this.nextRight = nextRight;
+            this.batch = batch;
+            this.spliterator = spliterator;
+        }
+
+        /**
+         * Creates a task for a split-off part of this task's spliterator.
+         */
+        abstract BulkTask<K, V, R> subtask(BulkTask<K, V, R> nextRight, int batch,
+                                           EntrySpliterator<K, V> spliterator);
+
+        /**
+         * Processes the part of the spliterator not split off.
+         */
+        abstract R leaf();
+
+        /**
+         * Combines this task's result with that of a joined subtask.
+         */
+        R combine(R result, R sub)
+        {
+            return result;
+        }
+
+        protected final R compute()
+        {
+            EntrySpliterator<K, V> s = spliterator, p;
+            while (batch > 0 && (p = s.trySplit()) != null)
+                (rights = subtask(rights, batch >>>= 1, p)).fork();
+            R r = leaf();
+            for (BulkTask<K, V, R> t = rights; t != null; t = t.nextRight)
+                r = combine(r, t.join());
+            return r;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEachTask<K, V> extends BulkTask<K, V, Void>
+    {
+        final BiConsumer<? super K, ? super V> action;
+
+        ForEachTask(BulkTask<K, V, Void> nextRight, int batch, EntrySpliterator<K, V> spliterator,
+                    BiConsumer<? super K, ? super V> action)
+        {
+            super(nextRight, batch, spliterator);
+            this.action = action;
+        }
+
+        BulkTask<K, V, Void> subtask(BulkTask<K, V, Void> nextRight, int batch,
+                                     EntrySpliterator<K, V> spliterator)
+        {
+            return new ForEachTask<K, V>(nextRight, batch, spliterator, action);
+        }
+
+        Void leaf()
+        {
+            final BiConsumer<? super K, ? super V> action = this.action;
+            spliterator.forEachRemaining(e -> action.accept(e.getKey(), e.getValue()));
+            return null;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class SearchTask<K, V, U> extends BulkTask<K, V, Void>
+    {
+        final BiFunction<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+
+        SearchTask(BulkTask<K, V, Void> nextRight, int batch, EntrySpliterator<K, V> spliterator,
+                   BiFunction<? super K, ? super V, ? extends U> searchFunction,
+                   AtomicReference<U> result)
+        {
+            super(nextRight, batch, spliterator);
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+
+        BulkTask<K, V, Void> subtask(BulkTask<K, V, Void> nextRight, int batch,
+                                     EntrySpliterator<K, V> spliterator)
+        {
+            return new SearchTask<K, V, U>(nextRight, batch, spliterator, searchFunction, result);
+        }
+
+        Void leaf()
+        {
+            final BiFunction<? super K, ? super V, ? extends U> searchFunction = this.searchFunction;
+            final AtomicReference<U> result = this.result;
+            Consumer<Map.Entry<K, V>> action = e ->
             {
-                tab[i] = newNode(hash, key, value, first);
-                if (binCount >= TREEIFY_THRESHOLD - 1)
-                    treeifyBin(tab, hash);
-            }
-            ++modCount;
-            ++size;
-            afterNodeInsertion(true);
+                U u;
+                if ((u = searchFunction.apply(e.getKey(), e.getValue())) != null)
+                    result.compareAndSet(null, u);
+            };
+            while (result.get() == null && spliterator.tryAdvance(action))
+                ;
+            return null;
         }
-        return value;
     }
 
-    @Override
-    public void forEach(BiConsumer<? super K, ? super V> action)
+    @SuppressWarnings("serial")
+    static final class ReduceTask<K, V, U> extends BulkTask<K, V, U>
     {
-        Node<K, V>[] tab;
-        if (action == null)
-            throw new NullPointerException();
-        if (size > 0 && (tab = table) != null)
+        final BiFunction<? super K, ? super V, ? extends U> transformer;
+        final BiFunction<? super U, ? super U, ? extends U> reducer;
+
+        ReduceTask(BulkTask<K, V, U> nextRight, int batch, EntrySpliterator<K, V> spliterator,
+                   BiFunction<? super K, ? super V, ? extends U> transformer,
+                   BiFunction<? super U, ? super U, ? extends U> reducer)
         {
-            int mc = modCount;
-            for (int i = 0; i < tab.length; ++i)
+            super(nextRight, batch, spliterator);
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+
+        BulkTask<K, V, U> subtask(BulkTask<K, V, U> nextRight, int batch,
+                                  EntrySpliterator<K, V> spliterator)
+        {
+            return new ReduceTask<K, V, U>(nextRight, batch, spliterator, transformer, reducer);
+        }
+
+        U leaf()
+        {
+            final BiFunction<? super K, ? super V, ? extends U> transformer = this.transformer;
+            final BiFunction<? super U, ? super U, ? extends U> reducer = this.reducer;
+            @SuppressWarnings("unchecked")
+            final U[] r = (U[]) new Object[1];
+            spliterator.forEachRemaining(e ->
             {
-                for (Node<K, V> e = tab[i]; e != null; e = e.next)
-                    action.accept(e.key, e.value);
-            }
-            if (modCount != mc)
-                throw new ConcurrentModificationException();
+                U u;
+                if ((u = transformer.apply(e.getKey(), e.getValue())) != null)
+                    r[0] = (r[0] == null) ? u : reducer.apply(r[0], u);
+            });
+            return r[0];
+        }
+
+        U combine(U result, U sub)
+        {
+            return (sub == null) ? result : (result == null) ? sub : reducer.apply(result, sub);
         }
     }
 
-    @Override
-    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function)
+    @SuppressWarnings("serial")
+    static final class ReduceToLongTask<K, V> extends BulkTask<K, V, Long>
     {
-        Node<K, V>[] tab;
-        if (function == null)
-            throw new NullPointerException();
-        if (size > 0 && (tab = table) != null)
+        final ToLongBiFunction<? super K, ? super V> transformer;
+        final long basis;
+        final LongBinaryOperator reducer;
+
+        ReduceToLongTask(BulkTask<K, V, Long> nextRight, int batch, EntrySpliterator<K, V> spliterator,
+                         ToLongBiFunction<? super K, ? super V> transformer, long basis,
+                         LongBinaryOperator reducer)
         {
-            int mc = modCount;
-            for (int i = 0; i < tab.length; ++i)
-            {
-                for (Node<K, V> e = tab[i]; e != null; e = e.next)
-                {
-                    e.value = function.apply(e.key, e.value);
-                }
-            }
-            if (modCount != mc)
-                throw new ConcurrentModificationException();
+            super(nextRight, batch, spliterator);
+            this.transformer = transformer;
+            this.basis = basis;
+            this.reducer = reducer;
+        }
+
+        BulkTask<K, V, Long> subtask(BulkTask<K, V, Long> nextRight, int batch,
+                                     EntrySpliterator<K, V> spliterator)
+        {
+            return new ReduceToLongTask<K, V>(nextRight, batch, spliterator, transformer, basis,
+                    reducer);
+        }
+
+        Long leaf()
+        {
+            final ToLongBiFunction<? super K, ? super V> transformer = this.transformer;
+            final LongBinaryOperator reducer = this.reducer;
+            final long[] r = {basis};
+            spliterator.forEachRemaining(e ->
+                    r[0] = reducer.applyAsLong(r[0], transformer.applyAsLong(e.getKey(), e.getValue())));
+            return r[0];
+        }
+
+        Long combine(Long result, Long sub)
+        {
+            return reducer.applyAsLong(result, sub);
         }
     }
 
@@ -1439,6 +3439,80 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return result;
     }
 
+    /**
+     * Returns an immutable copy of this map backed by a minimal perfect
+     * hash function, for maps that are built once and then only read.
+     * Keys are hashed and compared as in this map, and the cached hashes
+     * of its nodes are reused, so no key's <tt>hashCode</tt> is called.
+     * The copy does not preserve the iteration order of this map. Its
+     * {@link FrozenHashMap#footprint()} and
+     * {@link FrozenHashMap#sourceFootprint()} report how much memory
+     * freezing saves.
+     *
+     * @return an immutable copy of this map
+     */
+    /*
+    Node 中缓存的就是 keyHash(key),FrozenHashMap 保存同样的 strategy 和 hashSeed,hash 算法完全一致
+     */
+    public FrozenHashMap<K, V> freeze()
+    {
+        finishResize();
+        int n = size, i = 0;
+        int[] hashes = new int[n];
+        Object[] ks = new Object[n], vs = new Object[n];
+        Node<K, V>[] tab;
+        if (n > 0 && (tab = table) != null)
+        {
+            for (Node<K, V> e : tab)
+            {
+                for (; e != null; e = e.next)
+                {
+                    hashes[i] = e.hash;
+                    ks[i] = e.key;
+                    vs[i++] = e.value;
+                }
+            }
+        }
+        return FrozenHashMap.build(hashes, ks, vs, i, strategy, hashSeed, footprint());
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the table and nodes
+     * of this map, excluding the key and value objects themselves.
+     */
+    /*
+    按压缩指针估算:Node 12 字节对象头 + hash + key + value + next = 32 字节(对齐后)
+    LinkedHashMap.Entry 多 before/after,TreeNode 再多 parent/left/right/prev/red
+    ArrayBin 在 LinkedHashMap.Entry 之外多 hashes/nodes/count,再加上两个数组
+     */
+    final long footprint()
+    {
+        return FrozenHashMap.align(FrozenHashMap.OBJECT_HEADER + 8 * FrozenHashMap.REFERENCE + 10 * 4 + 3) +
+                tableFootprint(oldTable) + tableFootprint(table) +
+                (bloom == null ? 0 : FrozenHashMap.arrayBytes(bloom.length, 8));
+    }
+
+    private static long tableFootprint(Node<?, ?>[] tab)
+    {
+        final int NODE = 32, LINKED_ENTRY = 40, TREE_NODE = 56, ARRAY_BIN = 48;
+        if (tab == null)
+            return 0;
+        long bytes = FrozenHashMap.arrayBytes(tab.length, FrozenHashMap.REFERENCE);
+        for (Node<?, ?> e : tab)
+        {
+            if (e instanceof ArrayBin)
+            {
+                int len = ((ArrayBin<?, ?>) e).hashes.length;
+                bytes += ARRAY_BIN - LINKED_ENTRY + FrozenHashMap.arrayBytes(len, 4) +
+                        FrozenHashMap.arrayBytes(len, FrozenHashMap.REFERENCE);
+            }
+            for (; e != null; e = e.next)
+                bytes += (e instanceof TreeNode) ? TREE_NODE :
+                        (e instanceof LinkedHashMap.Entry) ? LINKED_ENTRY : NODE;
+        }
+        return bytes;
+    }
+
     // These methods are also used when serializing HashSets
     final float loadFactor()
     {
@@ -1476,6 +3550,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (loadFactor <= 0 || Float.isNaN(loadFactor))
             throw new InvalidObjectException("Illegal load factor: " +
                     loadFactor);
+        if (!(shrinkLoad >= 0f && shrinkLoad <= loadFactor / 4))
+            throw new InvalidObjectException("Illegal shrink load: " +
+                    shrinkLoad);
+        if (bloomBitsPerKey < 0 || bloomBitsPerKey > MAX_BLOOM_BITS_PER_KEY)
+            throw new InvalidObjectException("Illegal bits per key: " +
+                    bloomBitsPerKey);
         s.readInt();                // Read and ignore number of buckets
         int mappings = s.readInt(); // Read number of mappings (size)
         if (mappings < 0)
@@ -1510,8 +3590,251 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 K key = (K) s.readObject();
                 @SuppressWarnings("unchecked")
                 V value = (V) s.readObject();
-                putVal(hash(key), key, value, false, false);
+                putVal(keyHash(key), key, value, false, false);
+            }
+        }
+        rebuildBloom();
+    }
+
+    static final int COMPACT_MAGIC = 0x484D4331; // "HMC1"
+
+    // 紧凑格式中记录 hash 是怎么算出来的
+    static final int COMPACT_STANDARD_HASH = 0;
+    static final int COMPACT_SEEDED_HASH = 1;
+    static final int COMPACT_STRATEGY_HASH = 2;
+
+    /**
+     * Writes this map in a compact binary form: the table capacity, then
+     * for each mapping in table order its cached hash and the
+     * length-prefixed bytes of its key and value as produced by the given
+     * codecs. Unlike serialization, no class descriptors or object
+     * handles are written, and {@link #readCompact} can rebuild the table
+     * without resizing or hashing the keys again. The stream is flushed
+     * but not closed.
+     *
+     * @param out        the stream to write to
+     * @param keyCodec   the codec for keys
+     * @param valueCodec the codec for values
+     * @throws IOException if an I/O error occurs
+     */
+    /*
+    格式(DataOutputStream,大端):
+        magic, capacity, loadFactor, size, 标志位(渐进式扩容,关闭冲突检测,ArrayBin), hash 方式, hashSeed
+        然后按桶的顺序写每个映射:hash, key 长度, key 字节, value 长度, value 字节(长度 -1 表示 null)
+    Node 中缓存的 hash 与 hashSeed/strategy 有关,所以要记下 hash 的来源,读的时候对不上就只能重新计算
+     */
+    public void writeCompact(OutputStream out, Codec<? super K> keyCodec,
+                             Codec<? super V> valueCodec) throws IOException
+    {
+        finishResize();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        Node<K, V>[] tab = table;
+        dos.writeInt(COMPACT_MAGIC);
+        dos.writeInt(capacity());
+        dos.writeFloat(loadFactor);
+        dos.writeInt(size);
+        dos.writeByte((incrementalResize ? 1 : 0) | (fixedHashing ? 2 : 0) | (arrayBins ? 4 : 0));
+        dos.writeByte(strategy != null ? COMPACT_STRATEGY_HASH :
+                hashSeed != 0 ? COMPACT_SEEDED_HASH : COMPACT_STANDARD_HASH);
+        dos.writeInt(hashSeed);
+        if (size > 0 && tab != null)
+        {
+            for (Node<K, V> e : tab)
+            {
+                for (; e != null; e = e.next)
+                {
+                    dos.writeInt(e.hash);
+                    writeCompactBytes(dos, (e.key == null) ? null : keyCodec.encode(e.key));
+                    writeCompactBytes(dos, (e.value == null) ? null : valueCodec.encode(e.value));
+                }
+            }
+        }
+        dos.flush();
+    }
+
+    private static void writeCompactBytes(DataOutputStream dos, byte[] b) throws IOException
+    {
+        if (b == null)
+            dos.writeInt(-1);
+        else
+        {
+            dos.writeInt(b.length);
+            dos.write(b);
+        }
+    }
+
+    private static <T> T readCompactBytes(DataInputStream dis, Codec<T> codec) throws IOException
+    {
+        int len = dis.readInt();
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        dis.readFully(b);
+        return codec.decode(ByteBuffer.wrap(b));
+    }
+
+    /**
+     * Reads a map written by {@link #writeCompact}. Mappings are linked
+     * directly into a table of the recorded capacity in their recorded
+     * order, so no bin is searched and the table is never resized. The
+     * stream is not closed, and is read only up to the end of the map; it
+     * should be buffered.
+     *
+     * <p>The recorded hashes are only valid if each key's
+     * <tt>hashCode</tt> returns the same value in the reading JVM as in
+     * the writing one. This holds for value-based keys such as
+     * <tt>String</tt> and <tt>Integer</tt>, but not for keys that use
+     * the identity hash, such as <tt>Object</tt> and enum constants. Every
+     * key is therefore hashed again and checked against its recorded
+     * hash; from the first key that does not match on, the remaining
+     * keys are inserted normally. Streams whose keys mix stable and
+     * identity-based hash codes are read correctly.
+     *
+     * @param in         the stream to read from
+     * @param keyCodec   the codec for keys
+     * @param valueCodec the codec for values
+     * @param <K>        the type of keys
+     * @param <V>        the type of values
+     * @return the map
+     * @throws IOException if an I/O error occurs or the stream does not
+     *                     hold a map in compact form
+     */
+    public static <K, V> HashMap<K, V> readCompact(InputStream in, Codec<K> keyCodec,
+                                                   Codec<V> valueCodec) throws IOException
+    {
+        return readCompact(in, keyCodec, valueCodec, null);
+    }
+
+    /**
+     * Reads a map written by {@link #writeCompact} into a map using the
+     * given hashing strategy. If the map was written with a strategy, it
+     * must have been the same one, since the recorded hashes are reused;
+     * otherwise every key is hashed with the given strategy. As for
+     * {@link #readCompact(InputStream, Codec, Codec)}, the recorded hashes
+     * are only valid if the key hash codes are the same in both JVMs;
+     * every key is checked, and from the first mismatch on the remaining
+     * keys are inserted normally.
+     *
+     * @param in         the stream to read from
+     * @param keyCodec   the codec for keys
+     * @param valueCodec the codec for values
+     * @param strategy   the hashing strategy, or null for the keys' own
+     *                   hashCode and equals
+     * @param <K>        the type of keys
+     * @param <V>        the type of values
+     * @return the map
+     * @throws IOException if an I/O error occurs or the stream does not
+     *                     hold a map in compact form
+     */
+    public static <K, V> HashMap<K, V> readCompact(InputStream in, Codec<K> keyCodec,
+                                                   Codec<V> valueCodec,
+                                                   HashingStrategy<? super K> strategy)
+            throws IOException
+    {
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != COMPACT_MAGIC)
+            throw new StreamCorruptedException("Not a compact HashMap stream");
+        int cap = dis.readInt();
+        float lf = dis.readFloat();
+        int mappings = dis.readInt();
+        int flags = dis.readByte();
+        int hashing = dis.readByte();
+        int seed = dis.readInt();
+        if (cap <= 0 || cap > MAXIMUM_CAPACITY || (cap & (cap - 1)) != 0)
+            throw new InvalidObjectException("Illegal capacity: " + cap);
+        if (lf <= 0 || Float.isNaN(lf))
+            throw new InvalidObjectException("Illegal load factor: " + lf);
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " + mappings);
+        HashMap<K, V> m = (strategy == null) ? new HashMap<K, V>(cap, lf) :
+                new HashMap<K, V>(cap, lf, strategy);
+        m.incrementalResize = (flags & 1) != 0;
+        m.fixedHashing = (flags & 2) != 0;
+        m.arrayBins = (flags & 4) != 0;
+        //记录的 hash 能否直接使用
+        boolean trusted;
+        if (strategy != null)
+            trusted = hashing == COMPACT_STRATEGY_HASH;
+        else if (hashing == COMPACT_STRATEGY_HASH)
+            trusted = false;
+        else
+        {
+            m.hashSeed = (hashing == COMPACT_SEEDED_HASH) ? seed : 0;
+            trusted = true;
+        }
+        if (!trusted)
+        {
+            readCompactMappings(m, dis, keyCodec, valueCodec, mappings);
+            return m;
+        }
+        //映射是按桶的顺序写的,直接尾插到对应的桶,每个桶结束时检查是否需要树化
+        float ft = (float) cap * lf;
+        m.threshold = (cap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                (int) ft : Integer.MAX_VALUE);
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Node<K, V>[] tab = (Node<K, V>[]) new Node[cap];
+        m.table = tab;
+        boolean treeify = (strategy == null || m.arrayBins) && cap >= MIN_TREEIFY_CAPACITY;
+        int mask = cap - 1, bin = -1, binCount = 0;
+        Node<K, V> tail = null;
+        for (int i = 0; i < mappings; i++)
+        {
+            int hash = dis.readInt();
+            K key = readCompactBytes(dis, keyCodec);
+            V value = readCompactBytes(dis, valueCodec);
+            //记录的 hash 来自写入方 JVM 中键的 hashCode,Object/枚举等 identity hashCode 换一个 JVM 就变了
+            //每个键都重新计算核对,一个 hashCode 比查找桶和扩容便宜得多;对不上时,已经放好的映射都在正确的桶中,剩下的普通插入
+            int h = m.keyHash(key);
+            if (h != hash)
+            {
+                if (treeify && binCount >= TREEIFY_THRESHOLD)
+                    m.treeifyAt(tab, bin);
+                m.size = i;
+                m.putVal(h, key, value, false, false);
+                readCompactMappings(m, dis, keyCodec, valueCodec, mappings - i - 1);
+                return m;
+            }
+            int index = hash & mask;
+            if (index != bin)
+            {
+                if (index < bin)
+                    throw new StreamCorruptedException("Mappings out of table order");
+                if (treeify && binCount >= TREEIFY_THRESHOLD)
+                    m.treeifyAt(tab, bin);
+                bin = index;
+                binCount = 0;
+                tail = null;
             }
+            Node<K, V> p = m.newNode(hash, key, value, null);
+            if (tail == null)
+                tab[index] = p;
+            else
+                tail.next = p;
+            tail = p;
+            ++binCount;
+        }
+        if (treeify && binCount >= TREEIFY_THRESHOLD)
+            m.treeifyAt(tab, bin);
+        m.size = mappings;
+        //容量足够时不会扩容;threshold 比 size 小说明写入时用的负载因子更大,这里补一次
+        if (mappings > m.threshold)
+            m.resize();
+        return m;
+    }
+
+    /**
+     * Reads count mappings of a compact stream, ignoring their recorded
+     * hashes, and inserts them into m normally.
+     */
+    private static <K, V> void readCompactMappings(HashMap<K, V> m, DataInputStream dis, Codec<K> keyCodec,
+                                                   Codec<V> valueCodec, int count) throws IOException
+    {
+        for (int i = 0; i < count; i++)
+        {
+            dis.readInt();
+            K key = readCompactBytes(dis, keyCodec);
+            V value = readCompactBytes(dis, valueCodec);
+            m.putVal(m.keyHash(key), key, value, false, false);
         }
     }
 
@@ -1531,6 +3854,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         HashIterator()
         {
+            finishResize();
             expectedModCount = modCount;
             Node<K, V>[] t = table;
             current = next = null;
@@ -1578,7 +3902,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             current = null;
             K key = p.key;
             //这里导致的modCount+1,所以需要下一条语句
-            removeNode(hash(key), key, null, false, false);
+            removeNode(keyHash(key), key, null, false, false);
             expectedModCount = modCount;//此处remove不会触发fail-fast
         }
     }
@@ -1621,6 +3945,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         int fence;                  // one past last index
         int est;                    // size estimate
         int expectedModCount;       // for comodification checks
+        int[] occupancy;            // shared prefix counts of bin weights, or null
 
         HashMapSpliterator(HashMap<K, V> m, int origin,
                            int fence, int est,
@@ -1639,6 +3964,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if ((hi = fence) < 0)
             {
                 HashMap<K, V> m = map;
+                m.finishResize();
                 est = m.size;
                 expectedModCount = m.modCount;
                 Node<K, V>[] tab = m.table;
@@ -1652,6 +3978,96 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             getFence(); // force init
             return (long) est;
         }
+
+        /**
+         * Returns the index at which to split off [index, mid) so that
+         * both halves hold about the same number of mappings, as weighed
+         * by {@link #binWeight}, or -1 if the range cannot be split.
+         * Updates est to the estimate for [mid, fence); the caller gives
+         * the split-off part the rest.
+         */
+        /*
+        原来按下标对半分,表稀疏或者键聚集在一段下标里时,两半的映射数可能差得很多,fork-join 任务就很不均衡
+        第一次拆分一个足够大的表时,按每 SPLIT_BLOCK 个桶统计一次桶的权重,做成前缀和,拆出来的 spliterator 共用这个数组
+        权重是不用遍历就知道的桶大小:ArrayBin 和红黑树记录了节点数,链表按 1 算(负载因子 0.75 时链表平均不到 2 个节点)
+        只读桶数组和桶头,代价是一次顺序扫描;然后二分找到权重各占一半的位置
+         */
+        final int splitIndex()
+        {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            if (lo >= mid || current != null)
+                return -1;
+            int[] occ = occupancy;
+            if (occ == null && hi - lo >= SPLIT_BLOCK << 2)
+                occupancy = occ = occupancyPrefix(map.table);
+            if (occ != null)
+            {
+                int bLo = lo >>> SPLIT_BLOCK_SHIFT;
+                int bHi = (hi + SPLIT_BLOCK - 1) >>> SPLIT_BLOCK_SHIFT;
+                int total = occ[bHi] - occ[bLo];
+                if (total > 0)
+                {
+                    int target = occ[bLo] + (total >>> 1), l = bLo + 1, h = bHi;
+                    while (l < h)
+                    {
+                        int b = (l + h) >>> 1;
+                        if (occ[b] < target)
+                            l = b + 1;
+                        else
+                            h = b;
+                    }
+                    int m = l << SPLIT_BLOCK_SHIFT;
+                    if (m > lo && m < hi)
+                    {
+                        int left = (int) ((long) est * (occ[l] - occ[bLo]) / total);
+                        est -= left;
+                        return m;
+                    }
+                }
+            }
+            est >>>= 1;
+            return mid;
+        }
+    }
+
+    static final int SPLIT_BLOCK_SHIFT = 6;
+
+    /**
+     * Number of bins per element of the occupancy prefix array.
+     */
+    static final int SPLIT_BLOCK = 1 << SPLIT_BLOCK_SHIFT;
+
+    /**
+     * Returns the number of mappings in the bin headed by p as far as it
+     * is known without walking the bin: the size of an array or tree bin,
+     * 1 for a plain chain and 0 for an empty bin.
+     */
+    static int binWeight(Node<?, ?> p)
+    {
+        if (p == null)
+            return 0;
+        if (p instanceof TreeNode)
+            return Math.max(((TreeNode<?, ?>) p).binSize, 1);
+        if (p instanceof ArrayBin)
+            return Math.max(((ArrayBin<?, ?>) p).count, 1);
+        return 1;
+    }
+
+    /**
+     * Returns an array whose element b is the total {@link #binWeight} of
+     * the bins below index b * SPLIT_BLOCK.
+     */
+    static int[] occupancyPrefix(Node<?, ?>[] tab)
+    {
+        int n = tab.length, blocks = (n + SPLIT_BLOCK - 1) >>> SPLIT_BLOCK_SHIFT;
+        int[] occ = new int[blocks + 1];
+        for (int b = 0, c = 0; b < blocks; b++)
+        {
+            for (int i = b << SPLIT_BLOCK_SHIFT, e = Math.min(n, i + SPLIT_BLOCK); i < e; i++)
+                c += binWeight(tab[i]);
+            occ[b + 1] = c;
+        }
+        return occ;
     }
 
     static final class KeySpliterator<K, V>
@@ -1666,10 +4082,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         public KeySpliterator<K, V> trySplit()
         {
-            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
-            return (lo >= mid || current != null) ? null :
-                    new KeySpliterator<>(map, lo, index = mid, est >>>= 1,
-                            expectedModCount);
+            getFence();
+            int lo = index, e = est, mid = splitIndex();
+            if (mid < 0)
+                return null;
+            KeySpliterator<K, V> s = new KeySpliterator<>(map, lo, index = mid,
+                    e - est, expectedModCount);
+            s.occupancy = occupancy;
+            return s;
         }
 
         public void forEachRemaining(Consumer<? super K> action)
@@ -1678,6 +4098,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (action == null)
                 throw new NullPointerException();
             HashMap<K, V> m = map;
+            if (fence < 0)
+                m.finishResize();
             Node<K, V>[] tab = m.table;
             if ((hi = fence) < 0)
             {
@@ -1751,10 +4173,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         public ValueSpliterator<K, V> trySplit()
         {
-            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
-            return (lo >= mid || current != null) ? null :
-                    new ValueSpliterator<>(map, lo, index = mid, est >>>= 1,
-                            expectedModCount);
+            getFence();
+            int lo = index, e = est, mid = splitIndex();
+            if (mid < 0)
+                return null;
+            ValueSpliterator<K, V> s = new ValueSpliterator<>(map, lo, index = mid,
+                    e - est, expectedModCount);
+            s.occupancy = occupancy;
+            return s;
         }
 
         public void forEachRemaining(Consumer<? super V> action)
@@ -1763,6 +4189,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (action == null)
                 throw new NullPointerException();
             HashMap<K, V> m = map;
+            if (fence < 0)
+                m.finishResize();
             Node<K, V>[] tab = m.table;
             if ((hi = fence) < 0)
             {
@@ -1835,10 +4263,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         public EntrySpliterator<K, V> trySplit()
         {
-            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
-            return (lo >= mid || current != null) ? null :
-                    new EntrySpliterator<>(map, lo, index = mid, est >>>= 1,
-                            expectedModCount);
+            getFence();
+            int lo = index, e = est, mid = splitIndex();
+            if (mid < 0)
+                return null;
+            EntrySpliterator<K, V> s = new EntrySpliterator<>(map, lo, index = mid,
+                    e - est, expectedModCount);
+            s.occupancy = occupancy;
+            return s;
         }
 
         public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action)
@@ -1847,6 +4279,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (action == null)
                 throw new NullPointerException();
             HashMap<K, V> m = map;
+            if (fence < 0)
+                m.finishResize();
             Node<K, V>[] tab = m.table;
             if ((hi = fence) < 0)
             {
@@ -1944,12 +4378,23 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return new TreeNode<>(p.hash, p.key, p.value, next);
     }
 
+    // For treeifyBin with array bins
+    ArrayBin<K, V> replacementArrayBin(Node<K, V> p, Node<K, V> next)
+    {
+        return new ArrayBin<>(p.hash, p.key, p.value, next);
+    }
+
     /**
      * Reset to initial default state.  Called by clone and readObject.
      */
     void reinitialize()
     {
         table = null;
+        oldTable = null;
+        bloom = null;
+        //克隆出的map单独计数
+        if (stats != null)
+            stats = new Stats();
         entrySet = null;
         keySet = null;
         values = null;
@@ -1975,6 +4420,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     void internalWriteEntries(java.io.ObjectOutputStream s) throws IOException
     {
         Node<K, V>[] tab;
+        finishResize();
         if (size > 0 && (tab = table) != null)
         {
             for (int i = 0; i < tab.length; ++i)
@@ -1988,6 +4434,198 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /* ------------------------------------------------------------ */
+    // Sorted-array bins
+
+    /*
+    TreeNode 的替代方案(setArrayBins(true) 开启):
+        TreeNode 在 Node 之外还有 before/after/parent/left/right/prev/red,一个映射约 56 字节
+        键没有实现 Comparable 时,find 比较不出大小,只能把左右两棵子树都搜一遍
+    ArrayBin 是桶的第一个节点,桶仍然是一条 next 链表(迭代器、扩容、序列化等遍历链表的代码都不用改)
+    它另外持有两个按 hash 升序排列的数组 hashes/nodes,包含链表上的全部节点(也包括它自己)
+        查找:在 hashes 上二分找到第一个等于 hash 的位置,只在 hash 相等的几个节点上比较 equals,完全不需要 Comparable
+        每个映射只多 8 字节(一个 int 和一个引用),构造只是一次排序,没有旋转和 tieBreakOrder
+        插入和删除要移动数组元素,是 O(n) 的,但 arraycopy 很快,而且只有超长的桶才会变成 ArrayBin
+    不变式:tab[i] instanceof ArrayBin 时,它的 nodes[0, count) 恰好是这条链表上的所有节点
+    删除头节点时(movable 为 true),用下一个节点换出一个新的 ArrayBin 接管索引数组,桶仍然是 ArrayBin
+        迭代器删除(movable 为 false)不能替换节点对象,桶直接退化为普通链表,之后再变长时会重新建立索引
+     */
+
+    /**
+     * Head of a bin whose nodes are indexed by a sorted array, the
+     * alternative to tree bins selected by {@link #setArrayBins}. The bin
+     * remains a chain linked through next, headed by this node; hashes
+     * and nodes hold every node of the chain, including this one, in
+     * ascending order of hash. Extends LinkedHashMap.Entry so can be used
+     * as extension of either regular or linked node.
+     */
+    static final class ArrayBin<K, V> extends LinkedHashMap.Entry<K, V>
+    {
+        int[] hashes;
+        Node<K, V>[] nodes;
+        int count;
+
+        ArrayBin(int hash, K key, V val, Node<K, V> next)
+        {
+            super(hash, key, val, next);
+        }
+
+        /**
+         * Rebuilds the index from the chain headed by this node.
+         */
+        final void index()
+        {
+            int n = 0, i = 0;
+            for (Node<K, V> e = this; e != null; e = e.next)
+                ++n;
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            Node<K, V>[] chain = (Node<K, V>[]) new Node[n];
+            long[] order = new long[n];
+            for (Node<K, V> e = this; e != null; e = e.next, ++i)
+            {
+                chain[i] = e;
+                order[i] = ((long) e.hash << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] hs = hashes;
+            Node<K, V>[] ns = nodes;
+            if (hs == null || hs.length < n)
+            {
+                hs = hashes = new int[n + (n >>> 1)];
+                @SuppressWarnings({"rawtypes", "unchecked"})
+                Node<K, V>[] a = (Node<K, V>[]) new Node[hs.length];
+                ns = nodes = a;
+            }
+            for (i = 0; i < n; ++i)
+            {
+                Node<K, V> e = chain[(int) order[i]];
+                hs[i] = e.hash;
+                ns[i] = e;
+            }
+            for (i = n; i < count; ++i)
+                ns[i] = null;
+            count = n;
+        }
+
+        /**
+         * Returns the first index whose hash is not less than h.
+         */
+        final int lowerBound(int h)
+        {
+            int[] hs = hashes;
+            int lo = 0, hi = count;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (hs[mid] < h)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * Finds the node for the given hash and key, comparing keys with
+         * the map's equality only among nodes with equal hashes.
+         */
+        final Node<K, V> find(HashMap<K, V> map, int h, Object key)
+        {
+            int[] hs = hashes;
+            Node<K, V>[] ns = nodes;
+            K k;
+            for (int i = lowerBound(h), c = count; i < c && hs[i] == h; ++i)
+            {
+                Node<K, V> e = ns[i];
+                if ((k = e.key) == key || (key != null && map.keyEquals(key, k)))
+                    return e;
+            }
+            return null;
+        }
+
+        /**
+         * Adds a new node for a key known to be absent, linking it right
+         * after this node.
+         */
+        final void putNew(HashMap<K, V> map, int h, K key, V value)
+        {
+            Node<K, V> x = map.newNode(h, key, value, next);
+            next = x;
+            int c = count, i = lowerBound(h);
+            while (i < c && hashes[i] == h)
+                ++i;
+            if (c == hashes.length)
+            {
+                int len = c + (c >>> 1) + 1;
+                hashes = Arrays.copyOf(hashes, len);
+                nodes = Arrays.copyOf(nodes, len);
+            }
+            System.arraycopy(hashes, i, hashes, i + 1, c - i);
+            System.arraycopy(nodes, i, nodes, i + 1, c - i);
+            hashes[i] = h;
+            nodes[i] = x;
+            count = c + 1;
+        }
+
+        /**
+         * Removes node p, which must be in this bin, from the index.
+         */
+        final void unindex(Node<K, V> p)
+        {
+            int i = lowerBound(p.hash), c = count;
+            while (nodes[i] != p)
+                ++i;
+            System.arraycopy(hashes, i + 1, hashes, i, c - i - 1);
+            System.arraycopy(nodes, i + 1, nodes, i, c - i - 1);
+            nodes[count = c - 1] = null;
+        }
+
+        /**
+         * Removes the given node, found in this bin at index of tab. The
+         * bin becomes a plain chain, if movable, once it holds no more
+         * than UNTREEIFY_THRESHOLD nodes. Removing the head replaces the
+         * next node with a new array bin taking over the index, if
+         * movable; otherwise the bin becomes a plain chain.
+         */
+        final void removeNode(HashMap<K, V> map, Node<K, V>[] tab, int index,
+                              Node<K, V> p, boolean movable)
+        {
+            if (p == this)
+            {
+                Node<K, V> nx = next;
+                if (!movable || count - 1 <= UNTREEIFY_THRESHOLD)
+                {
+                    tab[index] = nx;
+                    if (movable && map.stats != null)
+                        ++map.stats.untreeifications;
+                    return;
+                }
+                //数组中去掉自己,下一个节点换成新的 ArrayBin,接管同一组数组
+                unindex(this);
+                ArrayBin<K, V> b = map.replacementArrayBin(nx, nx.next);
+                int i = lowerBound(nx.hash);
+                while (nodes[i] != nx)
+                    ++i;
+                nodes[i] = b;
+                b.hashes = hashes;
+                b.nodes = nodes;
+                b.count = count;
+                hashes = null;
+                nodes = null;
+                count = 0;
+                tab[index] = b;
+                return;
+            }
+            Node<K, V> pred = this;
+            while (pred.next != p)
+                pred = pred.next;
+            pred.next = p.next;
+            unindex(p);
+            if (movable && count <= UNTREEIFY_THRESHOLD)
+                tab[index] = map.untreeifyArrayBin(this);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     // Tree bins
 
@@ -2003,6 +4641,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         TreeNode<K, V> left;
         TreeNode<K, V> right;
         TreeNode<K, V> prev;    // needed to unlink next upon deletion
+        int binSize;            // nodes in the bin, kept on the first node
         boolean red;//红黑树,啦啦啦
 
         TreeNode(int hash, K key, V val, Node<K, V> next)
@@ -2040,8 +4679,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 if (root != first)
                 {
                     Node<K, V> rn;
-                    //3.1,设置红黑树根节点的值为改下标位置的值
+                    //3.1,设置红黑树根节点的值为改下标位置的值,桶的节点数跟着头节点走
                     tab[index] = root;
+                    if (first != null)
+                        root.binSize = first.binSize;
                     TreeNode<K, V> rp = root.prev;
                     //3.2,重置红黑树根节点的上下级关系，主要是调整root,root.prev,root.next,first;四者的关系
                     if ((rn = root.next) != null)
@@ -2141,10 +4782,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         final void treeify(Node<K, V>[] tab)
         {
             TreeNode<K, V> root = null;
+            int count = 0;
             // 1.将调用此方法的节点赋值给x，以x作为起点，开始进行遍历
             for (TreeNode<K, V> x = this, next; x != null; x = next)
             {
                 next = (TreeNode<K, V>) x.next; // next赋值为x的下个节点
+                ++count;
                 x.left = x.right = null; // 将x的左右节点设置为空
                 if (root == null)
                 {
@@ -2191,6 +4834,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
             // 10.如果root节点不在table索引位置的头节点, 则将其调整为头节点
             moveRootToFront(tab, root);
+            root.binSize = count;
         }
 
         /**
@@ -2200,6 +4844,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 // * 将红黑树节点转为链表节点, 当节点<=6个时会被触发
         final Node<K, V> untreeify(HashMap<K, V> map)
         {
+            if (map.stats != null)
+                ++map.stats.untreeifications;
             Node<K, V> hd = null, tl = null;// hd指向头节点, tl指向尾节点
             for (Node<K, V> q = this; q != null; q = q.next)
             {
@@ -2272,6 +4918,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                     x.parent = x.prev = xp;
                     if (xpn != null)
                         ((TreeNode<K, V>) xpn).prev = x;
+                    ++((TreeNode<K, V>) tab[(tab.length - 1) & h]).binSize;
                     moveRootToFront(tab, balanceInsertion(root, x));
                     return null;
                 }
@@ -2299,6 +4946,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             int index = (n - 1) & hash;
             TreeNode<K, V> first = (TreeNode<K, V>) tab[index], root = first, rl;
             TreeNode<K, V> succ = (TreeNode<K, V>) next, pred = prev;
+            int binSize = first.binSize - 1;
             if (pred == null)
                 tab[index] = first = succ;
             else
@@ -2307,6 +4955,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 succ.prev = pred;
             if (first == null)
                 return;
+            first.binSize = binSize;
             if (root.parent != null)
                 root = root.root();
             if (root == null
@@ -2452,6 +5101,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 else
                 {
                     tab[index] = loHead;
+                    loHead.binSize = lc;
                     //如果hiHead不为空，则代表原来的红黑树(老表的红黑树由于节点被分到两个位置)已经被改变, 需要重新构建新的红黑树
                     if (hiHead != null) // (else is already treeified)
                         //以 loHead 为根节点，构建新的红黑树
@@ -2468,6 +5118,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 {
                     //将索引位置为原索引+oldCap的节点设置为对应的头节点
                     tab[index + bit] = hiHead;
+                    hiHead.binSize = hc;
                     //loHead不为空则代表原来的红黑树(老表的红黑树由于节点被分到两个位置)已经被改变, 需要重新构建新的红黑树
                     if (loHead != null)
                         hiHead.treeify(tab);
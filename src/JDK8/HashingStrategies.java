@@ -0,0 +1,103 @@
+package JDK8;
+
+import java.io.Serializable;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Package private supporting class for {@link HashingStrategy}.
+ */
+final class HashingStrategies
+{
+    private HashingStrategies()
+    {
+        throw new AssertionError("no instances");
+    }
+
+    /*
+    两个 mixer 都是对 32 位 hashCode 做 xor-shift-multiply:
+        murmur3 是 MurmurHash3 的 fmix32
+        xxHash 是 XXH32 的 avalanche
+    它们只能把已有的位打散,hashCode 本身就相同的键仍然相同,这种情况要用 of(...) 自己提供 hash 函数
+     */
+    enum Standard implements HashingStrategy<Object>
+    {
+        MURMUR3
+                {
+                    public int hashCode(Object key)
+                    {
+                        int h = key.hashCode();
+                        h ^= h >>> 16;
+                        h *= 0x85ebca6b;
+                        h ^= h >>> 13;
+                        h *= 0xc2b2ae35;
+                        return h ^ (h >>> 16);
+                    }
+
+                    public boolean equals(Object a, Object b)
+                    {
+                        return a.equals(b);
+                    }
+                },
+        XXHASH
+                {
+                    public int hashCode(Object key)
+                    {
+                        int h = key.hashCode();
+                        h ^= h >>> 15;
+                        h *= 0x85ebca77;
+                        h ^= h >>> 13;
+                        h *= 0xc2b2ae3d;
+                        return h ^ (h >>> 16);
+                    }
+
+                    public boolean equals(Object a, Object b)
+                    {
+                        return a.equals(b);
+                    }
+                },
+        IDENTITY
+                {
+                    public int hashCode(Object key)
+                    {
+                        return System.identityHashCode(key);
+                    }
+
+                    public boolean equals(Object a, Object b)
+                    {
+                        return a == b;
+                    }
+                }
+    }
+
+    /**
+     * Strategy built from user-supplied functions; a null equality
+     * predicate means equals.
+     */
+    static final class Functional<T> implements HashingStrategy<T>, Serializable
+    {
+        private static final long serialVersionUID = -1907368546347393154L;
+
+        private final ToIntFunction<? super T> hash;
+        private final BiPredicate<? super T, ? super T> equals;
+
+        Functional(ToIntFunction<? super T> hash,
+                   BiPredicate<? super T, ? super T> equals)
+        {
+            if (hash == null)
+                throw new NullPointerException();
+            this.hash = hash;
+            this.equals = equals;
+        }
+
+        public int hashCode(T key)
+        {
+            return hash.applyAsInt(key);
+        }
+
+        public boolean equals(T a, T b)
+        {
+            return (equals == null) ? a.equals(b) : equals.test(a, b);
+        }
+    }
+}
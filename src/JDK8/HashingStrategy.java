@@ -0,0 +1,118 @@
+package JDK8;
+
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * A strategy for hashing and comparing the keys of a {@link HashMap},
+ * used in place of the keys' own {@code hashCode} and {@code equals}.
+ * This allows keys with poorly distributed hash codes, or keys that
+ * should be compared by a different notion of equality, to be used
+ * without wrapping each one.
+ *
+ * <p>A strategy is never called with a {@code null} argument: the map
+ * hashes the {@code null} key to zero and considers it equal only to
+ * itself. As with {@code hashCode} and {@code equals}, keys that are equal
+ * under {@link #equals} must have the same {@link #hashCode}.
+ *
+ * <p>A map is serializable only if its strategy is. All of the built-in
+ * strategies are serializable.
+ *
+ * @param <T> the type of keys hashed by this strategy
+ * @see HashMap#HashMap(int, float, HashingStrategy)
+ */
+public interface HashingStrategy<T>
+{
+    /**
+     * Returns a hash code for the given key.
+     *
+     * @param key a non-null key
+     * @return the hash code
+     */
+    int hashCode(T key);
+
+    /**
+     * Returns whether the two keys are to be treated as the same key.
+     *
+     * @param a a non-null key
+     * @param b a non-null key
+     * @return true if the keys are equal under this strategy
+     */
+    boolean equals(T a, T b);
+
+    /**
+     * Returns a strategy that passes each key's {@code hashCode} through
+     * the 32-bit finalizer of MurmurHash3 and uses {@code equals}. Every
+     * bit of the hash code affects every bit of the result, so keys
+     * whose hash codes differ only in high bits, or form an arithmetic
+     * sequence, are spread over the whole table.
+     *
+     * @param <T> the type of keys
+     * @return the Murmur3 mixing strategy
+     */
+    @SuppressWarnings("unchecked")
+    static <T> HashingStrategy<T> murmur3()
+    {
+        return (HashingStrategy<T>) HashingStrategies.Standard.MURMUR3;
+    }
+
+    /**
+     * Returns a strategy that passes each key's {@code hashCode} through
+     * the avalanche step of xxHash32 and uses {@code equals}.
+     *
+     * @param <T> the type of keys
+     * @return the xxHash mixing strategy
+     */
+    @SuppressWarnings("unchecked")
+    static <T> HashingStrategy<T> xxHash()
+    {
+        return (HashingStrategy<T>) HashingStrategies.Standard.XXHASH;
+    }
+
+    /**
+     * Returns a strategy that compares keys by reference and hashes them
+     * with {@link System#identityHashCode}, like
+     * {@link java.util.IdentityHashMap}.
+     *
+     * @param <T> the type of keys
+     * @return the identity strategy
+     */
+    @SuppressWarnings("unchecked")
+    static <T> HashingStrategy<T> identity()
+    {
+        return (HashingStrategy<T>) HashingStrategies.Standard.IDENTITY;
+    }
+
+    /**
+     * Returns a strategy that hashes keys with the given function and
+     * compares them with {@code equals}.
+     *
+     * @param hash the hash function
+     * @param <T>  the type of keys
+     * @return a strategy using the given hash function
+     * @throws NullPointerException if hash is null
+     */
+    static <T> HashingStrategy<T> of(ToIntFunction<? super T> hash)
+    {
+        return new HashingStrategies.Functional<T>(hash, null);
+    }
+
+    /**
+     * Returns a strategy that hashes keys with the given function and
+     * compares them with the given predicate. The returned strategy is
+     * serializable if both arguments are.
+     *
+     * @param hash   the hash function
+     * @param equals the equality predicate
+     * @param <T>    the type of keys
+     * @return a strategy using the given functions
+     * @throws NullPointerException if either argument is null
+     */
+    static <T> HashingStrategy<T> of(ToIntFunction<? super T> hash,
+                                     BiPredicate<? super T, ? super T> equals)
+    {
+        if (equals == null)
+            throw new NullPointerException();
+        return new HashingStrategies.Functional<T>(hash, equals);
+    }
+}
@@ -0,0 +1,18 @@
+package JDK8;
+
+/**
+ * Represents an operation that accepts two {@code int}-valued arguments,
+ * and returns no result. This is the {@code (int, int)} specialization of
+ * {@link java.util.function.BiConsumer}, used by {@link IntIntHashMap}.
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+
+    /**
+     * Performs this operation on the given arguments.
+     *
+     * @param key   the first input argument
+     * @param value the second input argument
+     */
+    void accept(int key, int value);
+}
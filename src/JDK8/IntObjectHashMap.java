@@ -0,0 +1,541 @@
+package JDK8;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+
+/*
+int 作为键的 HashMap,从 JDK8.HashMap 的设计特化而来
+
+HashMap<Integer,V> 的问题:
+    每个键都要装箱成 Integer(-128~127 以外都会分配对象)
+    hash(Object) 要通过 Integer.hashCode() 虚调用拿到 hash
+    每个映射还要一个 Node 对象
+
+这里:
+    键直接存在 int[] keys 中,值存在平行的 Object[] vals 中
+    table 长度仍然是 2 的幂,负载因子默认 0.75,超过 threshold 扩容为两倍,和 HashMap 一致
+    没有 Node,所以用开放寻址(线性探测)代替拉链;删除用后移(backward-shift),不留墓碑
+    0 用来表示空槽,键 0 单独存放在 hasZeroKey/zeroValue 中
+    get/containsKey/getOrDefault 不会分配任何对象
+
+hash 的扰动:
+    HashMap 只把高16位异或到低16位,拉链法下这样就够了
+    线性探测对聚集更敏感,所以先乘以黄金分割常数再做同样的高低位异或
+ */
+
+/**
+ * Hash table mapping primitive {@code int} keys to object values, derived
+ * from the {@link HashMap} design (power-of-two table, load factor,
+ * doubling resize) but storing keys in an {@code int[]} so that no key is
+ * ever boxed and lookups never allocate.
+ *
+ * <p>Values may be {@code null}; use {@link #containsKey(int)} to tell an
+ * absent key from a key mapped to {@code null}. This class is not
+ * synchronized, and {@link #forEach} is fail-fast.
+ *
+ * @param <V> the type of mapped values
+ */
+public class IntObjectHashMap<V> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 7268140718432650871L;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * The keys; 0 marks a free slot. Allocated on first use.
+     */
+    transient int[] keys;
+
+    /**
+     * The values, parallel to keys.
+     */
+    transient Object[] vals;
+
+    /**
+     * Whether the key 0, which cannot live in the table, is present.
+     */
+    transient boolean hasZeroKey;
+
+    transient Object zeroValue;
+
+    transient int size;
+
+    transient int modCount;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     * Before the table is allocated this holds the initial capacity.
+     *
+     * @serial
+     */
+    int threshold;
+
+    /**
+     * The load factor for the hash table.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor, which must be less than one
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is not in (0, 1)
+     */
+    public IntObjectHashMap(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = HashMap.tableSizeFor(initialCapacity);
+    }
+
+    public IntObjectHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntObjectHashMap()
+    {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    static int hash(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    /**
+     * Returns the slot holding the given non-zero key, or -1 if none.
+     */
+    final int findIndex(int key)
+    {
+        int[] ks;
+        if ((ks = keys) == null)
+            return -1;
+        int mask = ks.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask)
+        {
+            int k;
+            if ((k = ks[i]) == key)
+                return i;
+            if (k == 0)
+                return -1;
+        }
+    }
+
+    /**
+     * Initializes or doubles table size.
+     */
+    final void resize()
+    {
+        int[] oldKeys = keys;
+        Object[] oldVals = vals;
+        int oldCap = (oldKeys == null) ? 0 : oldKeys.length;
+        int newCap;
+        if (oldCap > 0)
+        {
+            if (oldCap >= MAXIMUM_CAPACITY)
+            {
+                if (size + 1 >= oldCap)
+                    throw new IllegalStateException("Capacity exhausted.");
+                threshold = oldCap - 1;
+                return;
+            }
+            newCap = oldCap << 1;
+        }
+        else if (threshold > 1)
+            newCap = threshold;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                Math.max((int) ft, 1) : MAXIMUM_CAPACITY - 1);
+        int[] ks = keys = new int[newCap];
+        Object[] vs = vals = new Object[newCap];
+        if (oldKeys != null)
+        {
+            int mask = newCap - 1;
+            for (int j = 0; j < oldCap; ++j)
+            {
+                int k;
+                if ((k = oldKeys[j]) != 0)
+                {
+                    int i = hash(k) & mask;
+                    while (ks[i] != 0)
+                        i = (i + 1) & mask;
+                    ks[i] = k;
+                    vs[i] = oldVals[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping at slot i, moving back any later entry of the
+     * same cluster whose home slot is not between the hole and itself.
+     */
+    final void removeAt(int i)
+    {
+        int[] ks = keys;
+        Object[] vs = vals;
+        int mask = ks.length - 1;
+        for (int j = (i + 1) & mask, k; (k = ks[j]) != 0; j = (j + 1) & mask)
+        {
+            int home = hash(k) & mask;
+            //home 不在 (i, j] 区间内,说明它的探测序列经过了空洞 i,要挪过去
+            if ((j > i) ? (home <= i || home > j) : (home <= i && home > j))
+            {
+                ks[i] = k;
+                vs[i] = vs[j];
+                i = j;
+            }
+        }
+        ks[i] = 0;
+        vs[i] = null;
+        ++modCount;
+        --size;
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the key.
+     *
+     * @param key the key
+     * @return {@code true} if a mapping exists
+     */
+    public boolean containsKey(int key)
+    {
+        return (key == 0) ? hasZeroKey : findIndex(key) >= 0;
+    }
+
+    /**
+     * Returns the value to which the key is mapped, or {@code null} if
+     * this map contains no mapping for the key.
+     *
+     * @param key the key
+     * @return the mapped value, or {@code null}
+     */
+    public V get(int key)
+    {
+        return getOrDefault(key, null);
+    }
+
+    /**
+     * Returns the value to which the key is mapped, or
+     * {@code defaultValue} if this map contains no mapping for the key.
+     *
+     * @param key          the key
+     * @param defaultValue the default mapping of the key
+     * @return the mapped value, or {@code defaultValue}
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(int key, V defaultValue)
+    {
+        if (key == 0)
+            return hasZeroKey ? (V) zeroValue : defaultValue;
+        int i;
+        return (i = findIndex(key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    /**
+     * Associates the value with the key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value, or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value)
+    {
+        if (key == 0)
+        {
+            V oldValue = (V) zeroValue;
+            zeroValue = value;
+            if (!hasZeroKey)
+            {
+                hasZeroKey = true;
+                ++modCount;
+                ++size;
+            }
+            return oldValue;
+        }
+        if (keys == null)
+            resize();
+        int[] ks = keys;
+        int mask = ks.length - 1, i;
+        for (i = hash(key) & mask; ; i = (i + 1) & mask)
+        {
+            int k;
+            if ((k = ks[i]) == key)
+            {
+                V oldValue = (V) vals[i];
+                vals[i] = value;
+                return oldValue;
+            }
+            if (k == 0)
+                break;
+        }
+        //size 不含键0,这样 threshold 只约束表中的元素
+        if (size - (hasZeroKey ? 1 : 0) + 1 > threshold)
+        {
+            resize();
+            ks = keys;
+            mask = ks.length - 1;
+            for (i = hash(key) & mask; ks[i] != 0; i = (i + 1) & mask)
+                ;
+        }
+        ks[i] = key;
+        vals[i] = value;
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * Removes the mapping for the key, if present.
+     *
+     * @param key the key
+     * @return the previous value, or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        if (key == 0)
+        {
+            V oldValue = (V) zeroValue;
+            if (hasZeroKey)
+            {
+                hasZeroKey = false;
+                zeroValue = null;
+                ++modCount;
+                --size;
+            }
+            return oldValue;
+        }
+        int i;
+        if ((i = findIndex(key)) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    public void clear()
+    {
+        modCount++;
+        if (size > 0)
+        {
+            size = 0;
+            hasZeroKey = false;
+            zeroValue = null;
+            if (keys != null)
+            {
+                Arrays.fill(keys, 0);
+                Arrays.fill(vals, null);
+            }
+        }
+    }
+
+    /**
+     * Performs the given action for each mapping in this map.
+     *
+     * @param action the action to be performed for each mapping
+     * @throws NullPointerException            if the action is null
+     * @throws ConcurrentModificationException if the map is structurally
+     *                                         modified during iteration
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjConsumer<? super V> action)
+    {
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0)
+        {
+            int mc = modCount;
+            if (hasZeroKey)
+                action.accept(0, (V) zeroValue);
+            int[] ks;
+            if ((ks = keys) != null)
+            {
+                Object[] vs = vals;
+                for (int i = 0; i < ks.length; ++i)
+                {
+                    int k;
+                    if ((k = ks[i]) != 0)
+                        action.accept(k, (V) vs[i]);
+                }
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public String toString()
+    {
+        if (size == 0)
+            return "{}";
+        StringBuilder sb = new StringBuilder().append('{');
+        forEach((k, v) -> sb.append(k).append('=')
+                .append(v == this ? "(this Map)" : v).append(", "));
+        sb.setLength(sb.length() - 2);
+        return sb.append('}').toString();
+    }
+
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (!(o instanceof IntObjectHashMap))
+            return false;
+        IntObjectHashMap<?> m = (IntObjectHashMap<?>) o;
+        if (m.size != size)
+            return false;
+        if (hasZeroKey && (!m.hasZeroKey || !Objects.equals(zeroValue, m.zeroValue)))
+            return false;
+        int[] ks;
+        if ((ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                int k, j;
+                if ((k = ks[i]) != 0 &&
+                        ((j = m.findIndex(k)) < 0 || !Objects.equals(vals[i], m.vals[j])))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode()
+    {
+        //与 Map.hashCode 的约定一致:各个 key.hashCode() ^ value.hashCode() 之和
+        int h = hasZeroKey ? Objects.hashCode(zeroValue) : 0;
+        int[] ks;
+        if ((ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                int k;
+                if ((k = ks[i]) != 0)
+                    h += k ^ Objects.hashCode(vals[i]);
+            }
+        }
+        return h;
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public IntObjectHashMap<V> clone()
+    {
+        IntObjectHashMap<V> result;
+        try
+        {
+            result = (IntObjectHashMap<V>) super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        if (keys != null)
+        {
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        result.modCount = 0;
+        return result;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        if (hasZeroKey)
+        {
+            s.writeInt(0);
+            s.writeObject(zeroValue);
+        }
+        int[] ks;
+        if ((ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                int k;
+                if ((k = ks[i]) != 0)
+                {
+                    s.writeInt(k);
+                    s.writeObject(vals[i]);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        int mappings = s.readInt();
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        keys = null;
+        vals = null;
+        hasZeroKey = false;
+        zeroValue = null;
+        size = modCount = 0;
+        float fc = (float) mappings / loadFactor + 1.0f;
+        threshold = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                DEFAULT_INITIAL_CAPACITY :
+                (fc >= MAXIMUM_CAPACITY) ?
+                        MAXIMUM_CAPACITY :
+                        HashMap.tableSizeFor((int) fc));
+        for (int i = 0; i < mappings; i++)
+        {
+            int key = s.readInt();
+            put(key, (V) s.readObject());
+        }
+    }
+}
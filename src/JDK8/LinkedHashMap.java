@@ -160,6 +160,14 @@ public class LinkedHashMap<K, V>
         return t;
     }
 
+    //桶转为 ArrayBin 时,替换头节点,同样要接上双向链表
+    ArrayBin<K, V> replacementArrayBin(Node<K, V> p, Node<K, V> next) {
+        LinkedHashMap.Entry<K, V> q = (LinkedHashMap.Entry<K, V>) p;
+        ArrayBin<K, V> t = new ArrayBin<K, V>(q.hash, q.key, q.value, next);
+        transferLinks(q, t);
+        return t;
+    }
+
     //正常的断开链条
     //从链式关系中删除节点e
     //该方法会在Node<K,V> removeNode(int hash, Object key, Object value, boolean matchValue, boolean movable)方法中回调
@@ -189,7 +197,7 @@ public class LinkedHashMap<K, V>
         //把最老的没有被访问的元素移除掉
         if (evict && (first = head) != null && removeEldestEntry(first)) {
             K key = first.key;
-            removeNode(hash(key), key, null, false, true);
+            removeNode(keyHash(key), key, null, false, true);
         }
     }
 
@@ -306,7 +314,7 @@ public class LinkedHashMap<K, V>
     public V get(Object key) {
         Node<K, V> e;
         //调用父类的get方法
-        if ((e = getNode(hash(key), key)) == null)
+        if ((e = getNode(keyHash(key), key)) == null)
             return null;
 //        当 accessOrder = true 时，即表示按照最近访问的迭代顺序，会将访问过的元素放在链表后面。
         if (accessOrder)
@@ -319,7 +327,7 @@ public class LinkedHashMap<K, V>
      */
     public V getOrDefault(Object key, V defaultValue) {
         Node<K, V> e;
-        if ((e = getNode(hash(key), key)) == null)
+        if ((e = getNode(keyHash(key), key)) == null)
             return defaultValue;
         //这个也算是访问了
         if (accessOrder)
@@ -371,7 +379,7 @@ public class LinkedHashMap<K, V>
         }
 
         public final boolean remove(Object key) {
-            return removeNode(hash(key), key, null, false, true) != null;
+            return removeNode(keyHash(key), key, null, false, true) != null;
         }
 
         public final Spliterator<K> spliterator() {
@@ -475,7 +483,7 @@ public class LinkedHashMap<K, V>
                 return false;
             Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
             Object key = e.getKey();
-            Node<K, V> candidate = getNode(hash(key), key);
+            Node<K, V> candidate = getNode(keyHash(key), key);
             return candidate != null && candidate.equals(e);
         }
 
@@ -485,7 +493,7 @@ public class LinkedHashMap<K, V>
                 Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
                 Object key = e.getKey();
                 Object value = e.getValue();
-                return removeNode(hash(key), key, value, true, true) != null;
+                return removeNode(keyHash(key), key, value, true, true) != null;
             }
             return false;
         }
@@ -575,7 +583,7 @@ public class LinkedHashMap<K, V>
                 throw new ConcurrentModificationException();
             current = null;
             K key = p.key;
-            removeNode(hash(key), key, null, false, false);
+            removeNode(keyHash(key), key, null, false, false);
             //迭代器自己删除不算fail-fast
             expectedModCount = modCount;
         }
@@ -0,0 +1,18 @@
+package JDK8;
+
+/**
+ * Represents an operation that accepts two {@code long}-valued arguments,
+ * and returns no result. This is the {@code (long, long)} specialization of
+ * {@link java.util.function.BiConsumer}, used by {@link LongLongHashMap}.
+ */
+@FunctionalInterface
+public interface LongLongConsumer {
+
+    /**
+     * Performs this operation on the given arguments.
+     *
+     * @param key   the first input argument
+     * @param value the second input argument
+     */
+    void accept(long key, long value);
+}
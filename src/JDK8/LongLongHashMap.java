@@ -0,0 +1,523 @@
+package JDK8;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+/*
+long -> long 的 HashMap,结构与 LongObjectHashMap 相同,值也换成了 long[]
+HashMap<Long,Long> 中键和值都要装箱,这里都不需要
+
+值是基本类型,没有 null:
+    get/put/remove 在没有映射时返回 0,需要区分时用 containsKey 或 getOrDefault
+ */
+
+/**
+ * Hash table mapping primitive {@code long} keys to primitive {@code long}
+ * values. Same layout as {@link LongObjectHashMap} with the values also held
+ * in an {@code long[]}, so neither keys nor values are ever boxed.
+ *
+ * <p>Methods that return a value return {@code 0L} when there is no
+ * mapping; use {@link #containsKey(long)} or {@link #getOrDefault(long, long)}
+ * to tell the two apart. This class is not synchronized, and
+ * {@link #forEach} is fail-fast.
+ */
+public class LongLongHashMap implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 1795332064815617437L;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * The keys; 0 marks a free slot. Allocated on first use.
+     */
+    transient long[] keys;
+
+    /**
+     * The values, parallel to keys.
+     */
+    transient long[] vals;
+
+    /**
+     * Whether the key 0, which cannot live in the table, is present.
+     */
+    transient boolean hasZeroKey;
+
+    transient long zeroValue;
+
+    transient int size;
+
+    transient int modCount;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     * Before the table is allocated this holds the initial capacity.
+     *
+     * @serial
+     */
+    int threshold;
+
+    /**
+     * The load factor for the hash table.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor, which must be less than one
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is not in (0, 1)
+     */
+    public LongLongHashMap(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = HashMap.tableSizeFor(initialCapacity);
+    }
+
+    public LongLongHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongLongHashMap()
+    {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int x = (int) (h ^ (h >>> 32));
+        return x ^ (x >>> 16);
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    /**
+     * Returns the slot holding the given non-zero key, or -1 if none.
+     */
+    final int findIndex(long key)
+    {
+        long[] ks;
+        if ((ks = keys) == null)
+            return -1;
+        int mask = ks.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask)
+        {
+            long k;
+            if ((k = ks[i]) == key)
+                return i;
+            if (k == 0)
+                return -1;
+        }
+    }
+
+    /**
+     * Initializes or doubles table size.
+     */
+    final void resize()
+    {
+        long[] oldKeys = keys;
+        long[] oldVals = vals;
+        int oldCap = (oldKeys == null) ? 0 : oldKeys.length;
+        int newCap;
+        if (oldCap > 0)
+        {
+            if (oldCap >= MAXIMUM_CAPACITY)
+            {
+                if (size + 1 >= oldCap)
+                    throw new IllegalStateException("Capacity exhausted.");
+                threshold = oldCap - 1;
+                return;
+            }
+            newCap = oldCap << 1;
+        }
+        else if (threshold > 1)
+            newCap = threshold;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                Math.max((int) ft, 1) : MAXIMUM_CAPACITY - 1);
+        long[] ks = keys = new long[newCap];
+        long[] vs = vals = new long[newCap];
+        if (oldKeys != null)
+        {
+            int mask = newCap - 1;
+            for (int j = 0; j < oldCap; ++j)
+            {
+                long k;
+                if ((k = oldKeys[j]) != 0)
+                {
+                    int i = hash(k) & mask;
+                    while (ks[i] != 0)
+                        i = (i + 1) & mask;
+                    ks[i] = k;
+                    vs[i] = oldVals[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping at slot i, moving back any later entry of the
+     * same cluster whose home slot is not between the hole and itself.
+     */
+    final void removeAt(int i)
+    {
+        long[] ks = keys;
+        long[] vs = vals;
+        int mask = ks.length - 1;
+        long k;
+        for (int j = (i + 1) & mask; (k = ks[j]) != 0; j = (j + 1) & mask)
+        {
+            int home = hash(k) & mask;
+            //home 不在 (i, j] 区间内,说明它的探测序列经过了空洞 i,要挪过去
+            if ((j > i) ? (home <= i || home > j) : (home <= i && home > j))
+            {
+                ks[i] = k;
+                vs[i] = vs[j];
+                i = j;
+            }
+        }
+        ks[i] = 0;
+        vs[i] = 0L;
+        ++modCount;
+        --size;
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the key.
+     *
+     * @param key the key
+     * @return {@code true} if a mapping exists
+     */
+    public boolean containsKey(long key)
+    {
+        return (key == 0) ? hasZeroKey : findIndex(key) >= 0;
+    }
+
+    /**
+     * Returns the value to which the key is mapped, or {@code 0L} if
+     * this map contains no mapping for the key.
+     *
+     * @param key the key
+     * @return the mapped value, or {@code 0L}
+     */
+    public long get(long key)
+    {
+        return getOrDefault(key, 0L);
+    }
+
+    /**
+     * Returns the value to which the key is mapped, or
+     * {@code defaultValue} if this map contains no mapping for the key.
+     *
+     * @param key          the key
+     * @param defaultValue the default mapping of the key
+     * @return the mapped value, or {@code defaultValue}
+     */
+    public long getOrDefault(long key, long defaultValue)
+    {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+        int i;
+        return (i = findIndex(key)) < 0 ? defaultValue : vals[i];
+    }
+
+    /**
+     * Associates the value with the key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value, or {@code 0L} if there was none
+     */
+    public long put(long key, long value)
+    {
+        if (key == 0)
+        {
+            long oldValue = zeroValue;
+            zeroValue = value;
+            if (!hasZeroKey)
+            {
+                hasZeroKey = true;
+                ++modCount;
+                ++size;
+            }
+            return oldValue;
+        }
+        if (keys == null)
+            resize();
+        long[] ks = keys;
+        int mask = ks.length - 1, i;
+        for (i = hash(key) & mask; ; i = (i + 1) & mask)
+        {
+            long k;
+            if ((k = ks[i]) == key)
+            {
+                long oldValue = vals[i];
+                vals[i] = value;
+                return oldValue;
+            }
+            if (k == 0)
+                break;
+        }
+        //size 不含键0,这样 threshold 只约束表中的元素
+        if (size - (hasZeroKey ? 1 : 0) + 1 > threshold)
+        {
+            resize();
+            ks = keys;
+            mask = ks.length - 1;
+            for (i = hash(key) & mask; ks[i] != 0; i = (i + 1) & mask)
+                ;
+        }
+        ks[i] = key;
+        vals[i] = value;
+        ++modCount;
+        ++size;
+        return 0L;
+    }
+
+    /**
+     * Removes the mapping for the key, if present.
+     *
+     * @param key the key
+     * @return the previous value, or {@code 0L} if there was none
+     */
+    public long remove(long key)
+    {
+        if (key == 0)
+        {
+            long oldValue = zeroValue;
+            if (hasZeroKey)
+            {
+                hasZeroKey = false;
+                zeroValue = 0L;
+                ++modCount;
+                --size;
+            }
+            return oldValue;
+        }
+        int i;
+        if ((i = findIndex(key)) < 0)
+            return 0L;
+        long oldValue = vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    public void clear()
+    {
+        modCount++;
+        if (size > 0)
+        {
+            size = 0;
+            hasZeroKey = false;
+            zeroValue = 0L;
+            if (keys != null)
+            {
+                Arrays.fill(keys, 0L);
+                Arrays.fill(vals, 0L);
+            }
+        }
+    }
+
+    /**
+     * Performs the given action for each mapping in this map.
+     *
+     * @param action the action to be performed for each mapping
+     * @throws NullPointerException            if the action is null
+     * @throws ConcurrentModificationException if the map is structurally
+     *                                         modified during iteration
+     */
+    public void forEach(LongLongConsumer action)
+    {
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0)
+        {
+            int mc = modCount;
+            if (hasZeroKey)
+                action.accept(0, zeroValue);
+            long[] ks;
+            if ((ks = keys) != null)
+            {
+                long[] vs = vals;
+                for (int i = 0; i < ks.length; ++i)
+                {
+                    long k;
+                    if ((k = ks[i]) != 0)
+                        action.accept(k, vs[i]);
+                }
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public String toString()
+    {
+        if (size == 0)
+            return "{}";
+        StringBuilder sb = new StringBuilder().append('{');
+        forEach((k, v) -> sb.append(k).append('=')
+                .append(v).append(", "));
+        sb.setLength(sb.length() - 2);
+        return sb.append('}').toString();
+    }
+
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (!(o instanceof LongLongHashMap))
+            return false;
+        LongLongHashMap m = (LongLongHashMap) o;
+        if (m.size != size)
+            return false;
+        if (hasZeroKey && (!m.hasZeroKey || zeroValue != m.zeroValue))
+            return false;
+        long[] ks;
+        if ((ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                long k;
+                int j;
+                if ((k = ks[i]) != 0 &&
+                        ((j = m.findIndex(k)) < 0 || vals[i] != m.vals[j]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode()
+    {
+        //与 Map.hashCode 的约定一致:各个 key.hashCode() ^ value.hashCode() 之和
+        int h = hasZeroKey ? Long.hashCode(zeroValue) : 0;
+        long[] ks;
+        if ((ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                long k;
+                if ((k = ks[i]) != 0)
+                    h += Long.hashCode(k) ^ Long.hashCode(vals[i]);
+            }
+        }
+        return h;
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    @Override
+    public LongLongHashMap clone()
+    {
+        LongLongHashMap result;
+        try
+        {
+            result = (LongLongHashMap) super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        if (keys != null)
+        {
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        result.modCount = 0;
+        return result;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        if (hasZeroKey)
+        {
+            s.writeLong(0L);
+            s.writeLong(zeroValue);
+        }
+        long[] ks;
+        if ((ks = keys) != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                long k;
+                if ((k = ks[i]) != 0)
+                {
+                    s.writeLong(k);
+                    s.writeLong(vals[i]);
+                }
+            }
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        int mappings = s.readInt();
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        keys = null;
+        vals = null;
+        hasZeroKey = false;
+        zeroValue = 0L;
+        size = modCount = 0;
+        float fc = (float) mappings / loadFactor + 1.0f;
+        threshold = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                DEFAULT_INITIAL_CAPACITY :
+                (fc >= MAXIMUM_CAPACITY) ?
+                        MAXIMUM_CAPACITY :
+                        HashMap.tableSizeFor((int) fc));
+        for (int i = 0; i < mappings; i++)
+        {
+            long key = s.readLong();
+            put(key, s.readLong());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package JDK8;
+
+/**
+ * Represents an operation that accepts a {@code long}-valued key and an
+ * object-valued argument, and returns no result. This is the
+ * {@code (long, reference)} specialization of
+ * {@link java.util.function.BiConsumer}, used by {@link LongObjectHashMap}.
+ *
+ * @param <V> the type of the object argument to the operation
+ */
+@FunctionalInterface
+public interface LongObjConsumer<V> {
+
+    /**
+     * Performs this operation on the given arguments.
+     *
+     * @param key   the first input argument
+     * @param value the second input argument
+     */
+    void accept(long key, V value);
+}
@@ -0,0 +1,730 @@
+package JDK8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+数据放在内存映射文件中的 HashMap
+
+和 JDK8.HashMap 一样是桶数组 + 拉链,只是把"对象"换成了文件中的偏移量:
+    桶数组是文件中连续的 long,每个 long 是链表头记录的偏移量,0 表示空桶(偏移量 0 是文件头,不会是记录)
+    每条记录 = next(long) + hash(int) + key 长度(int) + value 长度(int) + key 字节 + value 字节
+    key/value 通过 Codec 编码成字节,键的比较直接比较字节,hash 也是对字节计算的,所以换一个进程重新打开文件仍然能找到
+    堆中只有几个 MappedByteBuffer 和少量字段,GC 完全看不到这些数据
+
+文件按 1GB 分段映射(一个 MappedByteBuffer 最多只能映射 2GB),最后一段按需增长
+记录只追加,不跨段:当前段剩余空间放不下就从下一段开始
+    put 已存在的键:追加新记录,在链表中替换旧记录
+    remove:从链表中摘除
+    扩容:在文件末尾追加一个两倍大小的桶数组,按 hash & oldCap 把每条链表拆成 lo/hi 两条
+        旧桶能到达的记录一律不改:链表末尾 hash & oldCap 相同的一段(lastRun)直接复用,前面的记录复制一份再链接
+        新布局 force() 之后才改文件头,扩容中途崩溃时文件仍是扩容前的样子
+    被替换/删除的记录、扩容时被复制的记录和旧的桶数组都不会回收,garbage() 返回这部分字节数
+
+不是线程安全的;写入后不保证立即落盘,需要时调用 force()
+put/remove 不是崩溃安全的:链接记录和更新文件头是几次独立的写,落盘顺序由操作系统决定,中途崩溃可能留下不一致的文件
+ */
+
+/**
+ * A hash map whose keys and values are stored as encoded bytes in a
+ * memory-mapped file, so that a large map occupies almost no Java heap
+ * and can be reopened by a later process without reloading. It uses the
+ * bin-and-chain design of {@link HashMap}, but bins and chain links hold
+ * file offsets instead of references.
+ *
+ * <p>Keys are hashed and compared by their encoded bytes, so the key
+ * codec must be deterministic. <tt>null</tt> keys and values are not
+ * permitted. Records are only ever appended: replaced values, removed
+ * mappings, records copied by a resize and the bin arrays of earlier
+ * capacities stay in the file as garbage (see {@link #garbage}). Entries
+ * returned by the iterator are immutable snapshots.
+ *
+ * <p>This class is not thread-safe. Changes reach the file through the
+ * operating system's page cache; call {@link #force} to write them to
+ * the storage device. The format is not crash-safe in general: a put or
+ * remove is several separate writes that may reach the device in any
+ * order, so a failure in the middle of one, or before it is forced, can
+ * leave the file inconsistent. Resizing is the exception: it never
+ * modifies the records reachable from the old bins and forces the new
+ * layout before publishing it in the header, so an interrupted resize
+ * leaves the map as it was.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap
+ */
+public class MappedHashMap<K, V> extends AbstractMap<K, V> implements Closeable {
+
+    /**
+     * Size of each mapped segment of the file. A record never spans two
+     * segments, so this is also the maximum size of one mapping.
+     */
+    static final int SEGMENT_SHIFT = 30;
+
+    static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * The smallest length to which the last segment is mapped.
+     */
+    static final int MIN_MAPPING = 1 << 20;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float LOAD_FACTOR = 0.75f;
+
+    static final int MAGIC = 0x4D484D31; // "MHM1"
+
+    static final int VERSION = 1;
+
+    // 文件头
+    static final int H_MAGIC = 0;
+    static final int H_VERSION = 4;
+    static final int H_CAPACITY = 8;
+    static final int H_SIZE = 12;
+    static final int H_DATA_END = 16;
+    static final int H_BUCKETS = 24;
+    static final int H_GARBAGE = 32;
+    static final int HEADER_SIZE = 64;
+
+    // 记录头
+    static final int R_NEXT = 0;
+    static final int R_HASH = 8;
+    static final int R_KEY_LENGTH = 12;
+    static final int R_VALUE_LENGTH = 16;
+    static final int RECORD_HEADER = 20;
+
+    final FileChannel channel;
+
+    final Codec<K> keyCodec;
+
+    final Codec<V> valueCodec;
+
+    /**
+     * The mapped segments; the last one may be shorter than SEGMENT_SIZE.
+     */
+    MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    // 文件头字段在内存中的副本
+    int capacity;
+    int size;
+    long dataEnd;
+    long buckets;
+    long garbage;
+
+    transient int modCount;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    MappedHashMap(FileChannel channel, Codec<K> keyCodec, Codec<V> valueCodec)
+    {
+        this.channel = channel;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Opens the map stored in the given file, creating an empty one if
+     * the file does not exist or is empty.
+     *
+     * @param file       the backing file
+     * @param keyCodec   the codec for keys; must be deterministic
+     * @param valueCodec the codec for values
+     * @param <K>        the type of keys
+     * @param <V>        the type of values
+     * @return the map
+     * @throws IOException if the file cannot be opened or mapped, or is
+     *                     not a map file
+     */
+    public static <K, V> MappedHashMap<K, V> open(Path file, Codec<K> keyCodec,
+                                                  Codec<V> valueCodec) throws IOException
+    {
+        if (keyCodec == null || valueCodec == null)
+            throw new NullPointerException();
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedHashMap<K, V> m = new MappedHashMap<K, V>(ch, keyCodec, valueCodec);
+        try
+        {
+            if (ch.size() == 0)
+                m.initialize();
+            else
+                m.load();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            ch.close();
+            throw e;
+        }
+        return m;
+    }
+
+    private void initialize() throws IOException
+    {
+        ensureMapped(HEADER_SIZE);
+        putInt(H_MAGIC, MAGIC);
+        putInt(H_VERSION, VERSION);
+        dataEnd = HEADER_SIZE;
+        buckets = allocateBuckets(DEFAULT_INITIAL_CAPACITY);
+        capacity = DEFAULT_INITIAL_CAPACITY;
+        size = 0;
+        garbage = 0;
+        writeHeader();
+    }
+
+    private void load() throws IOException
+    {
+        if (channel.size() < HEADER_SIZE)
+            throw new IOException("Not a map file");
+        ensureMapped(HEADER_SIZE);
+        if (getInt(H_MAGIC) != MAGIC)
+            throw new IOException("Not a map file");
+        if (getInt(H_VERSION) != VERSION)
+            throw new IOException("Unsupported version: " + getInt(H_VERSION));
+        capacity = getInt(H_CAPACITY);
+        size = getInt(H_SIZE);
+        dataEnd = getLong(H_DATA_END);
+        buckets = getLong(H_BUCKETS);
+        garbage = getLong(H_GARBAGE);
+        if (Integer.bitCount(capacity) != 1 || size < 0 || dataEnd > channel.size() ||
+                buckets + (long) capacity * 8 > dataEnd)
+            throw new IOException("Corrupt map file header");
+        ensureMapped(dataEnd);
+    }
+
+    private void writeHeader()
+    {
+        putInt(H_CAPACITY, capacity);
+        putInt(H_SIZE, size);
+        putLong(H_DATA_END, dataEnd);
+        putLong(H_BUCKETS, buckets);
+        putLong(H_GARBAGE, garbage);
+    }
+
+    /* ---------------- File access -------------- */
+
+    /**
+     * Maps the file at least up to the given offset, growing the file if
+     * needed.
+     */
+    /*
+    前面的段都映射成完整的 1GB,最后一段按需翻倍增长,小 map 不会一上来就占 1GB 的文件
+     */
+    final void ensureMapped(long end)
+    {
+        int last = (int) ((end - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segs = segments;
+        if (last >= segs.length)
+            segments = segs = Arrays.copyOf(segs, last + 1);
+        try
+        {
+            for (int i = 0; i <= last; ++i)
+            {
+                long need = (i < last) ? SEGMENT_SIZE : ((end - 1) & SEGMENT_MASK) + 1;
+                MappedByteBuffer seg = segs[i];
+                if (seg == null || seg.capacity() < need)
+                {
+                    long len = (i < last) ? SEGMENT_SIZE :
+                            Math.min(SEGMENT_SIZE, Math.max(Math.max(need,
+                                    (seg == null) ? 0 : 2L * seg.capacity()), MIN_MAPPING));
+                    segs[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                            (long) i << SEGMENT_SHIFT, len);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    final ByteBuffer segment(long off)
+    {
+        return segments[(int) (off >>> SEGMENT_SHIFT)];
+    }
+
+    static int position(long off)
+    {
+        return (int) (off & SEGMENT_MASK);
+    }
+
+    final long getLong(long off)
+    {
+        return segment(off).getLong(position(off));
+    }
+
+    final void putLong(long off, long v)
+    {
+        segment(off).putLong(position(off), v);
+    }
+
+    final int getInt(long off)
+    {
+        return segment(off).getInt(position(off));
+    }
+
+    final void putInt(long off, int v)
+    {
+        segment(off).putInt(position(off), v);
+    }
+
+    /**
+     * Reserves len bytes at the end of the data, 8-byte aligned. Unless
+     * straddle is true the range starts a new segment rather than cross
+     * a segment boundary.
+     */
+    final long allocate(long len, boolean straddle)
+    {
+        long off = (dataEnd + 7) & ~7L;
+        if (!straddle && position(off) + len > SEGMENT_SIZE)
+            off = (off + SEGMENT_MASK) & ~SEGMENT_MASK;
+        ensureMapped(off + len);
+        dataEnd = off + len;
+        return off;
+    }
+
+    final long allocateBuckets(int cap)
+    {
+        long off = allocate((long) cap * 8, true);
+        //文件可能被 clear() 重用过,不能假设是全0
+        for (long p = off, end = off + (long) cap * 8; p < end; p += 8)
+            putLong(p, 0L);
+        return off;
+    }
+
+    final long bucket(int hash)
+    {
+        return buckets + (long) (hash & (capacity - 1)) * 8;
+    }
+
+    static int hash(byte[] key)
+    {
+        int h = Arrays.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns whether the key bytes of the record at off equal kb.
+     */
+    final boolean keyEquals(long off, byte[] kb)
+    {
+        if (getInt(off + R_KEY_LENGTH) != kb.length)
+            return false;
+        ByteBuffer seg = segment(off);
+        int p = position(off) + RECORD_HEADER;
+        for (int i = 0; i < kb.length; ++i)
+        {
+            if (seg.get(p + i) != kb[i])
+                return false;
+        }
+        return true;
+    }
+
+    final K readKey(long off)
+    {
+        ByteBuffer b = segment(off).duplicate();
+        int p = position(off) + RECORD_HEADER;
+        b.limit(p + getInt(off + R_KEY_LENGTH)).position(p);
+        return keyCodec.decode(b.slice());
+    }
+
+    final V readValue(long off)
+    {
+        ByteBuffer b = segment(off).duplicate();
+        int p = position(off) + RECORD_HEADER + getInt(off + R_KEY_LENGTH);
+        b.limit(p + getInt(off + R_VALUE_LENGTH)).position(p);
+        return valueCodec.decode(b.slice());
+    }
+
+    static long recordLength(int keyLength, int valueLength)
+    {
+        return RECORD_HEADER + (long) keyLength + valueLength;
+    }
+
+    final long appendRecord(int hash, byte[] kb, byte[] vb, long next)
+    {
+        long len = recordLength(kb.length, vb.length);
+        if (len > SEGMENT_SIZE)
+            throw new IllegalArgumentException("Mapping too large: " + len + " bytes");
+        long off = allocate(len, false);
+        putLong(off + R_NEXT, next);
+        putInt(off + R_HASH, hash);
+        putInt(off + R_KEY_LENGTH, kb.length);
+        putInt(off + R_VALUE_LENGTH, vb.length);
+        ByteBuffer b = segment(off).duplicate();
+        b.position(position(off) + RECORD_HEADER);
+        b.put(kb);
+        b.put(vb);
+        return off;
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    /**
+     * Returns the offset of the record for the key bytes, or 0 if none.
+     */
+    final long findRecord(int hash, byte[] kb)
+    {
+        for (long e = getLong(bucket(hash)); e != 0; e = getLong(e + R_NEXT))
+        {
+            if (getInt(e + R_HASH) == hash && keyEquals(e, kb))
+                return e;
+        }
+        return 0L;
+    }
+
+    /**
+     * Maps the key bytes to the value bytes. Returns the offset of the
+     * replaced record, or 0 if the key was absent.
+     */
+    final long putBytes(int hash, byte[] kb, byte[] vb)
+    {
+        long link = bucket(hash);
+        for (long e; (e = getLong(link)) != 0; link = e + R_NEXT)
+        {
+            if (getInt(e + R_HASH) == hash && keyEquals(e, kb))
+            {
+                //追加新记录,接在旧记录原来的位置上
+                long rec = appendRecord(hash, kb, vb, getLong(e + R_NEXT));
+                putLong(link, rec);
+                garbage += recordLength(kb.length, getInt(e + R_VALUE_LENGTH));
+                writeHeader();
+                return e;
+            }
+        }
+        //头插;偏移量在重新映射后仍然有效
+        long head = bucket(hash);
+        putLong(head, appendRecord(hash, kb, vb, getLong(head)));
+        ++modCount;
+        if (++size > (int) (capacity * LOAD_FACTOR))
+            resize();
+        writeHeader();
+        return 0L;
+    }
+
+    /**
+     * Unlinks the record for the key bytes. Returns its offset, or 0 if
+     * the key was absent.
+     */
+    final long removeBytes(int hash, byte[] kb)
+    {
+        long link = bucket(hash);
+        for (long e; (e = getLong(link)) != 0; link = e + R_NEXT)
+        {
+            if (getInt(e + R_HASH) == hash && keyEquals(e, kb))
+            {
+                putLong(link, getLong(e + R_NEXT));
+                garbage += recordLength(kb.length, getInt(e + R_VALUE_LENGTH));
+                ++modCount;
+                --size;
+                writeHeader();
+                return e;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Appends a copy of the record at off, linked to next. Returns the
+     * offset of the copy.
+     */
+    final long copyRecord(long off, long next)
+    {
+        long len = recordLength(getInt(off + R_KEY_LENGTH), getInt(off + R_VALUE_LENGTH));
+        long c = allocate(len, false);
+        //allocate 可能重新映射最后一段,之后再取源和目标
+        ByteBuffer src = segment(off).duplicate();
+        src.limit(position(off) + (int) len).position(position(off));
+        ByteBuffer dst = segment(c).duplicate();
+        dst.position(position(c));
+        dst.put(src);
+        putLong(c + R_NEXT, next);
+        return c;
+    }
+
+    /**
+     * Doubles the number of bins. A new bin array is appended to the
+     * file and every chain is split into its lo and hi halves, in order,
+     * as in HashMap.resize. Records reachable from the old bins are
+     * never modified: the trailing run of each chain whose records all
+     * go to the same half is reused as in ConcurrentHashMap.transfer, and
+     * the records before it are copied. The new layout is forced to the
+     * storage device before the header is switched to it, so the file
+     * holds either the old or the new layout if a resize is interrupted.
+     */
+    final void resize()
+    {
+        int oldCap = capacity;
+        if (oldCap >= MAXIMUM_CAPACITY)
+            return;
+        int newCap = oldCap << 1;
+        long oldBuckets = buckets;
+        long newBuckets = allocateBuckets(newCap);
+        for (int j = 0; j < oldCap; ++j)
+        {
+            long f = getLong(oldBuckets + (long) j * 8);
+            if (f == 0)
+                continue;
+            //末尾 hash & oldCap 相同的一段原样复用
+            long lastRun = f;
+            int runBit = getInt(f + R_HASH) & oldCap;
+            for (long e = getLong(f + R_NEXT); e != 0; e = getLong(e + R_NEXT))
+            {
+                int b = getInt(e + R_HASH) & oldCap;
+                if (b != runBit)
+                {
+                    runBit = b;
+                    lastRun = e;
+                }
+            }
+            //前面的记录复制后再拆分,副本不在旧链表上,可以直接改 next
+            long loHead = 0, loTail = 0, hiHead = 0, hiTail = 0;
+            for (long e = f; e != lastRun; e = getLong(e + R_NEXT))
+            {
+                long c = copyRecord(e, 0L);
+                garbage += recordLength(getInt(e + R_KEY_LENGTH), getInt(e + R_VALUE_LENGTH));
+                if ((getInt(e + R_HASH) & oldCap) == 0)
+                {
+                    if (loTail == 0)
+                        loHead = c;
+                    else
+                        putLong(loTail + R_NEXT, c);
+                    loTail = c;
+                }
+                else
+                {
+                    if (hiTail == 0)
+                        hiHead = c;
+                    else
+                        putLong(hiTail + R_NEXT, c);
+                    hiTail = c;
+                }
+            }
+            if (runBit == 0)
+            {
+                if (loTail == 0)
+                    loHead = lastRun;
+                else
+                    putLong(loTail + R_NEXT, lastRun);
+            }
+            else
+            {
+                if (hiTail == 0)
+                    hiHead = lastRun;
+                else
+                    putLong(hiTail + R_NEXT, lastRun);
+            }
+            putLong(newBuckets + (long) j * 8, loHead);
+            putLong(newBuckets + (long) (j + oldCap) * 8, hiHead);
+        }
+        //新布局落盘之后才写文件头
+        force();
+        garbage += (long) oldCap * 8;
+        buckets = newBuckets;
+        capacity = newCap;
+        writeHeader();
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        if (key == null)
+            return null;
+        byte[] kb = keyCodec.encode((K) key);
+        long e = findRecord(hash(kb), kb);
+        return (e == 0) ? null : readValue(e);
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key)
+    {
+        if (key == null)
+            return false;
+        byte[] kb = keyCodec.encode((K) key);
+        return findRecord(hash(kb), kb) != 0;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     * <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     * @throws NullPointerException     if the key or value is null
+     * @throws IllegalArgumentException if the encoded mapping is larger
+     *                                  than a file segment
+     */
+    public V put(K key, V value)
+    {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        byte[] kb = keyCodec.encode(key);
+        long old = putBytes(hash(kb), kb, valueCodec.encode(value));
+        return (old == 0) ? null : readValue(old);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        if (key == null)
+            return null;
+        byte[] kb = keyCodec.encode((K) key);
+        long old = removeBytes(hash(kb), kb);
+        return (old == 0) ? null : readValue(old);
+    }
+
+    /**
+     * Removes all of the mappings from this map. The space they occupied
+     * in the file is reused; the file itself does not shrink.
+     */
+    public void clear()
+    {
+        dataEnd = HEADER_SIZE;
+        capacity = DEFAULT_INITIAL_CAPACITY;
+        buckets = allocateBuckets(capacity);
+        size = 0;
+        garbage = 0;
+        ++modCount;
+        writeHeader();
+    }
+
+    /**
+     * Returns the number of bytes in the file occupied by replaced or
+     * removed mappings, by records copied by a resize and by bin arrays
+     * of earlier capacities.
+     *
+     * @return the number of unreachable bytes
+     */
+    public long garbage()
+    {
+        return garbage;
+    }
+
+    /**
+     * Forces all changes to the map to be written to the storage device.
+     */
+    public void force()
+    {
+        for (MappedByteBuffer seg : segments)
+            seg.force();
+    }
+
+    /**
+     * Writes all changes to the storage device and closes the file. The
+     * map must not be used afterwards.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException
+    {
+        if (channel.isOpen())
+        {
+            force();
+            segments = new MappedByteBuffer[0];
+            channel.close();
+        }
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final void clear()
+        {
+            MappedHashMap.this.clear();
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+    }
+
+    /*
+    按桶的顺序遍历每条链表;删除只是摘除链表节点,记录不会移动,事先读出的 next 仍然有效
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        int index;             // next bin to visit
+        long next;             // next record to return
+        long current;          // last returned record
+        int expectedModCount;  // for fast-fail
+
+        EntryIterator()
+        {
+            expectedModCount = modCount;
+            advance();
+        }
+
+        private void advance()
+        {
+            while (next == 0 && index < capacity)
+                next = getLong(buckets + (long) index++ * 8);
+        }
+
+        public boolean hasNext()
+        {
+            return next != 0;
+        }
+
+        public Map.Entry<K, V> next()
+        {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            long e = next;
+            if (e == 0)
+                throw new NoSuchElementException();
+            current = e;
+            next = getLong(e + R_NEXT);
+            advance();
+            return new AbstractMap.SimpleImmutableEntry<K, V>(readKey(e), readValue(e));
+        }
+
+        public void remove()
+        {
+            long e = current;
+            if (e == 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = 0;
+            ByteBuffer b = segment(e).duplicate();
+            byte[] kb = new byte[getInt(e + R_KEY_LENGTH)];
+            b.position(position(e) + RECORD_HEADER);
+            b.get(kb);
+            removeBytes(getInt(e + R_HASH), kb);
+            expectedModCount = modCount;
+        }
+    }
+}
@@ -0,0 +1,979 @@
+package JDK8;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/*
+持久化(不可变)的 HashMap:哈希数组映射前缀树(HAMT),节点布局采用 CHAMP
+
+目的:把 JDK8.HashMap clone() 一份交给读线程需要 O(n) 的拷贝,而这里"修改"会返回一个新的 map,新旧两个 map 共享绝大部分节点
+    with/without 只复制从根到目标位置这一条路径上的节点,O(log32 n)
+    一个 map 一旦构造出来就不会再变,直接把引用交给其他线程就是快照,O(1)
+
+结构:
+    hash 与 JDK8.HashMap 一样用 HashMap.hash(key)
+    每层用 hash 的 5 位选择 32 个分支中的一个,从低位开始,最多 7 层(最后一层只剩 2 位)
+    BitmapNode 用两个位图区分一个分支上是直接存放的键值对(dataMap)还是子节点(nodeMap)
+    content 数组前半部分依次存放键值对,子节点倒序存放在数组末尾,没有空槽
+    32 位 hash 完全相同的键放在 CollisionNode 中线性查找
+    删除后只剩一个键值对的子节点会被父节点内联,所以同样的内容总是得到同样的结构(CHAMP 的规范形式)
+
+Builder(transient 模式):
+    批量构造时,builder 持有一个 edit 令牌,节点的 edit 等于这个令牌说明它是 builder 新建的,还没有被任何 map 共享,可以原地修改
+    build() 之后换一个新令牌,之前的节点就再也不会被修改了
+ */
+
+/**
+ * An immutable, persistent hash map implemented as a hash array mapped
+ * trie in the CHAMP layout. "Modifying" operations such as
+ * {@link #with} and {@link #without} return a new map that shares all
+ * unchanged nodes with this one, in O(log<sub>32</sub> n) time and space,
+ * so handing a map to another thread as a snapshot never requires a copy.
+ * Keys are hashed with {@link HashMap#hash} and compared with
+ * <tt>equals</tt>. Permits <tt>null</tt> keys and values.
+ *
+ * <p>The mutating methods of the <tt>Map</tt> interface throw
+ * <tt>UnsupportedOperationException</tt>. For batch construction use a
+ * {@link Builder}, which updates nodes it owns in place.
+ *
+ * <p>Instances are immutable and safe to share between threads without
+ * synchronization.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V>
+        implements Serializable {
+
+    private static final long serialVersionUID = 3712957307423689035L;
+
+    /**
+     * Number of hash bits consumed per trie level.
+     */
+    static final int BITS = 5;
+
+    static final int HASH_BITS = 32;
+
+    /**
+     * Maximum number of trie levels, including a collision node.
+     */
+    static final int MAX_DEPTH = 8;
+
+    static final Object NOT_FOUND = new Object();
+
+    static final int[] EMPTY_HASHES = {};
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static final PersistentHashMap EMPTY =
+            new PersistentHashMap(new BitmapNode(null, 0, 0, new Object[0], EMPTY_HASHES), 0);
+
+    final transient Node<K, V> root;
+
+    final transient int size;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    PersistentHashMap(Node<K, V> root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty map.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty()
+    {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a new builder, initially empty.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a new builder
+     */
+    public static <K, V> Builder<K, V> builder()
+    {
+        return new Builder<K, V>(PersistentHashMap.<K, V>empty());
+    }
+
+    /**
+     * Returns a persistent map with the same mappings as the given map.
+     * If m is a {@link HashMap} using the standard hash (no hashing
+     * strategy and no flood-protection seed), its cached key hashes are
+     * reused and no key's <tt>hashCode</tt> is called.
+     *
+     * @param m   the map whose mappings are to be copied
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a persistent map with the same mappings
+     * @throws NullPointerException if m is null
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> from(Map<? extends K, ? extends V> m)
+    {
+        if (m instanceof PersistentHashMap)
+            return (PersistentHashMap<K, V>) m;
+        Builder<K, V> b = builder();
+        if (m instanceof HashMap)
+            b.putAllNodes((HashMap<? extends K, ? extends V>) m);
+        else
+            b.putAll(m);
+        return b.build();
+    }
+
+    /**
+     * Returns a builder initialized with the mappings of this map. This
+     * map is not affected by changes to the builder.
+     *
+     * @return a new builder
+     */
+    public Builder<K, V> toBuilder()
+    {
+        return new Builder<K, V>(this);
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        Object v = root.find(key, HashMap.hash(key), 0);
+        return (v == NOT_FOUND) ? null : (V) v;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        Object v = root.find(key, HashMap.hash(key), 0);
+        return (v == NOT_FOUND) ? defaultValue : (V) v;
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return root.find(key, HashMap.hash(key), 0) != NOT_FOUND;
+    }
+
+    /**
+     * Returns a map with the given mapping added, or replacing the
+     * existing mapping for the key. Returns this map if it already maps
+     * the key to the identical value.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return a map containing the mapping
+     */
+    public PersistentHashMap<K, V> with(K key, V value)
+    {
+        Result r = new Result();
+        Node<K, V> n = root.update(null, key, value, HashMap.hash(key), 0, r);
+        if (n == root)
+            return this;
+        return new PersistentHashMap<K, V>(n, r.modified ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without a mapping for the given key. Returns this map
+     * if there is no such mapping.
+     *
+     * @param key the key
+     * @return a map not containing the key
+     */
+    public PersistentHashMap<K, V> without(Object key)
+    {
+        Result r = new Result();
+        Node<K, V> n = root.remove(null, key, HashMap.hash(key), 0, r);
+        if (!r.modified)
+            return this;
+        return (size == 1) ? PersistentHashMap.<K, V>empty() :
+                new PersistentHashMap<K, V>(n, size - 1);
+    }
+
+    /**
+     * Returns a map with all mappings of m added.
+     *
+     * @param m the mappings to add
+     * @return a map containing the mappings
+     */
+    public PersistentHashMap<K, V> withAll(Map<? extends K, ? extends V> m)
+    {
+        if (m.isEmpty())
+            return this;
+        if (isEmpty())
+            return from(m);
+        return toBuilder().putAll(m).build();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        if (action == null)
+            throw new NullPointerException();
+        root.forEach(action);
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator<K, V>(root);
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            Object v = root.find(key, HashMap.hash(key), 0);
+            return v != NOT_FOUND && Objects.equals(v, e.getValue());
+        }
+    }
+
+    /**
+     * A mutable builder of persistent maps. Nodes created by a builder
+     * are updated in place until {@link #build} is called; after that the
+     * builder copies them like the persistent operations do, so it may
+     * keep being used. Not thread-safe.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     */
+    public static final class Builder<K, V>
+    {
+        Object edit = new Object();
+        Node<K, V> root;
+        int size;
+
+        Builder(PersistentHashMap<K, V> m)
+        {
+            this.root = m.root;
+            this.size = m.size;
+        }
+
+        /**
+         * Adds or replaces the mapping for the given key.
+         *
+         * @param key   the key
+         * @param value the value
+         * @return this builder
+         */
+        public Builder<K, V> put(K key, V value)
+        {
+            return put(HashMap.hash(key), key, value);
+        }
+
+        final Builder<K, V> put(int hash, K key, V value)
+        {
+            Result r = new Result();
+            root = root.update(edit, key, value, hash, 0, r);
+            if (r.modified)
+                ++size;
+            return this;
+        }
+
+        /**
+         * Adds or replaces the mappings of the given map.
+         *
+         * @param m the mappings to add
+         * @return this builder
+         */
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> m)
+        {
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+                put(e.getKey(), e.getValue());
+            return this;
+        }
+
+        /*
+        直接遍历 HashMap 的桶,复用 Node 中缓存的 hash
+        有 HashingStrategy 或者启用了 hashSeed 时缓存的不是 HashMap.hash(key),只能重新计算
+        渐进式扩容中的 map,oldTable 和 table 中的节点互不重复,两张表都要遍历
+         */
+        final void putAllNodes(HashMap<? extends K, ? extends V> m)
+        {
+            boolean cached = m.strategy == null && m.hashSeed == 0;
+            if (m.oldTable != null)
+                putAllNodes(m.oldTable, cached);
+            if (m.table != null)
+                putAllNodes(m.table, cached);
+        }
+
+        private void putAllNodes(HashMap.Node<? extends K, ? extends V>[] tab, boolean cached)
+        {
+            for (HashMap.Node<? extends K, ? extends V> e : tab)
+            {
+                for (; e != null; e = e.next)
+                {
+                    K key = e.key;
+                    put(cached ? e.hash : HashMap.hash(key), key, e.value);
+                }
+            }
+        }
+
+        /**
+         * Removes the mapping for the given key, if present.
+         *
+         * @param key the key
+         * @return this builder
+         */
+        public Builder<K, V> remove(Object key)
+        {
+            Result r = new Result();
+            root = root.remove(edit, key, HashMap.hash(key), 0, r);
+            if (r.modified)
+                --size;
+            return this;
+        }
+
+        /**
+         * Returns the value mapped to the key, or null if none.
+         *
+         * @param key the key
+         * @return the value, or null
+         */
+        @SuppressWarnings("unchecked")
+        public V get(Object key)
+        {
+            Object v = root.find(key, HashMap.hash(key), 0);
+            return (v == NOT_FOUND) ? null : (V) v;
+        }
+
+        /**
+         * Returns whether the builder holds a mapping for the key.
+         *
+         * @param key the key
+         * @return true if there is a mapping for the key
+         */
+        public boolean containsKey(Object key)
+        {
+            return root.find(key, HashMap.hash(key), 0) != NOT_FOUND;
+        }
+
+        /**
+         * Returns the number of mappings.
+         *
+         * @return the number of mappings
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Returns a persistent map of the current mappings. The builder
+         * stops updating the returned map's nodes in place.
+         *
+         * @return a persistent map
+         */
+        public PersistentHashMap<K, V> build()
+        {
+            edit = new Object();
+            return (size == 0) ? PersistentHashMap.<K, V>empty() :
+                    new PersistentHashMap<K, V>(root, size);
+        }
+    }
+
+    /* ---------------- Trie nodes -------------- */
+
+    /**
+     * Outcome of an update or removal.
+     */
+    static final class Result
+    {
+        boolean modified;   // a mapping was added or removed
+    }
+
+    static int mask(int hash, int shift)
+    {
+        return (hash >>> shift) & 31;
+    }
+
+    static int bitpos(int hash, int shift)
+    {
+        return 1 << mask(hash, shift);
+    }
+
+    static boolean keyEquals(Object key, Object k)
+    {
+        return k == key || (key != null && key.equals(k));
+    }
+
+    static int[] insertHash(int[] src, int i, int hash)
+    {
+        int[] dst = new int[src.length + 1];
+        System.arraycopy(src, 0, dst, 0, i);
+        dst[i] = hash;
+        System.arraycopy(src, i, dst, i + 1, src.length - i);
+        return dst;
+    }
+
+    static int[] removeHash(int[] src, int i)
+    {
+        if (src.length == 1)
+            return EMPTY_HASHES;
+        int[] dst = new int[src.length - 1];
+        System.arraycopy(src, 0, dst, 0, i);
+        System.arraycopy(src, i + 1, dst, i, src.length - i - 1);
+        return dst;
+    }
+
+    abstract static class Node<K, V>
+    {
+        /**
+         * The builder token that may update this node in place, or null.
+         * Fields of a node are only written while it is reachable from a
+         * builder that owns it, never once a map has been built from it.
+         */
+        final Object edit;
+
+        Node(Object edit)
+        {
+            this.edit = edit;
+        }
+
+        final boolean ownedBy(Object edit)
+        {
+            return edit != null && edit == this.edit;
+        }
+
+        /**
+         * Returns the value for key, or NOT_FOUND.
+         */
+        abstract Object find(Object key, int hash, int shift);
+
+        /**
+         * Returns a node with key mapped to value; this node if nothing
+         * changed or the node was updated in place.
+         */
+        abstract Node<K, V> update(Object edit, K key, V value, int hash,
+                                   int shift, Result r);
+
+        /**
+         * Returns a node without key; this node if it was absent.
+         */
+        abstract Node<K, V> remove(Object edit, Object key, int hash,
+                                   int shift, Result r);
+
+        abstract int payloadArity();
+
+        abstract K keyAt(int i);
+
+        abstract V valueAt(int i);
+
+        abstract int hashAt(int i);
+
+        abstract int nodeArity();
+
+        abstract Node<K, V> nodeAt(int i);
+
+        /**
+         * Returns whether this node holds exactly one mapping and no
+         * subnodes, in which case its parent inlines that mapping.
+         */
+        final boolean isSingleEntry()
+        {
+            return payloadArity() == 1 && nodeArity() == 0;
+        }
+
+        final void forEach(BiConsumer<? super K, ? super V> action)
+        {
+            for (int i = 0, n = payloadArity(); i < n; ++i)
+                action.accept(keyAt(i), valueAt(i));
+            for (int i = 0, n = nodeArity(); i < n; ++i)
+                nodeAt(i).forEach(action);
+        }
+    }
+
+    static final class BitmapNode<K, V> extends Node<K, V>
+    {
+        int dataMap;
+        int nodeMap;
+        Object[] content;   // key, value pairs, then subnodes in reverse order
+        int[] hashes;       // hash of each key, parallel to the pairs
+
+        BitmapNode(Object edit, int dataMap, int nodeMap, Object[] content, int[] hashes)
+        {
+            super(edit);
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+            this.hashes = hashes;
+        }
+
+        final int dataIndex(int bit)
+        {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        final int nodeIndex(int bit)
+        {
+            return Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        @SuppressWarnings("unchecked")
+        final Node<K, V> nodeForBit(int bit)
+        {
+            return (Node<K, V>) content[content.length - 1 - nodeIndex(bit)];
+        }
+
+        Object find(Object key, int hash, int shift)
+        {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0)
+            {
+                int i = dataIndex(bit);
+                if (hashes[i] == hash && keyEquals(key, content[i << 1]))
+                    return content[(i << 1) + 1];
+                return NOT_FOUND;
+            }
+            if ((nodeMap & bit) != 0)
+                return nodeForBit(bit).find(key, hash, shift + BITS);
+            return NOT_FOUND;
+        }
+
+        Node<K, V> update(Object edit, K key, V value, int hash, int shift, Result r)
+        {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0)
+            {
+                int i = dataIndex(bit);
+                Object k = content[i << 1];
+                if (hashes[i] == hash && keyEquals(key, k))
+                {
+                    if (content[(i << 1) + 1] == value)
+                        return this;
+                    return copyAndSetValue(edit, i, value);
+                }
+                //同一个分支上已经有另一个键,把两者一起下推到新的子节点
+                @SuppressWarnings("unchecked")
+                Node<K, V> sub = mergeTwo(edit, (K) k, (V) content[(i << 1) + 1], hashes[i],
+                        key, value, hash, shift + BITS);
+                r.modified = true;
+                return copyAndMigrateToNode(edit, bit, sub);
+            }
+            if ((nodeMap & bit) != 0)
+            {
+                Node<K, V> sub = nodeForBit(bit);
+                Node<K, V> n = sub.update(edit, key, value, hash, shift + BITS, r);
+                return (n == sub) ? this : copyAndSetNode(edit, bit, n);
+            }
+            r.modified = true;
+            return copyAndInsertValue(edit, bit, key, value, hash);
+        }
+
+        Node<K, V> remove(Object edit, Object key, int hash, int shift, Result r)
+        {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0)
+            {
+                int i = dataIndex(bit);
+                if (hashes[i] == hash && keyEquals(key, content[i << 1]))
+                {
+                    r.modified = true;
+                    return copyAndRemoveValue(edit, bit);
+                }
+                return this;
+            }
+            if ((nodeMap & bit) != 0)
+            {
+                Node<K, V> sub = nodeForBit(bit);
+                Node<K, V> n = sub.remove(edit, key, hash, shift + BITS, r);
+                if (!r.modified)
+                    return this;
+                if (n.isSingleEntry())
+                {
+                    //只有这一个子节点,交给上一层去内联;根节点必须自己内联
+                    if (dataMap == 0 && Integer.bitCount(nodeMap) == 1 && shift > 0)
+                        return n;
+                    return copyAndMigrateToInline(edit, bit, n);
+                }
+                return (n == sub) ? this : copyAndSetNode(edit, bit, n);
+            }
+            return this;
+        }
+
+        int payloadArity()
+        {
+            return Integer.bitCount(dataMap);
+        }
+
+        @SuppressWarnings("unchecked")
+        K keyAt(int i)
+        {
+            return (K) content[i << 1];
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueAt(int i)
+        {
+            return (V) content[(i << 1) + 1];
+        }
+
+        int hashAt(int i)
+        {
+            return hashes[i];
+        }
+
+        int nodeArity()
+        {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<K, V> nodeAt(int i)
+        {
+            return (Node<K, V>) content[content.length - 1 - i];
+        }
+
+        private Node<K, V> copyAndSetValue(Object edit, int i, V value)
+        {
+            if (ownedBy(edit))
+            {
+                content[(i << 1) + 1] = value;
+                return this;
+            }
+            Object[] dst = content.clone();
+            dst[(i << 1) + 1] = value;
+            return new BitmapNode<K, V>(edit, dataMap, nodeMap, dst, hashes);
+        }
+
+        private Node<K, V> copyAndSetNode(Object edit, int bit, Node<K, V> node)
+        {
+            int idx = content.length - 1 - nodeIndex(bit);
+            if (ownedBy(edit))
+            {
+                content[idx] = node;
+                return this;
+            }
+            Object[] dst = content.clone();
+            dst[idx] = node;
+            return new BitmapNode<K, V>(edit, dataMap, nodeMap, dst, hashes);
+        }
+
+        private Node<K, V> copyAndInsertValue(Object edit, int bit, K key, V value, int hash)
+        {
+            int i = dataIndex(bit), idx = i << 1;
+            Object[] src = content, dst = new Object[src.length + 2];
+            System.arraycopy(src, 0, dst, 0, idx);
+            dst[idx] = key;
+            dst[idx + 1] = value;
+            System.arraycopy(src, idx, dst, idx + 2, src.length - idx);
+            return new BitmapNode<K, V>(edit, dataMap | bit, nodeMap, dst,
+                    insertHash(hashes, i, hash));
+        }
+
+        private Node<K, V> copyAndRemoveValue(Object edit, int bit)
+        {
+            int i = dataIndex(bit), idx = i << 1;
+            Object[] src = content, dst = new Object[src.length - 2];
+            System.arraycopy(src, 0, dst, 0, idx);
+            System.arraycopy(src, idx + 2, dst, idx, src.length - idx - 2);
+            return new BitmapNode<K, V>(edit, dataMap ^ bit, nodeMap, dst,
+                    removeHash(hashes, i));
+        }
+
+        //删除第 i 个键值对,在子节点区域对应位置插入 node
+        private Node<K, V> copyAndMigrateToNode(Object edit, int bit, Node<K, V> node)
+        {
+            int i = dataIndex(bit);
+            int idxOld = i << 1;
+            int idxNew = content.length - 2 - nodeIndex(bit);
+            Object[] src = content, dst = new Object[src.length - 1];
+            System.arraycopy(src, 0, dst, 0, idxOld);
+            System.arraycopy(src, idxOld + 2, dst, idxOld, idxNew - idxOld);
+            dst[idxNew] = node;
+            System.arraycopy(src, idxNew + 2, dst, idxNew + 1, src.length - idxNew - 2);
+            return new BitmapNode<K, V>(edit, dataMap ^ bit, nodeMap | bit, dst,
+                    removeHash(hashes, i));
+        }
+
+        //删除子节点,把它唯一的键值对内联到本节点
+        private Node<K, V> copyAndMigrateToInline(Object edit, int bit, Node<K, V> node)
+        {
+            int i = dataIndex(bit);
+            int idxOld = content.length - 1 - nodeIndex(bit);
+            int idxNew = i << 1;
+            Object[] src = content, dst = new Object[src.length + 1];
+            System.arraycopy(src, 0, dst, 0, idxNew);
+            dst[idxNew] = node.keyAt(0);
+            dst[idxNew + 1] = node.valueAt(0);
+            System.arraycopy(src, idxNew, dst, idxNew + 2, idxOld - idxNew);
+            System.arraycopy(src, idxOld + 1, dst, idxOld + 2, src.length - idxOld - 1);
+            return new BitmapNode<K, V>(edit, dataMap | bit, nodeMap ^ bit, dst,
+                    insertHash(hashes, i, node.hashAt(0)));
+        }
+    }
+
+    static <K, V> Node<K, V> mergeTwo(Object edit, K k0, V v0, int h0,
+                                      K k1, V v1, int h1, int shift)
+    {
+        if (shift >= HASH_BITS)
+            return new CollisionNode<K, V>(edit, h0, new Object[]{k0, v0, k1, v1});
+        int m0 = mask(h0, shift), m1 = mask(h1, shift);
+        if (m0 != m1)
+        {
+            int dataMap = (1 << m0) | (1 << m1);
+            return (m0 < m1) ?
+                    new BitmapNode<K, V>(edit, dataMap, 0, new Object[]{k0, v0, k1, v1}, new int[]{h0, h1}) :
+                    new BitmapNode<K, V>(edit, dataMap, 0, new Object[]{k1, v1, k0, v0}, new int[]{h1, h0});
+        }
+        Node<K, V> sub = mergeTwo(edit, k0, v0, h0, k1, v1, h1, shift + BITS);
+        return new BitmapNode<K, V>(edit, 0, 1 << m0, new Object[]{sub}, EMPTY_HASHES);
+    }
+
+    /**
+     * Holds keys whose 32-bit hashes are all equal.
+     */
+    static final class CollisionNode<K, V> extends Node<K, V>
+    {
+        final int hash;
+        Object[] content;   // key, value pairs
+
+        CollisionNode(Object edit, int hash, Object[] content)
+        {
+            super(edit);
+            this.hash = hash;
+            this.content = content;
+        }
+
+        final int indexOf(Object key)
+        {
+            Object[] c = content;
+            for (int i = 0; i < c.length; i += 2)
+            {
+                if (keyEquals(key, c[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        Object find(Object key, int hash, int shift)
+        {
+            int i;
+            return (hash == this.hash && (i = indexOf(key)) >= 0) ? content[i + 1] : NOT_FOUND;
+        }
+
+        Node<K, V> update(Object edit, K key, V value, int hash, int shift, Result r)
+        {
+            int i = indexOf(key);
+            if (i >= 0)
+            {
+                if (content[i + 1] == value)
+                    return this;
+                if (ownedBy(edit))
+                {
+                    content[i + 1] = value;
+                    return this;
+                }
+                Object[] dst = content.clone();
+                dst[i + 1] = value;
+                return new CollisionNode<K, V>(edit, this.hash, dst);
+            }
+            Object[] dst = Arrays.copyOf(content, content.length + 2);
+            dst[content.length] = key;
+            dst[content.length + 1] = value;
+            r.modified = true;
+            return new CollisionNode<K, V>(edit, this.hash, dst);
+        }
+
+        Node<K, V> remove(Object edit, Object key, int hash, int shift, Result r)
+        {
+            int i;
+            if (hash != this.hash || (i = indexOf(key)) < 0)
+                return this;
+            r.modified = true;
+            Object[] src = content;
+            if (src.length == 4)
+            {
+                //只剩一个键值对,变成普通节点,由父节点内联
+                int j = (i == 0) ? 2 : 0;
+                return new BitmapNode<K, V>(edit, bitpos(this.hash, 0), 0,
+                        new Object[]{src[j], src[j + 1]}, new int[]{this.hash});
+            }
+            Object[] dst = new Object[src.length - 2];
+            System.arraycopy(src, 0, dst, 0, i);
+            System.arraycopy(src, i + 2, dst, i, src.length - i - 2);
+            return new CollisionNode<K, V>(edit, this.hash, dst);
+        }
+
+        int payloadArity()
+        {
+            return content.length >> 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        K keyAt(int i)
+        {
+            return (K) content[i << 1];
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueAt(int i)
+        {
+            return (V) content[(i << 1) + 1];
+        }
+
+        int hashAt(int i)
+        {
+            return hash;
+        }
+
+        int nodeArity()
+        {
+            return 0;
+        }
+
+        Node<K, V> nodeAt(int i)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /*
+    深度优先遍历,每个节点先返回自己的键值对,再依次进入子节点
+    nodes[d] 是第 d 层正在遍历子节点的节点,cursors[d] 是下一个要进入的子节点
+     */
+    static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>>
+    {
+        final Node<?, ?>[] nodes = new Node<?, ?>[MAX_DEPTH];
+        final int[] cursors = new int[MAX_DEPTH];
+        int depth;
+        Node<K, V> valueNode;
+        int valueCursor;
+        int valueLength;
+
+        EntryIterator(Node<K, V> root)
+        {
+            nodes[0] = root;
+            valueNode = root;
+            valueLength = root.payloadArity();
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean advance()
+        {
+            while (depth >= 0)
+            {
+                Node<K, V> n = (Node<K, V>) nodes[depth];
+                int c = cursors[depth];
+                if (c < n.nodeArity())
+                {
+                    Node<K, V> next = n.nodeAt(c);
+                    cursors[depth] = c + 1;
+                    if (next.nodeArity() > 0)
+                    {
+                        nodes[++depth] = next;
+                        cursors[depth] = 0;
+                    }
+                    if (next.payloadArity() > 0)
+                    {
+                        valueNode = next;
+                        valueCursor = 0;
+                        valueLength = next.payloadArity();
+                        return true;
+                    }
+                }
+                else
+                    nodes[depth--] = null;
+            }
+            return false;
+        }
+
+        public boolean hasNext()
+        {
+            return valueCursor < valueLength || advance();
+        }
+
+        public Map.Entry<K, V> next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int i = valueCursor++;
+            return new AbstractMap.SimpleImmutableEntry<K, V>(
+                    valueNode.keyAt(i), valueNode.valueAt(i));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Serialization
+
+    private Object writeReplace()
+    {
+        return new SerializationProxy(this);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException
+    {
+        throw new InvalidObjectException("Proxy required");
+    }
+
+    /**
+     * Serialized form of a PersistentHashMap: the mappings as two arrays.
+     */
+    private static final class SerializationProxy implements Serializable
+    {
+        private static final long serialVersionUID = -1436722447226407390L;
+
+        private final Object[] keys;
+        private final Object[] values;
+
+        SerializationProxy(PersistentHashMap<?, ?> m)
+        {
+            keys = new Object[m.size];
+            values = new Object[m.size];
+            int[] i = {0};
+            m.forEach((k, v) ->
+            {
+                keys[i[0]] = k;
+                values[i[0]++] = v;
+            });
+        }
+
+        private Object readResolve() throws InvalidObjectException
+        {
+            if (keys == null || values == null || keys.length != values.length)
+                throw new InvalidObjectException("Mismatched keys and values");
+            Builder<Object, Object> b = builder();
+            for (int i = 0; i < keys.length; i++)
+                b.put(keys[i], values[i]);
+            return b.build();
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package JDK8;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/*
+键或值通过弱引用/软引用持有的 HashMap,用于生命周期由其他模块决定的缓存
+
+结构:
+    所有映射放在一个 JDK8.HashMap<Object, Object> 中,扩容,ArrayBin,统计等行为都来自它
+    WEAK/SOFT 键:节点中存放 WeakKey/SoftKey 引用对象,引用对象缓存了原始键的 hashCode
+        用一个 HashingStrategy 让 HashMap 能拿原始键直接查找:hashCode 取缓存的值,equals 比较引用指向的对象,查找不需要包装键
+        HashMap 的红黑树用 equals 和 Comparable 直接比较节点里的键,对引用对象不成立,所以有 strategy 的 map 不树化
+        这里打开 ArrayBin,长链表按 hash 排序成数组,查找同样是 O(log n)
+    STRONG 键:直接存原始键,不需要 strategy,照常树化
+    WEAK/SOFT 值:节点中存放 WeakValue/SoftValue,它们记住所在节点的键(节点中存放的那个对象)
+
+清理:
+    键或值的引用被 GC 清除后进入 queue
+    get/put/remove 等操作每 EXPUNGE_INTERVAL 次才检查一次 queue,每次最多清理 EXPUNGE_BATCH 个,均摊开销
+        按节点中存放的键对象和值对象做身份比较来删除,即使引用已经被清除,也不会误删同一个键后来放入的新映射
+    即将扩容,或者调用 size,迭代等需要准确结果的操作时,一次清理完
+ */
+
+/**
+ * A map that holds its keys or its values, or both, through weak or soft
+ * references, so that a mapping disappears once the garbage collector
+ * clears its key or value. The mappings live in a {@link HashMap}, whose
+ * resizing and bin indexing they share.
+ *
+ * <p>Keys held weakly or softly are compared with <tt>equals</tt>, like
+ * {@link java.util.WeakHashMap}, and long bins are indexed as sorted
+ * arrays (see {@link HashMap#setArrayBins}), since tree bins compare the
+ * stored keys directly. Maps with strong keys keep tree bins.
+ *
+ * <p>Cleared references are expunged from a reference queue in batches
+ * every few operations rather than on every call, and completely before
+ * the table grows and by {@link #size} and the collection views. Like
+ * {@link java.util.WeakHashMap}, the map may still appear to hold a
+ * mapping for a short while after its key or value became unreachable.
+ * Permits <tt>null</tt> values and the <tt>null</tt> key, which is always
+ * held strongly. This class is not synchronized.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see java.util.WeakHashMap
+ */
+public class ReferenceHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V> {
+
+    /**
+     * How strongly a key or a value is held by the map.
+     */
+    public enum Strength
+    {
+        /**
+         * An ordinary reference.
+         */
+        STRONG,
+
+        /**
+         * A {@link SoftReference}, cleared only under memory pressure.
+         */
+        SOFT,
+
+        /**
+         * A {@link WeakReference}, cleared as soon as the object is
+         * otherwise unreachable.
+         */
+        WEAK
+    }
+
+    /**
+     * The number of lookups and updates between two polls of the
+     * reference queue.
+     */
+    static final int EXPUNGE_INTERVAL = 64;
+
+    /**
+     * The largest number of cleared references expunged by one poll.
+     * Together with EXPUNGE_INTERVAL this keeps up with up to one
+     * cleared mapping per operation.
+     */
+    static final int EXPUNGE_BATCH = 64;
+
+    /**
+     * Stands for the null key in the result of keyOf, where null means
+     * that the key was cleared.
+     */
+    static final Object NULL_KEY = new Object();
+
+    final HashMap<Object, Object> map;
+
+    final Strength keyStrength;
+
+    final Strength valueStrength;
+
+    final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    /**
+     * Operations since the reference queue was last polled.
+     */
+    int operations;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty map with the given initial capacity, load
+     * factor and reference strengths.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor
+     * @param keyStrength     how keys are held
+     * @param valueStrength   how values are held
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is nonpositive
+     * @throws NullPointerException     if a strength is null
+     */
+    public ReferenceHashMap(int initialCapacity, float loadFactor,
+                            Strength keyStrength, Strength valueStrength)
+    {
+        if (keyStrength == null || valueStrength == null)
+            throw new NullPointerException();
+        if (keyStrength == Strength.STRONG)
+            map = new HashMap<Object, Object>(initialCapacity, loadFactor);
+        else
+        {
+            map = new HashMap<Object, Object>(initialCapacity, loadFactor, KeyStrategy.INSTANCE);
+            map.setArrayBins(true);
+        }
+        this.keyStrength = keyStrength;
+        this.valueStrength = valueStrength;
+    }
+
+    /**
+     * Constructs an empty map with the default initial capacity (16) and
+     * load factor (0.75) and the given reference strengths. For example,
+     * <tt>new ReferenceHashMap&lt;&gt;(Strength.WEAK, Strength.STRONG)</tt>
+     * behaves like a {@link java.util.WeakHashMap}.
+     *
+     * @param keyStrength   how keys are held
+     * @param valueStrength how values are held
+     * @throws NullPointerException if a strength is null
+     */
+    public ReferenceHashMap(Strength keyStrength, Strength valueStrength)
+    {
+        this(HashMap.DEFAULT_INITIAL_CAPACITY, HashMap.DEFAULT_LOAD_FACTOR,
+                keyStrength, valueStrength);
+    }
+
+    /* ---------------- References -------------- */
+
+    static final class WeakKey extends WeakReference<Object>
+    {
+        final int hash;
+
+        WeakKey(Object key, int hash, ReferenceQueue<Object> queue)
+        {
+            super(key, queue);
+            this.hash = hash;
+        }
+    }
+
+    static final class SoftKey extends SoftReference<Object>
+    {
+        final int hash;
+
+        SoftKey(Object key, int hash, ReferenceQueue<Object> queue)
+        {
+            super(key, queue);
+            this.hash = hash;
+        }
+    }
+
+    // 值引用记住节点中存放的键对象(可能是 WeakKey/SoftKey,也可能是原始键),清理时用它定位节点
+    static final class WeakValue extends WeakReference<Object>
+    {
+        final Object key;
+
+        WeakValue(Object key, Object value, ReferenceQueue<Object> queue)
+        {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    static final class SoftValue extends SoftReference<Object>
+    {
+        final Object key;
+
+        SoftValue(Object key, Object value, ReferenceQueue<Object> queue)
+        {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Hashes and compares keys that may be held through WeakKey or
+     * SoftKey, so that lookups can use the caller's key unwrapped.
+     */
+    static final class KeyStrategy implements HashingStrategy<Object>
+    {
+        static final KeyStrategy INSTANCE = new KeyStrategy();
+
+        public int hashCode(Object key)
+        {
+            return (key instanceof WeakKey) ? ((WeakKey) key).hash :
+                    (key instanceof SoftKey) ? ((SoftKey) key).hash : key.hashCode();
+        }
+
+        //引用被清除的键只和它自己相等
+        public boolean equals(Object a, Object b)
+        {
+            if (a == b)
+                return true;
+            Object x = referent(a), y = referent(b);
+            return x != null && y != null && x.equals(y);
+        }
+    }
+
+    static Object referent(Object key)
+    {
+        return (key instanceof WeakKey || key instanceof SoftKey) ?
+                ((Reference<?>) key).get() : key;
+    }
+
+    /**
+     * Returns the object to store as the key of a new node.
+     */
+    final Object referenceKey(Object key)
+    {
+        if (key == null)
+            return null;
+        switch (keyStrength)
+        {
+            case WEAK:
+                return new WeakKey(key, key.hashCode(), queue);
+            case SOFT:
+                return new SoftKey(key, key.hashCode(), queue);
+            default:
+                return key;
+        }
+    }
+
+    /**
+     * Returns the object to store as the value of the node whose stored
+     * key is nodeKey.
+     */
+    final Object referenceValue(Object nodeKey, Object value)
+    {
+        if (value == null)
+            return null;
+        switch (valueStrength)
+        {
+            case WEAK:
+                return new WeakValue(nodeKey, value, queue);
+            case SOFT:
+                return new SoftValue(nodeKey, value, queue);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Returns the key held by a stored key object, or null if it was
+     * cleared. The null key is returned as NULL_KEY.
+     */
+    final Object keyOf(Object nodeKey)
+    {
+        return (nodeKey == null) ? NULL_KEY :
+                (keyStrength == Strength.STRONG) ? nodeKey : ((Reference<?>) nodeKey).get();
+    }
+
+    @SuppressWarnings("unchecked")
+    final V valueOf(Object nodeValue)
+    {
+        return (V) ((valueStrength == Strength.STRONG || nodeValue == null) ?
+                nodeValue : ((Reference<?>) nodeValue).get());
+    }
+
+    /**
+     * Returns whether the value of a node was cleared. Null values are
+     * stored as null rather than through a reference.
+     */
+    final boolean isCleared(Object nodeValue)
+    {
+        return valueStrength != Strength.STRONG && nodeValue != null &&
+                ((Reference<?>) nodeValue).get() == null;
+    }
+
+    /* ---------------- Expunging -------------- */
+
+    /**
+     * Counts an operation and polls the reference queue every
+     * EXPUNGE_INTERVAL operations.
+     */
+    final void expungeIfDue()
+    {
+        if (++operations >= EXPUNGE_INTERVAL)
+        {
+            operations = 0;
+            expungeStaleEntries(EXPUNGE_BATCH);
+        }
+    }
+
+    /**
+     * Removes the mappings of up to max cleared references.
+     */
+    /*
+    按身份比较删除:同一个键后来放入的映射有新的键对象或值对象,不会被删掉
+    和 WeakHashMap 一样,清理不算结构修改,恢复 modCount,遍历中调用 get/put 不会引起 ConcurrentModificationException
+    movable 为 false,删除时不会移动同一个桶中的其他节点,正在进行的遍历不受影响
+     */
+    final void expungeStaleEntries(int max)
+    {
+        HashMap<Object, Object> m = map;
+        int mc = m.modCount;
+        for (Reference<?> r; max > 0 && (r = queue.poll()) != null; --max)
+        {
+            if (r instanceof WeakKey || r instanceof SoftKey)
+                m.removeNode(m.keyHash(r), r, null, false, false);
+            else
+            {
+                Object k = (r instanceof WeakValue) ? ((WeakValue) r).key : ((SoftValue) r).key;
+                m.removeNode(m.keyHash(k), k, r, true, false);
+            }
+        }
+        m.modCount = mc;
+    }
+
+    final void expungeAll()
+    {
+        operations = 0;
+        expungeStaleEntries(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the node for a live mapping of the key, or null.
+     */
+    final HashMap.Node<Object, Object> getNode(Object key)
+    {
+        HashMap.Node<Object, Object> e;
+        expungeIfDue();
+        return ((e = map.getNode(map.keyHash(key), key)) == null || isCleared(e.value)) ? null : e;
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        expungeAll();
+        return map.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    public V get(Object key)
+    {
+        HashMap.Node<Object, Object> e;
+        return ((e = getNode(key)) == null) ? null : valueOf(e.value);
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return getNode(key) != null;
+    }
+
+    public V put(K key, V value)
+    {
+        HashMap<Object, Object> m = map;
+        expungeIfDue();
+        int hash = m.keyHash(key);
+        HashMap.Node<Object, Object> e;
+        //已有映射时只换值,保留节点中原来的键对象
+        if ((e = m.getNode(hash, key)) != null)
+        {
+            Object old = e.value;
+            e.value = referenceValue(e.key, value);
+            return valueOf(old);
+        }
+        //死掉的映射可能还占着位置,扩容前先全部清理掉
+        if (m.size >= m.threshold && m.table != null)
+            expungeAll();
+        Object k = referenceKey(key);
+        m.putVal(hash, k, referenceValue(k, value), false, true);
+        return null;
+    }
+
+    public V remove(Object key)
+    {
+        HashMap<Object, Object> m = map;
+        HashMap.Node<Object, Object> e;
+        expungeIfDue();
+        return ((e = m.removeNode(m.keyHash(key), key, null, false, true)) == null) ?
+                null : valueOf(e.value);
+    }
+
+    public void clear()
+    {
+        map.clear();
+        while (queue.poll() != null)
+            ;
+        operations = 0;
+    }
+
+    public boolean containsValue(Object value)
+    {
+        for (Map.Entry<K, V> e : entrySet())
+        {
+            if (Objects.equals(value, e.getValue()))
+                return true;
+        }
+        return false;
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return ReferenceHashMap.this.size();
+        }
+
+        public final void clear()
+        {
+            ReferenceHashMap.this.clear();
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            HashMap.Node<Object, Object> p = getNode(e.getKey());
+            return p != null && Objects.equals(valueOf(p.value), e.getValue());
+        }
+
+        public final boolean remove(Object o)
+        {
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                Object key = e.getKey();
+                HashMap.Node<Object, Object> p = getNode(key);
+                if (p != null && Objects.equals(valueOf(p.value), e.getValue()))
+                {
+                    map.removeNode(p.hash, p.key, p.value, true, true);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Entry returned by the iterator, holding its key and value strongly
+     * so that they cannot be cleared while the caller uses them.
+     */
+    final class Entry implements Map.Entry<K, V>
+    {
+        final K key;
+        V value;
+        final HashMap.Node<Object, Object> node;
+
+        Entry(K key, V value, HashMap.Node<Object, Object> node)
+        {
+            this.key = key;
+            this.value = value;
+            this.node = node;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V newValue)
+        {
+            V oldValue = value;
+            value = newValue;
+            node.value = referenceValue(node.key, newValue);
+            return oldValue;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    //跳过遍历到时已经被清除的映射;提前取出下一个映射的键和值并强引用,保证 hasNext 为 true 时 next 一定有结果
+    final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        final HashMap<Object, Object>.EntryIterator it;
+        Entry next;            // next entry to return
+        Entry current;         // last returned entry
+
+        EntryIterator()
+        {
+            expungeAll();
+            it = map.new EntryIterator();
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance()
+        {
+            next = null;
+            while (it.hasNext())
+            {
+                HashMap.Node<Object, Object> e = it.nextNode();
+                Object k = keyOf(e.key);
+                Object v = e.value;
+                if (k == null || (valueStrength != Strength.STRONG && v != null &&
+                        (v = ((Reference<?>) v).get()) == null))
+                    continue;
+                next = new Entry((k == NULL_KEY) ? null : (K) k, (V) v, e);
+                return;
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next()
+        {
+            Entry e;
+            if ((e = next) == null)
+                throw new NoSuchElementException();
+            advance();
+            return current = e;
+        }
+
+        //底层迭代器已经前进到下一个映射,不能用它删除,直接删除上一次返回的节点
+        public void remove()
+        {
+            Entry e;
+            HashMap<Object, Object> m = map;
+            if ((e = current) == null)
+                throw new IllegalStateException();
+            if (m.modCount != it.expectedModCount)
+                throw new ConcurrentModificationException();
+            current = null;
+            HashMap.Node<Object, Object> p = e.node;
+            m.removeNode(p.hash, p.key, null, false, false);
+            it.expectedModCount = m.modCount;
+        }
+    }
+}
@@ -0,0 +1,837 @@
+package JDK8;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+开放寻址(线性探测) + Robin Hood 的 HashMap
+
+与 JDK8.HashMap 提供相同的 Map 语义:允许 null 键和 null 值,非线程安全,迭代器 fail-fast
+但是没有 Node 对象,也没有 TreeNode:
+    keys,vals,hashes 三个平行数组,下标相同即为同一个映射
+    put 不会为每个映射分配对象,只有扩容时才分配新数组
+
+Robin Hood:
+    每个元素的探测距离(probe distance) = 当前槽位 - 理想槽位(hash & mask)
+    插入时,如果当前槽位上元素的探测距离比待插入元素小,就"劫富济贫",把它换出来继续往后插
+    于是同一条探测序列上的探测距离是单调的,查找时遇到探测距离比自己小的元素就可以提前结束(未命中也很快)
+    maxProbe 记录表中最大的探测距离,查找最多探测 maxProbe + 1 个槽位
+
+删除采用 backward-shift:
+    删除后把后面探测距离不为0的元素依次往前挪一格,不需要墓碑(tombstone)
+    所以删除后表中的状态和从来没插入过这个键完全一样
+
+迭代顺序:
+    从某个空槽开始,按下标递减的方向环形遍历
+    backward-shift 只会把元素往下标小的方向挪,并且不会越过空槽,所以迭代器的 remove 不会导致元素被重复返回或被跳过
+ */
+
+/**
+ * Hash table based implementation of the <tt>Map</tt> interface using open
+ * addressing with Robin Hood linear probing. Permits <tt>null</tt> values
+ * and the <tt>null</tt> key, is unsynchronized, and its collection views
+ * have fail-fast iterators, just like {@link HashMap}.
+ *
+ * <p>Mappings are stored in parallel arrays rather than in per-entry
+ * nodes, so a <tt>put</tt> of a new key does not allocate. Removal uses
+ * backward-shift deletion, so no tombstones are left in the table.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap
+ */
+public class RobinHoodHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = -4313458416431294447L;
+
+    /**
+     * The default initial capacity - MUST be a power of two.
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    /**
+     * The maximum capacity, MUST be a power of two <= 1<<30.
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The load factor used when none specified in constructor.
+     */
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * Value representing the null key inside the table.
+     */
+    //key为null时用它占位,这样keys[i]==null就可以表示空槽
+    static final Object NULL_KEY = new Object();
+
+    /**
+     * The keys, or null for an empty slot. Allocated on first use;
+     * length is always a power of two.
+     */
+    transient Object[] keys;
+
+    /**
+     * The values, parallel to keys.
+     */
+    transient Object[] vals;
+
+    /**
+     * The cached hash of each key, parallel to keys.
+     */
+    //缓存hash,避免重复调用hashCode,也用来计算探测距离
+    transient int[] hashes;
+
+    /**
+     * The longest probe distance of any key currently in the table.
+     */
+    //只在插入时变大,扩容时重新计算.删除时不减小(偏保守,但仍然正确)
+    transient int maxProbe;
+
+    transient int size;
+
+    transient int modCount;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     * Before the table is allocated this holds the initial capacity.
+     *
+     * @serial
+     */
+    int threshold;
+
+    /**
+     * The load factor for the hash table.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor, which must be less than one
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is not in (0, 1)
+     */
+    public RobinHoodHashMap(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        //开放寻址必须留有空槽,所以负载因子必须小于1
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = HashMap.tableSizeFor(initialCapacity);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * the default load factor (0.75).
+     *
+     * @param initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public RobinHoodHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the default initial capacity (16) and
+     * the default load factor (0.75).
+     */
+    public RobinHoodHashMap()
+    {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /**
+     * Constructs a new map with the same mappings as the specified map.
+     *
+     * @param m the map whose mappings are to be placed in this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public RobinHoodHashMap(Map<? extends K, ? extends V> m)
+    {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+        putMapEntries(m);
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    static Object maskNull(Object key)
+    {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key)
+    {
+        return (key == NULL_KEY) ? null : (K) key;
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    final void putMapEntries(Map<? extends K, ? extends V> m)
+    {
+        int s = m.size();
+        if (s > 0)
+        {
+            float ft = ((float) s / loadFactor) + 1.0F;
+            int t = ((ft < (float) MAXIMUM_CAPACITY) ?
+                    (int) ft : MAXIMUM_CAPACITY);
+            if (keys == null)
+            {
+                if (t > threshold)
+                    threshold = HashMap.tableSizeFor(t);
+            }
+            else
+            {
+                //一次扩到位,避免循环里多次扩容
+                while (s + size > threshold && keys.length < MAXIMUM_CAPACITY)
+                    resize();
+            }
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            {
+                K key = e.getKey();
+                putVal(HashMap.hash(key), key, e.getValue(), false);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding the given key, or -1 if none.
+     */
+    final int findIndex(int hash, Object key)
+    {
+        Object[] ks;
+        if ((ks = keys) == null)
+            return -1;
+        Object k = maskNull(key);
+        int[] hs = hashes;
+        int mask = ks.length - 1, limit = maxProbe;
+        for (int i = hash & mask, dist = 0; dist <= limit; i = (i + 1) & mask, ++dist)
+        {
+            Object p;
+            if ((p = ks[i]) == null)
+                return -1;
+            int ph = hs[i];
+            if (ph == hash && (p == k || k.equals(p)))
+                return i;
+            //Robin Hood的不变式:如果要找的键存在,它前面的元素探测距离都不会比它小
+            if (((i - ph) & mask) < dist)
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Implements Map.put and related methods.
+     *
+     * @param hash         hash for key
+     * @param key          the key
+     * @param value        the value to put
+     * @param onlyIfAbsent if true, don't change existing value
+     * @return previous value, or null if none
+     */
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent)
+    {
+        int i;
+        if (keys == null)
+            resize();
+        else if ((i = findIndex(hash, key)) >= 0)
+        {
+            @SuppressWarnings("unchecked") V oldValue = (V) vals[i];
+            if (!onlyIfAbsent || oldValue == null)
+                vals[i] = value;
+            return oldValue;
+        }
+        //先扩容再插入,这样insert中一定能找到空槽
+        if (size + 1 > threshold)
+            resize();
+        insert(hash, maskNull(key), value);
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * Places a key known to be absent, displacing richer entries along the
+     * probe sequence.
+     */
+    private void insert(int hash, Object k, Object v)
+    {
+        Object[] ks = keys, vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        for (int i = hash & mask, dist = 0; ; i = (i + 1) & mask, ++dist)
+        {
+            Object p;
+            if ((p = ks[i]) == null)
+            {
+                ks[i] = k;
+                vs[i] = v;
+                hs[i] = hash;
+                if (dist > maxProbe)
+                    maxProbe = dist;
+                return;
+            }
+            int ph = hs[i], pd = (i - ph) & mask;
+            //当前槽位的元素比待插入元素"富有"(离理想位置更近),交换,继续为被换出的元素找位置
+            if (pd < dist)
+            {
+                Object pv = vs[i];
+                ks[i] = k;
+                vs[i] = v;
+                hs[i] = hash;
+                if (dist > maxProbe)
+                    maxProbe = dist;
+                k = p;
+                v = pv;
+                hash = ph;
+                dist = pd;
+            }
+        }
+    }
+
+    /**
+     * Initializes or doubles table size.
+     */
+    final void resize()
+    {
+        Object[] oldKeys = keys, oldVals = vals;
+        int[] oldHashes = hashes;
+        int oldCap = (oldKeys == null) ? 0 : oldKeys.length;
+        int newCap;
+        if (oldCap > 0)
+        {
+            if (oldCap >= MAXIMUM_CAPACITY)
+            {
+                //开放寻址没有链表可挂,表满了就只能失败
+                if (size + 1 >= oldCap)
+                    throw new IllegalStateException("Capacity exhausted.");
+                threshold = oldCap - 1;
+                return;
+            }
+            newCap = oldCap << 1;
+        }
+        else if (threshold > 0)
+            newCap = threshold;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        if (newCap < 2)
+            newCap = 2;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                Math.max((int) ft, 1) : MAXIMUM_CAPACITY - 1);
+        keys = new Object[newCap];
+        vals = new Object[newCap];
+        hashes = new int[newCap];
+        maxProbe = 0;
+        if (oldKeys != null)
+        {
+            for (int j = 0; j < oldCap; ++j)
+            {
+                Object k;
+                if ((k = oldKeys[j]) != null)
+                    insert(oldHashes[j], k, oldVals[j]);
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping at slot i, shifting the following run of
+     * displaced entries back by one.
+     */
+    final void removeAt(int i)
+    {
+        Object[] ks = keys, vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        for (int j = (i + 1) & mask; ; i = j, j = (j + 1) & mask)
+        {
+            //遇到空槽或者已经在理想位置的元素,后移结束
+            if (ks[j] == null || ((j - hs[j]) & mask) == 0)
+            {
+                ks[i] = null;
+                vs[i] = null;
+                hs[i] = 0;
+                break;
+            }
+            ks[i] = ks[j];
+            vs[i] = vs[j];
+            hs[i] = hs[j];
+        }
+        ++modCount;
+        --size;
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        int i;
+        return (i = findIndex(HashMap.hash(key), key)) < 0 ? null : (V) vals[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        int i;
+        return (i = findIndex(HashMap.hash(key), key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return findIndex(HashMap.hash(key), key) >= 0;
+    }
+
+    public V put(K key, V value)
+    {
+        return putVal(HashMap.hash(key), key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        return putVal(HashMap.hash(key), key, value, true);
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        putMapEntries(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        int i;
+        if ((i = findIndex(HashMap.hash(key), key)) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        int i;
+        if ((i = findIndex(HashMap.hash(key), key)) >= 0 &&
+                Objects.equals(vals[i], value))
+        {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear()
+    {
+        Object[] ks;
+        modCount++;
+        if ((ks = keys) != null && size > 0)
+        {
+            size = 0;
+            maxProbe = 0;
+            Arrays.fill(ks, null);
+            Arrays.fill(vals, null);
+        }
+    }
+
+    public boolean containsValue(Object value)
+    {
+        Object[] ks, vs;
+        if ((ks = keys) != null && size > 0)
+        {
+            vs = vals;
+            for (int i = 0; i < ks.length; ++i)
+            {
+                Object v;
+                if (ks[i] != null &&
+                        ((v = vs[i]) == value || (value != null && value.equals(v))))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        Object[] ks, vs;
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0 && (ks = keys) != null)
+        {
+            vs = vals;
+            int mc = modCount;
+            for (int i = 0; i < ks.length; ++i)
+            {
+                Object k;
+                if ((k = ks[i]) != null)
+                    action.accept(unmaskNull(k), (V) vs[i]);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final void clear()
+        {
+            RobinHoodHashMap.this.clear();
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            int i = findIndex(HashMap.hash(key), key);
+            return i >= 0 && Objects.equals(vals[i], e.getValue());
+        }
+
+        public final boolean remove(Object o)
+        {
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return RobinHoodHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+
+        public final void forEach(Consumer<? super Map.Entry<K, V>> action)
+        {
+            if (action == null)
+                throw new NullPointerException();
+            Iterator<Map.Entry<K, V>> it = iterator();
+            while (it.hasNext())
+                action.accept(it.next());
+        }
+    }
+
+    /**
+     * Entry returned by the iterator. Writes through to the table while
+     * its key still occupies the slot it was read from.
+     */
+    //不缓存节点对象,只在迭代时按需创建
+    final class Entry implements Map.Entry<K, V>
+    {
+        final K key;
+        V value;
+        int index;
+
+        Entry(K key, V value, int index)
+        {
+            this.key = key;
+            this.value = value;
+            this.index = index;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V newValue)
+        {
+            V oldValue = value;
+            value = newValue;
+            Object[] ks = keys;
+            //删除时的后移可能让这个键换了槽位,此时退化为put
+            if (ks != null && index < ks.length && ks[index] == maskNull(key))
+                vals[index] = newValue;
+            else
+                put(key, newValue);
+            return oldValue;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /*
+    从一个空槽 start 开始,按 start-1, start-2, ..., 0, cap-1, ..., start+1 的顺序遍历
+    remove 当前槽位时,后移进来的元素都来自已经遍历过的一侧,所以不会重复返回
+    空槽不会被填上(迭代期间不允许插入),所以后移也不会越过 start
+     */
+    abstract class HashIterator
+    {
+        int next;              // next slot to return, or -1
+        int current;           // slot of last returned entry, or -1
+        int remaining;         // slots still to visit
+        int expectedModCount;  // for fast-fail
+
+        HashIterator()
+        {
+            expectedModCount = modCount;
+            Object[] ks = keys;
+            current = next = -1;
+            if (ks != null && size > 0)
+            {
+                int start = 0;
+                while (ks[start] != null)
+                    ++start;
+                next = start;
+                remaining = ks.length - 1;
+                advance(ks);
+            }
+        }
+
+        private void advance(Object[] ks)
+        {
+            int mask = ks.length - 1, i = next;
+            while (remaining > 0)
+            {
+                --remaining;
+                i = (i - 1) & mask;
+                if (ks[i] != null)
+                {
+                    next = i;
+                    return;
+                }
+            }
+            next = -1;
+        }
+
+        public final boolean hasNext()
+        {
+            return next >= 0;
+        }
+
+        final int nextIndex()
+        {
+            int i = next;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (i < 0)
+                throw new NoSuchElementException();
+            current = i;
+            advance(keys);
+            return i;
+        }
+
+        public final void remove()
+        {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeAt(i);
+            expectedModCount = modCount;
+        }
+    }
+
+    final class EntryIterator extends HashIterator
+            implements Iterator<Map.Entry<K, V>>
+    {
+        @SuppressWarnings("unchecked")
+        public final Map.Entry<K, V> next()
+        {
+            int i = nextIndex();
+            return new Entry(unmaskNull(keys[i]), (V) vals[i], i);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone()
+    {
+        RobinHoodHashMap<K, V> result;
+        try
+        {
+            result = (RobinHoodHashMap<K, V>) super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        //数组直接拷贝即可,不需要重新put
+        if (keys != null)
+        {
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+            result.hashes = hashes.clone();
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    final int capacity()
+    {
+        return (keys != null) ? keys.length :
+                (threshold > 0) ? threshold :
+                        DEFAULT_INITIAL_CAPACITY;
+    }
+
+    /**
+     * Returns the average number of slots a successful lookup examines,
+     * averaged over the keys currently in the map, or 0 if it is empty.
+     * This scans the table, so it takes time proportional to the
+     * capacity.
+     *
+     * @return the average probe length of a hit
+     */
+    //命中时探测的槽位数 = 探测距离 + 1,与 HashMap.Statistics.averageProbeLength() 可以直接比较
+    public double averageProbeLength()
+    {
+        Object[] ks = keys;
+        if (size == 0 || ks == null)
+            return 0.0;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        long probes = 0L;
+        for (int i = 0; i < ks.length; ++i)
+        {
+            if (ks[i] != null)
+                probes += ((i - hs[i]) & mask) + 1;
+        }
+        return (double) probes / size;
+    }
+
+    /**
+     * Returns the largest number of slots any lookup examines: one more
+     * than the longest probe distance in the table. Removals do not
+     * lower it until the next resize.
+     *
+     * @return the maximum probe length
+     */
+    public int maxProbeLength()
+    {
+        return maxProbe + 1;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(capacity());
+        s.writeInt(size);
+        Object[] ks = keys;
+        if (size > 0 && ks != null)
+        {
+            for (int i = 0; i < ks.length; ++i)
+            {
+                Object k;
+                if ((k = ks[i]) != null)
+                {
+                    s.writeObject(unmaskNull(k));
+                    s.writeObject(vals[i]);
+                }
+            }
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        keys = vals = null;
+        hashes = null;
+        size = modCount = maxProbe = 0;
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        float fc = (float) mappings / loadFactor + 1.0f;
+        threshold = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                DEFAULT_INITIAL_CAPACITY :
+                (fc >= MAXIMUM_CAPACITY) ?
+                        MAXIMUM_CAPACITY :
+                        HashMap.tableSizeFor((int) fc));
+        for (int i = 0; i < mappings; i++)
+        {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(HashMap.hash(key), key, value, false);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package JDK8;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/*
+一个写线程,多个读线程的 HashMap
+
+synchronized 或 ReadWriteLock 的读锁也要修改锁的状态(CAS 一个共享的计数器),读线程越多,这条缓存行争用越厉害
+这里用 StampedLock 的乐观读(相当于顺序锁 seqlock):
+    读:tryOptimisticRead 拿到版本号,不加锁直接查找,最后 validate 版本号没变,结果就是有效的,读线程之间不写任何共享内存
+    写:照常加写锁,putVal/resize 期间版本号变化,与之重叠的读在 validate 时失败,改为加读锁重新查找一次
+
+乐观读可能看到写到一半的结构,要保证读的过程本身不出问题:
+    异常(数组越界,空指针,类型转换...)全部捕获,当作验证失败
+    红黑树旋转到一半时,parent/left/right 可能暂时形成环,TreeNode.find 会死循环
+    所以不调用 getNode,而是用 optimisticGetNode:每一步都消耗预算,预算是读到的 size,一致的结构中任何查找都不会超过它
+    预算用完说明结构不一致(写操作正在进行或已经发生),直接验证失败
+ */
+
+/**
+ * A {@link HashMap} for one writer thread and many reader threads. Reads
+ * use an optimistic read of a {@link StampedLock}: the lookup runs without
+ * taking any lock and is then validated, and it is retried under the read
+ * lock only if a write overlapped it. Readers therefore do not write to
+ * any shared memory, and do not contend with each other. Writes take the
+ * write lock, so several writer threads are allowed but are serialized.
+ *
+ * <p>{@link #get}, {@link #getOrDefault}, {@link #containsKey},
+ * {@link #size} and {@link #isEmpty} read optimistically. Bulk reads such
+ * as {@link #containsValue} and {@link #forEach} hold the read lock. The
+ * collection views are unmodifiable snapshots taken under the read lock.
+ * Permits <tt>null</tt> values and the <tt>null</tt> key.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see StampedLock
+ */
+public class SeqLockHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V> {
+
+    /**
+     * Result of optimisticGetNode when the traversal ran out of budget.
+     */
+    static final HashMap.Node<Object, Object> INCONSISTENT =
+            new HashMap.Node<Object, Object>(0, null, null, null);
+
+    /**
+     * Default value passed to getValue by containsKey, never stored in
+     * the map.
+     */
+    static final Object NO_VALUE = new Object();
+
+    final HashMap<K, V> map;
+
+    final StampedLock lock = new StampedLock();
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is nonpositive
+     */
+    public SeqLockHashMap(int initialCapacity, float loadFactor)
+    {
+        map = new HashMap<K, V>(initialCapacity, loadFactor);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * the default load factor (0.75).
+     *
+     * @param initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public SeqLockHashMap(int initialCapacity)
+    {
+        this(initialCapacity, HashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the default initial capacity (16) and
+     * the default load factor (0.75).
+     */
+    public SeqLockHashMap()
+    {
+        this(HashMap.DEFAULT_INITIAL_CAPACITY, HashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /* ---------------- Optimistic lookup -------------- */
+
+    /**
+     * Version of getNode that tolerates a table being modified
+     * concurrently: it never loops more than size steps per phase, and
+     * returns INCONSISTENT instead once the budget is exhausted. Its
+     * result is only meaningful if the stamp is validated afterwards.
+     */
+    @SuppressWarnings("unchecked")
+    final HashMap.Node<K, V> optimisticGetNode(int hash, Object key)
+    {
+        HashMap<K, V> m = map;
+        HashMap.Node<K, V>[] tab;
+        HashMap.Node<K, V> first, e;
+        int n;
+        K k;
+        if (m.bloom != null && !m.bloomMayContain(hash))
+            return null;
+        if (((tab = m.oldTable) == null || (first = tab[(tab.length - 1) & hash]) == null) &&
+                ((tab = m.table) == null || (n = tab.length) == 0 ||
+                        (first = tab[(n - 1) & hash]) == null))
+            return null;
+        int budget = m.size;
+        if (first instanceof HashMap.ArrayBin)
+            return ((HashMap.ArrayBin<K, V>) first).find(m, hash, key);
+        if (first instanceof HashMap.TreeNode)
+        {
+            //只按 hash 下降,不走 find 中按 Comparable 比较和递归的分支
+            for (HashMap.TreeNode<K, V> p = (HashMap.TreeNode<K, V>) first; p != null; )
+            {
+                if (--budget < 0)
+                    return (HashMap.Node<K, V>) (HashMap.Node<?, ?>) INCONSISTENT;
+                int ph = p.hash;
+                if (ph > hash)
+                    p = p.left;
+                else if (ph < hash)
+                    p = p.right;
+                else if ((k = p.key) == key || (key != null && m.keyEquals(key, k)))
+                    return p;
+                else
+                    break;//hash 相同的节点可能在两棵子树中,改为顺着 next 遍历整个桶
+            }
+            budget = m.size;
+        }
+        for (e = first; e != null; e = e.next)
+        {
+            if (--budget < 0)
+                return (HashMap.Node<K, V>) (HashMap.Node<?, ?>) INCONSISTENT;
+            if (e.hash == hash &&
+                    ((k = e.key) == key || (key != null && m.keyEquals(key, k))))
+                return e;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value for the key, or defaultValue if there is none,
+     * as seen by a validated optimistic read, or by a lookup under the
+     * read lock if a write overlapped. The value is read before the
+     * validation, since the node may change right after it.
+     */
+    final V getValue(Object key, V defaultValue)
+    {
+        HashMap<K, V> m = map;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L)
+        {
+            try
+            {
+                //hash 也要在乐观读之内计算:检测到 hash 冲突攻击后,写操作会更换种子
+                HashMap.Node<K, V> e = optimisticGetNode(m.keyHash(key), key);
+                V v = (e == null) ? defaultValue : e.value;
+                if (e != INCONSISTENT && lock.validate(stamp))
+                    return v;
+            }
+            catch (RuntimeException ex)
+            {
+                //写到一半的结构引起的异常,加锁重试
+            }
+        }
+        stamp = lock.readLock();
+        try
+        {
+            HashMap.Node<K, V> e = m.getNode(m.keyHash(key), key);
+            return (e == null) ? defaultValue : e.value;
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        long stamp = lock.tryOptimisticRead();
+        int s = map.size;
+        if (!lock.validate(stamp))
+        {
+            stamp = lock.readLock();
+            try
+            {
+                s = map.size;
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+        return s;
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    public V get(Object key)
+    {
+        return getValue(key, null);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        return getValue(key, defaultValue);
+    }
+
+    //值可能就是 null,用一个不会出现在 map 中的对象作为默认值来区分
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key)
+    {
+        return getValue(key, (V) NO_VALUE) != NO_VALUE;
+    }
+
+    public boolean containsValue(Object value)
+    {
+        long stamp = lock.readLock();
+        try
+        {
+            return map.containsValue(value);
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public V put(K key, V value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.put(key, value);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            map.putAll(m);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(Object key)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.remove(key);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear()
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            map.clear();
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.putIfAbsent(key, value);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.remove(key, value);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.replace(key, oldValue, newValue);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V replace(K key, V value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.replace(key, value);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The mapping function runs under the write lock, so it must not
+     * access this map.
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.computeIfAbsent(key, mappingFunction);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The remapping function runs under the write lock, so it must not
+     * access this map.
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.computeIfPresent(key, remappingFunction);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The remapping function runs under the write lock, so it must not
+     * access this map.
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.compute(key, remappingFunction);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The remapping function runs under the write lock, so it must not
+     * access this map.
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            return map.merge(key, value, remappingFunction);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The action runs under the read lock, so it must not modify this
+     * map.
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        long stamp = lock.readLock();
+        try
+        {
+            map.forEach(action);
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The function runs under the write lock, so it must not access
+     * this map.
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            map.replaceAll(function);
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the mappings, taken under the
+     * read lock. Later changes to this map are not reflected in it.
+     *
+     * @return a snapshot of the mappings
+     */
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        HashMap<K, V> copy;
+        long stamp = lock.readLock();
+        try
+        {
+            copy = new HashMap<K, V>(map);
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+        return Collections.unmodifiableMap(copy).entrySet();
+    }
+}
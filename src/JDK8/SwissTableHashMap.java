@@ -0,0 +1,826 @@
+package JDK8;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+SwissTable 风格的开放寻址 HashMap
+
+与 JDK8.HashMap 相同的 Map 语义:允许 null 键和 null 值,非线程安全,迭代器 fail-fast
+
+布局:
+    每个槽位一个控制字节(control byte),键和值放在平行的 keys,vals 数组中
+        0xxxxxxx  该槽位有元素,低7位是该元素 hash 的7位标签(tag)
+        10000000  EMPTY,从未使用过
+        11111110  DELETED,墓碑
+    8 个槽位为一组(group),一组的 8 个控制字节正好放在 ctrl 数组的一个 long 中
+
+查找:
+    hash = MurmurHash3 的 fmix32 作用在 hashCode 上,每个输入位都会影响每个输出位
+    低位决定从哪一组开始,最高7位作为 tag
+    每次取一个 long,用 SWAR(SIMD Within A Register)的位运算一次比较 8 个控制字节:
+        只有 tag 相同的槽位才去比较 key,绝大多数不相等的 key 根本不会被访问
+        组里有 EMPTY 就说明探测序列到此为止,查找失败
+    组之间用三角数探测(1,2,3...累加),组数是2的幂时能访问到所有组
+
+删除:
+    如果所在的组里还有 EMPTY,说明没有探测序列经过这个组,可以直接置为 EMPTY
+    否则只能置为 DELETED,避免截断其他键的探测序列
+    growthLeft 用完时,墓碑多就原地重建,否则扩容为两倍
+
+JDK8 没有 Vector API(jdk.incubator.vector 从 JDK16 才有),这里只用 long 做 8 字节的 SWAR
+ */
+
+/**
+ * Hash table based implementation of the <tt>Map</tt> interface in the
+ * style of SwissTable: open addressing with one control byte per slot
+ * holding 7 bits of the key's hash, probed a group of 8 slots at a time
+ * using word-wide (SWAR) bit arithmetic. Keys are compared only in slots
+ * whose tag matches. Permits <tt>null</tt> values and the <tt>null</tt>
+ * key, is unsynchronized, and its collection views have fail-fast
+ * iterators, just like {@link HashMap}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see HashMap
+ */
+public class SwissTableHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = 5815542076207744326L;
+
+    /**
+     * The number of slots whose control bytes are packed in one long.
+     */
+    static final int GROUP_WIDTH = 8;
+
+    /**
+     * The default initial capacity - MUST be a power of two.
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    /**
+     * The maximum capacity, MUST be a power of two <= 1<<30.
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The load factor used when none specified in constructor. Probing a
+     * whole group per step tolerates higher loads than linear probing.
+     */
+    static final float DEFAULT_LOAD_FACTOR = 0.875f;
+
+    static final int EMPTY = 0x80;
+
+    static final int DELETED = 0xFE;
+
+    // 每个字节的最低位/最高位
+    static final long LSBS = 0x0101010101010101L;
+
+    static final long MSBS = 0x8080808080808080L;
+
+    // 8 个 EMPTY
+    static final long EMPTY_GROUP = 0x8080808080808080L;
+
+    /**
+     * Value representing the null key inside the table.
+     */
+    static final Object NULL_KEY = new Object();
+
+    /**
+     * The control bytes, GROUP_WIDTH per long. Allocated on first use;
+     * the number of groups is always a power of two.
+     */
+    transient long[] ctrl;
+
+    transient Object[] keys;
+
+    transient Object[] vals;
+
+    transient int size;
+
+    transient int modCount;
+
+    /**
+     * The number of EMPTY slots that may still be filled before the table
+     * must be rehashed. Filling a DELETED slot does not consume it.
+     */
+    transient int growthLeft;
+
+    /**
+     * The initial capacity, used when the table is first allocated.
+     *
+     * @serial
+     */
+    int initialCapacity;
+
+    /**
+     * The load factor for the hash table.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * load factor.
+     *
+     * @param initialCapacity the initial capacity
+     * @param loadFactor      the load factor, which must be less than one
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is not in (0, 1)
+     */
+    public SwissTableHashMap(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity and
+     * the default load factor (0.875).
+     *
+     * @param initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public SwissTableHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the default initial capacity (16) and
+     * the default load factor (0.875).
+     */
+    public SwissTableHashMap()
+    {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs a new map with the same mappings as the specified map.
+     *
+     * @param m the map whose mappings are to be placed in this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public SwissTableHashMap(Map<? extends K, ? extends V> m)
+    {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+        putAll(m);
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    /**
+     * Applies the MurmurHash3 finalizer to the key's hashCode, so that
+     * both the low bits (group index) and the top seven bits (tag) depend
+     * on every bit of it. A multiplication alone would not do: the low
+     * bits of a product depend only on the low bits of its operands, so
+     * hash codes differing only in their high bits would start probing
+     * at the same group.
+     */
+    //HashMap.hash 只把高16位异或到低16位,lo ^ hi 相同的 hashCode 只乘一次,低位仍然全部相同
+    static int hash(Object key)
+    {
+        if (key == null)
+            return 0;
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    static int tag(int h)
+    {
+        return h >>> 25;
+    }
+
+    // 与 tag 相等的字节,最高位置1(可能有误报,但不会漏报,所以比较 key 时还要再确认)
+    static long matchTag(long group, int tag)
+    {
+        long x = group ^ (LSBS * tag);
+        return (x - LSBS) & ~x & MSBS;
+    }
+
+    // 只有 EMPTY(10000000) 同时满足最高位为1、第1位为0
+    static long matchEmpty(long group)
+    {
+        return group & (~group << 6) & MSBS;
+    }
+
+    // EMPTY 和 DELETED 最高位为1、最低位为0
+    static long matchEmptyOrDeleted(long group)
+    {
+        return group & ~(group << 7) & MSBS;
+    }
+
+    // 有元素的槽位最高位为0
+    static long matchFull(long group)
+    {
+        return ~group & MSBS;
+    }
+
+    static int lowestSlot(long match)
+    {
+        return Long.numberOfTrailingZeros(match) >>> 3;
+    }
+
+    static Object maskNull(Object key)
+    {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key)
+    {
+        return (key == NULL_KEY) ? null : (K) key;
+    }
+
+    /* ---------------- Internal operations -------------- */
+
+    final int ctrlAt(int slot)
+    {
+        return (int) (ctrl[slot >>> 3] >>> ((slot & 7) << 3)) & 0xFF;
+    }
+
+    final void setCtrl(int slot, int b)
+    {
+        long[] c = ctrl;
+        int g = slot >>> 3, shift = (slot & 7) << 3;
+        c[g] = (c[g] & ~(0xFFL << shift)) | ((long) b << shift);
+    }
+
+    final int growth(int capacity)
+    {
+        int g = (int) ((float) capacity * loadFactor);
+        return Math.max(1, Math.min(g, capacity - 1));
+    }
+
+    /**
+     * Returns the slot holding the given key, or -1 if none.
+     */
+    final int findIndex(int h, Object key)
+    {
+        long[] c;
+        if ((c = ctrl) == null)
+            return -1;
+        Object k = maskNull(key);
+        Object[] ks = keys;
+        int t = tag(h), mask = c.length - 1;
+        for (int g = h & mask, step = 0; ; g = (g + ++step) & mask)
+        {
+            long group = c[g];
+            for (long m = matchTag(group, t); m != 0; m &= m - 1)
+            {
+                int i = (g << 3) + lowestSlot(m);
+                Object p = ks[i];
+                if (p == k || (p != null && k.equals(p)))
+                    return i;
+            }
+            if (matchEmpty(group) != 0)
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the first EMPTY or DELETED slot on the probe sequence of h.
+     */
+    final int findInsertSlot(int h)
+    {
+        long[] c = ctrl;
+        int mask = c.length - 1;
+        for (int g = h & mask, step = 0; ; g = (g + ++step) & mask)
+        {
+            long m;
+            if ((m = matchEmptyOrDeleted(c[g])) != 0)
+                return (g << 3) + lowestSlot(m);
+        }
+    }
+
+    /**
+     * Allocates a table of the given capacity and reinserts all entries,
+     * dropping tombstones.
+     */
+    final void rehash(int newCap)
+    {
+        long[] oldCtrl = ctrl;
+        Object[] oldKeys = keys, oldVals = vals;
+        long[] c = new long[newCap / GROUP_WIDTH];
+        Arrays.fill(c, EMPTY_GROUP);
+        ctrl = c;
+        keys = new Object[newCap];
+        vals = new Object[newCap];
+        if (oldCtrl != null)
+        {
+            for (int g = 0; g < oldCtrl.length; ++g)
+            {
+                for (long m = matchFull(oldCtrl[g]); m != 0; m &= m - 1)
+                {
+                    int j = (g << 3) + lowestSlot(m);
+                    Object k = oldKeys[j];
+                    int h = hash(unmaskNull(k)), i = findInsertSlot(h);
+                    setCtrl(i, tag(h));
+                    keys[i] = k;
+                    vals[i] = oldVals[j];
+                }
+            }
+        }
+        growthLeft = growth(newCap) - size;
+    }
+
+    /**
+     * Called when no EMPTY slot may be consumed: drops tombstones in
+     * place if they make up a large part of the table, else doubles it.
+     */
+    final void rehashOrGrow()
+    {
+        long[] c;
+        if ((c = ctrl) == null)
+        {
+            int cap = Math.max(GROUP_WIDTH, HashMap.tableSizeFor(initialCapacity));
+            rehash(cap);
+            return;
+        }
+        int cap = c.length * GROUP_WIDTH;
+        if (size <= growth(cap) / 2)
+            rehash(cap);
+        else if (cap < MAXIMUM_CAPACITY)
+            rehash(cap << 1);
+        else if (size < cap - 1)
+            rehash(cap);
+        else
+            throw new IllegalStateException("Capacity exhausted.");
+    }
+
+    /**
+     * Implements Map.put and related methods.
+     */
+    final V putVal(int h, K key, V value, boolean onlyIfAbsent)
+    {
+        int i;
+        if ((i = findIndex(h, key)) >= 0)
+        {
+            @SuppressWarnings("unchecked") V oldValue = (V) vals[i];
+            if (!onlyIfAbsent || oldValue == null)
+                vals[i] = value;
+            return oldValue;
+        }
+        if (ctrl == null)
+            rehashOrGrow();
+        i = findInsertSlot(h);
+        if (ctrlAt(i) == EMPTY)
+        {
+            if (growthLeft == 0)
+            {
+                rehashOrGrow();
+                i = findInsertSlot(h);
+            }
+            --growthLeft;
+        }
+        setCtrl(i, tag(h));
+        keys[i] = maskNull(key);
+        vals[i] = value;
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * Removes the mapping at slot i.
+     */
+    final void removeAt(int i)
+    {
+        //组里还有 EMPTY,不会有探测序列越过这个组,直接置 EMPTY,否则留下墓碑
+        if (matchEmpty(ctrl[i >>> 3]) != 0)
+        {
+            setCtrl(i, EMPTY);
+            ++growthLeft;
+        }
+        else
+            setCtrl(i, DELETED);
+        keys[i] = null;
+        vals[i] = null;
+        ++modCount;
+        --size;
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        int i;
+        return (i = findIndex(hash(key), key)) < 0 ? null : (V) vals[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        int i;
+        return (i = findIndex(hash(key), key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return findIndex(hash(key), key) >= 0;
+    }
+
+    public V put(K key, V value)
+    {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        return putVal(hash(key), key, value, true);
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        int s = m.size();
+        if (s == 0)
+            return;
+        //预先分配足够的容量,避免循环中多次扩容
+        long[] c = ctrl;
+        int cap = (c == null) ? 0 : c.length * GROUP_WIDTH;
+        if (growth(Math.max(cap, GROUP_WIDTH)) < size + s)
+        {
+            float fc = (float) (size + s) / loadFactor + 1.0f;
+            int t = Math.max(GROUP_WIDTH, (fc >= MAXIMUM_CAPACITY) ?
+                    MAXIMUM_CAPACITY : HashMap.tableSizeFor((int) fc));
+            if (c == null)
+                initialCapacity = Math.max(initialCapacity, t);
+            else if (t > cap)
+                rehash(t);
+        }
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+        {
+            K key = e.getKey();
+            putVal(hash(key), key, e.getValue(), false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        int i;
+        if ((i = findIndex(hash(key), key)) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        int i;
+        if ((i = findIndex(hash(key), key)) >= 0 &&
+                Objects.equals(vals[i], value))
+        {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear()
+    {
+        long[] c;
+        modCount++;
+        if ((c = ctrl) != null && size > 0)
+        {
+            size = 0;
+            Arrays.fill(c, EMPTY_GROUP);
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+            growthLeft = growth(c.length * GROUP_WIDTH);
+        }
+    }
+
+    public boolean containsValue(Object value)
+    {
+        long[] c;
+        if ((c = ctrl) != null && size > 0)
+        {
+            Object[] vs = vals;
+            for (int g = 0; g < c.length; ++g)
+            {
+                for (long m = matchFull(c[g]); m != 0; m &= m - 1)
+                {
+                    Object v = vs[(g << 3) + lowestSlot(m)];
+                    if (v == value || (value != null && value.equals(v)))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        long[] c;
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0 && (c = ctrl) != null)
+        {
+            Object[] ks = keys, vs = vals;
+            int mc = modCount;
+            for (int g = 0; g < c.length; ++g)
+            {
+                for (long m = matchFull(c[g]); m != 0; m &= m - 1)
+                {
+                    int i = (g << 3) + lowestSlot(m);
+                    action.accept(unmaskNull(ks[i]), (V) vs[i]);
+                }
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>>
+    {
+        public final int size()
+        {
+            return size;
+        }
+
+        public final void clear()
+        {
+            SwissTableHashMap.this.clear();
+        }
+
+        public final Iterator<Map.Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            int i = findIndex(hash(key), key);
+            return i >= 0 && Objects.equals(vals[i], e.getValue());
+        }
+
+        public final boolean remove(Object o)
+        {
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return SwissTableHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+
+        public final void forEach(Consumer<? super Map.Entry<K, V>> action)
+        {
+            if (action == null)
+                throw new NullPointerException();
+            Iterator<Map.Entry<K, V>> it = iterator();
+            while (it.hasNext())
+                action.accept(it.next());
+        }
+    }
+
+    /**
+     * Entry returned by the iterator; writes through to its slot. Slots
+     * never move except on rehash, which only happens on insertion.
+     */
+    final class Entry implements Map.Entry<K, V>
+    {
+        final K key;
+        V value;
+        final int index;
+        final Object[] valTab;
+
+        Entry(K key, V value, int index)
+        {
+            this.key = key;
+            this.value = value;
+            this.index = index;
+            this.valTab = vals;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V newValue)
+        {
+            V oldValue = value;
+            value = newValue;
+            //重建过表就退化为put
+            if (valTab == vals && keys[index] == maskNull(key))
+                valTab[index] = newValue;
+            else
+                put(key, newValue);
+            return oldValue;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    //删除只修改控制字节,不移动元素,所以按组顺序遍历即可
+    final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        int group;             // current group
+        long pending;          // full slots of current group not yet returned
+        int current = -1;      // slot of last returned entry
+        int expectedModCount;  // for fast-fail
+
+        EntryIterator()
+        {
+            expectedModCount = modCount;
+            long[] c = ctrl;
+            if (c != null && size > 0)
+            {
+                pending = matchFull(c[0]);
+                advance(c);
+            }
+            else
+                group = Integer.MAX_VALUE;
+        }
+
+        private void advance(long[] c)
+        {
+            while (pending == 0 && ++group < c.length)
+                pending = matchFull(c[group]);
+        }
+
+        public boolean hasNext()
+        {
+            return pending != 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next()
+        {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (pending == 0)
+                throw new NoSuchElementException();
+            int i = (group << 3) + lowestSlot(pending);
+            pending &= pending - 1;
+            advance(ctrl);
+            current = i;
+            return new Entry(unmaskNull(keys[i]), (V) vals[i], i);
+        }
+
+        public void remove()
+        {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeAt(i);
+            expectedModCount = modCount;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone()
+    {
+        SwissTableHashMap<K, V> result;
+        try
+        {
+            result = (SwissTableHashMap<K, V>) super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        if (ctrl != null)
+        {
+            result.ctrl = ctrl.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        long[] c;
+        if (size > 0 && (c = ctrl) != null)
+        {
+            for (int g = 0; g < c.length; ++g)
+            {
+                for (long m = matchFull(c[g]); m != 0; m &= m - 1)
+                {
+                    int i = (g << 3) + lowestSlot(m);
+                    s.writeObject(unmaskNull(keys[i]));
+                    s.writeObject(vals[i]);
+                }
+            }
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        ctrl = null;
+        keys = vals = null;
+        size = modCount = growthLeft = 0;
+        int mappings = s.readInt();
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        float fc = (float) mappings / loadFactor + 1.0f;
+        initialCapacity = Math.max(initialCapacity, (fc >= MAXIMUM_CAPACITY) ?
+                MAXIMUM_CAPACITY : (int) fc);
+        for (int i = 0; i < mappings; i++)
+        {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(hash(key), key, value, false);
+        }
+    }
+}
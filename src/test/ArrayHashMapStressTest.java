@@ -0,0 +1,282 @@
+package test;
+
+import JDK8.ArrayHashMap;
+
+import java.io.*;
+import java.util.*;
+
+/*
+JDK8.ArrayHashMap 的压力测试,与 java.util.HashMap 执行相同的随机操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+ArrayHashMap 删除时不是后移,而是把最后一个映射搬到被删除的下标上,再把指向最后一个映射的那个链接改过来:
+    最后一个映射和被删除的映射在同一条链上(前面、后面、紧挨着),或者被删除的就是最后一个
+    hash 相同或者只在少数几个值中的键,链很长,这几种情况都经常出现
+    迭代器删除后从当前下标继续,搬过来的映射还没访问过,不能漏掉也不能重复
+    迭代器返回的 Entry 记着下标,映射被搬走后 setValue 要退化成 put
+ */
+
+/**
+ * Stress tests for {@link JDK8.ArrayHashMap}, checked operation by
+ * operation against <tt>java.util.HashMap</tt>. Keys with few distinct
+ * hash codes form long chains, so that removals often move the last
+ * mapping within the chain being edited; removals through iterators
+ * must still visit every mapping once. Run {@link #main}; a failed check
+ * throws an <tt>AssertionError</tt>.
+ */
+public class ArrayHashMapStressTest
+{
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * A key with a chosen hash code.
+     */
+    static final class Key implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(Map<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+        check(m.equals(expected) && expected.equals(m) && m.hashCode() == expected.hashCode(),
+                what + ": maps not equal");
+    }
+
+    /**
+     * Returns count keys whose hash codes take the given number of
+     * distinct values, or random ones if distinct is 0.
+     */
+    static Key[] keys(int count, int distinct, Random r)
+    {
+        Key[] keys = new Key[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = new Key(i, (distinct == 0) ? r.nextInt() : r.nextInt(distinct) * 0x9E3779B9);
+        return keys;
+    }
+
+    /**
+     * Runs count random operations over keys on m and on a reference map,
+     * comparing each result, and the whole maps every 4096 operations.
+     */
+    static void randomOps(ArrayHashMap<Key, Integer> m, Map<Key, Integer> expected, Key[] keys, int count,
+                          Random r, String what)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            Key k = (r.nextInt(64) == 0) ? null : keys[r.nextInt(keys.length)];
+            Integer v = (r.nextInt(64) == 0) ? null : r.nextInt(100);
+            int op = r.nextInt(12);
+            switch (op)
+            {
+                case 0:
+                case 1:
+                case 2:
+                    check(Objects.equals(m.put(k, v), expected.put(k, v)), what + ": put " + k);
+                    break;
+                case 3:
+                    check(Objects.equals(m.putIfAbsent(k, v), expected.putIfAbsent(k, v)),
+                            what + ": putIfAbsent " + k);
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                    check(Objects.equals(m.remove(k), expected.remove(k)), what + ": remove " + k);
+                    break;
+                case 7:
+                    check(m.remove(k, v) == expected.remove(k, v), what + ": remove " + k + "=" + v);
+                    break;
+                case 8:
+                    check(m.entrySet().remove(new AbstractMap.SimpleEntry<Key, Integer>(k, v)) ==
+                            expected.entrySet().remove(new AbstractMap.SimpleEntry<Key, Integer>(k, v)),
+                            what + ": entrySet remove " + k + "=" + v);
+                    break;
+                case 9:
+                    check(m.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                    break;
+                default:
+                    check(Objects.equals(m.get(k), expected.get(k)), what + ": get " + k);
+            }
+            check(m.size() == expected.size(), what + ": size after op " + op + " on " + k);
+            if ((i & 4095) == 4095)
+                checkSameMappings(m, expected, what);
+        }
+        checkSameMappings(m, expected, what);
+    }
+
+    /**
+     * Random operations over random hash codes and over a few distinct
+     * ones, in tables that grow and in presized tables.
+     */
+    static void chains()
+    {
+        Random r = new Random(47);
+        for (int distinct : new int[]{0, 1, 3, 64})
+        {
+            //只有一两个 hash 时链是线性查找,键少一些
+            for (int count : (distinct == 1 || distinct == 3) ? new int[]{16, 500} : new int[]{16, 500, 20000})
+            {
+                String what = count + " keys, " + ((distinct == 0) ? "random" : distinct + " distinct") +
+                        " hash codes";
+                Key[] keys = keys(count, distinct, r);
+                randomOps(new ArrayHashMap<Key, Integer>(), new java.util.HashMap<Key, Integer>(), keys,
+                        Math.max(count * 10, 40000), r, what);
+                randomOps(new ArrayHashMap<Key, Integer>(count, 4f), new java.util.HashMap<Key, Integer>(),
+                        keys, Math.max(count * 10, 40000), r, what + ", load factor 4");
+            }
+        }
+    }
+
+    /**
+     * Removing through the iterator moves the last mapping into the
+     * current index; every mapping must still be returned exactly once,
+     * and entries returned before a move must still write through.
+     */
+    static void iteratorRemoval()
+    {
+        Random r = new Random(53);
+        for (int distinct : new int[]{0, 1, 4})
+        {
+            for (int round = 0; round < 200; round++)
+            {
+                String what = "iterator removal, " + distinct + " distinct hash codes, round " + round;
+                Key[] keys = keys(1 + r.nextInt(300), distinct, r);
+                ArrayHashMap<Key, Integer> m = new ArrayHashMap<Key, Integer>();
+                Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+                for (Key k : keys)
+                {
+                    m.put(k, k.id);
+                    expected.put(k, k.id);
+                }
+                int modulus = 1 + r.nextInt(4);
+                Set<Key> seen = new HashSet<Key>();
+                List<Map.Entry<Key, Integer>> kept = new ArrayList<Map.Entry<Key, Integer>>();
+                for (Iterator<Map.Entry<Key, Integer>> it = m.entrySet().iterator(); it.hasNext(); )
+                {
+                    Map.Entry<Key, Integer> e = it.next();
+                    check(seen.add(e.getKey()), what + ": " + e.getKey() + " returned twice");
+                    if (e.getKey().id % modulus == 0)
+                    {
+                        it.remove();
+                        expected.remove(e.getKey());
+                    }
+                    else
+                        kept.add(e);
+                }
+                check(seen.size() == keys.length, what + ": returned " + seen.size() + " of " + keys.length);
+                checkSameMappings(m, expected, what);
+
+                //之前返回的 Entry 的下标可能已经被别的映射占用了
+                for (Map.Entry<Key, Integer> e : kept)
+                {
+                    Integer v = -e.getKey().id;
+                    e.setValue(v);
+                    expected.put(e.getKey(), v);
+                }
+                checkSameMappings(m, expected, what + ", set through entries");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T deserialize(T m)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+            {
+                out.writeObject(m);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+            {
+                return (T) in.readObject();
+            }
+        }
+        catch (IOException | ClassNotFoundException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Copies of a map with long chains hold the same mappings and do not
+     * change when the original does.
+     */
+    @SuppressWarnings("unchecked")
+    static void copies()
+    {
+        Random r = new Random(59);
+        Key[] keys = keys(2000, 16, r);
+        ArrayHashMap<Key, Integer> m = new ArrayHashMap<Key, Integer>();
+        Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+        for (Key k : keys)
+        {
+            m.put(k, k.id);
+            expected.put(k, k.id);
+        }
+        m.put(null, null);
+        expected.put(null, null);
+        ArrayHashMap<Key, Integer> clone = (ArrayHashMap<Key, Integer>) m.clone();
+        ArrayHashMap<Key, Integer> copy = new ArrayHashMap<Key, Integer>(m);
+        ArrayHashMap<Key, Integer> read = deserialize(m);
+        Map<Key, Integer> before = new java.util.HashMap<Key, Integer>(expected);
+        randomOps(m, expected, keys, 40000, r, "original of the copies");
+        checkSameMappings(clone, before, "clone");
+        checkSameMappings(copy, before, "copy constructor");
+        checkSameMappings(read, before, "deserialized");
+        randomOps(clone, before, keys, 40000, r, "clone");
+        checkSameMappings(m, expected, "original after the clone changed");
+    }
+
+    public static void main(String[] args)
+    {
+        chains();
+        iteratorRemoval();
+        copies();
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,250 @@
+package test;
+
+import JDK8.CuckooHashMap;
+
+import java.util.*;
+
+/*
+JDK8.CuckooHashMap 的压力测试,与 java.util.HashMap 执行相同的随机操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+覆盖普通负载下很少走到的路径:
+    装载因子接近 1:两个桶经常都满,插入要连续踢出很多次,踢出 MAX_KICKS 次失败后放入 stash
+    stash 满了之后重建:换 seed 重新放置所有元素,反复失败时扩容或者扩大 stash
+    hashCode 相同的键:它们只能落在相同的两个桶中,超过 8 个就全部进入 stash,stash 必须扩大
+    删除时把 stash 中的元素移回桶中,迭代器删除时不移动
+ */
+
+/**
+ * Stress tests for {@link JDK8.CuckooHashMap} at high load factors and
+ * with keys sharing one hash code, checked operation by operation
+ * against <tt>java.util.HashMap</tt>. Run {@link #main}; a failed check
+ * throws an <tt>AssertionError</tt>.
+ */
+public class CuckooHashMapStressTest
+{
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * A key with a chosen hash code.
+     */
+    static final class Key
+    {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(CuckooHashMap<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+        check(m.equals(expected) && expected.equals(m), what + ": maps not equal");
+    }
+
+    /**
+     * Runs count random operations over keys on m and on a reference map,
+     * comparing each result, and the whole maps every check operations.
+     */
+    static void randomOps(CuckooHashMap<Key, Integer> m, Key[] keys, int count, Random r, String what)
+    {
+        Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>(m);
+        for (int i = 0; i < count; i++)
+        {
+            Key k = (r.nextInt(64) == 0) ? null : keys[r.nextInt(keys.length)];
+            Integer v = r.nextInt(1000);
+            int op = r.nextInt(10);
+            switch (op)
+            {
+                case 0:
+                case 1:
+                case 2:
+                    check(Objects.equals(m.put(k, v), expected.put(k, v)), what + ": put " + k);
+                    break;
+                case 3:
+                    check(Objects.equals(m.putIfAbsent(k, v), expected.putIfAbsent(k, v)), what + ": putIfAbsent " + k);
+                    break;
+                case 4:
+                case 5:
+                    check(Objects.equals(m.remove(k), expected.remove(k)), what + ": remove " + k);
+                    break;
+                case 6:
+                    check(Objects.equals(m.merge(k, v, Integer::sum), expected.merge(k, v, Integer::sum)),
+                            what + ": merge " + k);
+                    break;
+                case 7:
+                    check(m.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                    break;
+                default:
+                    check(Objects.equals(m.get(k), expected.get(k)), what + ": get " + k);
+            }
+            check(m.size() == expected.size(), what + ": size after op " + op + " on " + k);
+            if ((i & 4095) == 4095)
+                checkSameMappings(m, expected, what);
+        }
+        checkSameMappings(m, expected, what);
+    }
+
+    /**
+     * Random operations on random hash codes at load factors close to
+     * one, with the number of distinct keys around the resize threshold
+     * so that the table keeps filling up to it.
+     */
+    static void highLoadFactors()
+    {
+        Random r = new Random(19);
+        for (float loadFactor : new float[]{0.9f, 0.95f, 0.98f, 0.99f})
+        {
+            for (int capacity = 16; capacity <= 1 << 14; capacity <<= 2)
+            {
+                Key[] keys = new Key[(int) (capacity * loadFactor) + capacity / 8];
+                for (int i = 0; i < keys.length; i++)
+                    keys[i] = new Key(i, r.nextInt());
+                CuckooHashMap<Key, Integer> m = new CuckooHashMap<Key, Integer>(capacity, loadFactor);
+                randomOps(m, keys, Math.max(keys.length * 20, 20000), r,
+                        "load factor " + loadFactor + ", capacity " + capacity);
+            }
+        }
+    }
+
+    /**
+     * Fills presized tables to their threshold without any removal, which
+     * forces long kick chains and rebuilds at the same capacity.
+     */
+    static void fillToThreshold()
+    {
+        Random r = new Random(7);
+        for (float loadFactor : new float[]{0.95f, 0.98f, 0.99f})
+        {
+            int capacity = 1 << 16;
+            CuckooHashMap<Key, Integer> m = new CuckooHashMap<Key, Integer>(capacity, loadFactor);
+            Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+            for (int i = 0; i < (int) (capacity * loadFactor); i++)
+            {
+                Key k = new Key(i, r.nextInt());
+                m.put(k, i);
+                expected.put(k, i);
+            }
+            checkSameMappings(m, expected, "filled to load factor " + loadFactor);
+        }
+    }
+
+    /**
+     * Groups of keys sharing one hash code can only use the same two
+     * buckets, so all but eight of a group go to the stash, which must
+     * grow. Removals move stash entries back into the freed buckets.
+     */
+    static void stashOverflow()
+    {
+        Random r = new Random(4);
+        for (int group : new int[]{9, 16, 64, 300})
+        {
+            //相同 hashCode 的一组键,加上少量普通键
+            Key[] keys = new Key[group * 4 + 200];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = new Key(i, (i < group * 4) ? 0x1234 * (i / group) : r.nextInt());
+            CuckooHashMap<Key, Integer> m = new CuckooHashMap<Key, Integer>();
+            Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+            for (int i = 0; i < keys.length; i++)
+            {
+                m.put(keys[i], i);
+                expected.put(keys[i], i);
+            }
+            String what = "groups of " + group + " colliding keys";
+            checkSameMappings(m, expected, what);
+
+            //删除一半,剩下的键无论在桶中还是 stash 中都要找得到
+            for (int i = 0; i < keys.length; i += 2)
+                check(Objects.equals(m.remove(keys[i]), expected.remove(keys[i])), what + ": remove " + keys[i]);
+            checkSameMappings(m, expected, what + ", half removed");
+
+            //迭代器删除不移动 stash 中的元素,遍历不能漏掉或重复
+            Iterator<Map.Entry<Key, Integer>> it = m.entrySet().iterator();
+            while (it.hasNext())
+            {
+                Map.Entry<Key, Integer> e = it.next();
+                if ((e.getValue() & 3) == 1)
+                {
+                    it.remove();
+                    expected.remove(e.getKey());
+                }
+            }
+            checkSameMappings(m, expected, what + ", removed by iterator");
+
+            randomOps(m, keys, 20000, r, what + ", random ops");
+            m.clear();
+            expected.clear();
+            randomOps(m, keys, 20000, r, what + ", after clear");
+        }
+    }
+
+    /**
+     * Copies of a map at a high load factor that holds stash entries must
+     * hold the same mappings.
+     */
+    @SuppressWarnings("unchecked")
+    static void copies()
+    {
+        Random r = new Random(3);
+        CuckooHashMap<Key, Integer> m = new CuckooHashMap<Key, Integer>(1 << 10, 0.98f);
+        Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+        for (int i = 0; i < 1000; i++)
+        {
+            Key k = new Key(i, (i < 40) ? 42 : r.nextInt());
+            m.put(k, i);
+            expected.put(k, i);
+        }
+        checkSameMappings((CuckooHashMap<Key, Integer>) m.clone(), expected, "clone");
+        checkSameMappings(new CuckooHashMap<Key, Integer>(m), expected, "copy constructor");
+        CuckooHashMap<Key, Integer> all = new CuckooHashMap<Key, Integer>(16, 0.98f);
+        all.putAll(m);
+        checkSameMappings(all, expected, "putAll");
+    }
+
+    public static void main(String[] args)
+    {
+        highLoadFactors();
+        fillToThreshold();
+        stashOverflow();
+        copies();
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,300 @@
+package test;
+
+import JDK8.FrozenHashMap;
+import JDK8.HashMap;
+import JDK8.HashingStrategy;
+
+import java.io.*;
+import java.util.*;
+
+/*
+JDK8.FrozenHashMap 的压力测试,与 java.util.HashMap 执行相同的随机操作,随时 freeze() 并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+完美哈希只保证 n 个已有的 hash 互不冲突,不在 map 中的键同样会算出某个位置,必须靠一次 equals 排除:
+    随机的不存在的键,以及 hash 与已有的键完全相同的不存在的键(落在同一个位置上,或者同一个 Collision 中)
+    null 键,在和不在 map 中两种情况
+    很小的 map(每个大小都试一遍)和很大的 map,remap 到 [0, n) 中空位的键
+    HashingStrategy 和换过种子的 map:冻结后 hash 算法必须和源 map 一致
+    序列化后重建的 map,以及源 map 冻结后继续修改
+ */
+
+/**
+ * Stress tests for {@link JDK8.FrozenHashMap}: maps frozen from
+ * {@link JDK8.HashMap}s built by random operations must hold the same
+ * mappings as a <tt>java.util.HashMap</tt>, and must report every absent
+ * key as absent, including keys whose hashes equal those of present
+ * keys. Run {@link #main}; a failed check throws an
+ * <tt>AssertionError</tt>.
+ */
+public class FrozenHashMapStressTest
+{
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * A key with a chosen hash code.
+     */
+    static final class Key implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(Map<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+        int[] forEach = new int[1];
+        m.forEach((k, v) -> ++forEach[0]);
+        check(forEach[0] == expected.size(), what + ": forEach saw " + forEach[0] + " mappings");
+        check(m.equals(expected) && expected.equals(m) && m.hashCode() == expected.hashCode(),
+                what + ": maps not equal");
+    }
+
+    /**
+     * Checks that every key of absent that the reference lacks is absent
+     * from m through each lookup method.
+     */
+    static <K, V> void checkAbsent(FrozenHashMap<K, V> m, Map<K, V> expected, Iterable<K> absent, V marker,
+                                   String what)
+    {
+        for (K k : absent)
+        {
+            if (expected.containsKey(k))
+                continue;
+            check(!m.containsKey(k), what + ": containsKey of absent " + k);
+            check(m.get(k) == null, what + ": get of absent " + k);
+            check(m.getOrDefault(k, marker) == marker, what + ": getOrDefault of absent " + k);
+            check(!m.entrySet().contains(new AbstractMap.SimpleEntry<K, V>(k, null)),
+                    what + ": entrySet contains absent " + k);
+        }
+    }
+
+    /**
+     * Returns absent keys for m: fresh random hashes, and hashes of the
+     * keys in m under new ids.
+     */
+    static List<Key> absentKeys(Map<Key, Integer> m, int count, Random r)
+    {
+        List<Key> absent = new ArrayList<Key>();
+        absent.add(null);
+        int id = -1;
+        for (int i = 0; i < count; i++)
+            absent.add(new Key(id--, r.nextInt()));
+        for (Key k : m.keySet())
+        {
+            if (k != null)
+                absent.add(new Key(id--, k.hash));
+        }
+        return absent;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> FrozenHashMap<K, V> deserialize(FrozenHashMap<K, V> m)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+            {
+                out.writeObject(m);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+            {
+                return (FrozenHashMap<K, V>) in.readObject();
+            }
+        }
+        catch (IOException | ClassNotFoundException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Freezes m, checks the frozen map and its absent keys, and checks
+     * that later changes to m do not reach it.
+     */
+    static void checkFrozen(HashMap<Key, Integer> m, Map<Key, Integer> expected, Random r, String what)
+    {
+        FrozenHashMap<Key, Integer> f = m.freeze();
+        checkSameMappings(f, expected, what);
+        checkAbsent(f, expected, absentKeys(expected, expected.size() + 100, r), -1, what);
+        Map<Key, Integer> copy = new java.util.HashMap<Key, Integer>(expected);
+        m.put(new Key(Integer.MIN_VALUE, 0), 0);
+        m.remove(new Key(Integer.MIN_VALUE, 0));
+        if (!expected.isEmpty())
+            m.remove(expected.keySet().iterator().next());
+        checkSameMappings(f, copy, what + ", source changed");
+        m.putAll(copy);
+    }
+
+    /**
+     * Every size from 0 to 300 with random hashes and with keys in groups
+     * sharing one hash, the null key present or not.
+     */
+    static void everySmallSize()
+    {
+        Random r = new Random(2);
+        for (int groups = 1; groups <= 4; groups *= 2)
+        {
+            for (int n = 0; n <= 300; n++)
+            {
+                HashMap<Key, Integer> m = new HashMap<Key, Integer>();
+                Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+                for (int i = 0; i < n; i++)
+                {
+                    Key k = (i == 7 && n % 2 == 0) ? null :
+                            new Key(i, (groups == 1) ? r.nextInt() : (i / groups) * 0x9E3779B9);
+                    m.put(k, i);
+                    expected.put(k, i);
+                }
+                checkFrozen(m, expected, r, n + " keys in groups of " + groups);
+            }
+        }
+    }
+
+    /**
+     * Random operations on a map, frozen after every batch, over random
+     * hashes, hashes in a small range and groups of equal hashes.
+     */
+    static void randomFreezes()
+    {
+        Random r = new Random(13);
+        String[] kinds = {"random hashes", "hashes in a small range", "groups of equal hashes"};
+        for (int kind = 0; kind < kinds.length; kind++)
+        {
+            Key[] keys = new Key[40000];
+            for (int i = 0; i < keys.length; i++)
+            {
+                int h = (kind == 0) ? r.nextInt() : (kind == 1) ? r.nextInt(1 << 16) : i / 5 * 0x01000193;
+                keys[i] = new Key(i, h);
+            }
+            HashMap<Key, Integer> m = new HashMap<Key, Integer>();
+            Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+            for (int batch = 0; batch < 12; batch++)
+            {
+                //键的范围逐批扩大,前几批 map 较小
+                int range = Math.min(keys.length, 64 << batch);
+                for (int i = 0; i < 5000; i++)
+                {
+                    Key k = (r.nextInt(256) == 0) ? null : keys[r.nextInt(range)];
+                    Integer v = r.nextInt(1000);
+                    if (r.nextInt(3) == 0)
+                        check(Objects.equals(m.remove(k), expected.remove(k)), kinds[kind] + ": remove " + k);
+                    else
+                        check(Objects.equals(m.put(k, v), expected.put(k, v)), kinds[kind] + ": put " + k);
+                }
+                checkFrozen(m, expected, r, kinds[kind] + ", batch " + batch);
+            }
+            checkSameMappings(deserialize(m.freeze()), expected, kinds[kind] + ", deserialized");
+        }
+    }
+
+    /**
+     * Frozen maps hash as their source: with a case-insensitive strategy,
+     * and after a flood of colliding strings made the source reseed.
+     */
+    static void sourceHashing()
+    {
+        Random r = new Random(17);
+        HashingStrategy<String> caseInsensitive = HashingStrategy.of(
+                s -> s.toLowerCase(Locale.ROOT).hashCode(), (a, b) -> a.equalsIgnoreCase(b));
+        HashMap<String, Integer> ci = new HashMap<String, Integer>(caseInsensitive);
+        Map<String, Integer> expected = new java.util.HashMap<String, Integer>();
+        for (int i = 0; i < 5000; i++)
+        {
+            ci.put("Key" + i, i);
+            expected.put("key" + i, i);
+        }
+        FrozenHashMap<String, Integer> f = ci.freeze();
+        check(f.size() == expected.size(), "case-insensitive: size " + f.size());
+        for (int i = 0; i < 5000; i++)
+        {
+            check(Objects.equals(f.get("KEY" + i), i), "case-insensitive: KEY" + i);
+            check(!f.containsKey("KEY" + (i + 5000)), "case-insensitive: absent KEY" + (i + 5000));
+        }
+
+        //碰撞的字符串多到触发换种子,种子也要带到冻结后的 map 中
+        List<String> strings = HashMapRegressionTest.collidingStrings(1 << 12);
+        HashMap<String, Integer> seeded = new HashMap<String, Integer>();
+        Map<String, Integer> seededExpected = new java.util.HashMap<String, Integer>();
+        for (int i = 0; i < strings.size(); i += 2)
+        {
+            seeded.put(strings.get(i), i);
+            seededExpected.put(strings.get(i), i);
+        }
+        FrozenHashMap<String, Integer> fs = seeded.freeze();
+        checkSameMappings(fs, seededExpected, "reseeded source");
+        checkAbsent(fs, seededExpected, strings, -1, "reseeded source");
+        checkSameMappings(deserialize(fs), seededExpected, "reseeded source, deserialized");
+        checkAbsent(deserialize(fs), seededExpected, strings, -1, "reseeded source, deserialized");
+    }
+
+    /**
+     * A large map, where some keys are remapped into the free slots of
+     * the dense arrays.
+     */
+    static void largeMap()
+    {
+        Random r = new Random(29);
+        HashMap<Key, Integer> m = new HashMap<Key, Integer>();
+        Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+        for (int i = 0; i < 1 << 18; i++)
+        {
+            Key k = new Key(i, r.nextInt());
+            m.put(k, i);
+            expected.put(k, i);
+        }
+        checkFrozen(m, expected, r, "large map");
+    }
+
+    public static void main(String[] args)
+    {
+        everySmallSize();
+        randomFreezes();
+        sourceHashing();
+        largeMap();
+        System.out.println("ok");
+    }
+}
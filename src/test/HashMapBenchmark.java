@@ -0,0 +1,976 @@
+package test;
+
+import JDK8.ReferenceHashMap.Strength;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+JDK7.HashMap,JDK8.HashMap,ConcurrentHashMap 以及 JDK8 包中其他可变的 Map 实现在相同负载下的对比
+jdk7split 是开启了 setSplitResize(true) 的 JDK7.HashMap,与 jdk7 的 resize 一列对比就是 split() 与 transfer() 的差别
+
+负载(workload)由三部分组成:
+    键的分布:UNIFORM 均匀随机;ZIPF 按 Zipf(1.0) 分布访问,少数热键占大部分访问;COLLIDING 每 64 个键共用一个 hashCode
+    表的大小:PRESIZED 按最终元素个数预先分配;GROWING 从默认容量开始,插入过程中不断扩容
+    读写比例:READ_HEAVY 90% get 5% put 5% remove;WRITE_HEAVY 20% get 40% put 40% remove
+
+每一轮(iteration)新建一个 map,先插入 n 个键(build 阶段),再执行操作序列(mix 阶段),两个阶段分别计时
+    resize()/transfer() 的耗时 = GROWING 与 PRESIZED 的 build 时间之差,所有 map 用同一种方法估计
+    分配速率用 com.sun.management.ThreadMXBean 统计当前线程分配的字节数
+    每个元素占用的内存 = build 之后与之前 GC 后堆使用量之差 / n,键和值在 build 之前就已经创建好,不计入
+    探测长度(probe) = 命中的查找平均比较的节点数(JDK8.HashMap 的 getNode)或槽位数(RobinHoodHashMap),其他 map 不统计
+
+查找场景(LOOKUP)单独计时命中与未命中的 get:表长固定,装载因子分别为 0.75 和 0.875,元素个数比扩容阈值少一个
+    开放寻址(RobinHoodHashMap,SwissTableHashMap)的未命中查找要探测到空槽或控制字节组中的 EMPTY 才能结束,装载因子越高差距越大
+    所有 map 都以给定的容量和装载因子构造,操作序列(mix)中也统一使用 0.75,包括默认装载因子是 0.875 的 SwissTableHashMap
+
+weak 和 soft 是 ReferenceHashMap(弱引用的键,软引用的值),与 jdk8 对比就是引用对象带来的开销
+    键和值都由 Workload 的数组持有,不会被 GC 清除,测到的是查找时经过 HashingStrategy 和 Reference.get 的开销,以及每个元素多出的引用对象
+    COLLIDING 下弱引用键的 map 用 ArrayBin 代替红黑树
+
+读线程扩展场景(READERS)只对线程安全的 map 运行:seqlock,sync(synchronizedMap),rwlock(ReentrantReadWriteLock),chm
+    一个写线程不断插入和删除,1 到 64 个读线程 get,每个点运行固定的时间,统计读和写的吞吐量
+    sync 和 rwlock 的读也要写锁的状态,读线程越多争用越厉害;seqlock 的乐观读不写共享内存
+    线程数超过 CPU 个数时,结果反映的是调度而不是争用,所以同时打印 CPU 个数
+
+不在对比范围内的实现(MapKind 中没有):
+    IntIntHashMap,IntObjectHashMap,LongLongHashMap,LongObjectHashMap 的键是基本类型,不是 Map<Key, Key>
+    FrozenHashMap 和 PersistentHashMap 不可变,mix 中的 put/remove 无从谈起
+    MappedHashMap 经过 Codec 把键值序列化到映射文件中,开销主要在编码和文件上
+    LinkedHashMap 与 jdk8 用同一个表,只多了双向链表;src/JDK8/ConcurrentHashMap.java 就是 chm 所测的 java.util.concurrent.ConcurrentHashMap 的源码
+
+每种 map 在单独的 JVM 中运行(与 JMH 的 fork 相同),避免 JIT 在同一个调用点见过多个 Map 实现后不再内联
+ */
+
+/**
+ * Compares {@link JDK7.HashMap}, {@link JDK8.HashMap},
+ * {@link ConcurrentHashMap} and the other mutable object-keyed maps of
+ * package <tt>JDK8</tt> over the same workloads: uniform, Zipfian and
+ * colliding keys, presized and growing tables, and read-heavy and
+ * write-heavy operation mixes. For each map and workload it reports the
+ * operation throughput, the time spent growing the table, the allocation
+ * rate and the retained bytes per entry. For {@link JDK8.HashMap} and
+ * {@link JDK8.RobinHoodHashMap} it also reports the average probe length
+ * of a successful lookup.
+ *
+ * <p>A separate lookup scenario times hits and misses apart, in tables of
+ * the same capacity filled to load factor 0.75 and 0.875, which is where
+ * the open addressing maps ({@link JDK8.RobinHoodHashMap} and
+ * {@link JDK8.SwissTableHashMap}) differ most from chaining.
+ *
+ * <p>The <tt>weak</tt> and <tt>soft</tt> maps are {@link JDK8.ReferenceHashMap}s
+ * with weak keys and soft values. The workload keeps every key and value
+ * reachable, so against <tt>jdk8</tt> they show the cost of holding the
+ * mappings through references rather than that of expunging them.
+ *
+ * <p>The thread-safe maps, {@link JDK8.SeqLockHashMap}, a synchronized
+ * and a read-write locked {@link JDK8.HashMap} and
+ * {@link ConcurrentHashMap}, also run a reader scaling scenario: one
+ * writer and 1 to 64 readers share a map, and the read and write
+ * throughput is reported for each number of readers.
+ *
+ * <p>Out of scope are the maps with primitive keys
+ * ({@link JDK8.IntIntHashMap} and its siblings), which are not
+ * <tt>Map</tt>s of objects; {@link JDK8.FrozenHashMap} and
+ * {@link JDK8.PersistentHashMap}, which are immutable;
+ * {@link JDK8.MappedHashMap}, whose cost lies in encoding entries into a
+ * file; and {@link JDK8.LinkedHashMap}, which shares the table of
+ * {@link JDK8.HashMap}.
+ *
+ * <p>Usage: <tt>java -cp &lt;classes&gt; test.HashMapBenchmark [map] [entries] [scenario]</tt>,
+ * where map is one of <tt>jdk7</tt>, <tt>jdk7split</tt>, <tt>jdk8</tt>,
+ * <tt>array</tt>, <tt>robinhood</tt>, <tt>swiss</tt>, <tt>cuckoo</tt>, <tt>weak</tt>,
+ * <tt>soft</tt>, <tt>seqlock</tt>, <tt>sync</tt>, <tt>rwlock</tt> and
+ * <tt>chm</tt>, and scenario one of <tt>mix</tt>, <tt>lookup</tt> and
+ * <tt>readers</tt>. Without a scenario, every one that applies to the map
+ * runs. Without a map, each one is measured in a forked JVM.
+ */
+public class HashMapBenchmark
+{
+    static final int WARMUP_ITERATIONS = 5;
+
+    static final int MEASURE_ITERATIONS = 10;
+
+    /**
+     * The default number of entries built into each map.
+     */
+    static final int DEFAULT_ENTRIES = 1 << 20;
+
+    /**
+     * The number of keys that share one hash code under COLLIDING.
+     */
+    static final int COLLISION_GROUP = 64;
+
+    /**
+     * Chains of colliding keys make JDK7.HashMap quadratic, so those
+     * workloads are built with fewer entries.
+     */
+    static final int COLLIDING_ENTRIES = 1 << 15;
+
+    /**
+     * Open addressing has no tree bins: keys with equal hash codes fill
+     * consecutive slots and the clusters merge, so every probe is linear
+     * in the number of colliding keys. Such maps build even fewer.
+     */
+    static final int OPEN_ADDRESSING_COLLIDING_ENTRIES = 1 << 11;
+
+    /**
+     * The load factor of the operation mixes. Every map grows at the same
+     * one, including those whose own default differs.
+     */
+    static final float LOAD_FACTOR = 0.75f;
+
+    static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The load factors of the lookup scenario.
+     */
+    static final float[] LOOKUP_LOAD_FACTORS = {0.75f, 0.875f};
+
+    enum MapKind
+    {
+        JDK7("jdk7")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK7.HashMap<Key, Key>(capacity, loadFactor);
+                    }
+                },
+        JDK7_SPLIT("jdk7split")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        JDK7.HashMap<Key, Key> m = new JDK7.HashMap<Key, Key>(capacity, loadFactor);
+                        m.setSplitResize(true);
+                        return m;
+                    }
+                },
+        JDK8("jdk8")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.HashMap<Key, Key>(capacity, loadFactor);
+                    }
+
+                    double probeLength(Map<Key, Key> m, Key[] keys, int n)
+                    {
+                        //getNode 只在开启统计后才累加探测长度
+                        JDK8.HashMap<Key, Key> h = (JDK8.HashMap<Key, Key>) m;
+                        h.enableStatistics();
+                        for (int i = 0; i < n; i++)
+                            h.get(keys[i]);
+                        double probes = h.statistics().averageProbeLength();
+                        h.disableStatistics();
+                        return probes;
+                    }
+                },
+        ARRAY("array")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.ArrayHashMap<Key, Key>(capacity, loadFactor);
+                    }
+                },
+        ROBIN_HOOD("robinhood")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.RobinHoodHashMap<Key, Key>(capacity, loadFactor);
+                    }
+
+                    double probeLength(Map<Key, Key> m, Key[] keys, int n)
+                    {
+                        return ((JDK8.RobinHoodHashMap<Key, Key>) m).averageProbeLength();
+                    }
+
+                    int collidingEntries()
+                    {
+                        return OPEN_ADDRESSING_COLLIDING_ENTRIES;
+                    }
+                },
+        SWISS("swiss")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.SwissTableHashMap<Key, Key>(capacity, loadFactor);
+                    }
+
+                    int collidingEntries()
+                    {
+                        return OPEN_ADDRESSING_COLLIDING_ENTRIES;
+                    }
+                },
+        CUCKOO("cuckoo")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.CuckooHashMap<Key, Key>(capacity, loadFactor);
+                    }
+
+                    int collidingEntries()
+                    {
+                        //每组 64 个相同 hashCode 的键只有 8 个能放进桶中,其余都在共用的 stash 里线性扫描
+                        return OPEN_ADDRESSING_COLLIDING_ENTRIES;
+                    }
+                },
+        WEAK_KEYS("weak")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.ReferenceHashMap<Key, Key>(capacity, loadFactor,
+                                Strength.WEAK, Strength.STRONG);
+                    }
+                },
+        SOFT_VALUES("soft")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.ReferenceHashMap<Key, Key>(capacity, loadFactor,
+                                Strength.STRONG, Strength.SOFT);
+                    }
+                },
+        SEQLOCK("seqlock")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new JDK8.SeqLockHashMap<Key, Key>(capacity, loadFactor);
+                    }
+
+                    boolean threadSafe()
+                    {
+                        return true;
+                    }
+                },
+        SYNCHRONIZED("sync")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return Collections.synchronizedMap(new JDK8.HashMap<Key, Key>(capacity, loadFactor));
+                    }
+
+                    boolean threadSafe()
+                    {
+                        return true;
+                    }
+                },
+        RW_LOCK("rwlock")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        return new ReadWriteLockedMap<Key, Key>(new JDK8.HashMap<Key, Key>(capacity, loadFactor));
+                    }
+
+                    boolean threadSafe()
+                    {
+                        return true;
+                    }
+                },
+        CHM("chm")
+                {
+                    Map<Key, Key> create(int capacity, float loadFactor)
+                    {
+                        //ConcurrentHashMap 的构造参数是预期的元素个数,loadFactor 只用于换算初始容量
+                        //少一个元素,使换算出的表长不超过 capacity
+                        return new ConcurrentHashMap<Key, Key>(Math.max((int) (capacity * loadFactor) - 1, 1),
+                                loadFactor);
+                    }
+
+                    boolean threadSafe()
+                    {
+                        return true;
+                    }
+                };
+
+        final String id;
+
+        MapKind(String id)
+        {
+            this.id = id;
+        }
+
+        /**
+         * Returns an empty map whose table has the given capacity, growing
+         * at the given load factor.
+         */
+        abstract Map<Key, Key> create(int capacity, float loadFactor);
+
+        /**
+         * Returns an empty map at load factor 0.75, presized for the
+         * expected number of entries unless it is 0.
+         */
+        Map<Key, Key> create(int expected)
+        {
+            return create((expected == 0) ? DEFAULT_CAPACITY : capacityFor(expected), LOAD_FACTOR);
+        }
+
+        /**
+         * Returns the average number of keys or slots compared by a
+         * successful lookup of keys[0, n) in m, or NaN if the map does
+         * not report it.
+         */
+        double probeLength(Map<Key, Key> m, Key[] keys, int n)
+        {
+            return Double.NaN;
+        }
+
+        /**
+         * Returns whether one writer and many readers may share the map,
+         * which the reader scaling scenario requires.
+         */
+        boolean threadSafe()
+        {
+            return false;
+        }
+
+        /**
+         * Returns the number of entries built under COLLIDING.
+         */
+        int collidingEntries()
+        {
+            return COLLIDING_ENTRIES;
+        }
+
+        static int capacityFor(int expected)
+        {
+            return (int) (expected / LOAD_FACTOR) + 1;
+        }
+
+        static MapKind of(String id)
+        {
+            for (MapKind k : values())
+                if (k.id.equals(id))
+                    return k;
+            throw new IllegalArgumentException("Unknown map: " + id);
+        }
+    }
+
+    enum Distribution
+    {
+        UNIFORM, ZIPF, COLLIDING
+    }
+
+    enum Sizing
+    {
+        PRESIZED, GROWING
+    }
+
+    enum Mix
+    {
+        READ_HEAVY(90, 5), WRITE_HEAVY(20, 40);
+
+        final int getPercent, putPercent;
+
+        Mix(int getPercent, int putPercent)
+        {
+            this.getPercent = getPercent;
+            this.putPercent = putPercent;
+        }
+    }
+
+    enum Scenario
+    {
+        MIX("mix"), LOOKUP("lookup"), READERS("readers");
+
+        final String id;
+
+        Scenario(String id)
+        {
+            this.id = id;
+        }
+
+        boolean appliesTo(MapKind kind)
+        {
+            return this != READERS || kind.threadSafe();
+        }
+
+        static Scenario of(String id)
+        {
+            for (Scenario s : values())
+                if (s.id.equals(id))
+                    return s;
+            throw new IllegalArgumentException("Unknown scenario: " + id);
+        }
+    }
+
+    /**
+     * A map guarded by a {@link ReentrantReadWriteLock}, the usual
+     * alternative to a seqlock when reads dominate. Only the operations
+     * of the benchmark take the lock themselves; the views are snapshots.
+     */
+    static final class ReadWriteLockedMap<K, V> extends AbstractMap<K, V>
+    {
+        final Map<K, V> map;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        ReadWriteLockedMap(Map<K, V> map)
+        {
+            this.map = map;
+        }
+
+        public V get(Object key)
+        {
+            ReentrantReadWriteLock.ReadLock l = lock.readLock();
+            l.lock();
+            try
+            {
+                return map.get(key);
+            }
+            finally
+            {
+                l.unlock();
+            }
+        }
+
+        public boolean containsKey(Object key)
+        {
+            ReentrantReadWriteLock.ReadLock l = lock.readLock();
+            l.lock();
+            try
+            {
+                return map.containsKey(key);
+            }
+            finally
+            {
+                l.unlock();
+            }
+        }
+
+        public int size()
+        {
+            ReentrantReadWriteLock.ReadLock l = lock.readLock();
+            l.lock();
+            try
+            {
+                return map.size();
+            }
+            finally
+            {
+                l.unlock();
+            }
+        }
+
+        public V put(K key, V value)
+        {
+            ReentrantReadWriteLock.WriteLock l = lock.writeLock();
+            l.lock();
+            try
+            {
+                return map.put(key, value);
+            }
+            finally
+            {
+                l.unlock();
+            }
+        }
+
+        public V remove(Object key)
+        {
+            ReentrantReadWriteLock.WriteLock l = lock.writeLock();
+            l.lock();
+            try
+            {
+                return map.remove(key);
+            }
+            finally
+            {
+                l.unlock();
+            }
+        }
+
+        public Set<Map.Entry<K, V>> entrySet()
+        {
+            ReentrantReadWriteLock.ReadLock l = lock.readLock();
+            l.lock();
+            try
+            {
+                return new java.util.HashMap<K, V>(map).entrySet();
+            }
+            finally
+            {
+                l.unlock();
+            }
+        }
+    }
+
+    /**
+     * A key with a chosen hash code, comparable so that JDK8 tree bins
+     * can order colliding keys.
+     */
+    static final class Key implements Comparable<Key>
+    {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        public int compareTo(Key o)
+        {
+            return Integer.compare(id, o.id);
+        }
+    }
+
+    /**
+     * The keys and operation sequence of one workload, generated once
+     * with a fixed seed so that every map runs exactly the same one.
+     */
+    static final class Workload
+    {
+        final Distribution distribution;
+        final Sizing sizing;
+        final Mix mix;
+        final int entries;
+        final Key[] keys;      // keys[0, entries) are built, the rest start absent
+        final int[] opKeys;
+        final byte[] ops;      // GET, PUT or REMOVE
+
+        static final byte GET = 0, PUT = 1, REMOVE = 2;
+
+        Workload(Distribution distribution, Sizing sizing, Mix mix, int entries)
+        {
+            this.distribution = distribution;
+            this.sizing = sizing;
+            this.mix = mix;
+            this.entries = entries;
+            Random r = new Random(42);
+            int n = entries * 2;
+            keys = new Key[n];
+            for (int i = 0; i < n; i++)
+                keys[i] = new Key(i, (distribution == Distribution.COLLIDING) ?
+                        i / COLLISION_GROUP : r.nextInt());
+            //打乱,使 build 的键和之后才插入的键在各个桶中均匀分布
+            for (int i = n - 1; i > 0; i--)
+            {
+                int j = r.nextInt(i + 1);
+                Key t = keys[i];
+                keys[i] = keys[j];
+                keys[j] = t;
+            }
+            //COLLIDING 的每次操作都很慢,操作数与元素个数成比例,而不是至少 2^20 次
+            int count = (distribution == Distribution.COLLIDING) ? entries * 32 : Math.max(entries, 1 << 20);
+            opKeys = new int[count];
+            ops = new byte[count];
+            double[] cdf = (distribution == Distribution.ZIPF) ? zipfCdf(n, 1.0) : null;
+            for (int i = 0; i < count; i++)
+            {
+                opKeys[i] = (cdf == null) ? r.nextInt(n) : sampleZipf(cdf, r.nextDouble());
+                int p = r.nextInt(100);
+                ops[i] = (p < mix.getPercent) ? GET :
+                        (p < mix.getPercent + mix.putPercent) ? PUT : REMOVE;
+            }
+        }
+
+        static double[] zipfCdf(int n, double s)
+        {
+            double[] cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++)
+                cdf[i] = (sum += 1.0 / Math.pow(i + 1, s));
+            for (int i = 0; i < n; i++)
+                cdf[i] /= sum;
+            return cdf;
+        }
+
+        static int sampleZipf(double[] cdf, double u)
+        {
+            int i = Arrays.binarySearch(cdf, u);
+            return Math.min((i >= 0) ? i : -i - 1, cdf.length - 1);
+        }
+
+        public String toString()
+        {
+            return distribution + "/" + sizing + "/" + mix;
+        }
+    }
+
+    /**
+     * Results of one workload on one map, each the median over the
+     * measured iterations.
+     */
+    static final class Result
+    {
+        double buildNanosPerEntry;
+        double mixOpsPerSecond;
+        double allocatedBytesPerOp;
+        double allocationMegabytesPerSecond;
+        double retainedBytesPerEntry;
+        double probeLength;
+    }
+
+    static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static long allocatedBytes()
+    {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static long usedHeapAfterGc()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // 结果累加到 sink 中,防止 JIT 把没有使用结果的 get 消除掉
+    static int sink;
+
+    static Map<Key, Key> build(MapKind kind, Workload w)
+    {
+        Map<Key, Key> m = kind.create((w.sizing == Sizing.PRESIZED) ? w.entries : 0);
+        Key[] keys = w.keys;
+        for (int i = 0, n = w.entries; i < n; i++)
+            m.put(keys[i], keys[i]);
+        return m;
+    }
+
+    static void runMix(Map<Key, Key> m, Workload w)
+    {
+        Key[] keys = w.keys;
+        int[] opKeys = w.opKeys;
+        byte[] ops = w.ops;
+        int s = 0;
+        for (int i = 0; i < ops.length; i++)
+        {
+            Key k = keys[opKeys[i]];
+            switch (ops[i])
+            {
+                case Workload.GET:
+                    if (m.get(k) != null)
+                        ++s;
+                    break;
+                case Workload.PUT:
+                    m.put(k, k);
+                    break;
+                default:
+                    m.remove(k);
+            }
+        }
+        sink += s;
+    }
+
+    static Result measure(MapKind kind, Workload w)
+    {
+        int iterations = WARMUP_ITERATIONS + MEASURE_ITERATIONS;
+        double[] build = new double[MEASURE_ITERATIONS], mix = new double[MEASURE_ITERATIONS],
+                alloc = new double[MEASURE_ITERATIONS], rate = new double[MEASURE_ITERATIONS],
+                retained = new double[MEASURE_ITERATIONS];
+        double probe = Double.NaN;
+        for (int it = 0; it < iterations; it++)
+        {
+            long heap = usedHeapAfterGc();
+            long t0 = System.nanoTime();
+            Map<Key, Key> m = build(kind, w);
+            long t1 = System.nanoTime();
+            long retainedBytes = usedHeapAfterGc() - heap;
+            //探测长度只与表的状态有关,在最后一轮 build 之后统计一次,不计入任何计时
+            if (it == iterations - 1)
+                probe = kind.probeLength(m, w.keys, w.entries);
+            long a0 = allocatedBytes();
+            long t2 = System.nanoTime();
+            runMix(m, w);
+            long t3 = System.nanoTime();
+            long a1 = allocatedBytes();
+            sink += m.size();
+            int j = it - WARMUP_ITERATIONS;
+            if (j >= 0)
+            {
+                build[j] = (double) (t1 - t0) / w.entries;
+                mix[j] = w.ops.length * 1e9 / (t3 - t2);
+                alloc[j] = (double) (a1 - a0) / w.ops.length;
+                rate[j] = (a1 - a0) * 1e9 / (t3 - t2) / (1 << 20);
+                retained[j] = (double) retainedBytes / w.entries;
+            }
+        }
+        Result r = new Result();
+        r.buildNanosPerEntry = median(build);
+        r.mixOpsPerSecond = median(mix);
+        r.allocatedBytesPerOp = median(alloc);
+        r.allocationMegabytesPerSecond = median(rate);
+        r.retainedBytesPerEntry = median(retained);
+        r.probeLength = probe;
+        return r;
+    }
+
+    static double median(double[] a)
+    {
+        double[] b = a.clone();
+        Arrays.sort(b);
+        return b[b.length / 2];
+    }
+
+    static void runMixes(MapKind kind, int entries)
+    {
+        System.out.printf("%-10s %-30s %12s %12s %12s %10s %10s %10s %8s%n", "map", "workload",
+                "build ns/e", "resize ns/e", "mix Mops/s", "alloc B/op", "alloc MB/s", "B/entry", "probe");
+        for (Distribution d : Distribution.values())
+        {
+            int n = (d == Distribution.COLLIDING) ? Math.min(entries, kind.collidingEntries()) : entries;
+            for (Mix mix : Mix.values())
+            {
+                //GROWING 和 PRESIZED 的 build 时间之差就是扩容(resize/transfer)的开销
+                double presizedBuild = 0;
+                for (Sizing sizing : Sizing.values())
+                {
+                    Workload w = new Workload(d, sizing, mix, n);
+                    Result r = measure(kind, w);
+                    if (sizing == Sizing.PRESIZED)
+                        presizedBuild = r.buildNanosPerEntry;
+                    double resize = (sizing == Sizing.GROWING) ? r.buildNanosPerEntry - presizedBuild : 0;
+                    System.out.printf("%-10s %-30s %12.1f %12.1f %12.2f %10.1f %10.1f %10.1f %8s%n",
+                            kind.id, w, r.buildNanosPerEntry, resize, r.mixOpsPerSecond / 1e6,
+                            r.allocatedBytesPerOp, r.allocationMegabytesPerSecond, r.retainedBytesPerEntry,
+                            Double.isNaN(r.probeLength) ? "-" : String.format("%.2f", r.probeLength));
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of lookups timed per iteration of the lookup scenario.
+     */
+    static final int LOOKUPS = 1 << 22;
+
+    static int lookup(Map<Key, Key> m, Key[] keys)
+    {
+        int s = 0;
+        for (int i = 0, j = 0; i < LOOKUPS; i++)
+        {
+            if (m.get(keys[j]) != null)
+                ++s;
+            if (++j == keys.length)
+                j = 0;
+        }
+        return s;
+    }
+
+    /**
+     * Times lookups of present and absent keys in a table of the given
+     * capacity holding one entry less than its load factor allows, so
+     * that no map has grown. Prints hit and miss ns/op and the probe
+     * length of a hit.
+     */
+    static void runLookups(MapKind kind, int capacity, float loadFactor)
+    {
+        int n = (int) (capacity * loadFactor) - 1;
+        Random r = new Random(42);
+        Key[] hits = new Key[n], misses = new Key[n];
+        for (int i = 0; i < n; i++)
+        {
+            hits[i] = new Key(i, r.nextInt());
+            misses[i] = new Key(n + i, r.nextInt());
+        }
+        Map<Key, Key> m = kind.create(capacity, loadFactor);
+        for (Key k : hits)
+            m.put(k, k);
+        double probe = kind.probeLength(m, hits, n);
+        //按插入顺序查找会沿着内存顺序访问节点,打乱后才是随机访问
+        for (int i = n - 1; i > 0; i--)
+        {
+            int j = r.nextInt(i + 1);
+            Key t = hits[i];
+            hits[i] = hits[j];
+            hits[j] = t;
+        }
+        double[] hit = new double[MEASURE_ITERATIONS], miss = new double[MEASURE_ITERATIONS];
+        for (int it = 0; it < WARMUP_ITERATIONS + MEASURE_ITERATIONS; it++)
+        {
+            long t0 = System.nanoTime();
+            sink += lookup(m, hits);
+            long t1 = System.nanoTime();
+            sink += lookup(m, misses);
+            long t2 = System.nanoTime();
+            int j = it - WARMUP_ITERATIONS;
+            if (j >= 0)
+            {
+                hit[j] = (double) (t1 - t0) / LOOKUPS;
+                miss[j] = (double) (t2 - t1) / LOOKUPS;
+            }
+        }
+        System.out.printf("%-10s %-30s %12.1f %12.1f %8s%n", kind.id,
+                "LOOKUP/" + capacity + "@" + loadFactor, median(hit), median(miss),
+                Double.isNaN(probe) ? "-" : String.format("%.2f", probe));
+    }
+
+    /**
+     * The time each point of the reader scaling scenario runs for.
+     */
+    static final long READERS_MILLIS = 1000;
+
+    static final int MAX_READERS = 64;
+
+    /**
+     * Set to stop the threads of the reader scaling scenario; readers only
+     * read it, so it adds no shared writes to theirs.
+     */
+    static volatile boolean stopped;
+
+    /**
+     * Runs one writer and the given number of readers on m for
+     * READERS_MILLIS. The writer toggles keys in and out of the map and
+     * the readers look up keys of which about half are present. Returns
+     * the reads and the writes completed.
+     */
+    static long[] runReaders(final Map<Key, Key> m, final Key[] keys, int readers) throws InterruptedException
+    {
+        final long[] ops = new long[readers + 1], hits = new long[readers + 1];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[readers + 1];
+        stopped = false;
+        for (int t = 0; t <= readers; t++)
+        {
+            final int id = t;
+            threads[t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    //线程 0 是写线程;每个线程从不同的位置开始,按固定步长遍历 keys,不共享随机数生成器
+                    int n = keys.length, i = (int) ((long) n * id / ops.length), s = 0;
+                    long count = 0;
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    while (!stopped)
+                    {
+                        for (int b = 0; b < 256; b++)
+                        {
+                            Key k = keys[i];
+                            if (id == 0)
+                            {
+                                if (m.remove(k) == null)
+                                    m.put(k, k);
+                            }
+                            else if (m.get(k) != null)
+                                ++s;
+                            if ((i += 7919) >= n)
+                                i -= n;
+                        }
+                        count += 256;
+                    }
+                    //join 之后主线程才读取,不需要同步
+                    ops[id] = count;
+                    hits[id] = s;
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        Thread.sleep(READERS_MILLIS);
+        stopped = true;
+        for (Thread t : threads)
+            t.join();
+        long reads = 0;
+        for (int t = 1; t <= readers; t++)
+        {
+            reads += ops[t];
+            sink += (int) hits[t];
+        }
+        return new long[]{reads, ops[0]};
+    }
+
+    /**
+     * Measures read and write throughput of one writer and 1 to
+     * MAX_READERS readers sharing a map of the given number of entries.
+     */
+    static void runReaderScaling(MapKind kind, int entries) throws InterruptedException
+    {
+        Random r = new Random(42);
+        Key[] keys = new Key[entries * 2];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new Key(i, r.nextInt());
+        Map<Key, Key> m = kind.create(entries);
+        for (int i = 0; i < entries; i++)
+            m.put(keys[i], keys[i]);
+        //线程数超过 CPU 个数时,测到的是时间片轮转而不是缓存行争用
+        System.out.printf("%n%-10s %-30s %12s %12s %12s   (%d CPUs)%n", "map", "workload",
+                "reads Mops/s", "per reader", "writes Mops/s", Runtime.getRuntime().availableProcessors());
+        runReaders(m, keys, 1);
+        for (int readers = 1; readers <= MAX_READERS; readers <<= 1)
+        {
+            long[] ops = runReaders(m, keys, readers);
+            double seconds = READERS_MILLIS / 1e3;
+            System.out.printf("%-10s %-30s %12.2f %12.2f %12.2f%n", kind.id, "READERS/1w" + readers + "r",
+                    ops[0] / seconds / 1e6, ops[0] / seconds / 1e6 / readers, ops[1] / seconds / 1e6);
+        }
+    }
+
+    static void run(MapKind kind, int entries, Scenario scenario) throws InterruptedException
+    {
+        switch (scenario)
+        {
+            case MIX:
+                runMixes(kind, entries);
+                break;
+            case LOOKUP:
+                //表长固定为不超过 entries 的 2 的幂,只改变装载因子,比较命中与未命中的查找
+                System.out.printf("%n%-10s %-30s %12s %12s %8s%n", "map", "workload", "hit ns/op", "miss ns/op", "probe");
+                for (float loadFactor : LOOKUP_LOAD_FACTORS)
+                    runLookups(kind, Integer.highestOneBit(entries), loadFactor);
+                break;
+            default:
+                runReaderScaling(kind, entries);
+        }
+    }
+
+    /**
+     * Runs the benchmark for each map in a forked JVM with the same class
+     * path and heap settings as this one.
+     */
+    static void fork(int entries) throws Exception
+    {
+        String java = System.getProperty("java.home") + "/bin/java";
+        List<String> jvmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        for (MapKind kind : MapKind.values())
+        {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(java);
+            cmd.addAll(jvmArgs);
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(HashMapBenchmark.class.getName());
+            cmd.add(kind.id);
+            cmd.add(Integer.toString(entries));
+            int status = new ProcessBuilder(cmd).inheritIO().start().waitFor();
+            if (status != 0)
+                throw new IllegalStateException(kind.id + " exited with status " + status);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int entries = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ENTRIES;
+        if (args.length == 0)
+            fork(entries);
+        else
+        {
+            MapKind kind = MapKind.of(args[0]);
+            for (Scenario s : (args.length > 2) ? EnumSet.of(Scenario.of(args[2])) : EnumSet.allOf(Scenario.class))
+                if (s.appliesTo(kind))
+                    run(kind, entries, s);
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+}
@@ -0,0 +1,968 @@
+package test;
+
+import JDK8.HashMap;
+import JDK8.HashingStrategy;
+import test.HashMapRegressionTest.FixedKey;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static test.HashMapRegressionTest.check;
+import static test.HashMapRegressionTest.checkSameMappings;
+
+/*
+JDK8.HashMap 在 HashMap 之外增加的功能,逐项与 java.util.HashMap 执行相同的操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+每一项都要走到该功能特有的边界情况,例如渐进式扩容要在旧表还没迁移完的时候查找和删除
+ */
+
+/**
+ * Differential checks of the features {@link JDK8.HashMap} adds to the
+ * JDK map, each against <tt>java.util.HashMap</tt> and each driven into
+ * the edge case of its feature. Run {@link #main}; a failed check throws
+ * an <tt>AssertionError</tt>.
+ */
+public class HashMapFeatureTest
+{
+    /**
+     * Runs count random operations over keys on m and on a reference map
+     * holding the same mappings, comparing each result, and the whole
+     * maps every 4096 operations and at the end.
+     */
+    static <K> void randomOps(HashMap<K, Integer> m, Map<K, Integer> expected, List<K> keys,
+                              int count, Random r, String what)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            K k = keys.get(r.nextInt(keys.size()));
+            Integer v = r.nextInt(1000);
+            int op = r.nextInt(12);
+            switch (op)
+            {
+                case 0:
+                case 1:
+                case 2:
+                    check(Objects.equals(m.put(k, v), expected.put(k, v)), what + ": put " + k);
+                    break;
+                case 3:
+                case 4:
+                    check(Objects.equals(m.remove(k), expected.remove(k)), what + ": remove " + k);
+                    break;
+                case 5:
+                    check(Objects.equals(m.putIfAbsent(k, v), expected.putIfAbsent(k, v)),
+                            what + ": putIfAbsent " + k);
+                    break;
+                case 6:
+                    check(Objects.equals(m.merge(k, v, Integer::sum), expected.merge(k, v, Integer::sum)),
+                            what + ": merge " + k);
+                    break;
+                case 7:
+                    check(Objects.equals(m.computeIfPresent(k, (a, b) -> (b > 500) ? null : b + 1),
+                            expected.computeIfPresent(k, (a, b) -> (b > 500) ? null : b + 1)),
+                            what + ": computeIfPresent " + k);
+                    break;
+                case 8:
+                    check(Objects.equals(m.computeIfAbsent(k, a -> 7), expected.computeIfAbsent(k, a -> 7)),
+                            what + ": computeIfAbsent " + k);
+                    break;
+                case 9:
+                    check(m.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                    break;
+                default:
+                    check(Objects.equals(m.get(k), expected.get(k)), what + ": get " + k);
+            }
+            check(m.size() == expected.size(), what + ": size after op " + op + " on " + k);
+            if ((i & 4095) == 4095)
+                checkSameMappings(m, expected, what);
+        }
+        checkSameMappings(m, expected, what);
+    }
+
+    static List<Integer> randomIntegers(Random r, int count)
+    {
+        Set<Integer> keys = new LinkedHashSet<Integer>();
+        while (keys.size() < count)
+            keys.add(r.nextInt());
+        return new ArrayList<Integer>(keys);
+    }
+
+    static Field field(String name)
+    {
+        try
+        {
+            Field f = HashMap.class.getDeclaredField(name);
+            f.setAccessible(true);
+            return f;
+        }
+        catch (NoSuchFieldException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static final Field OLD_TABLE = field("oldTable");
+
+    /**
+     * Returns whether m is in the middle of an incremental resize, so
+     * that a check can assert it really ran against two tables.
+     */
+    static boolean resizePending(HashMap<?, ?> m)
+    {
+        try
+        {
+            return OLD_TABLE.get(m) != null;
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static final Field TABLE = field("table");
+
+    /**
+     * Returns the length of the table of m, or 0 if it has none.
+     */
+    static int tableLength(HashMap<?, ?> m)
+    {
+        try
+        {
+            Object[] tab = (Object[]) TABLE.get(m);
+            return (tab == null) ? 0 : tab.length;
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Lookups and removals while an incremental resize is pending must
+     * find keys in whichever table holds their bin.
+     */
+    static void incrementalResize()
+    {
+        Random r = new Random(3);
+        List<Integer> keys = randomIntegers(r, 20000);
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+        m.setIncrementalResize(true);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+        int pending = 0;
+        for (int i = 0; i < 12000; i++)
+        {
+            Integer k = keys.get(i);
+            check(Objects.equals(m.put(k, i), expected.put(k, i)), "put " + k);
+            if (!resizePending(m))
+                continue;
+            //旧表还没迁移完:查找命中的键,未命中的键,再删除一个已有的键
+            ++pending;
+            Integer hit = keys.get(r.nextInt(i + 1)), miss = keys.get(12000 + r.nextInt(8000));
+            check(Objects.equals(m.get(hit), expected.get(hit)), "get " + hit + " during a resize");
+            check(m.get(miss) == null && !m.containsKey(miss), "absent key " + miss + " during a resize");
+            if ((i & 3) == 0)
+            {
+                Integer gone = keys.get(r.nextInt(i + 1));
+                check(Objects.equals(m.remove(gone), expected.remove(gone)), "remove " + gone + " during a resize");
+                check(!m.containsKey(gone), "removed key " + gone + " still present");
+            }
+            check(m.size() == expected.size(), "size during a resize");
+        }
+        check(pending > 100, "only " + pending + " operations saw a pending resize");
+        checkSameMappings(m, expected, "after incremental growth");
+        randomOps(m, expected, keys, 100000, r, "incremental resize");
+
+        //putAll 和 clear 在迁移途中
+        HashMap<Integer, Integer> n = new HashMap<Integer, Integer>();
+        n.setIncrementalResize(true);
+        for (int i = 0; i < 1537; i++)
+            n.put(keys.get(i), i);
+        check(resizePending(n), "no resize pending after crossing the threshold");
+        n.clear();
+        check(n.isEmpty() && n.get(keys.get(0)) == null, "clear during a resize");
+        n.putAll(expected);
+        checkSameMappings(n, expected, "putAll after clear during a resize");
+    }
+
+    /**
+     * Returns count keys whose hash codes fall into few distinct values
+     * and bins, so that long bins form at every capacity.
+     */
+    static List<FixedKey> clusteredKeys(Random r, int count)
+    {
+        List<FixedKey> keys = new ArrayList<FixedKey>(count);
+        for (int i = 0; i < count; i++)
+            keys.add(new FixedKey(i, (r.nextInt(4) << 16) | r.nextInt(8)));
+        return keys;
+    }
+
+    /**
+     * Array bins under random operations, with bins split by resizes and
+     * shrinking back to chains, and nodes removed through an iterator,
+     * which must not replace the head of a bin.
+     */
+    static void arrayBins()
+    {
+        Random r = new Random(16);
+        List<FixedKey> keys = clusteredKeys(r, 600);
+        HashMap<FixedKey, Integer> m = new HashMap<FixedKey, Integer>();
+        m.setFloodProtection(false);
+        m.setArrayBins(true);
+        java.util.HashMap<FixedKey, Integer> expected = new java.util.HashMap<FixedKey, Integer>();
+        randomOps(m, expected, keys, 60000, r, "array bins");
+        check(m.statistics().treeBinCount() > 0, "no array bins formed");
+
+        //迭代器删除:头节点不能被替换,桶退化为普通链表
+        Iterator<Map.Entry<FixedKey, Integer>> it = m.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<FixedKey, Integer> e = it.next();
+            if ((e.getKey().id % 3) == 0)
+            {
+                it.remove();
+                expected.remove(e.getKey());
+            }
+        }
+        checkSameMappings(m, expected, "array bins after iterator removal");
+        randomOps(m, expected, keys, 20000, r, "array bins after iterator removal");
+
+        //关闭再打开 ArrayBin,已有的桶要转换
+        m.setArrayBins(false);
+        checkSameMappings(m, expected, "array bins turned into tree bins");
+        m.setArrayBins(true);
+        checkSameMappings(m, expected, "tree bins turned into array bins");
+
+        //有 HashingStrategy 时不树化,但可以用 ArrayBin
+        HashMap<FixedKey, Integer> s = new HashMap<FixedKey, Integer>(16, 0.75f,
+                HashingStrategy.<FixedKey>murmur3());
+        s.setArrayBins(true);
+        java.util.HashMap<FixedKey, Integer> sExpected = new java.util.HashMap<FixedKey, Integer>();
+        randomOps(s, sExpected, keys, 40000, r, "array bins with a strategy");
+        check(s.statistics().treeBinCount() > 0, "no array bins formed with a strategy");
+    }
+
+    /**
+     * Removals shrink the table once the map falls below the shrink load,
+     * and not before; iterator removals leave the table to the next
+     * removal, and the map keeps working as it grows again.
+     */
+    static void shrink()
+    {
+        Random r = new Random(18);
+        List<Integer> keys = randomIntegers(r, 10000);
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+        m.setShrinkLoad(0.1f);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            m.put(keys.get(i), i);
+            expected.put(keys.get(i), i);
+        }
+        int shrinks = 0, cap = tableLength(m);
+        for (int i = 0; i < keys.size(); i++)
+        {
+            Integer k = keys.get(i);
+            check(Objects.equals(m.remove(k), expected.remove(k)), "remove " + k);
+            int n = tableLength(m), s = m.size();
+            if (n < cap)
+            {
+                //刚好跌破低水位才收缩,收缩后的表不超过半满
+                check(s < (int) (cap * 0.1f), "shrank at size " + s + " from " + cap);
+                check(n >= 16 && s <= n * 0.75f / 2, "shrank to " + n + " at size " + s);
+                ++shrinks;
+                cap = n;
+            }
+            else
+                check(n == cap && (n == 16 || s >= (int) (n * 0.1f)),
+                        "table of " + n + " not shrunk at size " + s);
+            if ((i & 1023) == 0)
+                checkSameMappings(m, expected, "shrinking, " + s + " left");
+        }
+        check(shrinks >= 5 && tableLength(m) == 16, shrinks + " shrinks, table of " + tableLength(m));
+
+        //迭代器删除不收缩,下一次删除才收缩
+        for (int i = 0; i < 4000; i++)
+        {
+            m.put(keys.get(i), i);
+            expected.put(keys.get(i), i);
+        }
+        cap = tableLength(m);
+        Iterator<Integer> it = m.keySet().iterator();
+        while (m.size() > 100)
+        {
+            expected.remove(it.next());
+            it.remove();
+        }
+        check(tableLength(m) == cap, "iterator removal shrank the table");
+        Integer last = m.keySet().iterator().next();
+        m.remove(last);
+        expected.remove(last);
+        check(tableLength(m) < cap, "removal after iterator removal did not shrink");
+        checkSameMappings(m, expected, "after iterator removal");
+
+        //收缩之后再增长,以及和渐进式扩容一起使用
+        m.setIncrementalResize(true);
+        randomOps(m, expected, keys, 100000, r, "shrink with incremental resize");
+        m.clear();
+        check(tableLength(m) == 0, "clear kept a table of " + tableLength(m));
+        expected.clear();
+        randomOps(m, expected, keys, 20000, r, "after clear");
+
+        try
+        {
+            m.setShrinkLoad(0.75f / 4 + 0.01f);
+            check(false, "shrink load above a quarter of the load factor accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    /**
+     * Checks that every key of expected is found in m and that none of
+     * the absent keys is, through get, containsKey and getAll.
+     */
+    static void checkLookups(HashMap<Integer, Integer> m, Map<Integer, Integer> expected,
+                             List<Integer> absent, String what)
+    {
+        checkSameMappings(m, expected, what);
+        for (Integer k : absent)
+            check(m.get(k) == null && !m.containsKey(k), what + ": absent key " + k + " found");
+        Integer[] ks = expected.keySet().toArray(new Integer[0]), out = new Integer[ks.length];
+        check(m.getAll(ks, out) == ks.length, what + ": getAll missed a key");
+    }
+
+    /**
+     * A Bloom filter must never turn away a present key: not after a key
+     * is removed and added again, before or after the filter is rebuilt,
+     * and not for keys inserted by any of the insertion paths.
+     */
+    static void bloomFilter()
+    {
+        Random r = new Random(20);
+        List<Integer> keys = randomIntegers(r, 80000);
+        List<Integer> absent = keys.subList(70000, 80000);
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+        m.setBloomFilter(10);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+        randomOps(m, expected, keys.subList(0, 20000), 100000, r, "bloom filter");
+
+        //删除后重新插入:删除不清除位,重建过滤器之后插入的键也要置位
+        List<Integer> present = new ArrayList<Integer>(expected.keySet());
+        for (int round = 0; round < 3; round++)
+        {
+            for (int i = 0; i < present.size(); i += 2)
+            {
+                Integer k = present.get(i);
+                check(Objects.equals(m.remove(k), expected.remove(k)), "remove " + k);
+                check(m.get(k) == null && !m.containsKey(k), "removed key " + k + " found");
+            }
+            checkLookups(m, expected, absent, "bloom filter after removals");
+            for (int i = 0; i < present.size(); i += 2)
+            {
+                Integer k = present.get(i);
+                m.put(k, round);
+                expected.put(k, round);
+                check(m.get(k) == round, "re-added key " + k + " missed");
+            }
+            checkLookups(m, expected, absent, "bloom filter after re-adding");
+        }
+
+        //各条插入路径都要把键加入过滤器
+        for (int i = 20000; i < 21000; i++)
+        {
+            Integer k = keys.get(i);
+            switch (i & 3)
+            {
+                case 0:
+                    m.computeIfAbsent(k, a -> 1);
+                    expected.put(k, 1);
+                    break;
+                case 1:
+                    m.compute(k, (a, b) -> 2);
+                    expected.put(k, 2);
+                    break;
+                case 2:
+                    m.merge(k, 3, Integer::sum);
+                    expected.put(k, 3);
+                    break;
+                default:
+                    m.entry(k).orInsert(4);
+                    expected.put(k, 4);
+            }
+            check(m.containsKey(k), "key " + k + " inserted by path " + (i & 3) + " missed");
+        }
+        checkLookups(m, expected, absent, "bloom filter, insertion paths");
+        @SuppressWarnings("unchecked")
+        HashMap<Integer, Integer> copy = (HashMap<Integer, Integer>) m.clone();
+        checkLookups(copy, expected, absent, "clone of a filtered map");
+
+        //大的 putAll 走 bulk 路径
+        Map<Integer, Integer> source = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < 70000; i++)
+            source.put(keys.get(i), -i);
+        HashMap<Integer, Integer> bulk = new HashMap<Integer, Integer>();
+        bulk.setBloomFilter(10);
+        bulk.put(keys.get(0), 0);
+        bulk.putAll(source);
+        checkLookups(bulk, source, absent, "bloom filter after a bulk putAll");
+
+        //已有映射的 map 打开过滤器,收缩和渐进式扩容都会重建过滤器
+        HashMap<Integer, Integer> late = new HashMap<Integer, Integer>(source);
+        late.setBloomFilter(4);
+        late.setShrinkLoad(0.1f);
+        late.setIncrementalResize(true);
+        java.util.HashMap<Integer, Integer> lateExpected = new java.util.HashMap<Integer, Integer>(source);
+        for (int i = 0; i < 69000; i++)
+        {
+            late.remove(keys.get(i));
+            lateExpected.remove(keys.get(i));
+        }
+        checkLookups(late, lateExpected, absent, "bloom filter after shrinking");
+        randomOps(late, lateExpected, keys.subList(0, 70000), 100000, r, "bloom filter with shrink and incremental resize");
+        checkLookups(late, lateExpected, absent, "bloom filter after growing");
+    }
+
+    /**
+     * Compares getAll and containsAllKeys on m with one get per key of
+     * the reference, for batches of lookups drawn from keys.
+     */
+    static <K> void checkBatchLookups(HashMap<K, Integer> m, Map<K, Integer> expected, List<K> keys,
+                                      Random r, String what)
+    {
+        for (int round = 0; round < 200; round++)
+        {
+            //长度跨过 BATCH_LOOKUP_SIZE 的整数倍,键可以重复
+            int n = r.nextInt(200);
+            @SuppressWarnings("unchecked")
+            K[] ks = (K[]) new Object[n];
+            Integer[] out = new Integer[n + 3];
+            Arrays.fill(out, -1);
+            int found = 0;
+            boolean all = true;
+            for (int i = 0; i < n; i++)
+            {
+                ks[i] = keys.get(r.nextInt(keys.size()));
+                if (expected.containsKey(ks[i]))
+                    ++found;
+                else
+                    all = false;
+            }
+            check(m.getAll(ks, out) == found, what + ": getAll count");
+            for (int i = 0; i < n; i++)
+                check(Objects.equals(out[i], expected.get(ks[i])), what + ": getAll of " + ks[i]);
+            check(out[n] == -1, what + ": getAll wrote past the keys");
+            check(m.containsAllKeys((Object[]) ks) == all, what + ": containsAllKeys");
+        }
+    }
+
+    /**
+     * getAll and containsAllKeys over plain, tree and array bins, the null
+     * key, and a table in the middle of an incremental resize.
+     */
+    static void batchLookups()
+    {
+        Random r = new Random(15);
+        List<Integer> ints = randomIntegers(r, 40000);
+        ints.add(null);
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < 20000; i++)
+        {
+            m.put(ints.get(i), i);
+            expected.put(ints.get(i), i);
+        }
+        m.put(null, -1);
+        expected.put(null, -1);
+        checkBatchLookups(m, expected, ints, r, "plain bins");
+
+        //渐进式扩容迁移到一半时批量查找
+        m.setIncrementalResize(true);
+        int i = 20000;
+        while (!resizePending(m))
+        {
+            m.put(ints.get(i), i);
+            expected.put(ints.get(i), i++);
+        }
+        checkBatchLookups(m, expected, ints, r, "pending resize");
+        check(resizePending(m), "batch lookups finished the resize");
+
+        //碰撞的 String:关闭冲突检测后形成红黑树,打开 ArrayBin 后形成数组桶
+        List<String> strings = new ArrayList<String>(HashMapRegressionTest.collidingStrings(300));
+        for (int j = 0; j < 300; j++)
+            strings.add("s" + j);
+        for (boolean arrays : new boolean[]{false, true})
+        {
+            HashMap<String, Integer> t = new HashMap<String, Integer>();
+            t.setFloodProtection(false);
+            t.setArrayBins(arrays);
+            java.util.HashMap<String, Integer> tExpected = new java.util.HashMap<String, Integer>();
+            for (int j = 0; j < strings.size(); j += 2)
+            {
+                t.put(strings.get(j), j);
+                tExpected.put(strings.get(j), j);
+            }
+            check(t.statistics().treeBinCount() > 0, "no long bin formed");
+            checkBatchLookups(t, tExpected, strings, r, arrays ? "array bins" : "tree bins");
+        }
+
+        //访问顺序的 LinkedHashMap:getAll 和 get 一样移动命中的节点
+        JDK8.LinkedHashMap<Integer, Integer> lru = new JDK8.LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+        java.util.LinkedHashMap<Integer, Integer> lruExpected =
+                new java.util.LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+        for (int j = 0; j < 500; j++)
+        {
+            lru.put(ints.get(j), j);
+            lruExpected.put(ints.get(j), j);
+        }
+        Integer[] ks = new Integer[100], out = new Integer[100];
+        for (int j = 0; j < 100; j++)
+        {
+            ks[j] = ints.get(r.nextInt(1000));
+            lruExpected.get(ks[j]);
+        }
+        lru.getAll(ks, out);
+        check(new ArrayList<Integer>(lru.keySet()).equals(new ArrayList<Integer>(lruExpected.keySet())),
+                "getAll did not record accesses in order");
+
+        try
+        {
+            m.getAll(new Integer[3], new Integer[2]);
+            check(false, "getAll accepted a short output array");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    /**
+     * The occupancy histogram, chain lengths and probe counts must match
+     * a table laid out by hand, and the counters must count exactly the
+     * lookups, resizes and tree conversions that happened while enabled.
+     */
+    static void statistics()
+    {
+        //hash 小于 2^16 时扰动不改变它,桶的下标就是 hash & 63,链表按插入顺序排列
+        HashMap<FixedKey, Integer> m = new HashMap<FixedKey, Integer>(64);
+        m.setFloodProtection(false);
+        java.util.HashMap<FixedKey, Integer> expected = new java.util.HashMap<FixedKey, Integer>();
+        int[] chain = new int[64];
+        List<FixedKey> keys = new ArrayList<FixedKey>();
+        long hitProbes = 0;
+        Random r = new Random(7);
+        for (int i = 0; i < 30; i++)
+        {
+            int bin = r.nextInt(16);
+            FixedKey k = new FixedKey(i, bin + 64 * chain[bin]);
+            keys.add(k);
+            m.put(k, i);
+            expected.put(k, i);
+            hitProbes += ++chain[bin];
+        }
+        long[] histogram = new long[HashMap.Statistics.HISTOGRAM_LENGTH];
+        int maxChain = 0;
+        for (int c : chain)
+        {
+            ++histogram[c];
+            maxChain = Math.max(maxChain, c);
+        }
+        HashMap.Statistics st = m.statistics();
+        check(st.capacity() == 64 && st.size() == 30, "capacity and size: " + st);
+        check(Arrays.equals(st.occupancyHistogram(), histogram), "histogram: " + st);
+        check(st.maxChainLength() == maxChain && st.treeBinCount() == 0, "chains: " + st);
+        check(st.lookupCount() == 0 && st.resizeCount() == 0, "counters while disabled: " + st);
+
+        //命中的探测长度是键在链表中的位置,未命中是整条链表的长度
+        m.enableStatistics();
+        for (FixedKey k : keys)
+            check(m.get(k) != null, "lookup of " + k);
+        long missProbes = 0;
+        for (int bin = 0; bin < 64; bin++)
+        {
+            check(m.get(new FixedKey(-1 - bin, bin + 64 * 1000)) == null, "absent key found");
+            missProbes += chain[bin];
+        }
+        st = m.statistics();
+        double probes = (double) (hitProbes + missProbes) / (30 + 64);
+        check(st.lookupCount() == 30 + 64, "lookup count: " + st);
+        check(Math.abs(st.averageProbeLength() - probes) < 1e-9,
+                "probe length " + st.averageProbeLength() + ", expected " + probes);
+
+        //一个桶超过 TREEIFY_THRESHOLD 时树化,删到只剩一个节点时反树化
+        List<FixedKey> bin = new ArrayList<FixedKey>();
+        for (int i = 0; i < 10; i++)
+        {
+            FixedKey k = new FixedKey(100 + i, 40 + 64 * i);
+            bin.add(k);
+            m.put(k, i);
+            expected.put(k, i);
+        }
+        st = m.statistics();
+        check(st.treeifyCount() == 1 && st.treeBinCount() == 1 && st.resizeCount() == 0, "treeify: " + st);
+        for (int i = 1; i < bin.size(); i++)
+        {
+            m.remove(bin.get(i));
+            expected.remove(bin.get(i));
+        }
+        st = m.statistics();
+        check(st.untreeifyCount() == 1 && st.treeBinCount() == 0, "untreeify: " + st);
+        checkSameMappings(m, expected, "statistics");
+
+        //从空表开始插入 1000 个键:分配 16 到 2048 共 8 次
+        HashMap<Integer, Integer> g = new HashMap<Integer, Integer>();
+        g.enableStatistics();
+        for (int i = 0; i < 1000; i++)
+            g.put(i, i);
+        st = g.statistics();
+        check(st.resizeCount() == 8 && st.capacity() == 2048 && st.resizeNanos() > 0, "resizes: " + st);
+
+        //克隆单独计数,关闭后计数器清零
+        @SuppressWarnings("unchecked")
+        HashMap<Integer, Integer> c = (HashMap<Integer, Integer>) g.clone();
+        c.get(1);
+        check(c.statistics().lookupCount() == 1 && g.statistics().lookupCount() == 0, "clone shares counters");
+        g.disableStatistics();
+        g.get(1);
+        check(!g.isStatisticsEnabled() && g.statistics().lookupCount() == 0, "counting while disabled");
+    }
+
+    /**
+     * An IdentityHashMap that compares values with equals in
+     * Map.equals, as every other reference map does; IdentityHashMap
+     * itself compares values by identity there too.
+     */
+    static final class IdentityKeyMap<K, V> extends AbstractMap<K, V>
+    {
+        final IdentityHashMap<K, V> map = new IdentityHashMap<K, V>();
+
+        public V get(Object key)
+        {
+            return map.get(key);
+        }
+
+        public boolean containsKey(Object key)
+        {
+            return map.containsKey(key);
+        }
+
+        public V put(K key, V value)
+        {
+            return map.put(key, value);
+        }
+
+        public V remove(Object key)
+        {
+            return map.remove(key);
+        }
+
+        public Set<Map.Entry<K, V>> entrySet()
+        {
+            return map.entrySet();
+        }
+    }
+
+    /**
+     * A map with a HashingStrategy must behave like a map whose equality
+     * is that of the strategy: TreeMap with the same order for a
+     * case-insensitive strategy, an IdentityHashMap for the identity one.
+     */
+    static void hashingStrategies()
+    {
+        Random r = new Random(8);
+        //同一个单词的多种大小写形式
+        List<String> words = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++)
+        {
+            char[] w = Long.toString(r.nextInt(1000) + 1000L, 36).toCharArray();
+            for (int j = 0; j < w.length; j++)
+                if (r.nextBoolean())
+                    w[j] = Character.toUpperCase(w[j]);
+            words.add(new String(w));
+        }
+        HashingStrategy<String> caseInsensitive = HashingStrategy.of(
+                w -> w.toLowerCase(Locale.ROOT).hashCode(), String::equalsIgnoreCase);
+        HashMap<String, Integer> ci = new HashMap<String, Integer>(caseInsensitive);
+        TreeMap<String, Integer> ciExpected = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        randomOps(ci, ciExpected, words, 60000, r, "case-insensitive strategy");
+        check(ci.hashingStrategy() == caseInsensitive, "hashingStrategy()");
+        @SuppressWarnings("unchecked")
+        HashMap<String, Integer> ciCopy = (HashMap<String, Integer>) ci.clone();
+        check(ciCopy.hashingStrategy() == caseInsensitive, "clone dropped the strategy");
+        checkSameMappings(ciCopy, ciExpected, "clone of a case-insensitive map");
+
+        //equals 相等但不是同一个对象的键,加上 null 键
+        List<String> distinct = new ArrayList<String>();
+        for (int i = 0; i < 500; i++)
+        {
+            distinct.add(new String("k" + (i % 100)));
+            distinct.add(null);
+        }
+        HashMap<String, Integer> id = new HashMap<String, Integer>(HashingStrategy.<String>identity());
+        IdentityKeyMap<String, Integer> idExpected = new IdentityKeyMap<String, Integer>();
+        randomOps(id, idExpected, distinct, 40000, r, "identity strategy");
+        check(id.get(new String("k1")) == null, "identity map found an equal key");
+
+        //所有键 hash 相同的策略:有 strategy 时不树化,长链表和 ArrayBin 都要正确
+        List<Integer> ints = randomIntegers(r, 300);
+        for (boolean arrays : new boolean[]{false, true})
+        {
+            HashMap<Integer, Integer> flat = new HashMap<Integer, Integer>(HashingStrategy.<Integer>of(k -> 42));
+            flat.setArrayBins(arrays);
+            randomOps(flat, new java.util.HashMap<Integer, Integer>(), ints, 20000, r,
+                    arrays ? "constant hash, array bins" : "constant hash");
+        }
+        HashMap<Integer, Integer> mixed = new HashMap<Integer, Integer>(HashingStrategy.<Integer>murmur3());
+        randomOps(mixed, new java.util.HashMap<Integer, Integer>(), randomIntegers(r, 20000), 100000, r,
+                "murmur3 strategy");
+    }
+
+    /**
+     * Checks the parallel bulk operations on m against the mappings of
+     * expected, at parallelism thresholds that run sequentially, split
+     * once and split as far as the pool allows.
+     */
+    static void checkBulkOperations(HashMap<Integer, Integer> m, Map<Integer, Integer> expected, String what)
+    {
+        long sum = 0;
+        for (Map.Entry<Integer, Integer> e : expected.entrySet())
+            sum += (long) e.getKey() * 31 + e.getValue();
+        Integer target = expected.isEmpty() ? null : expected.keySet().iterator().next();
+        for (long threshold : new long[]{Long.MAX_VALUE, expected.size() / 2 + 1, 1})
+        {
+            String at = what + ", threshold " + threshold;
+            //每个映射恰好访问一次
+            ConcurrentHashMap<Integer, AtomicInteger> seen = new ConcurrentHashMap<Integer, AtomicInteger>();
+            m.forEach(threshold, (k, v) ->
+            {
+                check(Objects.equals(expected.get(k), v), at + ": forEach saw " + k + "=" + v);
+                seen.computeIfAbsent(k, x -> new AtomicInteger()).incrementAndGet();
+            });
+            check(seen.size() == expected.size(), at + ": forEach visited " + seen.size() + " keys");
+            for (AtomicInteger c : seen.values())
+                check(c.get() == 1, at + ": forEach visited a key twice");
+
+            check(m.reduceToLong(threshold, (k, v) -> (long) k * 31 + v, 0L, Long::sum) == sum,
+                    at + ": reduceToLong");
+            Long reduced = m.reduce(threshold, (k, v) -> (long) k * 31 + v, Long::sum);
+            check(expected.isEmpty() ? reduced == null : reduced == sum, at + ": reduce");
+            check(Objects.equals(m.search(threshold, (k, v) -> k.equals(target) ? v : null),
+                    (target == null) ? null : expected.get(target)), at + ": search");
+            check(m.search(threshold, (k, v) -> null) == null, at + ": search without a result");
+        }
+    }
+
+    /**
+     * The ForkJoin bulk operations must visit every mapping exactly once
+     * on sparse, dense and clustered tables, and must throw
+     * ConcurrentModificationException when the map is modified while
+     * they run.
+     */
+    static void bulkOperations()
+    {
+        Random r = new Random(14);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+        checkBulkOperations(m, expected, "empty map");
+        for (Integer k : randomIntegers(r, 50000))
+        {
+            m.put(k, k >>> 8);
+            expected.put(k, k >>> 8);
+        }
+        checkBulkOperations(m, expected, "random keys");
+
+        //稀疏的表:键集中在表的前一小段下标
+        HashMap<Integer, Integer> sparse = new HashMap<Integer, Integer>(1 << 18);
+        java.util.HashMap<Integer, Integer> sparseExpected = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < 5000; i++)
+        {
+            sparse.put(i, i);
+            sparseExpected.put(i, i);
+        }
+        checkBulkOperations(sparse, sparseExpected, "clustered indexes");
+
+        //长桶:有 strategy 时形成 ArrayBin,加上渐进式扩容迁移到一半的表
+        HashMap<Integer, Integer> trees = new HashMap<Integer, Integer>(HashingStrategy.<Integer>of(k -> k & ~0xFFF0));
+        trees.setFloodProtection(false);
+        trees.setArrayBins(true);
+        trees.setIncrementalResize(true);
+        java.util.HashMap<Integer, Integer> treesExpected = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < 20000 || !resizePending(trees); i++)
+        {
+            trees.put(i, -i);
+            treesExpected.put(i, -i);
+        }
+        check(trees.statistics().treeBinCount() > 0, "no array bins formed");
+        checkBulkOperations(trees, treesExpected, "long bins during a resize");
+
+        //操作期间修改 map
+        for (long threshold : new long[]{Long.MAX_VALUE, 1})
+        {
+            HashMap<Integer, Integer> target = new HashMap<Integer, Integer>(1 << 17);
+            for (int i = 0; i < 20000; i++)
+                target.put(i, i);
+            AtomicBoolean modified = new AtomicBoolean();
+            try
+            {
+                target.forEach(threshold, (k, v) ->
+                {
+                    if (modified.compareAndSet(false, true))
+                        target.put(-1, -1);
+                });
+                check(false, "forEach at threshold " + threshold + " missed a modification");
+            }
+            catch (ConcurrentModificationException e)
+            {
+            }
+            modified.set(false);
+            try
+            {
+                target.reduceToLong(threshold, (k, v) ->
+                {
+                    if (modified.compareAndSet(false, true))
+                        target.remove(-1);
+                    return v;
+                }, 0L, Long::sum);
+                check(false, "reduceToLong at threshold " + threshold + " missed a modification");
+            }
+            catch (ConcurrentModificationException e)
+            {
+            }
+        }
+    }
+
+    static final Field BIN_SIZE, NEXT;
+
+    static
+    {
+        try
+        {
+            BIN_SIZE = Class.forName("JDK8.HashMap$TreeNode").getDeclaredField("binSize");
+            NEXT = Class.forName("JDK8.HashMap$Node").getDeclaredField("next");
+            BIN_SIZE.setAccessible(true);
+            NEXT.setAccessible(true);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Checks that the first node of every tree bin of m records the
+     * number of nodes in its bin, and returns the number of tree bins.
+     */
+    static int checkTreeBinSizes(HashMap<?, ?> m, String what)
+    {
+        try
+        {
+            int trees = 0;
+            for (Field f : new Field[]{TABLE, OLD_TABLE})
+            {
+                Object[] tab = (Object[]) f.get(m);
+                if (tab == null)
+                    continue;
+                for (Object p : tab)
+                {
+                    if (p == null || p.getClass() != BIN_SIZE.getDeclaringClass())
+                        continue;
+                    int count = 0;
+                    for (Object e = p; e != null; e = NEXT.get(e))
+                        ++count;
+                    check(BIN_SIZE.getInt(p) == count,
+                            what + ": tree bin of " + count + " nodes records " + BIN_SIZE.getInt(p));
+                    ++trees;
+                }
+            }
+            return trees;
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the number of mappings each half of the first split of the
+     * entry spliterator of m covers.
+     */
+    static int[] firstSplit(HashMap<?, ?> m)
+    {
+        Spliterator<? extends Map.Entry<?, ?>> right = m.entrySet().spliterator();
+        Spliterator<? extends Map.Entry<?, ?>> left = right.trySplit();
+        check(left != null, "table not split");
+        int[] halves = new int[2];
+        left.forEachRemaining(e -> ++halves[0]);
+        right.forEachRemaining(e -> ++halves[1]);
+        return halves;
+    }
+
+    /**
+     * Spliterators split the table where both halves hold about the same
+     * number of mappings, counting the recorded size of tree and array
+     * bins, and tree bins keep their recorded size through inserts,
+     * removals, resizes and iterator removals.
+     */
+    static void balancedSplits()
+    {
+        Random r = new Random(14);
+        List<FixedKey> keys = clusteredKeys(r, 600);
+        HashMap<FixedKey, Integer> m = new HashMap<FixedKey, Integer>();
+        m.setFloodProtection(false);
+        java.util.HashMap<FixedKey, Integer> expected = new java.util.HashMap<FixedKey, Integer>();
+        int trees = 0;
+        for (int round = 0; round < 40; round++)
+        {
+            randomOps(m, expected, keys, 1000, r, "tree bin sizes");
+            trees += checkTreeBinSizes(m, "tree bin sizes, round " + round);
+            if (round % 10 == 9)
+            {
+                //迭代器删除不移动红黑树的根
+                for (Iterator<Map.Entry<FixedKey, Integer>> it = m.entrySet().iterator(); it.hasNext(); )
+                {
+                    FixedKey k = it.next().getKey();
+                    if (r.nextInt(3) == 0)
+                    {
+                        it.remove();
+                        expected.remove(k);
+                    }
+                }
+                checkTreeBinSizes(m, "tree bin sizes after iterator removals, round " + round);
+            }
+        }
+        check(trees > 0, "no tree bins formed");
+
+        //一个大桶在表的开头,其余的映射分散在整个表中:按非空桶数拆分会让前一半多出大桶的映射
+        for (boolean arrayBins : new boolean[]{false, true})
+        {
+            HashMap<FixedKey, Integer> skewed = new HashMap<FixedKey, Integer>(1 << 13);
+            skewed.setFloodProtection(false);
+            skewed.setArrayBins(arrayBins);
+            for (int i = 0; i < 2000; i++)
+                skewed.put(new FixedKey(i, 0), i);
+            for (int i = 0; i < 2000; i++)
+                skewed.put(new FixedKey(2000 + i, 64 + r.nextInt((1 << 13) - 64)), i);
+            check(skewed.statistics().treeBinCount() == 1, "no long bin formed");
+            int[] halves = firstSplit(skewed);
+            check(halves[0] + halves[1] == skewed.size(), "split lost mappings");
+            check(Math.abs(halves[0] - halves[1]) < skewed.size() / 8,
+                    (arrayBins ? "array" : "tree") + " bin split into " + halves[0] + " and " + halves[1]);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        incrementalResize();
+        arrayBins();
+        shrink();
+        bloomFilter();
+        batchLookups();
+        statistics();
+        hashingStrategies();
+        bulkOperations();
+        balancedSplits();
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,328 @@
+package test;
+
+import JDK8.Codec;
+import JDK8.HashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/*
+JDK8.HashMap 的回归检查,每个检查对应一个修过的问题
+直接运行 main,失败时抛出 AssertionError
+
+碰撞的键用 "Aa" 和 "BB" 拼接:两者的 hashCode 相同,拼接 n 段就得到 2^n 个 hashCode 相同的 String
+同一个桶里的链表超过 TREEIFY_THRESHOLD 时,HashMap 认为遇到了 hash 冲突攻击,换随机种子重新散列
+ */
+
+/**
+ * Regression checks for {@link JDK8.HashMap}. Run {@link #main}; a failed
+ * check throws an <tt>AssertionError</tt>.
+ */
+public class HashMapRegressionTest
+{
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * Returns count distinct Strings that all have the same hashCode.
+     */
+    static List<String> collidingStrings(int count)
+    {
+        int segments = 32 - Integer.numberOfLeadingZeros(Math.max(count - 1, 1));
+        List<String> keys = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++)
+        {
+            StringBuilder sb = new StringBuilder(segments * 2);
+            for (int b = 0; b < segments; b++)
+                sb.append(((i >>> b) & 1) == 0 ? "Aa" : "BB");
+            keys.add(sb.toString());
+        }
+        return keys;
+    }
+
+    /**
+     * An entry handle whose insert triggers the hash flood reseed must
+     * locate its key with the new seed afterwards.
+     */
+    static void entryHandleAcrossReseed()
+    {
+        List<String> keys = collidingStrings(16);
+        //容量至少为 MIN_TREEIFY_CAPACITY,第 9 个碰撞的键才会走到 treeifyBin 并换种子
+        HashMap<String, Integer> m = new HashMap<String, Integer>(64);
+        for (int i = 0; i < keys.size(); i++)
+        {
+            String k = keys.get(i);
+            HashMap.EntryHandle<String, Integer> h = m.entry(k);
+            check(!h.isPresent(), "new key present: " + k);
+            check(h.orInsert(i) == i, "orInsert value");
+            check(h.isPresent(), "handle lost its key after insert #" + i);
+            check(h.set(i + 100) == i, "set after orInsert");
+            check(m.size() == i + 1, "size " + m.size() + " after " + (i + 1) + " keys");
+            check(m.get(k) == i + 100, "get after set");
+            check(h.remove() == i + 100 && m.size() == i, "remove through handle");
+            h.set(i);
+        }
+        for (int i = 0; i < keys.size(); i++)
+            check(m.entry(keys.get(i)).get() == i, "lookup through a new handle");
+    }
+
+    /**
+     * Compares a JDK8.HashMap with a java.util.HashMap holding the same
+     * mappings: size, every key of the reference and both equals.
+     */
+    static <K, V> void checkSameMappings(HashMap<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        int missing = 0;
+        for (Map.Entry<K, V> e : expected.entrySet())
+            if (!m.containsKey(e.getKey()) || !Objects.equals(m.get(e.getKey()), e.getValue()))
+                ++missing;
+        check(missing == 0, what + ": " + missing + " keys unreachable or wrong");
+        check(m.equals(expected) && expected.equals(m), what + ": maps not equal");
+    }
+
+    /**
+     * putAll of a large map takes the bulk path with precomputed hashes.
+     * A flood of colliding keys in the source makes putVal reseed midway,
+     * and the keys inserted after the reseed must still be reachable.
+     */
+    static void bulkPutAllAcrossReseed()
+    {
+        Random r = new Random(6);
+        List<String> colliding = collidingStrings(1 << 12);
+        //LinkedHashMap 固定了源的迭代顺序,碰撞的键分散在普通键中间
+        Map<String, Integer> source = new LinkedHashMap<String, Integer>();
+        for (int i = 0; source.size() < 70000; i++)
+        {
+            source.put(Long.toString(r.nextLong(), 36), i);
+            if ((i & 15) == 0 && i / 16 < colliding.size())
+                source.put(colliding.get(i / 16), -i);
+        }
+        for (String k : colliding)
+            source.put(k, k.length());
+
+        java.util.HashMap<String, Integer> expected = new java.util.HashMap<String, Integer>(source);
+        HashMap<String, Integer> m = new HashMap<String, Integer>();
+        m.putAll(source);
+        checkSameMappings(m, expected, "putAll into an empty map");
+
+        //目标 map 中已有部分键(包括碰撞的键)时,bulk 路径要覆盖旧值
+        HashMap<String, Integer> pre = new HashMap<String, Integer>();
+        java.util.HashMap<String, Integer> preExpected = new java.util.HashMap<String, Integer>();
+        for (int i = 0; i < colliding.size(); i += 3)
+        {
+            pre.put(colliding.get(i), i);
+            preExpected.put(colliding.get(i), i);
+        }
+        for (int i = 0; i < 1000; i++)
+        {
+            String k = "pre" + i;
+            pre.put(k, i);
+            preExpected.put(k, i);
+        }
+        pre.putAll(source);
+        preExpected.putAll(source);
+        checkSameMappings(pre, preExpected, "putAll into a non-empty map");
+
+        //只有普通键,不会换种子
+        Map<Integer, Integer> ints = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < 100000; i++)
+            ints.put(r.nextInt(), i);
+        HashMap<Integer, Integer> mi = new HashMap<Integer, Integer>();
+        mi.putAll(ints);
+        checkSameMappings(mi, ints, "putAll of Integer keys");
+    }
+
+    /**
+     * A key whose hash code depends on the JVM it runs in, standing in
+     * for identity-hashed keys; salt plays the role of the JVM. Keys with
+     * a negative id stand for value-based keys and ignore the salt.
+     */
+    static final class JvmKey
+    {
+        static int salt;
+
+        final int id;
+
+        JvmKey(int id)
+        {
+            this.id = id;
+        }
+
+        public int hashCode()
+        {
+            return (id < 0) ? id * 31 : id * 31 ^ salt;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof JvmKey && ((JvmKey) o).id == id;
+        }
+    }
+
+    static final Codec<JvmKey> JVM_KEY_CODEC = new Codec<JvmKey>()
+    {
+        public byte[] encode(JvmKey value)
+        {
+            return ByteBuffer.allocate(4).putInt(value.id).array();
+        }
+
+        public JvmKey decode(ByteBuffer buf)
+        {
+            return new JvmKey(buf.getInt());
+        }
+    };
+
+    /**
+     * readCompact must not reuse recorded hashes that the reading JVM's
+     * hashCode no longer produces.
+     */
+    static void readCompactWithChangedHashCodes() throws IOException
+    {
+        HashMap<JvmKey, Integer> m = new HashMap<JvmKey, Integer>();
+        for (int i = 0; i < 5000; i++)
+            m.put(new JvmKey(i), i);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        m.writeCompact(out, JVM_KEY_CODEC, Codec.<Integer>serialized());
+
+        HashMap<JvmKey, Integer> same = HashMap.readCompact(new ByteArrayInputStream(out.toByteArray()),
+                JVM_KEY_CODEC, Codec.<Integer>serialized());
+        check(same.equals(m), "readCompact with unchanged hash codes");
+
+        JvmKey.salt = 0x5bd1e995;
+        HashMap<JvmKey, Integer> moved = HashMap.readCompact(new ByteArrayInputStream(out.toByteArray()),
+                JVM_KEY_CODEC, Codec.<Integer>serialized());
+        check(moved.size() == 5000, "readCompact size");
+        for (int i = 0; i < 5000; i++)
+            check(moved.get(new JvmKey(i)) == i, "key " + i + " unreachable after readCompact");
+        JvmKey.salt = 0;
+    }
+
+    /**
+     * readCompact must check every recorded hash, not only the first, on
+     * a stream mixing keys with stable and JVM-dependent hash codes.
+     */
+    static void readCompactWithMixedHashCodes() throws IOException
+    {
+        HashMap<JvmKey, Integer> m = new HashMap<JvmKey, Integer>(1 << 12);
+        java.util.HashMap<JvmKey, Integer> expected = new java.util.HashMap<JvmKey, Integer>();
+        for (int i = 0; i < 3000; i++)
+        {
+            //每 10 个键中有一个的 hashCode 依赖 JVM
+            JvmKey k = new JvmKey((i % 10 == 9) ? i : -1 - i);
+            m.put(k, i);
+            expected.put(k, i);
+        }
+        check(m.keySet().iterator().next().id < 0, "first key in table order not stable");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        m.writeCompact(out, JVM_KEY_CODEC, Codec.<Integer>serialized());
+
+        JvmKey.salt = 0x5bd1e995;
+        try
+        {
+            //参照 map 也要用新的 hashCode 重建
+            expected = new java.util.HashMap<JvmKey, Integer>(expected);
+            HashMap<JvmKey, Integer> read = HashMap.readCompact(new ByteArrayInputStream(out.toByteArray()),
+                    JVM_KEY_CODEC, Codec.<Integer>serialized());
+            checkSameMappings(read, expected, "readCompact of mixed hash codes");
+            //之后的修改也要找得到原来的键
+            for (int i = 0; i < 3000; i += 3)
+            {
+                JvmKey k = new JvmKey((i % 10 == 9) ? i : -1 - i);
+                check(Objects.equals(read.remove(k), expected.remove(k)), "remove " + k.id + " after readCompact");
+                JvmKey added = new JvmKey(10000 + i);
+                read.put(added, i);
+                expected.put(added, i);
+            }
+            checkSameMappings(read, expected, "changes after readCompact of mixed hash codes");
+        }
+        finally
+        {
+            JvmKey.salt = 0;
+        }
+    }
+
+    /**
+     * A key with a chosen hash code that is not Comparable.
+     */
+    static final class FixedKey
+    {
+        final int id;
+        final int hash;
+
+        FixedKey(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof FixedKey && ((FixedKey) o).id == id;
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    /**
+     * Removing the head of an array bin must leave an array bin while
+     * the bin is longer than UNTREEIFY_THRESHOLD, and a plain chain after.
+     */
+    static void arrayBinHeadRemoval()
+    {
+        HashMap<FixedKey, Integer> m = new HashMap<FixedKey, Integer>(64);
+        m.setFloodProtection(false);
+        m.setArrayBins(true);
+        java.util.HashMap<FixedKey, Integer> expected = new java.util.HashMap<FixedKey, Integer>();
+        List<FixedKey> bin = new ArrayList<FixedKey>();
+        for (int i = 0; i < 40; i++)
+        {
+            //一半的键 hash 相同,另一半落在同一个桶但 hash 不同
+            FixedKey k = new FixedKey(i, ((i & 1) == 0) ? 5 : 5 + (i << 10));
+            bin.add(k);
+            m.put(k, i);
+            expected.put(k, i);
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            m.put(new FixedKey(1000 + i, i + 100), i);
+            expected.put(new FixedKey(1000 + i, i + 100), i);
+        }
+        check(m.statistics().treeBinCount() == 1, "colliding bin not an array bin");
+        //头节点是最先插入的键,ArrayBin 把新节点接在头节点之后
+        for (int i = 0; i < bin.size(); i++)
+        {
+            FixedKey k = bin.get(i);
+            check(Objects.equals(m.remove(k), expected.remove(k)), "remove head " + k);
+            int left = bin.size() - i - 1;
+            check(m.statistics().treeBinCount() == ((left > 6) ? 1 : 0),
+                    "bin of " + left + " nodes after removing its head");
+            checkSameMappings(m, expected, "after removing head " + k);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        arrayBinHeadRemoval();
+        entryHandleAcrossReseed();
+        bulkPutAllAcrossReseed();
+        readCompactWithChangedHashCodes();
+        readCompactWithMixedHashCodes();
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,510 @@
+package test;
+
+import JDK7.HashMap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static test.HashMapRegressionTest.check;
+
+/*
+JDK7.HashMap 的测试,与 java.util.HashMap 执行相同的操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+split() 扩容:每个新桶都必须是旧链表按原顺序取出的子序列,链表不能出现环
+多个线程同时扩容是错误的用法,可以丢失 Entry,但 get、遍历和之后的扩容都必须能结束
+只有一个线程写入、其他线程同时读时,链表仍然保持新的 Entry 在前的顺序
+
+种子:hashCode 相同的 String 形成长链表后,下次扩容换种子并按内容 hash,它们要分散到不同的桶
+换种子的扩容和使用新种子的 clone() 之后,所有的键都要找得到
+ */
+
+/**
+ * Checks of {@link JDK7.HashMap} against <tt>java.util.HashMap</tt>,
+ * reading its table through reflection where the order of a chain
+ * matters. Run {@link #main}; a failed check throws an
+ * <tt>AssertionError</tt>.
+ */
+public class JDK7HashMapTest
+{
+    static final Field TABLE = field(HashMap.class, "table");
+    static final Field LONG_CHAINS = field(HashMap.class, "longChains");
+    static final Field HASH_SEED = field(HashMap.class, "hashSeed");
+    static final Field ALT_HASHING = field(HashMap.class, "altHashing");
+    static final Field NEXT = field(entryClass(), "next");
+    static final Field HASH = field(entryClass(), "hash");
+    static final Field KEY = field(entryClass(), "key");
+    static final Method RESIZE;
+
+    static
+    {
+        try
+        {
+            RESIZE = HashMap.class.getDeclaredMethod("resize", int.class);
+            RESIZE.setAccessible(true);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static Class<?> entryClass()
+    {
+        try
+        {
+            return Class.forName("JDK7.HashMap$Entry");
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static Field field(Class<?> c, String name)
+    {
+        try
+        {
+            Field f = c.getDeclaredField(name);
+            f.setAccessible(true);
+            return f;
+        }
+        catch (NoSuchFieldException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static Object get(Field f, Object o)
+    {
+        try
+        {
+            return f.get(o);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static void set(Field f, Object o, Object value)
+    {
+        try
+        {
+            f.set(o, value);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static Object[] table(HashMap<?, ?> m)
+    {
+        return (Object[]) get(TABLE, m);
+    }
+
+    static void resize(HashMap<?, ?> m, int newCapacity)
+    {
+        try
+        {
+            RESIZE.invoke(m, newCapacity);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(HashMap<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+        check(m.equals(expected) && expected.equals(m), what + ": maps not equal");
+    }
+
+    /**
+     * Returns the entries of the table of m, bucket by bucket and each
+     * bucket in chain order, failing if a chain runs into a cycle.
+     */
+    static List<Object> chainOrder(HashMap<?, ?> m, String what)
+    {
+        List<Object> order = new ArrayList<Object>();
+        for (Object e : table(m))
+        {
+            Set<Object> chain = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (; e != null; e = get(NEXT, e))
+            {
+                check(chain.add(e), what + ": cyclic chain");
+                order.add(e);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Checks that every bucket of the table of m holds only entries that
+     * hash to it, with their keys in the order they had in before, which
+     * lists the entries of the table before a resize. Entries are matched
+     * by key, as a rehash copies them.
+     */
+    static void checkSplitOrder(HashMap<?, ?> m, List<Object> before, String what)
+    {
+        Map<Object, Integer> position = new java.util.HashMap<Object, Integer>();
+        for (int i = 0; i < before.size(); i++)
+            check(position.put(get(KEY, before.get(i)), i) == null, what + ": duplicated key");
+        Object[] tab = table(m);
+        int count = 0;
+        for (int i = 0; i < tab.length; i++)
+        {
+            int last = -1;
+            for (Object e = tab[i]; e != null; e = get(NEXT, e), ++count)
+            {
+                check(((Integer) get(HASH, e) & (tab.length - 1)) == i, what + ": entry in the wrong bucket " + i);
+                Integer p = position.get(get(KEY, e));
+                check(p != null && p > last, what + ": bucket " + i + " out of the old chain order");
+                last = p;
+            }
+        }
+        check(count == before.size(), what + ": " + count + " entries after the resize, " + before.size() + " before");
+    }
+
+    /**
+     * A split resize doubling the table keeps each new bucket in the
+     * order of the old chain it came from, as does a resize growing the
+     * table several times and one that rehashes with a new seed.
+     */
+    static void splitOrder()
+    {
+        Random r = new Random(25);
+        //负载因子 4,平均链长在 2 到 4 之间,lo/hi 两条链表都有多个 Entry
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>(16, 4f);
+        m.setSplitResize(true);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+        m.put(0, 0);
+        expected.put(0, 0);
+        for (int round = 0; round < 8; round++)
+        {
+            while (m.size() < table(m).length * 3)
+            {
+                int k = r.nextInt();
+                m.put(k, round);
+                expected.put(k, round);
+            }
+            //put 发现长链表时会让下次扩容换种子,这里只测不换种子的翻倍
+            set(LONG_CHAINS, m, false);
+            int seed = (Integer) get(HASH_SEED, m);
+            List<Object> before = chainOrder(m, "before doubling");
+            resize(m, table(m).length * 2);
+            check((Integer) get(HASH_SEED, m) == seed, "doubling changed the seed");
+            checkSplitOrder(m, before, "doubling to " + table(m).length);
+            checkSameMappings(m, expected, "after doubling to " + table(m).length);
+        }
+
+        //一次扩大 8 倍
+        List<Object> before = chainOrder(m, "before growing");
+        resize(m, table(m).length * 8);
+        checkSplitOrder(m, before, "growing to " + table(m).length);
+        checkSameMappings(m, expected, "after growing to " + table(m).length);
+
+        //换种子重新计算 hash,Entry 可能去任意新桶,仍然按原来的先后顺序,旧 Entry 不能被修改
+        int seed = (Integer) get(HASH_SEED, m);
+        set(LONG_CHAINS, m, true);
+        before = chainOrder(m, "before rehashing");
+        List<Object> links = new ArrayList<Object>(), hashes = new ArrayList<Object>();
+        for (Object e : before)
+        {
+            links.add(get(NEXT, e));
+            hashes.add(get(HASH, e));
+        }
+        resize(m, table(m).length * 2);
+        check((Integer) get(HASH_SEED, m) != seed, "rehash kept the seed");
+        for (int i = 0; i < before.size(); i++)
+            check(get(NEXT, before.get(i)) == links.get(i) && get(HASH, before.get(i)).equals(hashes.get(i)),
+                    "rehash modified an old entry");
+        checkSplitOrder(m, before, "rehashing to " + table(m).length);
+        checkSameMappings(m, expected, "after rehashing");
+
+        //随机操作,扩容都走 split()
+        HashMap<Integer, Integer> n = new HashMap<Integer, Integer>();
+        n.setSplitResize(true);
+        expected.clear();
+        for (int i = 0; i < 200000; i++)
+        {
+            Integer k = r.nextInt(50000);
+            if (r.nextInt(4) == 0)
+                check(Objects.equals(n.remove(k), expected.remove(k)), "remove " + k);
+            else
+                check(Objects.equals(n.put(k, i), expected.put(k, i)), "put " + k);
+        }
+        checkSameMappings(n, expected, "random operations");
+        HashMap<Integer, Integer> all = new HashMap<Integer, Integer>();
+        all.setSplitResize(true);
+        all.putAll(expected);
+        checkSameMappings(all, expected, "putAll");
+    }
+
+    /**
+     * Runs writers threads that each put perWriter keys into m, from
+     * writer * perWriter on, while another thread reads and iterates it,
+     * and returns once every thread has terminated.
+     */
+    static void race(HashMap<Integer, Integer> m, int writers, int perWriter, String what)
+            throws InterruptedException
+    {
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++)
+        {
+            int base = w * perWriter;
+            threads.add(new Thread(() ->
+            {
+                for (int i = base; i < base + perWriter; i++)
+                    m.put(i, i);
+            }));
+        }
+        Thread reader = new Thread(() ->
+        {
+            Random r = new Random();
+            try
+            {
+                while (m.size() < writers * perWriter / 2)
+                {
+                    Integer k = r.nextInt(writers * perWriter);
+                    Integer v = m.get(k);
+                    if (v != null && !v.equals(k))
+                        failure.compareAndSet(null, new AssertionError(what + ": get " + k + " returned " + v));
+                    try
+                    {
+                        for (Map.Entry<Integer, Integer> e : m.entrySet())
+                            if (e.getKey() < -1)
+                                break;
+                    }
+                    catch (ConcurrentModificationException e)
+                    {
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                //并发扩容可能让 get 和遍历读到不一致的下标,只要不死循环就行
+            }
+        });
+        threads.add(reader);
+        for (Thread t : threads)
+        {
+            //死循环的线程不能阻止 JVM 退出
+            t.setDaemon(true);
+            t.start();
+        }
+        for (Thread t : threads)
+        {
+            t.join(60000);
+            check(!t.isAlive(), what + ": " + (t == reader ? "reader" : "writer") + " did not terminate, at "
+                    + Arrays.toString(t.getStackTrace()));
+        }
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    /**
+     * Returns a map with split resizes that holds the mapping -1=-1 and
+     * so already has its seed.
+     */
+    static HashMap<Integer, Integer> splitMap()
+    {
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>();
+        m.setSplitResize(true);
+        m.put(-1, -1);
+        return m;
+    }
+
+    /**
+     * Checks that every chain of the table of m is acyclic and holds the
+     * keys put by each writer, which put perWriter increasing keys from
+     * writer * perWriter on, newest first, as head insertion and split
+     * resizes keep them.
+     */
+    static void checkWriterOrder(HashMap<?, ?> m, int perWriter, String what)
+    {
+        for (Object e : table(m))
+        {
+            Map<Integer, Integer> last = new java.util.HashMap<Integer, Integer>();
+            Set<Object> chain = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (; e != null; e = get(NEXT, e))
+            {
+                check(chain.add(e), what + ": cyclic chain");
+                int k = (Integer) get(KEY, e);
+                if (k < 0)
+                    continue;
+                Integer previous = last.put(k / perWriter, k);
+                check(previous == null || previous > k, what + ": " + previous + " before " + k + " in a chain");
+            }
+        }
+    }
+
+    /**
+     * Threads that misuse one map by putting and resizing concurrently
+     * while another thread reads it may lose entries, but every chain
+     * must stay acyclic, so that reads and iteration terminate. With a
+     * single writer racing only readers, each chain also keeps its keys
+     * newest first unless a rehash copied them.
+     */
+    static void concurrentSplit() throws InterruptedException
+    {
+        int writers = 4, perWriter = 50000;
+        for (int round = 0; round < 20; round++)
+        {
+            String what = "round " + round;
+            HashMap<Integer, Integer> m = splitMap();
+            race(m, writers, perWriter, what);
+            //最后一个线程设置的 table 中,每条链表都无环,并且取出的值都正确
+            chainOrder(m, what);
+            for (int k = 0; k < writers * perWriter; k++)
+            {
+                Integer v = m.get(k);
+                check(v == null || v.equals(k), what + ": get " + k + " returned " + v);
+            }
+            resize(m, table(m).length * 2);
+            chainOrder(m, what + ", resized");
+        }
+
+        //只有一个线程写入时 Entry 不会放错桶,没有换过种子时每条链表中的键都是新的在前
+        int ordered = 0;
+        for (int round = 0; round < 10; round++)
+        {
+            String what = "single writer, round " + round;
+            HashMap<Integer, Integer> m = splitMap();
+            int seed = (Integer) get(HASH_SEED, m);
+            race(m, 1, writers * perWriter, what);
+            check(m.size() == writers * perWriter + 1, what + ": lost entries");
+            if ((Integer) get(HASH_SEED, m) == seed)
+            {
+                ++ordered;
+                checkWriterOrder(m, writers * perWriter, what);
+            }
+        }
+        check(ordered > 0, "every single writer round rehashed");
+    }
+
+    /**
+     * Returns the largest number of the given keys that share one bucket
+     * of the table of m.
+     */
+    static int maxSharedBucket(HashMap<?, ?> m, Collection<?> keys)
+    {
+        Object[] tab = table(m);
+        int[] counts = new int[tab.length];
+        int max = 0;
+        for (Object e : tab)
+            for (; e != null; e = get(NEXT, e))
+                if (keys.contains(get(KEY, e)))
+                    max = Math.max(max, ++counts[(Integer) get(HASH, e) & (tab.length - 1)]);
+        return max;
+    }
+
+    /**
+     * Strings with equal hash codes built from "Aa" and "BB" share one
+     * chain until a put finds it too long; the next resize must pick a
+     * new seed and hash the strings by content, spreading them over
+     * separate chains. Every key stays reachable across that resize and
+     * in clones, which draw their own seed.
+     */
+    @SuppressWarnings("unchecked")
+    static void reseed()
+    {
+        Random r = new Random(24);
+        for (boolean split : new boolean[]{false, true})
+        {
+            String how = split ? "split resize" : "transfer resize";
+            List<String> colliding = HashMapRegressionTest.collidingStrings(64);
+            HashMap<String, Integer> m = new HashMap<String, Integer>(256);
+            m.setSplitResize(split);
+            java.util.HashMap<String, Integer> expected = new java.util.HashMap<String, Integer>();
+            m.put("first", 0);
+            expected.put("first", 0);
+            int seed = (Integer) get(HASH_SEED, m);
+            check(seed != 0 && !(Boolean) get(ALT_HASHING, m), how + ": no seed after the first put");
+            for (int i = 0; i < colliding.size(); i++)
+            {
+                m.put(colliding.get(i), i);
+                expected.put(colliding.get(i), i);
+            }
+            //容量 256、阈值 192,放入 64 个键时不扩容,它们都在同一条链表中
+            check(maxSharedBucket(m, colliding) == colliding.size(), how + ": colliding strings already spread");
+            check((Boolean) get(LONG_CHAINS, m), how + ": long chain not noticed");
+            checkSameMappings(m, expected, how + ": before the reseed");
+
+            //下一次扩容换种子
+            int length = table(m).length;
+            for (int i = 0; table(m).length == length; i++)
+            {
+                String k = "other" + i;
+                m.put(k, -i);
+                expected.put(k, -i);
+            }
+            check((Integer) get(HASH_SEED, m) != seed && (Boolean) get(ALT_HASHING, m),
+                    how + ": resize kept the seed");
+            check(!(Boolean) get(LONG_CHAINS, m), how + ": long chain still flagged");
+            check(maxSharedBucket(m, colliding) <= 6,
+                    how + ": " + maxSharedBucket(m, colliding) + " colliding strings share a bucket after the reseed");
+            checkSameMappings(m, expected, how + ": after the reseed");
+            for (String k : colliding)
+                check(!m.containsKey(k + "x") && m.get(k.substring(2)) == null, how + ": absent key found");
+
+            //随机操作,期间继续扩容
+            for (int i = 0; i < 20000; i++)
+            {
+                String k = (r.nextInt(4) == 0) ? colliding.get(r.nextInt(colliding.size())) : "k" + r.nextInt(5000);
+                if (r.nextInt(3) == 0)
+                    check(Objects.equals(m.remove(k), expected.remove(k)), how + ": remove " + k);
+                else
+                    check(Objects.equals(m.put(k, i), expected.put(k, i)), how + ": put " + k);
+            }
+            checkSameMappings(m, expected, how + ": random operations after the reseed");
+
+            //clone() 使用自己的种子,保留 altHashing
+            seed = (Integer) get(HASH_SEED, m);
+            HashMap<String, Integer> c = (HashMap<String, Integer>) m.clone();
+            check((Integer) get(HASH_SEED, c) != 0 && (Integer) get(HASH_SEED, c) != seed,
+                    how + ": clone shares the seed");
+            check((Boolean) get(ALT_HASHING, c), how + ": clone dropped content hashing");
+            checkSameMappings(c, expected, how + ": clone");
+            check(maxSharedBucket(c, colliding) <= 6, how + ": colliding strings share a bucket in the clone");
+            c.put("clone only", 1);
+            c.remove(colliding.get(0));
+            checkSameMappings(m, expected, how + ": original after changing the clone");
+
+            //空 map 的 clone() 在第一次 put 时生成种子
+            HashMap<String, Integer> empty = (HashMap<String, Integer>) new HashMap<String, Integer>().clone();
+            check((Integer) get(HASH_SEED, empty) == 0, how + ": empty clone has a seed");
+            empty.putAll(expected);
+            check((Integer) get(HASH_SEED, empty) != 0, how + ": no seed after putAll");
+            checkSameMappings(empty, expected, how + ": putAll into an empty clone");
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        reseed();
+        splitOrder();
+        concurrentSplit();
+        System.out.println("ok");
+    }
+}
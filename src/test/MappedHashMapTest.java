@@ -0,0 +1,249 @@
+package test;
+
+import JDK8.Codec;
+import JDK8.MappedHashMap;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+JDK8.MappedHashMap 的测试,与 java.util.HashMap 执行相同的随机操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+覆盖文件的生命周期:
+    关闭后重新打开:映射、size、garbage 都要和关闭前一样,中间经过多次扩容、替换、删除和 clear
+    扩容不修改旧桶能到达的记录:把文件头换回扩容前的内容,旧布局仍然是完整的映射,相当于扩容中途崩溃
+ */
+
+/**
+ * Tests for {@link JDK8.MappedHashMap}: maps closed and reopened after
+ * random operations must hold the same mappings as a
+ * <tt>java.util.HashMap</tt>, and resizing must leave the layout of the
+ * previous capacity intact until the header is switched. Run
+ * {@link #main}; a failed check throws an <tt>AssertionError</tt>.
+ */
+public class MappedHashMapTest
+{
+    static final int HEADER_SIZE = 64;
+
+    static final Method RESIZE;
+
+    static
+    {
+        try
+        {
+            RESIZE = MappedHashMap.class.getDeclaredMethod("resize");
+            RESIZE.setAccessible(true);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    static MappedHashMap<String, String> open(Path file) throws IOException
+    {
+        return MappedHashMap.open(file, Codec.utf8(), Codec.utf8());
+    }
+
+    static void resize(MappedHashMap<String, String> m)
+    {
+        try
+        {
+            RESIZE.invoke(m);
+        }
+        catch (IllegalAccessException | InvocationTargetException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    static byte[] readHeader(Path file) throws IOException
+    {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+            while (b.hasRemaining() && ch.read(b, b.position()) >= 0)
+                ;
+            return b.array();
+        }
+    }
+
+    static void writeHeader(Path file, byte[] header) throws IOException
+    {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            ByteBuffer b = ByteBuffer.wrap(header);
+            while (b.hasRemaining())
+                ch.write(b, b.position());
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static void checkSameMappings(MappedHashMap<String, String> m, Map<String, String> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<String, String> e : expected.entrySet())
+            check(Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<String, String> e : m.entrySet())
+        {
+            check(Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+    }
+
+    /**
+     * Runs count random operations over keys on m and on a reference map,
+     * comparing each result.
+     */
+    static void randomOps(MappedHashMap<String, String> m, Map<String, String> expected,
+                          int keys, int count, Random r, String what)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            String k = "key" + r.nextInt(keys);
+            String v = Integer.toString(r.nextInt(1000));
+            int op = r.nextInt(8);
+            switch (op)
+            {
+                case 0:
+                case 1:
+                case 2:
+                    check(Objects.equals(m.put(k, v), expected.put(k, v)), what + ": put " + k);
+                    break;
+                case 3:
+                case 4:
+                    check(Objects.equals(m.remove(k), expected.remove(k)), what + ": remove " + k);
+                    break;
+                case 5:
+                    check(m.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                    break;
+                default:
+                    check(Objects.equals(m.get(k), expected.get(k)), what + ": get " + k);
+            }
+            check(m.size() == expected.size(), what + ": size after op " + op + " on " + k);
+        }
+        checkSameMappings(m, expected, what);
+    }
+
+    /**
+     * Random operations over a growing key range, with the map closed and
+     * reopened after each round; a clear in the middle reuses the file.
+     */
+    static void reopen() throws IOException
+    {
+        Path file = Files.createTempFile("mapped", ".map");
+        try
+        {
+            Random r = new Random(11);
+            Map<String, String> expected = new java.util.HashMap<String, String>();
+            for (int round = 0; round < 12; round++)
+            {
+                String what = "round " + round;
+                MappedHashMap<String, String> m = open(file);
+                checkSameMappings(m, expected, what + ", reopened");
+                long garbage = m.garbage();
+                if (round == 6)
+                {
+                    m.clear();
+                    expected.clear();
+                }
+                //键的范围逐轮扩大,每轮都有扩容
+                randomOps(m, expected, 64 << round, 4000 << Math.min(round, 6), r, what);
+                check(m.garbage() >= ((round == 6) ? 0 : garbage), what + ": garbage shrank");
+                garbage = m.garbage();
+                m.close();
+
+                m = open(file);
+                checkSameMappings(m, expected, what + ", closed and reopened");
+                check(m.garbage() == garbage, what + ": garbage " + m.garbage() + ", expected " + garbage);
+                m.close();
+            }
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Restores the header written before one or more resizes: the bins
+     * and records it points to must still hold every mapping, as they
+     * would if the process had died before the resize published its
+     * header.
+     */
+    static void interruptedResize() throws IOException
+    {
+        Path file = Files.createTempFile("mapped", ".map");
+        try
+        {
+            Random r = new Random(5);
+            Map<String, String> expected = new java.util.HashMap<String, String>();
+            MappedHashMap<String, String> m = open(file);
+            for (int i = 0; i < 3000; i++)
+            {
+                String k = "key" + r.nextInt(5000);
+                String v = Integer.toString(i);
+                m.put(k, v);
+                expected.put(k, v);
+            }
+            m.close();
+            byte[] header = readHeader(file);
+
+            for (int resizes = 1; resizes <= 3; resizes++)
+            {
+                String what = resizes + " interrupted resizes";
+                m = open(file);
+                for (int i = 0; i < resizes; i++)
+                    resize(m);
+                checkSameMappings(m, expected, what + ", resized");
+                m.close();
+                check(!Arrays.equals(readHeader(file), header), what + ": header not switched");
+
+                writeHeader(file, header);
+                m = open(file);
+                checkSameMappings(m, expected, what + ", old header");
+                m.close();
+            }
+
+            //旧布局上继续写,之后关闭再打开
+            m = open(file);
+            randomOps(m, expected, 5000, 20000, r, "after interrupted resizes");
+            m.close();
+            m = open(file);
+            checkSameMappings(m, expected, "after interrupted resizes, reopened");
+            m.close();
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        reopen();
+        interruptedResize();
+        System.out.println("ok");
+    }
+}
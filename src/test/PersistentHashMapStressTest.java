@@ -0,0 +1,260 @@
+package test;
+
+import JDK8.PersistentHashMap;
+
+import java.util.*;
+
+/*
+JDK8.PersistentHashMap 的压力测试,与 java.util.HashMap 执行相同的随机操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+覆盖结构共享和 transient builder:
+    with/without 之后,之前得到的每个版本都必须保持不变(共享的节点不能被修改)
+    builder 原地修改自己新建的节点,但不能修改源 map 的节点,build() 之后也不能再修改已交出的 map
+    hash 只在高位不同的键走到很深的层次,32 位 hash 完全相同的键进入 CollisionNode
+    CHAMP 规范形式:内容相同的 map 结构相同,遍历顺序也相同(没有完全相同的 hash 时)
+ */
+
+/**
+ * Stress tests for {@link JDK8.PersistentHashMap}, checked operation by
+ * operation against <tt>java.util.HashMap</tt>: every earlier version
+ * must keep its mappings while later versions and builders change, and
+ * keys whose hashes share long prefixes or are equal must be found at
+ * every depth. Run {@link #main}; a failed check throws an
+ * <tt>AssertionError</tt>.
+ */
+public class PersistentHashMapStressTest
+{
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * A key with a chosen hash code.
+     */
+    static final class Key
+    {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(Map<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+        check(m.equals(expected) && expected.equals(m) && m.hashCode() == expected.hashCode(),
+                what + ": maps not equal");
+    }
+
+    /**
+     * Returns keys whose hashes are chosen by kind: 0 random, 1 distinct
+     * but equal in all low bits below those needed to tell count keys
+     * apart, so that every key sits at the bottom of the trie, 2 one of
+     * four values.
+     */
+    static Key[] keys(int count, int kind, Random r)
+    {
+        int bits = 32 - Integer.numberOfLeadingZeros(count);
+        Key[] keys = new Key[count];
+        for (int i = 0; i < count; i++)
+        {
+            int h;
+            if (kind == 0)
+                h = r.nextInt();
+            else if (kind == 1)
+            {
+                //HashMap.hash 之后的低位相同;h ^ (h >>> 16) 是它自己的逆
+                int s = (i << (32 - bits)) | (0x5A5A5A5A >>> bits);
+                h = s ^ (s >>> 16);
+            }
+            else
+                h = r.nextInt(4) * 0x01010101;
+            keys[i] = new Key(i, h);
+        }
+        return keys;
+    }
+
+    /**
+     * Applies count random with/without calls, keeping fifty versions
+     * with copies of their mappings, and checks at the end that each kept
+     * version still holds exactly those mappings.
+     */
+    static PersistentHashMap<Key, Integer> randomVersions(PersistentHashMap<Key, Integer> m,
+                                                         Map<Key, Integer> expected, Key[] keys,
+                                                         int count, Random r, String what)
+    {
+        List<PersistentHashMap<Key, Integer>> versions = new ArrayList<PersistentHashMap<Key, Integer>>();
+        List<Map<Key, Integer>> contents = new ArrayList<Map<Key, Integer>>();
+        for (int i = 0; i < count; i++)
+        {
+            Key k = (r.nextInt(64) == 0) ? null : keys[r.nextInt(keys.length)];
+            Integer v = (r.nextInt(64) == 0) ? null : r.nextInt(1000);
+            PersistentHashMap<Key, Integer> before = m;
+            int op = r.nextInt(10);
+            if (op < 5)
+            {
+                boolean same = expected.containsKey(k) && expected.get(k) == v;
+                m = m.with(k, v);
+                expected.put(k, v);
+                check(!same || m == before, what + ": with of identical mapping " + k + " made a copy");
+            }
+            else if (op < 8)
+            {
+                boolean absent = !expected.containsKey(k);
+                m = m.without(k);
+                expected.remove(k);
+                check(!absent || m == before, what + ": without of absent " + k + " made a copy");
+            }
+            else
+            {
+                check(m.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                check(Objects.equals(m.get(k), expected.get(k)), what + ": get " + k);
+            }
+            check(m.size() == expected.size(), what + ": size after op " + op + " on " + k);
+            if (i % (count / 50) == 0)
+            {
+                versions.add(m);
+                contents.add(new java.util.HashMap<Key, Integer>(expected));
+            }
+        }
+        checkSameMappings(m, expected, what);
+        for (int i = 0; i < versions.size(); i++)
+            checkSameMappings(versions.get(i), contents.get(i), what + ", version " + i);
+        return m;
+    }
+
+    /**
+     * Edits a builder of m at random, building a map now and then, and
+     * checks that neither m nor any built map changes afterwards.
+     */
+    static void randomBuilds(PersistentHashMap<Key, Integer> m, Map<Key, Integer> contents,
+                             Key[] keys, int count, Random r, String what)
+    {
+        Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>(contents);
+        PersistentHashMap.Builder<Key, Integer> b = m.toBuilder();
+        List<PersistentHashMap<Key, Integer>> built = new ArrayList<PersistentHashMap<Key, Integer>>();
+        List<Map<Key, Integer>> builtContents = new ArrayList<Map<Key, Integer>>();
+        for (int i = 0; i < count; i++)
+        {
+            Key k = (r.nextInt(64) == 0) ? null : keys[r.nextInt(keys.length)];
+            Integer v = r.nextInt(1000);
+            int op = r.nextInt(10);
+            if (op < 5)
+            {
+                b.put(k, v);
+                expected.put(k, v);
+            }
+            else if (op < 8)
+            {
+                b.remove(k);
+                expected.remove(k);
+            }
+            else
+            {
+                check(b.containsKey(k) == expected.containsKey(k), what + ": builder containsKey " + k);
+                check(Objects.equals(b.get(k), expected.get(k)), what + ": builder get " + k);
+            }
+            check(b.size() == expected.size(), what + ": builder size after op " + op + " on " + k);
+            if (r.nextInt(500) == 0)
+            {
+                built.add(b.build());
+                builtContents.add(new java.util.HashMap<Key, Integer>(expected));
+            }
+        }
+        PersistentHashMap<Key, Integer> last = b.build();
+        checkSameMappings(last, expected, what + ", built");
+        checkSameMappings(m, contents, what + ", source of the builder");
+        for (int i = 0; i < built.size(); i++)
+            checkSameMappings(built.get(i), builtContents.get(i), what + ", built " + i);
+    }
+
+    /**
+     * Random versions and builders over each kind of hash.
+     */
+    static void sharing()
+    {
+        Random r = new Random(23);
+        String[] kinds = {"random hashes", "hashes differing in the top bits", "equal hashes"};
+        for (int kind = 0; kind < kinds.length; kind++)
+        {
+            //完全相同的 hash 在 CollisionNode 中线性查找,键少一些
+            for (int count : (kind == 2) ? new int[]{40, 400} : new int[]{40, 1000, 20000})
+            {
+                String what = kinds[kind] + ", " + count + " keys";
+                Key[] keys = keys(count, kind, r);
+                Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+                PersistentHashMap<Key, Integer> m = randomVersions(PersistentHashMap.<Key, Integer>empty(),
+                        expected, keys, Math.max(count * 5, 20000), r, what);
+                randomBuilds(m, expected, keys, Math.max(count * 5, 20000), r, what);
+                checkSameMappings(PersistentHashMap.from(expected), expected, what + ", from");
+                checkSameMappings(m.withAll(expected), expected, what + ", withAll of itself");
+            }
+        }
+    }
+
+    /**
+     * Maps with the same contents reached by different histories have the
+     * same structure, and so iterate in the same order, as long as no two
+     * keys share a full hash.
+     */
+    static void canonicalForm()
+    {
+        Random r = new Random(31);
+        Key[] keys = keys(3000, 1, r);
+        Map<Key, Integer> expected = new java.util.HashMap<Key, Integer>();
+        PersistentHashMap<Key, Integer> m = PersistentHashMap.empty();
+        for (int round = 0; round < 20; round++)
+        {
+            m = randomVersions(m, expected, keys, 5000, r, "canonical form, round " + round);
+            PersistentHashMap<Key, Integer> fresh = PersistentHashMap.empty();
+            for (Map.Entry<Key, Integer> e : expected.entrySet())
+                fresh = fresh.with(e.getKey(), e.getValue());
+            check(new ArrayList<Key>(m.keySet()).equals(new ArrayList<Key>(fresh.keySet())),
+                    "canonical form, round " + round + ": iteration order differs from a fresh map");
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        sharing();
+        canonicalForm();
+        System.out.println("ok");
+    }
+}
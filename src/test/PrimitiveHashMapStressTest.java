@@ -0,0 +1,511 @@
+package test;
+
+import JDK8.IntIntHashMap;
+import JDK8.IntObjectHashMap;
+import JDK8.LongLongHashMap;
+import JDK8.LongObjectHashMap;
+
+import java.io.*;
+import java.util.*;
+
+/*
+IntIntHashMap、IntObjectHashMap、LongLongHashMap、LongObjectHashMap 的压力测试
+与 java.util.HashMap 执行相同的随机操作并比较结果,直接运行 main,失败时抛出 AssertionError
+
+四个 map 都是线性探测,删除时后移(backward-shift)同一簇中后面的元素,不留墓碑:
+    装载因子接近 1 时簇很长,删除要连续后移很多个元素
+    起始槽位相同或相邻的键,以及跨过表尾绕回表头的簇,removeAt 中区间 (i, j] 的两种情况都会走到
+    起始槽位按当前的 hash 反推出来:hash 中的乘法和 h ^ (h >>> 16) 都可逆
+    键 0 不在表中,单独存放
+ */
+
+/**
+ * Stress tests for the primitive-keyed maps {@link JDK8.IntIntHashMap},
+ * {@link JDK8.IntObjectHashMap}, {@link JDK8.LongLongHashMap} and
+ * {@link JDK8.LongObjectHashMap}, checked operation by operation against
+ * <tt>java.util.HashMap</tt>. Keys are chosen to form long clusters,
+ * including clusters that wrap around the end of the table, so that
+ * removals shift many entries back. Run {@link #main}; a failed check
+ * throws an <tt>AssertionError</tt>.
+ */
+public class PrimitiveHashMapStressTest
+{
+    static final int GOLDEN_INVERSE = inverse(0x9E3779B9);
+
+    static final long GOLDEN_INVERSE_64 = inverse(0x9E3779B97F4A7C15L);
+
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    static int inverse(int a)
+    {
+        int x = a;
+        for (int i = 0; i < 5; i++)
+            x *= 2 - a * x;
+        return x;
+    }
+
+    static long inverse(long a)
+    {
+        long x = a;
+        for (int i = 0; i < 6; i++)
+            x *= 2 - a * x;
+        return x;
+    }
+
+    /**
+     * Returns a key to which the hash of the maps, as currently defined,
+     * assigns the given value.
+     */
+    static long keyWithHash(int hash, boolean longKey)
+    {
+        //h ^ (h >>> 16) 是它自己的逆
+        int x = hash ^ (hash >>> 16);
+        if (longKey)
+            return (x & 0xFFFFFFFFL) * GOLDEN_INVERSE_64;
+        return x * GOLDEN_INVERSE;
+    }
+
+    /**
+     * The common operations of the four maps, with keys and values
+     * widened to long and absent values reported as 0.
+     */
+    abstract static class Table
+    {
+        final String name;
+
+        final boolean longKeys;
+
+        Table(String name, boolean longKeys)
+        {
+            this.name = name;
+            this.longKeys = longKeys;
+        }
+
+        abstract long put(long key, long value);
+
+        abstract long remove(long key);
+
+        abstract long get(long key);
+
+        abstract boolean containsKey(long key);
+
+        abstract int size();
+
+        abstract Map<Long, Long> contents();
+
+        abstract Table copy();
+
+        abstract Object map();
+    }
+
+    static long unbox(Number n)
+    {
+        return (n == null) ? 0 : n.longValue();
+    }
+
+    static Table intInt(IntIntHashMap m)
+    {
+        return new Table("IntIntHashMap", false)
+        {
+            long put(long key, long value)
+            {
+                return m.put((int) key, (int) value);
+            }
+
+            long remove(long key)
+            {
+                return m.remove((int) key);
+            }
+
+            long get(long key)
+            {
+                return m.getOrDefault((int) key, 0);
+            }
+
+            boolean containsKey(long key)
+            {
+                return m.containsKey((int) key);
+            }
+
+            int size()
+            {
+                return m.size();
+            }
+
+            Map<Long, Long> contents()
+            {
+                Map<Long, Long> c = new java.util.HashMap<Long, Long>();
+                m.forEach((k, v) -> c.put((long) k, (long) v));
+                return c;
+            }
+
+            Table copy()
+            {
+                return intInt(m.clone());
+            }
+
+            Object map()
+            {
+                return m;
+            }
+        };
+    }
+
+    static Table intObject(IntObjectHashMap<Long> m)
+    {
+        return new Table("IntObjectHashMap", false)
+        {
+            long put(long key, long value)
+            {
+                return unbox(m.put((int) key, value));
+            }
+
+            long remove(long key)
+            {
+                return unbox(m.remove((int) key));
+            }
+
+            long get(long key)
+            {
+                return unbox(m.get((int) key));
+            }
+
+            boolean containsKey(long key)
+            {
+                return m.containsKey((int) key);
+            }
+
+            int size()
+            {
+                return m.size();
+            }
+
+            Map<Long, Long> contents()
+            {
+                Map<Long, Long> c = new java.util.HashMap<Long, Long>();
+                m.forEach((k, v) -> c.put((long) k, v));
+                return c;
+            }
+
+            Table copy()
+            {
+                return intObject(m.clone());
+            }
+
+            Object map()
+            {
+                return m;
+            }
+        };
+    }
+
+    static Table longLong(LongLongHashMap m)
+    {
+        return new Table("LongLongHashMap", true)
+        {
+            long put(long key, long value)
+            {
+                return m.put(key, value);
+            }
+
+            long remove(long key)
+            {
+                return m.remove(key);
+            }
+
+            long get(long key)
+            {
+                return m.getOrDefault(key, 0);
+            }
+
+            boolean containsKey(long key)
+            {
+                return m.containsKey(key);
+            }
+
+            int size()
+            {
+                return m.size();
+            }
+
+            Map<Long, Long> contents()
+            {
+                Map<Long, Long> c = new java.util.HashMap<Long, Long>();
+                m.forEach((k, v) -> c.put(k, v));
+                return c;
+            }
+
+            Table copy()
+            {
+                return longLong(m.clone());
+            }
+
+            Object map()
+            {
+                return m;
+            }
+        };
+    }
+
+    static Table longObject(LongObjectHashMap<Long> m)
+    {
+        return new Table("LongObjectHashMap", true)
+        {
+            long put(long key, long value)
+            {
+                return unbox(m.put(key, value));
+            }
+
+            long remove(long key)
+            {
+                return unbox(m.remove(key));
+            }
+
+            long get(long key)
+            {
+                return unbox(m.get(key));
+            }
+
+            boolean containsKey(long key)
+            {
+                return m.containsKey(key);
+            }
+
+            int size()
+            {
+                return m.size();
+            }
+
+            Map<Long, Long> contents()
+            {
+                Map<Long, Long> c = new java.util.HashMap<Long, Long>();
+                m.forEach((k, v) -> c.put(k, v));
+                return c;
+            }
+
+            Table copy()
+            {
+                return longObject(m.clone());
+            }
+
+            Object map()
+            {
+                return m;
+            }
+        };
+    }
+
+    static Table[] tables(int initialCapacity, float loadFactor)
+    {
+        return new Table[]{
+                intInt(new IntIntHashMap(initialCapacity, loadFactor)),
+                intObject(new IntObjectHashMap<Long>(initialCapacity, loadFactor)),
+                longLong(new LongLongHashMap(initialCapacity, loadFactor)),
+                longObject(new LongObjectHashMap<Long>(initialCapacity, loadFactor))};
+    }
+
+    /**
+     * Compares every mapping of t with the reference, in both directions.
+     */
+    static void checkSameMappings(Table t, Map<Long, Long> expected, String what)
+    {
+        check(t.size() == expected.size(),
+                what + ": size " + t.size() + ", expected " + expected.size());
+        for (Map.Entry<Long, Long> e : expected.entrySet())
+            check(t.containsKey(e.getKey()) && t.get(e.getKey()) == e.getValue(),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        check(t.contents().equals(expected), what + ": forEach saw different mappings");
+    }
+
+    /**
+     * Runs count random operations over keys on t and on a reference map,
+     * comparing each result, and the whole maps every 4096 operations.
+     */
+    static void randomOps(Table t, Map<Long, Long> expected, long[] keys, int count, Random r, String what)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            long k = (r.nextInt(64) == 0) ? 0 : keys[r.nextInt(keys.length)];
+            long v = 1 + r.nextInt(1000);
+            int op = r.nextInt(10);
+            switch (op)
+            {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                    check(t.put(k, v) == unbox(expected.put(k, v)), what + ": put " + k);
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                    check(t.remove(k) == unbox(expected.remove(k)), what + ": remove " + k);
+                    break;
+                case 7:
+                    check(t.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                    break;
+                default:
+                    check(t.get(k) == unbox(expected.get(k)), what + ": get " + k);
+            }
+            check(t.size() == expected.size(), what + ": size after op " + op + " on " + k);
+            if ((i & 4095) == 4095)
+                checkSameMappings(t, expected, what);
+        }
+        checkSameMappings(t, expected, what);
+    }
+
+    /**
+     * Keys whose home slots in a table of the given capacity lie in a
+     * window of width slots starting at first, wrapping around the end.
+     */
+    static long[] clusteredKeys(int count, int capacity, int first, int width, boolean longKeys, Random r)
+    {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            int home = (first + r.nextInt(width)) & (capacity - 1);
+            int hash = (r.nextInt() & -capacity) | home;
+            keys[i] = keyWithHash(hash, longKeys);
+            if (keys[i] == 0)
+                --i;
+        }
+        return keys;
+    }
+
+    /**
+     * Random operations in presized tables at high load factors, with
+     * keys whose home slots crowd into a window at the end of the table,
+     * so that clusters wrap around it; the number of keys stays below the
+     * threshold, so the table keeps its capacity.
+     */
+    static void wrappingClusters()
+    {
+        Random r = new Random(37);
+        int capacity = 1 << 10;
+        for (float loadFactor : new float[]{0.75f, 0.9f, 0.99f})
+        {
+            for (int width : new int[]{1, 8, 64, 256})
+            {
+                int count = (int) (capacity * loadFactor) - 2;
+                for (Table t : tables(capacity, loadFactor))
+                {
+                    String what = t.name + ", load factor " + loadFactor + ", homes in " + width + " slots";
+                    long[] keys = clusteredKeys(count, capacity, capacity - width / 2, width, t.longKeys, r);
+                    Map<Long, Long> expected = new java.util.HashMap<Long, Long>();
+                    //先装满,再在满表上随机操作
+                    for (long k : keys)
+                        check(t.put(k, k) == unbox(expected.put(k, k)), what + ": fill " + k);
+                    checkSameMappings(t, expected, what + ", filled");
+                    randomOps(t, expected, keys, (width == 1) ? 20000 : 100000, r, what);
+                }
+            }
+        }
+    }
+
+    /**
+     * Random operations over random keys and over keys sharing their low
+     * hash bits, with the tables growing through many resizes.
+     */
+    static void growingTables()
+    {
+        Random r = new Random(41);
+        for (float loadFactor : new float[]{0.5f, 0.75f, 0.95f})
+        {
+            for (Table t : tables(0, loadFactor))
+            {
+                String what = t.name + ", load factor " + loadFactor + ", growing";
+                long[] keys = new long[1 << 15];
+                for (int i = 0; i < keys.length; i++)
+                {
+                    //一半随机,一半 hash 低 12 位相同,扩容前都在同一簇中
+                    int hash = (i % 2 == 0) ? r.nextInt() : (r.nextInt() << 12) | 0x5A5;
+                    keys[i] = t.longKeys ? ((i % 4 == 0) ? r.nextLong() : keyWithHash(hash, true)) :
+                            keyWithHash(hash, false);
+                }
+                randomOps(t, new java.util.HashMap<Long, Long>(), keys, 400000, r, what);
+            }
+        }
+    }
+
+    /**
+     * Clones and deserialized copies of clustered maps hold the same
+     * mappings, are equal to the original, and do not share its table.
+     */
+    static void copies()
+    {
+        Random r = new Random(43);
+        for (Table t : tables(1 << 8, 0.95f))
+        {
+            check(deserialize(t).size() == 0, t.name + ": empty map deserialized");
+            Map<Long, Long> expected = new java.util.HashMap<Long, Long>();
+            for (long k : clusteredKeys(200, 1 << 8, 250, 16, t.longKeys, r))
+            {
+                t.put(k, k + 7);
+                expected.put(k, k + 7);
+            }
+            t.put(0, 1);
+            expected.put(0L, 1L);
+
+            Table clone = t.copy();
+            Table read = deserialize(t);
+            checkSameMappings(clone, expected, t.name + ", clone");
+            check(clone.map().equals(t.map()) && clone.map().hashCode() == t.map().hashCode(),
+                    t.name + ": clone not equal");
+            checkSameMappings(read, expected, t.name + ", deserialized");
+            check(read.map().equals(t.map()) && read.map().hashCode() == t.map().hashCode(),
+                    t.name + ": deserialized copy not equal");
+
+            //在副本上删除会后移元素,原来的表不能受影响
+            long[] keys = new long[expected.size()];
+            int i = 0;
+            for (long k : expected.keySet())
+                keys[i++] = k;
+            randomOps(clone, new java.util.HashMap<Long, Long>(expected), keys, 5000, r, t.name + ", clone changed");
+            checkSameMappings(t, expected, t.name + ", original after the clone changed");
+        }
+    }
+
+    /**
+     * Returns a table over a serialized and deserialized copy of t's map.
+     */
+    @SuppressWarnings("unchecked")
+    static Table deserialize(Table t)
+    {
+        Object m;
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+            {
+                out.writeObject(t.map());
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+            {
+                m = in.readObject();
+            }
+        }
+        catch (IOException | ClassNotFoundException e)
+        {
+            throw new AssertionError(e);
+        }
+        if (m instanceof IntIntHashMap)
+            return intInt((IntIntHashMap) m);
+        if (m instanceof IntObjectHashMap)
+            return intObject((IntObjectHashMap<Long>) m);
+        if (m instanceof LongLongHashMap)
+            return longLong((LongLongHashMap) m);
+        return longObject((LongObjectHashMap<Long>) m);
+    }
+
+    public static void main(String[] args)
+    {
+        wrappingClusters();
+        growingTables();
+        copies();
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,260 @@
+package test;
+
+import JDK8.ReferenceHashMap;
+import JDK8.ReferenceHashMap.Strength;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/*
+JDK8.ReferenceHashMap 的压力测试,与 java.util.HashMap 执行相同的随机操作并比较结果
+直接运行 main,失败时抛出 AssertionError
+
+引用什么时候被清除由 GC 决定,所以测试自己控制键和值的可达性:
+    参照的 java.util.HashMap 就是测试持有的全部强引用,"丢弃"一个映射就是只从参照中删掉它
+    丢弃之后、GC 之前,这些键在 map 中是否还在是不确定的,随机操作暂时不碰它们
+    一批丢弃之后反复 System.gc(),直到测试自己的弱引用哨兵都被清除
+清除之后、从 queue 中清理掉之前:
+    同一个键重新 put 会建立新的映射(强引用键则是换上新的值),之后的清理按身份比较,不能把新映射删掉
+    遍历跳过已清除的映射,结果必须和参照完全一样;遍历中的 get 会触发清理,不能抛出 ConcurrentModificationException
+hash 只取少数几个值的键,长链表变成 ArrayBin,从 ArrayBin 中按身份删除
+SOFT 引用只在内存不足时清除,只做不丢弃的随机操作
+ */
+
+/**
+ * Stress tests for {@link JDK8.ReferenceHashMap}, checked operation by
+ * operation against a <tt>java.util.HashMap</tt> that holds the only
+ * strong references to the keys and values. Mappings are dropped from
+ * the reference in batches and the garbage collector is run until their
+ * keys or values are cleared; the map must then hold exactly the
+ * remaining mappings, including those put again for the same keys
+ * before the cleared ones were expunged. Run {@link #main}; a failed
+ * check throws an <tt>AssertionError</tt>.
+ */
+public class ReferenceHashMapStressTest
+{
+    /**
+     * How long to wait for the garbage collector to clear and enqueue
+     * the dropped references.
+     */
+    static final long TIMEOUT_MILLIS = 30000;
+
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * A key or value compared by id, with a chosen hash code. A new
+     * instance is created for every put, so that dropping it from the
+     * reference map leaves it unreachable.
+     */
+    static final class Obj
+    {
+        final int id;
+        final int hash;
+
+        Obj(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Obj && ((Obj) o).id == id;
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(Map<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        checkIteration(m, expected, null, what);
+        check(m.equals(expected) && expected.equals(m) && m.hashCode() == expected.hashCode(),
+                what + ": maps not equal");
+    }
+
+    /**
+     * Iterates over m, looking up each key of probes along the way, and
+     * checks that exactly the mappings of the reference are returned.
+     */
+    static <K, V> void checkIteration(Map<K, V> m, Map<K, V> expected, List<K> probes, String what)
+    {
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            if (probes != null)
+            {
+                //get 会不时清理 queue,遍历必须不受影响
+                for (K k : probes)
+                    m.get(k);
+            }
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+    }
+
+    /**
+     * Runs the collector until every sentinel is cleared.
+     */
+    static void awaitCleared(List<WeakReference<Object>> sentinels, String what)
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (Iterator<WeakReference<Object>> it = sentinels.iterator(); it.hasNext(); )
+        {
+            WeakReference<Object> s = it.next();
+            while (s.get() != null)
+            {
+                check(System.currentTimeMillis() < deadline, what + ": dropped objects not collected");
+                System.gc();
+                Thread.yield();
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * Waits until the cleared references have been enqueued and the map
+     * has expunged them, which size() does, or the timeout elapses.
+     */
+    static void awaitExpunged(ReferenceHashMap<Obj, Obj> m, Map<Obj, Obj> expected, String what)
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (m.size() > expected.size() && System.currentTimeMillis() < deadline)
+        {
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+        checkSameMappings(m, expected, what);
+    }
+
+    /**
+     * Random operations on keys with the given number of distinct hash
+     * codes, dropping a batch of mappings every round and, once they are
+     * cleared, putting some of their keys again before the map expunges
+     * them.
+     */
+    static void randomDrops(Strength keys, Strength values, int distinct, Random r)
+    {
+        String what = keys + " keys, " + values + " values, " + distinct + " distinct hash codes";
+        boolean drops = keys == Strength.WEAK || values == Strength.WEAK;
+        ReferenceHashMap<Obj, Obj> m = new ReferenceHashMap<Obj, Obj>(keys, values);
+        Map<Obj, Obj> expected = new java.util.HashMap<Obj, Obj>();
+        int range = 2000, nextValue = 0;
+        for (int round = 0; round < 30; round++)
+        {
+            String at = what + ", round " + round;
+            Set<Integer> dropped = new HashSet<Integer>();
+            List<WeakReference<Object>> sentinels = new ArrayList<WeakReference<Object>>();
+            for (int i = 0; i < 5000; i++)
+            {
+                int id = r.nextInt(range);
+                if (dropped.contains(id))
+                    continue;
+                Obj k = (id == 0) ? null : new Obj(id, id % distinct);
+                int op = r.nextInt(10);
+                switch (op)
+                {
+                    case 0:
+                    case 1:
+                    case 2:
+                    case 3:
+                    {
+                        Obj v = new Obj(++nextValue, nextValue);
+                        check(Objects.equals(m.put(k, v), expected.put(k, v)), at + ": put " + k);
+                        break;
+                    }
+                    case 4:
+                        check(Objects.equals(m.remove(k), expected.remove(k)), at + ": remove " + k);
+                        break;
+                    case 5:
+                        check(m.containsKey(k) == expected.containsKey(k), at + ": containsKey " + k);
+                        break;
+                    case 6:
+                        //丢弃:只从参照中删掉,键和值都不再可达(null 键总是强引用)
+                        if (drops && k != null && expected.containsKey(k))
+                        {
+                            Obj v = expected.get(k);
+                            for (Obj stored : expected.keySet())
+                            {
+                                if (k.equals(stored))
+                                {
+                                    sentinels.add(new WeakReference<Object>((keys == Strength.WEAK) ? stored : v));
+                                    break;
+                                }
+                            }
+                            expected.remove(k);
+                            dropped.add(id);
+                        }
+                        break;
+                    default:
+                        check(Objects.equals(m.get(k), expected.get(k)), at + ": get " + k);
+                }
+            }
+            if (!drops)
+            {
+                checkSameMappings(m, expected, at);
+                continue;
+            }
+            awaitCleared(sentinels, at);
+
+            //已清除、还没清理时同一个键重新放入,之后的清理不能把新映射删掉
+            List<Obj> probes = new ArrayList<Obj>();
+            for (int id : dropped)
+            {
+                Obj k = new Obj(id, id % distinct);
+                if (r.nextBoolean())
+                {
+                    Obj v = new Obj(++nextValue, nextValue);
+                    check(m.put(k, v) == null, at + ": put again " + k + " found the dropped mapping");
+                    expected.put(k, v);
+                }
+                else
+                    probes.add(k);
+            }
+
+            //遍历跳过已清除的映射,结果已经准确
+            checkIteration(m, expected, probes.subList(0, Math.min(probes.size(), 8)), at + ", cleared");
+            awaitExpunged(m, expected, at + ", expunged");
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Random r = new Random(61);
+        for (int distinct : new int[]{Integer.MAX_VALUE, 5})
+        {
+            randomDrops(Strength.WEAK, Strength.STRONG, distinct, r);
+            randomDrops(Strength.STRONG, Strength.WEAK, distinct, r);
+            randomDrops(Strength.WEAK, Strength.WEAK, distinct, r);
+            randomDrops(Strength.SOFT, Strength.SOFT, distinct, r);
+        }
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,396 @@
+package test;
+
+import JDK8.HashMap;
+import JDK8.SeqLockHashMap;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+JDK8.SeqLockHashMap 的压力测试
+直接运行 main,失败时抛出 AssertionError
+
+单线程:所有 Map 方法与 java.util.HashMap 执行相同的随机操作并比较结果
+一个写线程,多个读线程:写线程不停地增删、扩容、树化和退化,读线程用乐观读查找,检查每次读到的结果都是某个一致状态下的结果:
+    写线程从不修改的键,任何时候都要找得到,值也不变
+    会被增删的键,读到的值要么是 null,要么是这个键自己的某个值(值中编码了键的 id),不能读到别的键的值
+    写线程先后增大两个计数器 A 和 B,读线程先读 B 再读 A,A 不能小于 B;同一个读线程读到的 A 不能变小
+    size 不超出可能的范围
+底层 HashMap 通过反射换成收缩、渐进式扩容、ArrayBin 等配置,乐观读要经过 oldTable 和各种桶
+写锁被持有时拿不到乐观读的版本号,要读到写了一半的结构,得是读线程查找到一半时写线程改了表:
+    读线程比较键时不时停一下,让写线程在这期间扩容、收缩、拆分或树化它正在读的桶(单核机器上否则几乎碰不到这种交错)
+ */
+
+/**
+ * Stress tests for {@link JDK8.SeqLockHashMap}: every operation checked
+ * against <tt>java.util.HashMap</tt> on one thread, and optimistic reads
+ * checked for consistency while one writer keeps growing, shrinking and
+ * treeifying the table. Run {@link #main}; a failed check throws an
+ * <tt>AssertionError</tt>.
+ */
+public class SeqLockHashMapStressTest
+{
+    /**
+     * Keys the writer never changes.
+     */
+    static final int STABLE = 100;
+
+    /**
+     * Keys the writer adds and removes.
+     */
+    static final int CHURN = 3000;
+
+    static final Key COUNTER_A = new Key(-1, -1);
+
+    static final Key COUNTER_B = new Key(-2, -2);
+
+    static final Field MAP;
+
+    static
+    {
+        try
+        {
+            MAP = SeqLockHashMap.class.getDeclaredField("map");
+            MAP.setAccessible(true);
+        }
+        catch (NoSuchFieldException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * Counts the key comparisons of each reader thread, which pauses on
+     * every 16th; unset on other threads.
+     */
+    static final ThreadLocal<int[]> PAUSES = new ThreadLocal<int[]>();
+
+    /**
+     * A key with a chosen hash code, ordered by id so that tree bins can
+     * compare keys of equal hash. Readers pause now and then while
+     * comparing keys, so that the writer changes the bin they are in the
+     * middle of reading.
+     */
+    static final class Key implements Comparable<Key>
+    {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            int[] count = PAUSES.get();
+            if (count != null && (++count[0] & 15) == 0)
+                LockSupport.parkNanos(1000);
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        public int compareTo(Key k)
+        {
+            return Integer.compare(id, k.id);
+        }
+
+        public String toString()
+        {
+            return id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> HashMap<K, V> backingMap(SeqLockHashMap<K, V> m)
+    {
+        try
+        {
+            return (HashMap<K, V>) MAP.get(m);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a map whose backing map is configured by variant: 0 as
+     * constructed, 1 shrinking, 2 also resizing incrementally, 3 also
+     * with array bins.
+     */
+    static SeqLockHashMap<Key, Long> newMap(int variant)
+    {
+        SeqLockHashMap<Key, Long> m = new SeqLockHashMap<Key, Long>();
+        HashMap<Key, Long> b = backingMap(m);
+        if (variant >= 1)
+            b.setShrinkLoad(0.125f);
+        if (variant == 2)
+            b.setIncrementalResize(true);
+        else if (variant == 3)
+            b.setArrayBins(true);
+        return m;
+    }
+
+    static final String[] VARIANTS = {"default", "shrinking", "incremental resize and shrinking",
+            "array bins and shrinking"};
+
+    /**
+     * Returns the key with the given id: a quarter of the keys share one
+     * of eight hash codes, so that their bins become trees or arrays. The
+     * eight differ only in bits 8 to 10, so these bins split and merge as
+     * the table grows and shrinks.
+     */
+    static Key key(int id)
+    {
+        return new Key(id, (id % 4 == 0) ? (id % 32 / 4) << 8 : id * 0x9E3779B9);
+    }
+
+    /**
+     * Returns a value that records the id of its key.
+     */
+    static long value(int id, int seq)
+    {
+        return ((long) id << 32) | (seq & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Compares every mapping of m with the reference, in both directions.
+     */
+    static <K, V> void checkSameMappings(Map<K, V> m, Map<K, V> expected, String what)
+    {
+        check(m.size() == expected.size(),
+                what + ": size " + m.size() + ", expected " + expected.size());
+        for (Map.Entry<K, V> e : expected.entrySet())
+            check(m.containsKey(e.getKey()) && Objects.equals(m.get(e.getKey()), e.getValue()),
+                    what + ": key " + e.getKey() + " unreachable or wrong");
+        int iterated = 0;
+        for (Map.Entry<K, V> e : m.entrySet())
+        {
+            check(expected.containsKey(e.getKey()) && Objects.equals(expected.get(e.getKey()), e.getValue()),
+                    what + ": unexpected mapping " + e);
+            ++iterated;
+        }
+        check(iterated == expected.size(), what + ": iterated " + iterated + " mappings");
+        check(m.equals(expected) && expected.equals(m), what + ": maps not equal");
+    }
+
+    /**
+     * Every Map operation, on one thread, against the reference.
+     */
+    static void sequentialOps()
+    {
+        Random r = new Random(67);
+        for (int variant = 0; variant < VARIANTS.length; variant++)
+        {
+            String what = VARIANTS[variant] + ", one thread";
+            SeqLockHashMap<Key, Long> m = newMap(variant);
+            Map<Key, Long> expected = new java.util.HashMap<Key, Long>();
+            for (int i = 0; i < 300000; i++)
+            {
+                int id = r.nextInt(CHURN);
+                Key k = (id == 0) ? null : key(id);
+                Long v = (r.nextInt(32) == 0) ? null : value(id, i);
+                int op = r.nextInt(16);
+                switch (op)
+                {
+                    case 0:
+                    case 1:
+                    case 2:
+                        check(Objects.equals(m.put(k, v), expected.put(k, v)), what + ": put " + k);
+                        break;
+                    case 3:
+                        check(Objects.equals(m.putIfAbsent(k, v), expected.putIfAbsent(k, v)),
+                                what + ": putIfAbsent " + k);
+                        break;
+                    case 4:
+                    case 5:
+                        check(Objects.equals(m.remove(k), expected.remove(k)), what + ": remove " + k);
+                        break;
+                    case 6:
+                        check(m.remove(k, v) == expected.remove(k, v), what + ": remove " + k + "=" + v);
+                        break;
+                    case 7:
+                        check(Objects.equals(m.replace(k, v), expected.replace(k, v)), what + ": replace " + k);
+                        break;
+                    case 8:
+                    {
+                        Long old = expected.get(k);
+                        check(m.replace(k, old, v) == expected.replace(k, old, v), what + ": replace " + k + "=" + old);
+                        break;
+                    }
+                    case 9:
+                        if (v != null)
+                            check(Objects.equals(m.merge(k, v, Long::sum), expected.merge(k, v, Long::sum)),
+                                    what + ": merge " + k);
+                        break;
+                    case 10:
+                        check(Objects.equals(m.computeIfAbsent(k, x -> v), expected.computeIfAbsent(k, x -> v)),
+                                what + ": computeIfAbsent " + k);
+                        break;
+                    case 11:
+                        check(Objects.equals(m.compute(k, (x, old) -> (old == null) ? v : null),
+                                expected.compute(k, (x, old) -> (old == null) ? v : null)), what + ": compute " + k);
+                        break;
+                    case 12:
+                        check(m.containsKey(k) == expected.containsKey(k), what + ": containsKey " + k);
+                        break;
+                    case 13:
+                        check(Objects.equals(m.getOrDefault(k, -1L), expected.getOrDefault(k, -1L)),
+                                what + ": getOrDefault " + k);
+                        break;
+                    default:
+                        check(Objects.equals(m.get(k), expected.get(k)), what + ": get " + k);
+                }
+                check(m.size() == expected.size(), what + ": size after op " + op + " on " + k);
+                if ((i & 16383) == 16383)
+                    checkSameMappings(m, expected, what);
+            }
+            checkSameMappings(m, expected, what);
+            m.replaceAll((k, v) -> (v == null) ? null : v + 1);
+            expected.replaceAll((k, v) -> (v == null) ? null : v + 1);
+            checkSameMappings(m, expected, what + ", replaceAll");
+        }
+    }
+
+    /**
+     * Reads on a reader thread until done is set, checking that each one
+     * is consistent with some state of the map.
+     */
+    static void read(SeqLockHashMap<Key, Long> m, long seed, AtomicBoolean done, String what)
+    {
+        PAUSES.set(new int[1]);
+        Random r = new Random(seed);
+        long lastA = -1;
+        while (!done.get())
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                int id = r.nextInt(STABLE + CHURN);
+                Key k = key(id);
+                if (id < STABLE)
+                {
+                    check(Objects.equals(m.get(k), value(id, 0)), what + ": stable key " + k + " read " + m.get(k));
+                    check(m.containsKey(k), what + ": stable key " + k + " missing");
+                }
+                else
+                {
+                    Long v = m.getOrDefault(k, null);
+                    check(v == null || (v >>> 32) == id, what + ": key " + k + " read the value of key " +
+                            ((v == null) ? 0 : v >>> 32));
+                }
+            }
+            //写线程先增大 A 再增大 B
+            long b = m.get(COUNTER_B);
+            long a = m.get(COUNTER_A);
+            check(a >= b, what + ": read B = " + b + " before A = " + a);
+            check(a >= lastA, what + ": A went back from " + lastA + " to " + a);
+            lastA = a;
+            int size = m.size();
+            check(size >= STABLE + 2 && size <= STABLE + CHURN + 2, what + ": size " + size);
+        }
+    }
+
+    /**
+     * One writer adds and removes keys in waves, so that the table grows,
+     * shrinks and changes its bins, while readers read optimistically.
+     */
+    static void concurrentReaders() throws InterruptedException
+    {
+        int readers = 3;
+        for (int variant = 0; variant < VARIANTS.length; variant++)
+        {
+            String what = VARIANTS[variant] + ", " + readers + " readers";
+            SeqLockHashMap<Key, Long> m = newMap(variant);
+            for (int id = 0; id < STABLE; id++)
+                m.put(key(id), value(id, 0));
+            m.put(COUNTER_A, 0L);
+            m.put(COUNTER_B, 0L);
+
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < readers; t++)
+            {
+                long seed = t;
+                Thread reader = new Thread(() ->
+                {
+                    try
+                    {
+                        read(m, seed, done, what);
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                reader.setDaemon(true);
+                threads.add(reader);
+                reader.start();
+            }
+
+            Random r = new Random(71);
+            try
+            {
+                for (int seq = 1; seq <= 400000 && failure.get() == null; seq++)
+                {
+                    //一段以增加为主,一段几乎只删除,表反复扩容和收缩,碰撞的桶随之拆分、合并和重新树化
+                    boolean growing = (seq / 20000) % 2 == 0;
+                    int id = STABLE + r.nextInt(CHURN);
+                    Key k = key(id);
+                    long v = value(id, seq);
+                    int op = r.nextInt(20);
+                    if (op < (growing ? 12 : 0))
+                        m.put(k, v);
+                    else if (op < (growing ? 16 : 18))
+                        m.remove(k);
+                    else if (op < 19)
+                        m.merge(k, v, (x, y) -> y);
+                    else
+                        m.computeIfPresent(k, (x, old) -> v);
+                    if (seq % 16 == 0)
+                    {
+                        m.put(COUNTER_A, (long) seq);
+                        m.put(COUNTER_B, (long) seq);
+                    }
+                    if (seq % 4096 == 0)
+                        Thread.yield();
+                }
+            }
+            finally
+            {
+                done.set(true);
+            }
+            for (Thread t : threads)
+            {
+                t.join(60000);
+                check(!t.isAlive(), what + ": reader did not finish");
+            }
+            if (failure.get() != null)
+                throw new AssertionError(failure.get());
+            for (int id = 0; id < STABLE; id++)
+                check(Objects.equals(m.get(key(id)), value(id, 0)), what + ": stable key " + id + " after the writer");
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        sequentialOps();
+        concurrentReaders();
+        System.out.println("ok");
+    }
+}